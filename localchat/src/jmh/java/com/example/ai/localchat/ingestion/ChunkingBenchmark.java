@@ -0,0 +1,69 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.support.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU-bound ingestion steps that run for every file: splitting a document into token-sized
+ * chunks, and enriching each chunk with the metadata retrieval ranks on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+	private static final int CHUNKS = 1000;
+
+	private final ChunkMetadataEnricher enricher = new ChunkMetadataEnricher();
+
+	private List<Document> chunks;
+
+	private Document markdownFile;
+
+	@Setup
+	public void setUp() {
+		chunks = BenchmarkCorpus.chunks(CHUNKS, 7).stream()
+				.map(chunk -> new Document(chunk.getText()))
+				.toList();
+		markdownFile = new Document(BenchmarkCorpus.markdown(100_000, 11));
+	}
+
+	/**
+	 * Time per chunk.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNKS)
+	public void enrichMetadata(Blackhole blackhole) {
+		for (Document chunk : chunks) {
+			blackhole.consume(enricher.enrichMetadata(chunk));
+		}
+	}
+
+	/**
+	 * Time to split a 100 KB markdown file with the ingestion settings.
+	 */
+	@Benchmark
+	public List<Document> splitMarkdownFile() {
+		return TokenTextSplitter.builder().withChunkSize(400).withKeepSeparator(true).build()
+				.apply(List.of(markdownFile));
+	}
+}
@@ -0,0 +1,59 @@
+package com.example.ai.localchat.rerank;
+
+import com.example.ai.localchat.support.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reranking 20 candidates: the feature model, and the parsing side of the LLM reranker (the
+ * generation itself is measured by the rerank stage stats at runtime).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RerankBenchmark {
+
+	private final FeatureReranker featureReranker = new FeatureReranker(
+			new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1));
+
+	private List<Document> candidates;
+
+	@Setup
+	public void setUp() {
+		candidates = BenchmarkCorpus.chunks(20, 13).stream()
+				.map(chunk -> {
+					Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+					metadata.put(DocumentMetadata.DISTANCE.value(), Math.abs(chunk.getId().hashCode() % 40) / 100.0);
+					return chunk.mutate().metadata(metadata).build();
+				})
+				.toList();
+	}
+
+	@Benchmark
+	public List<Document> featureRerank() {
+		return featureReranker.rank("how does HnswVectorStore handle the efSearch threshold", candidates);
+	}
+
+	@Benchmark
+	public List<Document> llmRankingParse() {
+		return LlmReranker.reorder(candidates, "3, 0, 17, 4, 12, 1, 9, 2, 19, 5");
+	}
+}
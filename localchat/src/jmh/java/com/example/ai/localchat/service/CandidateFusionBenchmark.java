@@ -0,0 +1,43 @@
+package com.example.ai.localchat.service;
+
+import com.example.ai.localchat.support.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The step between search and rerank in {@link HybridRetrievalService}: fusing three result lists.
+ * Metadata filtering happens inside the searches, see {@code HnswVectorStoreBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CandidateFusionBenchmark {
+
+	private List<List<Document>> rankings;
+
+	@Setup
+	public void setUp() {
+		List<Document> chunks = BenchmarkCorpus.chunks(60, 9);
+		rankings = List.of(chunks.subList(0, 20), chunks.subList(10, 30), chunks.subList(25, 45));
+	}
+
+	@Benchmark
+	public List<Document> reciprocalRankFusion() {
+		return HybridRetrievalService.reciprocalRankFusion(rankings, 60);
+	}
+}
@@ -0,0 +1,77 @@
+package com.example.ai.localchat.service;
+
+import com.example.ai.localchat.rerank.FeatureReranker;
+import com.example.ai.localchat.rerank.RerankProperties;
+import com.example.ai.localchat.support.BenchmarkCorpus;
+import com.example.ai.localchat.support.FixedChatModel;
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HybridRetrievalService} end to end over a 10k-chunk store, with a hashing embedding model
+ * and a chat model that answers instantly, so the numbers are the retrieval overhead on top of
+ * Ollama.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HybridRetrievalBenchmark {
+
+	@Param({ "AUTO", "ALWAYS" })
+	public HybridRetrievalProperties.ExpansionMode expansion;
+
+	@Param({ "FIXED", "ADAPTIVE" })
+	public SimilarityThreshold.Mode threshold;
+
+	private HybridRetrievalService service;
+
+	private List<String> queries;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		HnswVectorStore vectorStore = HnswVectorStore.builder(new HashingEmbeddingModel(256)).build();
+		vectorStore.add(BenchmarkCorpus.chunks(10_000, 3));
+		ChatClient chatClient = ChatClient.create(new FixedChatModel("vector store, index, HnswVectorStore"));
+		service = new HybridRetrievalService(vectorStore, chatClient,
+				new HybridRetrievalProperties(true, expansion, Duration.ofSeconds(5), Duration.ofSeconds(2),
+						Duration.ofSeconds(8), Duration.ofSeconds(12), 60,
+						new HybridRetrievalProperties.Threshold(threshold, 0.1, 1.0, 200, 2000)),
+				new FeatureReranker(new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1)));
+		queries = BenchmarkCorpus.queries(256, 5);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.shutdown();
+	}
+
+	@Benchmark
+	public List<Document> hybridSearch() {
+		next = (next + 1) & 255;
+		return service.hybridSearch(queries.get(next));
+	}
+}
@@ -0,0 +1,86 @@
+package com.example.ai.localchat.support;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic technical-documentation text for benchmarks: prose mixed with identifiers, config
+ * keys, error codes and fenced code, roughly the shape of the knowledge base chunks.
+ */
+public final class BenchmarkCorpus {
+
+	private static final String[] WORDS = { "vector", "store", "index", "chunk", "embedding", "query", "retrieval",
+			"memory", "conversation", "model", "latency", "cache", "graph", "search", "token", "prompt", "document",
+			"ingestion", "metadata", "score", "rerank", "similarity", "threshold", "batch", "timeout", "server" };
+
+	private static final String[] IDENTIFIERS = { "HnswVectorStore", "HybridRetrievalService", "TokenTextSplitter",
+			"ChatMemoryRepository", "spring.ai.ollama.base-url", "localchat.retrieval.deadline", "ERR_CONN_REFUSED",
+			"efSearch", "similarity_threshold", "OllamaEmbeddingModel", "MAX_BATCH_TOKENS", "chunkSize" };
+
+	private BenchmarkCorpus() {
+	}
+
+	public static String chunkText(Random random) {
+		StringBuilder text = new StringBuilder();
+		int sentences = 3 + random.nextInt(6);
+		for (int s = 0; s < sentences; s++) {
+			int words = 6 + random.nextInt(14);
+			for (int w = 0; w < words; w++) {
+				text.append(random.nextInt(8) == 0 ? IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]
+						: WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			text.setCharAt(text.length() - 1, '.');
+			text.append(' ');
+		}
+		if (random.nextInt(3) == 0) {
+			text.append("\n```java\nvar store = ").append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)])
+					.append(".builder(model).build();\nstore.similaritySearch(query);\n```\n");
+		}
+		return text.toString();
+	}
+
+	public static List<Document> chunks(int count, long seed) {
+		Random random = new Random(seed);
+		List<Document> documents = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			documents.add(Document.builder()
+					.id("chunk-" + i)
+					.text(chunkText(random))
+					.metadata(Map.of("source", "doc-" + (i / 20) + ".md", "has_code", random.nextBoolean(),
+							"complexity_score", random.nextDouble() * 3, "technical_terms",
+							IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]))
+					.build());
+		}
+		return documents;
+	}
+
+	/**
+	 * A markdown document of about {@code chars} characters, with headings every few paragraphs.
+	 */
+	public static String markdown(int chars, long seed) {
+		Random random = new Random(seed);
+		StringBuilder markdown = new StringBuilder(chars + 1024);
+		int section = 0;
+		while (markdown.length() < chars) {
+			markdown.append("## Section ").append(++section).append("\n\n");
+			for (int p = 0; p < 3; p++) {
+				markdown.append(chunkText(random)).append("\n\n");
+			}
+		}
+		return markdown.toString();
+	}
+
+	public static List<String> queries(int count, long seed) {
+		Random random = new Random(seed);
+		List<String> queries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			queries.add("how does " + IDENTIFIERS[random.nextInt(IDENTIFIERS.length)] + " handle "
+					+ WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]);
+		}
+		return queries;
+	}
+}
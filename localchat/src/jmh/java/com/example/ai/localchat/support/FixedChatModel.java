@@ -0,0 +1,33 @@
+package com.example.ai.localchat.support;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * Chat model that answers every prompt immediately with the same text, so benchmarks measure
+ * the code around the model rather than the model.
+ */
+public class FixedChatModel implements ChatModel {
+
+	private final String answer;
+
+	public FixedChatModel(String answer) {
+		this.answer = answer;
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(answer))));
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return Flux.just(call(prompt));
+	}
+}
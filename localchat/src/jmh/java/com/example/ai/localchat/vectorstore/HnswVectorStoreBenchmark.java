@@ -0,0 +1,114 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.example.ai.localchat.support.BenchmarkCorpus;
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Similarity, metadata-filtered and keyword search latency at knowledge-base sizes we expect to
+ * reach. Building the larger graphs takes minutes, so each store is built once and saved under
+ * {@code build/jmh-fixtures}; later runs map the saved file like the application does on startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class HnswVectorStoreBenchmark {
+
+	private static final int DIMENSIONS = 256;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int chunks;
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+
+	private HnswVectorStore vectorStore;
+
+	private List<String> queries;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		vectorStore = HnswVectorStore.builder(embeddingModel).efConstruction(100).build();
+		Path fixture = Path.of("build", "jmh-fixtures", "hnsw-" + chunks + "-" + DIMENSIONS + ".bin");
+		if (Files.exists(fixture)) {
+			vectorStore.load(fixture);
+		}
+		else {
+			int batch = 10_000;
+			for (int start = 0; start < chunks; start += batch) {
+				List<Document> documents = BenchmarkCorpus.chunks(Math.min(batch, chunks - start), start);
+				List<Document> renamed = new ArrayList<>(documents.size());
+				List<float[]> embeddings = new ArrayList<>(documents.size());
+				for (int i = 0; i < documents.size(); i++) {
+					Document document = documents.get(i);
+					renamed.add(document.mutate().id("chunk-" + (start + i)).build());
+					embeddings.add(embeddingModel.vector(document.getText()));
+				}
+				vectorStore.addEmbedded(renamed, embeddings);
+			}
+			vectorStore.save(fixture);
+		}
+		queries = BenchmarkCorpus.queries(256, 42);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		vectorStore.clear();
+	}
+
+	private String nextQuery() {
+		next = (next + 1) & 255;
+		return queries.get(next);
+	}
+
+	@Benchmark
+	public List<Document> similaritySearch() {
+		return vectorStore.similaritySearch(SearchRequest.builder().query(nextQuery()).topK(20).build());
+	}
+
+	// about half of the chunks match, searched as a filtered graph walk
+	@Benchmark
+	public List<Document> filteredSearch() {
+		return vectorStore.similaritySearch(
+				SearchRequest.builder().query(nextQuery()).topK(20).filterExpression("has_code == true").build());
+	}
+
+	// the 20 chunks of one source match, scanned exactly
+	@Benchmark
+	public List<Document> selectiveFilteredSearch() {
+		return vectorStore.similaritySearch(SearchRequest.builder()
+			.query(nextQuery())
+			.topK(20)
+			.filterExpression("source == 'doc-7.md'")
+			.build());
+	}
+
+	@Benchmark
+	public List<Document> lexicalSearch() {
+		return vectorStore.lexicalSearch(nextQuery(), 20, null);
+	}
+}
@@ -0,0 +1,32 @@
+package com.example.ai.localchat;
+
+import com.example.ai.localchat.context.ContextAssembler;
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import com.example.ai.localchat.service.RetrievalStageStats;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answer of the auto-rag endpoint with the documents it was generated from, the tokens packing them
+ * into the prompt saved and how long each stage of the request took, retrieval stages first and
+ * {@code generation} last.
+ */
+public record AutoRagResponse(String answer, List<RetrievedDocument> documents, ContextAssembler.ContextUsage context,
+                              Map<String, RetrievalStageStats.StageSnapshot> stages) {
+
+    private static final int PREVIEW_LENGTH = 200;
+
+    /**
+     * @param score cosine similarity to the question, or BM25 for a document only keyword search found
+     */
+    public record RetrievedDocument(String id, Object source, Double score, String preview) {
+
+        public static RetrievedDocument of(Document document) {
+            String text = document.getText() == null ? "" : document.getText();
+            return new RetrievedDocument(document.getId(), document.getMetadata().get(IngestionPipeline.SOURCE_METADATA), document.getScore(),
+                    text.substring(0, Math.min(PREVIEW_LENGTH, text.length())));
+        }
+    }
+}
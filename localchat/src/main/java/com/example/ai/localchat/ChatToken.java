@@ -0,0 +1,8 @@
+package com.example.ai.localchat;
+
+/**
+ * Data of a streamed chat event. Sent as JSON so leading spaces and newlines inside a token
+ * survive the SSE framing.
+ */
+public record ChatToken(String text) {
+}
@@ -0,0 +1,263 @@
+package com.example.ai.localchat.advisors;
+
+import com.example.ai.localchat.vectorstore.HnswIndex;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Answers a question from a previous answer when the question is semantically close enough and
+ * the prompt was built from the same system prompt, the same retrieved chunks and the same
+ * conversation history before the question. It runs after the
+ * {@link RetrievalAugmentationAdvisor} (order 0), so a change to the knowledge base that changes
+ * what is retrieved is never answered from the cache. Entries expire after a TTL, the cache is
+ * bounded in size, and {@link #invalidateChunks} drops answers built from re-ingested chunks.
+ * <p>
+ * The question is read from the {@value #QUESTION} advisor param, falling back to the user
+ * message, which the RAG advisor may already have augmented with the retrieved context.
+ */
+public class SemanticCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    public static final String QUESTION = "question";
+    public static final String CACHE_HIT = "semantic_cache_hit";
+    public static final int DEFAULT_ORDER = 100;
+
+    private final EmbeddingModel embeddingModel;
+    private final double similarityThreshold;
+    private final Cache<Long, CachedAnswer> answers;
+    // entry ids per prompt context, so a lookup only compares questions asked against the same chunks
+    private final Map<String, Set<Long>> contexts = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, double similarityThreshold, Duration ttl,
+                                long maximumSize) {
+        this.embeddingModel = embeddingModel;
+        this.similarityThreshold = similarityThreshold;
+        this.answers = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .executor(Runnable::run)
+                .<Long, CachedAnswer>removalListener((id, answer, cause) -> {
+                    if (answer != null) {
+                        contexts.computeIfPresent(answer.context(), (context, ids) -> {
+                            ids.remove(id);
+                            return ids.isEmpty() ? null : ids;
+                        });
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        Lookup lookup = lookup(request);
+        if (lookup.hit() != null) {
+            return cachedResponse(request, lookup.hit());
+        }
+        long start = System.nanoTime();
+        ChatClientResponse response = chain.nextCall(request);
+        store(lookup, response, System.nanoTime() - start);
+        return response;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        // embedding the question blocks, keep it off the event loop
+        return Mono.fromCallable(() -> lookup(request))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(lookup -> {
+                    if (lookup.hit() != null) {
+                        return Flux.just(cachedResponse(request, lookup.hit()));
+                    }
+                    long start = System.nanoTime();
+                    return new ChatClientMessageAggregator().aggregateChatClientResponse(chain.nextStream(request),
+                            response -> store(lookup, response, System.nanoTime() - start));
+                });
+    }
+
+    @Override
+    public String getName() {
+        return SemanticCacheAdvisor.class.getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return DEFAULT_ORDER;
+    }
+
+    /**
+     * Drops every answer whose prompt included one of the given chunks.
+     */
+    public void invalidateChunks(Collection<String> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return;
+        }
+        Set<String> stale = Set.copyOf(chunkIds);
+        answers.asMap().values().removeIf(answer -> answer.chunkIds().stream().anyMatch(stale::contains));
+    }
+
+    public void invalidateAll() {
+        answers.invalidateAll();
+    }
+
+    public SemanticCacheStats stats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        return new SemanticCacheStats(hitCount, missCount,
+                hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount),
+                answers.estimatedSize(), savedNanos.sum() / 1_000_000);
+    }
+
+    private Lookup lookup(ChatClientRequest request) {
+        Set<String> chunkIds = retrievedChunkIds(request);
+        String context = request.prompt().getSystemMessage().getText() + "\n"
+                + chunkIds.stream().sorted().collect(Collectors.joining(",")) + "\n"
+                + historyHash(request.prompt().getInstructions());
+        float[] question = HnswIndex.normalize(embeddingModel.embed(question(request)));
+        CachedAnswer best = null;
+        float bestScore = (float) similarityThreshold;
+        for (Long id : contexts.getOrDefault(context, Set.of())) {
+            CachedAnswer answer = answers.getIfPresent(id);
+            if (answer == null) {
+                continue;
+            }
+            float score = HnswIndex.dot(question, answer.question());
+            if (score >= bestScore) {
+                best = answer;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            hits.increment();
+            savedNanos.add(best.generationNanos());
+        } else {
+            misses.increment();
+        }
+        return new Lookup(context, question, chunkIds, best);
+    }
+
+    private void store(Lookup lookup, ChatClientResponse response, long generationNanos) {
+        ChatResponse chatResponse = response.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null) {
+            return;
+        }
+        String text = chatResponse.getResult().getOutput().getText();
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        long id = nextId.incrementAndGet();
+        // added inside compute, so the eviction listener can't drop the set between creating and filling it
+        contexts.compute(lookup.context(), (context, ids) -> {
+            Set<Long> updated = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            updated.add(id);
+            return updated;
+        });
+        answers.put(id, new CachedAnswer(lookup.context(), lookup.question(), text, lookup.chunkIds(),
+                generationNanos));
+    }
+
+    private static ChatClientResponse cachedResponse(ChatClientRequest request, CachedAnswer answer) {
+        ChatResponse chatResponse = ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(answer.answer()))))
+                .metadata(CACHE_HIT, true)
+                .build();
+        Map<String, Object> context = new HashMap<>(request.context());
+        context.put(CACHE_HIT, true);
+        return ChatClientResponse.builder().chatResponse(chatResponse).context(context).build();
+    }
+
+    private static String question(ChatClientRequest request) {
+        if (request.context().get(QUESTION) instanceof String question && !question.isBlank()) {
+            return question;
+        }
+        return request.prompt().getUserMessage().getText();
+    }
+
+    // the chat memory the prompt carries before the question: a follow-up like "what about the second
+    // one?" means something else in another conversation
+    private static String historyHash(List<Message> messages) {
+        int question = messages.size() - 1;
+        while (question >= 0 && messages.get(question).getMessageType() != MessageType.USER) {
+            question--;
+        }
+        MessageDigest digest = sha256();
+        boolean history = false;
+        for (int i = 0; i < question; i++) {
+            Message message = messages.get(i);
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                continue;
+            }
+            digest.update((message.getMessageType() + ":" + message.getText() + "\u0000")
+                    .getBytes(StandardCharsets.UTF_8));
+            history = true;
+        }
+        return history ? HexFormat.of().formatHex(digest.digest()) : "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Set<String> retrievedChunkIds(ChatClientRequest request) {
+        if (request.context().get(RetrievalAugmentationAdvisor.DOCUMENT_CONTEXT) instanceof List<?> documents) {
+            return documents.stream()
+                    .filter(Document.class::isInstance)
+                    .map(document -> ((Document) document).getId())
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+        return Set.of();
+    }
+
+    private record Lookup(String context, float[] question, Set<String> chunkIds, CachedAnswer hit) {
+    }
+
+    private record CachedAnswer(String context, float[] question, String answer, Set<String> chunkIds,
+                                long generationNanos) {
+    }
+
+    /**
+     * @param latencySavedMillis generation time of the original answers that were served from the cache
+     */
+    public record SemanticCacheStats(long hits, long misses, double hitRate, long entries, long latencySavedMillis) {
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.ai.localchat.advisors;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link SemanticCacheAdvisor}: how close a new question has to be to a cached one,
+ * and how long and how many answers are kept.
+ */
+@ConfigurationProperties("localchat.semantic-cache")
+public record SemanticCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("0.95") double similarityThreshold,
+        @DefaultValue("1h") Duration ttl,
+        @DefaultValue("1000") long maximumSize) {
+}
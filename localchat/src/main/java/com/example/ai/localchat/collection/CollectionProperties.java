@@ -0,0 +1,23 @@
+package com.example.ai.localchat.collection;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Map;
+
+/**
+ * Knowledge bases served as separate {@link KnowledgeCollections} shards next to the default store.
+ *
+ * @param locations         collection name to the resource pattern of its knowledge files, e.g.
+ *                          {@code payments=file:/srv/kb/payments/**}{@code /*.md}
+ * @param memoryBudget      resident size, estimated from the collections' store files, above which the
+ *                          least recently used collections are unloaded
+ * @param searchParallelism threads searching collections in parallel; 0 uses one per processor
+ */
+@ConfigurationProperties("localchat.collections")
+public record CollectionProperties(
+        @DefaultValue Map<String, String> locations,
+        @DefaultValue("1GB") DataSize memoryBudget,
+        @DefaultValue("0") int searchParallelism) {
+}
@@ -0,0 +1,334 @@
+package com.example.ai.localchat.collection;
+
+import com.example.ai.localchat.ingestion.KnowledgeBaseIndexer;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Named knowledge bases, each an {@link HnswVectorStore} shard with its own store file, manifest and
+ * {@link KnowledgeBaseIndexer} under {@code <directory>/<name>/}, so a search only walks the graph of
+ * the collection it is about. A search names its collection or fans out over all of them on a
+ * {@link ForkJoinPool}; the query is embedded once and the shards' top-K are merged by score, which
+ * is comparable across shards as they share the embedding model.
+ * <p>
+ * A collection is loaded, and synchronized with its files, on first use. When the collections'
+ * resident size, estimated from their store files, exceeds the memory budget, the least recently
+ * used ones are unloaded, releasing their mapped files; a collection in use by a search is never
+ * unloaded under it.
+ */
+public class KnowledgeCollections {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeCollections.class);
+
+    /**
+     * Metadata entry naming the collection a document was found in.
+     */
+    public static final String COLLECTION_METADATA = "collection";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String STORE_FILE = "vectorstore.bin";
+    private static final String MANIFEST_FILE = "vectorstore.manifest.json";
+
+    /**
+     * Creates the indexer that keeps one collection's store in sync with its knowledge files.
+     */
+    @FunctionalInterface
+    public interface IndexerFactory {
+        KnowledgeBaseIndexer create(String location, HnswVectorStore store, Path storeFile, Path manifestFile);
+    }
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final EmbeddingModel embeddingModel;
+    private final Supplier<HnswVectorStore> storeFactory;
+    private final IndexerFactory indexerFactory;
+    private final long memoryBudget;
+    private final ForkJoinPool searchPool;
+    private final Object evictionLock = new Object();
+
+    public KnowledgeCollections(Map<String, String> locations, Path directory, long memoryBudget,
+                                int searchParallelism, EmbeddingModel embeddingModel,
+                                Supplier<HnswVectorStore> storeFactory, IndexerFactory indexerFactory) {
+        locations.forEach((name, location) -> {
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Collection names are letters, digits, '-' and '_': " + name);
+            }
+            Path shardDirectory = directory.resolve(name);
+            shards.put(name, new Shard(name, location, shardDirectory.resolve(STORE_FILE),
+                    shardDirectory.resolve(MANIFEST_FILE)));
+        });
+        this.embeddingModel = embeddingModel;
+        this.storeFactory = storeFactory;
+        this.indexerFactory = indexerFactory;
+        this.memoryBudget = memoryBudget;
+        this.searchPool = new ForkJoinPool(searchParallelism > 0 ? searchParallelism
+                : Runtime.getRuntime().availableProcessors());
+    }
+
+    public Set<String> names() {
+        return shards.keySet();
+    }
+
+    /**
+     * Runs {@code action} on the collection's store, loading it first if needed; the collection
+     * stays loaded until the action returns.
+     */
+    public <T> T withCollection(String name, Function<HnswVectorStore, T> action) {
+        Shard shard = shard(name);
+        HnswVectorStore store = acquire(shard);
+        try {
+            return action.apply(store);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    public List<Document> search(String name, SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        return search(shard(name), request, query);
+    }
+
+    /**
+     * Searches every collection in parallel and returns the best {@code topK} of their results. A
+     * collection that fails is left out of the results.
+     */
+    public List<Document> searchAll(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        List<ForkJoinTask<List<Document>>> searches = new ArrayList<>(shards.size());
+        for (Shard shard : shards.values()) {
+            searches.add(searchPool.submit(() -> search(shard, request, query)));
+        }
+        List<Document> merged = new ArrayList<>();
+        for (ForkJoinTask<List<Document>> search : searches) {
+            try {
+                merged.addAll(search.join());
+            } catch (RuntimeException e) {
+                logger.warn("Collection search failed, continuing without it", e);
+            }
+        }
+        merged.sort(Comparator.comparing(Document::getScore, Comparator.nullsLast(Comparator.reverseOrder())));
+        return merged.size() > request.getTopK() ? List.copyOf(merged.subList(0, request.getTopK())) : merged;
+    }
+
+    /**
+     * Brings the collection up to date with its knowledge files, loading it first if needed.
+     */
+    public KnowledgeBaseIndexer.SyncResult synchronize(String name) {
+        Shard shard = shard(name);
+        acquire(shard);
+        KnowledgeBaseIndexer.SyncResult sync;
+        try {
+            sync = shard.indexer.synchronize();
+            shard.residentBytes = footprint(shard.storeFile);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+        enforceBudget();
+        return sync;
+    }
+
+    /**
+     * Unloads the collection once the searches using it are done; false if it wasn't loaded.
+     */
+    public boolean unload(String name) {
+        Shard shard = shard(name);
+        shard.lock.writeLock().lock();
+        try {
+            if (shard.store == null) {
+                return false;
+            }
+            unload(shard);
+            return true;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    public List<CollectionStatus> status() {
+        List<CollectionStatus> status = new ArrayList<>(shards.size());
+        for (Shard shard : shards.values()) {
+            HnswVectorStore store = shard.store;
+            status.add(new CollectionStatus(shard.name, shard.location, store != null,
+                    store == null ? 0 : store.size(), shard.residentBytes));
+        }
+        return status;
+    }
+
+    public void close() {
+        searchPool.shutdownNow();
+    }
+
+    private List<Document> search(Shard shard, SearchRequest request, float[] query) {
+        HnswVectorStore store = acquire(shard);
+        try {
+            List<Document> documents = store.similaritySearch(request, query);
+            List<Document> tagged = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+                metadata.put(COLLECTION_METADATA, shard.name);
+                tagged.add(document.mutate().metadata(metadata).build());
+            }
+            return tagged;
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    private Shard shard(String name) {
+        Shard shard = shards.get(name);
+        if (shard == null) {
+            throw new UnknownCollectionException(name);
+        }
+        return shard;
+    }
+
+    // Returns with the shard's read lock held, so it can't be unloaded until the caller releases it.
+    private HnswVectorStore acquire(Shard shard) {
+        shard.lock.readLock().lock();
+        if (shard.store == null) {
+            shard.lock.readLock().unlock();
+            shard.lock.writeLock().lock();
+            try {
+                if (shard.store == null) {
+                    load(shard);
+                }
+                shard.lock.readLock().lock();
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            enforceBudget();
+        }
+        shard.lastUsed = System.nanoTime();
+        return shard.store;
+    }
+
+    // called with the shard's write lock held
+    private void load(Shard shard) {
+        long start = System.nanoTime();
+        HnswVectorStore store = storeFactory.get();
+        try {
+            Files.createDirectories(shard.storeFile.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (Files.exists(shard.storeFile)) {
+            store.load(shard.storeFile);
+        }
+        KnowledgeBaseIndexer indexer = indexerFactory.create(shard.location, store, shard.storeFile,
+                shard.manifestFile);
+        indexer.synchronize();
+        shard.store = store;
+        shard.indexer = indexer;
+        shard.residentBytes = footprint(shard.storeFile);
+        logger.info("Loaded collection {} with {} documents ({} KB) in {} ms", shard.name, store.size(),
+                shard.residentBytes / 1024, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // called with the shard's write lock held
+    private void unload(Shard shard) {
+        shard.store.clear();
+        shard.store = null;
+        shard.indexer = null;
+        logger.info("Unloaded collection {}, releasing {} KB", shard.name, shard.residentBytes / 1024);
+        shard.residentBytes = 0;
+    }
+
+    // Unloads least recently used collections while over budget. Collections being searched hold
+    // their read lock, so tryLock skips them, including the one the calling thread just loaded.
+    private void enforceBudget() {
+        synchronized (evictionLock) {
+            long resident = shards.values().stream().mapToLong(shard -> shard.residentBytes).sum();
+            if (resident <= memoryBudget) {
+                return;
+            }
+            List<Shard> leastRecentlyUsed = shards.values().stream()
+                    .filter(shard -> shard.residentBytes > 0)
+                    .sorted(Comparator.comparingLong(shard -> shard.lastUsed))
+                    .toList();
+            for (Shard shard : leastRecentlyUsed) {
+                if (resident <= memoryBudget) {
+                    return;
+                }
+                if (shard.lock.writeLock().tryLock()) {
+                    try {
+                        if (shard.store != null) {
+                            resident -= shard.residentBytes;
+                            unload(shard);
+                        }
+                    } finally {
+                        shard.lock.writeLock().unlock();
+                    }
+                }
+            }
+            if (resident > memoryBudget) {
+                logger.warn("Collections use {} KB, over the {} KB budget, but the rest are in use",
+                        resident / 1024, memoryBudget / 1024);
+            }
+        }
+    }
+
+    // The store file is mapped and the lexical, metadata and quantized indexes are read onto the heap
+    // at about their file size, so together they approximate what a loaded collection occupies.
+    private static long footprint(Path storeFile) {
+        long bytes = 0;
+        for (Path file : List.of(storeFile, HnswVectorStore.lexicalIndexPath(storeFile),
+                HnswVectorStore.metadataIndexPath(storeFile), HnswVectorStore.quantizedCodesPath(storeFile))) {
+            try {
+                bytes += Files.exists(file) ? Files.size(file) : 0;
+            } catch (IOException e) {
+                logger.debug("Can't read the size of {}", file, e);
+            }
+        }
+        return bytes;
+    }
+
+    private static final class Shard {
+
+        private final String name;
+        private final String location;
+        private final Path storeFile;
+        private final Path manifestFile;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // written under the write lock; read under the read lock, or racily for status and eviction order
+        private volatile HnswVectorStore store;
+        private volatile KnowledgeBaseIndexer indexer;
+        private volatile long residentBytes;
+        private volatile long lastUsed;
+
+        private Shard(String name, String location, Path storeFile, Path manifestFile) {
+            this.name = name;
+            this.location = location;
+            this.storeFile = storeFile;
+            this.manifestFile = manifestFile;
+        }
+    }
+
+    /**
+     * @param residentBytes estimated size of the loaded collection, 0 when unloaded
+     */
+    public record CollectionStatus(String name, String location, boolean loaded, int documents,
+                                   long residentBytes) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.ai.localchat.collection;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown by {@link KnowledgeCollections} for a collection name that isn't configured.
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class UnknownCollectionException extends RuntimeException {
+
+    public UnknownCollectionException(String name) {
+        super("No collection named '" + name + "'");
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.ai.localchat.config;
+
+import com.example.ai.localchat.gateway.CancellableJdkClientHttpConnector;
+import com.example.ai.localchat.gateway.GatewayChatModel;
+import com.example.ai.localchat.gateway.ModelGateway;
+import com.example.ai.localchat.gateway.ModelGatewayProperties;
+import com.example.ai.localchat.gateway.ModelPriority;
+import com.example.ai.localchat.observability.RagObservations;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+
+@Configuration
+@EnableConfigurationProperties(ModelGatewayProperties.class)
+public class ModelGatewayConfiguration {
+
+    // every call to the local Ollama goes through here, see ModelGateway
+    @Bean
+    ModelGateway modelGateway(ModelGatewayProperties properties) {
+        return new ModelGateway(properties.maxConcurrency(), properties.queueTimeout());
+    }
+
+    // Ollama's WebClient; a chat stream the client hung up on is cancelled at Ollama rather than read to the end
+    @Bean
+    ClientHttpConnector cancellableClientHttpConnector() {
+        return new CancellableJdkClientHttpConnector();
+    }
+
+    // answers to users; the auto-configured ChatClient.Builder picks up the primary chat model
+    @Bean
+    @Primary
+    ChatModel gatewayChatModel(OllamaChatModel ollamaChatModel, ModelGateway modelGateway,
+                               RagObservations observations) {
+        return new GatewayChatModel(ollamaChatModel, modelGateway, ModelPriority.CHAT, observations);
+    }
+
+    // query rewrite and expansion, queued behind chat answers
+    @Bean
+    ChatClient expansionChatClient(OllamaChatModel ollamaChatModel, ModelGateway modelGateway,
+                                   RagObservations observations) {
+        return ChatClient.create(new GatewayChatModel(ollamaChatModel, modelGateway, ModelPriority.EXPANSION,
+                observations));
+    }
+
+    // the LLM reranker, queued behind everything else
+    @Bean
+    ChatClient rerankChatClient(OllamaChatModel ollamaChatModel, ModelGateway modelGateway,
+                                RagObservations observations) {
+        return ChatClient.create(new GatewayChatModel(ollamaChatModel, modelGateway, ModelPriority.RERANK,
+                observations));
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.ai.localchat.config;
+
+import com.example.ai.localchat.advisors.SemanticCacheAdvisor;
+import com.example.ai.localchat.context.ContextAssembler;
+import com.example.ai.localchat.embedding.CachingEmbeddingModel;
+import com.example.ai.localchat.gateway.ModelGateway;
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.service.ConversationRetrievalCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Metrics and traces of the RAG pipeline, scraped from {@code /actuator/prometheus} and optionally
+ * exported over OTLP (see {@code management.*} in application.properties). Stage timings and spans
+ * come from {@link RagObservations}; the counters the components already keep for their
+ * {@code /api/v1/.../stats} endpoints are exposed as meters here rather than counted twice. The
+ * knowledge base's load state is a health indicator in the readiness group.
+ */
+@Configuration
+public class ObservabilityConfiguration {
+
+    @Bean
+    RagObservations ragObservations(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        return new RagObservations(observationRegistry, meterRegistry);
+    }
+
+    @Bean
+    MeterBinder modelGatewayMetrics(ModelGateway modelGateway) {
+        return registry -> {
+            gauge(registry, "localchat.gateway.running", modelGateway, gateway -> gateway.stats().running());
+            gauge(registry, "localchat.gateway.queued", modelGateway, gateway -> gateway.stats().queued());
+            counter(registry, "localchat.gateway.completed", modelGateway, gateway -> gateway.stats().completed());
+            counter(registry, "localchat.gateway.shed", modelGateway, gateway -> gateway.stats().shed());
+            counter(registry, "localchat.gateway.coalesced", modelGateway, gateway -> gateway.stats().coalesced());
+        };
+    }
+
+    @Bean
+    MeterBinder embeddingCacheMetrics(ObjectProvider<CachingEmbeddingModel> cachingEmbeddingModel) {
+        return registry -> cachingEmbeddingModel.ifAvailable(embeddingModel -> {
+            FunctionCounter.builder("localchat.embedding.cache.requests", embeddingModel, model -> model.stats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("localchat.embedding.cache.requests", embeddingModel,
+                            model -> model.stats().diskHits())
+                    .tag("result", "disk_hit")
+                    .register(registry);
+            FunctionCounter.builder("localchat.embedding.cache.requests", embeddingModel,
+                            model -> model.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+        });
+    }
+
+    @Bean
+    MeterBinder contextAssemblyMetrics(ContextAssembler contextAssembler) {
+        return registry -> {
+            FunctionCounter.builder("localchat.context.tokens", contextAssembler,
+                            assembler -> assembler.stats().originalTokens())
+                    .tag("kind", "retrieved")
+                    .baseUnit("tokens")
+                    .register(registry);
+            FunctionCounter.builder("localchat.context.tokens", contextAssembler,
+                            assembler -> assembler.stats().contextTokens())
+                    .tag("kind", "packed")
+                    .baseUnit("tokens")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    MeterBinder semanticCacheMetrics(ObjectProvider<SemanticCacheAdvisor> semanticCacheAdvisor) {
+        return registry -> semanticCacheAdvisor.ifAvailable(advisor -> {
+            FunctionCounter.builder("localchat.semantic.cache.requests", advisor, cache -> cache.stats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("localchat.semantic.cache.requests", advisor, cache -> cache.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+        });
+    }
+
+    @Bean
+    MeterBinder conversationRetrievalMetrics(ObjectProvider<ConversationRetrievalCache> conversationRetrievalCache) {
+        return registry -> conversationRetrievalCache.ifAvailable(cache -> {
+            FunctionCounter.builder("localchat.retrieval.conversation.turns", cache, c -> c.stats().retrievals())
+                    .tag("result", "full")
+                    .register(registry);
+            FunctionCounter.builder("localchat.retrieval.conversation.turns", cache, c -> c.stats().followUps())
+                    .tag("result", "follow_up")
+                    .register(registry);
+            gauge(registry, "localchat.retrieval.conversation.active", cache, c -> c.stats().conversations());
+        });
+    }
+
+    // part of the readiness group, so the node takes traffic once it has an index to answer from;
+    // liveness is only affected when loading fails with nothing to serve, see KnowledgeBaseLoader
+    @Bean
+    HealthIndicator knowledgeBaseHealthIndicator(KnowledgeBaseLoader knowledgeBaseLoader) {
+        return () -> {
+            KnowledgeBaseLoader.KnowledgeBaseStatus status = knowledgeBaseLoader.status();
+            Health.Builder health = status.serving() ? Health.up()
+                    : status.state() == KnowledgeBaseLoader.State.FAILED ? Health.down() : Health.outOfService();
+            health.withDetail("state", status.state())
+                    .withDetail("documents", status.documents())
+                    .withDetail("elapsedMillis", status.elapsedMillis());
+            if (status.ingestion() != null) {
+                health.withDetail("ingestion", status.ingestion());
+            }
+            if (status.error() != null) {
+                health.withDetail("error", status.error());
+            }
+            return health.build();
+        };
+    }
+
+    @Bean
+    MeterBinder knowledgeBaseMetrics(KnowledgeBaseLoader knowledgeBaseLoader) {
+        return registry -> gauge(registry, "localchat.knowledge.serving", knowledgeBaseLoader,
+                loader -> loader.isServing() ? 1 : 0);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, T source, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, source, value).register(registry);
+    }
+}
@@ -1,80 +1,164 @@
 package com.example.ai.localchat.config;
 
+import com.example.ai.localchat.advisors.SemanticCacheAdvisor;
+import com.example.ai.localchat.advisors.SemanticCacheProperties;
+import com.example.ai.localchat.context.ContextAssembler;
+import com.example.ai.localchat.context.ContextAssemblyProperties;
+import com.example.ai.localchat.ingestion.KnowledgeBaseIndexer;
+import com.example.ai.localchat.memory.ChatMemoryProperties;
+import com.example.ai.localchat.memory.TieredChatMemoryRepository;
+import com.example.ai.localchat.memory.TokenWindowChatMemory;
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.prompt.PromptLayout;
+import com.example.ai.localchat.rerank.FeatureReranker;
+import com.example.ai.localchat.rerank.LlmReranker;
+import com.example.ai.localchat.rerank.RerankProperties;
+import com.example.ai.localchat.rerank.Reranker;
+import com.example.ai.localchat.service.ConversationRetrievalCache;
+import com.example.ai.localchat.service.ConversationRetrievalProperties;
+import com.example.ai.localchat.service.HybridRetrievalProperties;
 import com.example.ai.localchat.service.HybridRetrievalService;
+import com.example.ai.localchat.service.RetrievalResult;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.rag.Query;
 import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
+import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
 import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
 import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Configuration
+@EnableConfigurationProperties({SemanticCacheProperties.class, HybridRetrievalProperties.class, RerankProperties.class,
+        ChatMemoryProperties.class, ContextAssemblyProperties.class, ConversationRetrievalProperties.class})
 public class RAGConfig {
 
+    @Value("${localchat.vectorstore.directory:localchat/src/main/resources/data}")
+    private String dataDirectory;
+
     @Bean
+    @Primary
     public ChatClient chatClient(ChatClient.Builder chatClientBuilder){
         return chatClientBuilder.clone().build();
     }
 
+    // recently active conversations in memory, all of them in an append-only file next to the vector store
+    @Bean
+    public TieredChatMemoryRepository chatMemoryRepository(ChatMemoryProperties properties) {
+        Path diskFile = properties.diskEnabled()
+                ? Paths.get(dataDirectory).toAbsolutePath().resolve(properties.diskFile()) : null;
+        return new TieredChatMemoryRepository(properties.maximumConversations(), properties.idleTimeout(), diskFile,
+                properties.retention());
+    }
+
+    // replaces the auto-configured message window: prompts get the newest turns that fit the token budget
+    @Bean
+    public ChatMemory chatMemory(TieredChatMemoryRepository chatMemoryRepository, ChatMemoryProperties properties) {
+        return new TokenWindowChatMemory(chatMemoryRepository, properties.tokenBudget(),
+                properties.maxStoredMessages());
+    }
+
+    // packs retrieved documents into the prompt's token budget without the text they share
+    @Bean
+    public ContextAssembler contextAssembler(ContextAssemblyProperties properties) {
+        return new ContextAssembler(properties.tokenBudget(), properties.shingleSize(),
+                properties.duplicateSimilarity(), properties.spanOverlap());
+    }
+
+    // answers near-duplicate questions asked against the same retrieved chunks from the cache
+    @Bean
+    @ConditionalOnProperty(name = "localchat.semantic-cache.enabled", havingValue = "true", matchIfMissing = true)
+    public SemanticCacheAdvisor semanticCacheAdvisor(EmbeddingModel embeddingModel,
+                                                     SemanticCacheProperties properties,
+                                                     KnowledgeBaseIndexer knowledgeBaseIndexer) {
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel, properties.similarityThreshold(),
+                properties.ttl(), properties.maximumSize());
+        knowledgeBaseIndexer.addSyncListener(sync -> advisor.invalidateChunks(sync.deletedChunks()));
+        return advisor;
+    }
+
+    // follow-up turns of a conversation reuse its retrieved documents, kept as long as its chat memory
+    @Bean
+    @ConditionalOnProperty(name = "localchat.retrieval.conversation.enabled", havingValue = "true",
+            matchIfMissing = true)
+    public ConversationRetrievalCache conversationRetrievalCache(EmbeddingModel embeddingModel,
+                                                                 ConversationRetrievalProperties properties,
+                                                                 ChatMemoryProperties chatMemoryProperties) {
+        return new ConversationRetrievalCache(embeddingModel, chatMemoryProperties.maximumConversations(),
+                chatMemoryProperties.idleTimeout(), properties.querySimilarity(), properties.contextSimilarity(),
+                properties.extensionTopK(), properties.maximumDocuments());
+    }
+
+    // orders hybrid retrieval candidates; the LLM reranker costs a generation per query and is opt-in
+    @Bean
+    public Reranker reranker(RerankProperties properties, @Qualifier("rerankChatClient") ChatClient rerankChatClient,
+                             RagObservations observations) {
+        return switch (properties.mode()) {
+            case FEATURE -> new FeatureReranker(properties.weights());
+            case LLM -> new LlmReranker(rerankChatClient, observations);
+        };
+    }
+
     @Bean
     public Advisor optimizedRagAdvisor(
             VectorStore vectorStore,
-            ChatClient.Builder chatClientBuilder,
-            HybridRetrievalService hybridRetrievalService) {
+            @Qualifier("expansionChatClient") ChatClient expansionChatClient,
+            HybridRetrievalService hybridRetrievalService,
+            ContextAssembler contextAssembler,
+            RagObservations observations) {
 
-        // Custom document retriever using hybrid search
+        // Custom document retriever using hybrid search, or the documents the caller already
+        // retrieved for this request (see RetrievalResult)
         DocumentRetriever customRetriever = new DocumentRetriever() {
             @Override
             public List<Document> retrieve(Query query) {
+                if (query.context().get(RetrievalResult.CONTEXT_KEY) instanceof RetrievalResult retrieval) {
+                    return retrieval.documents();
+                }
                 return hybridRetrievalService.hybridSearch(query.text());
             }
         };
 
         // Query transformer for technical queries
-        QueryTransformer technicalQueryTransformer = RewriteQueryTransformer.builder()
-                .chatClientBuilder(chatClientBuilder)
-                .promptTemplate(new PromptTemplate("""
-                Rewrite this query to better retrieve technical documentation.
-                Focus on:
-                - Extracting key technical terms
-                - Identifying the core question
-                - Adding relevant technical context
-                
-                Original query: {query}
-                
-                Rewritten query: {target}
-                """))
+        QueryTransformer rewriteQueryTransformer = RewriteQueryTransformer.builder()
+                .chatClientBuilder(expansionChatClient.mutate())
+                .promptTemplate(new PromptTemplate(PromptLayout.REWRITE_TEMPLATE))
                 .build();
+        // the rewrite only serves retrieval, so it is skipped when the documents are already there
+        QueryTransformer technicalQueryTransformer = query ->
+                query.context().get(RetrievalResult.CONTEXT_KEY) instanceof RetrievalResult
+                        ? query
+                        : observations.observe("query_rewrite", () -> rewriteQueryTransformer.transform(query));
+
+        // documents passed in with a RetrievalResult were packed by the caller already
+        DocumentPostProcessor contextAssembly = (query, documents) ->
+                query.context().get(RetrievalResult.CONTEXT_KEY) instanceof RetrievalResult
+                        ? documents
+                        : observations.observe("context_assembly",
+                                () -> contextAssembler.assemble(documents).documents());
 
         return RetrievalAugmentationAdvisor.builder()
                 .documentRetriever(customRetriever)
                 .queryTransformers(technicalQueryTransformer)
+                .documentPostProcessors(contextAssembly)
+                .queryAugmenter(PromptLayout.queryAugmenter())
                 .build();
     }
-
-    private List<Document> formatDocumentsForContext(List<Document> documents) {
-        // Remove duplicate information and format for better context
-        return documents.stream()
-                .map(doc -> {
-                    String content = doc.getFormattedContent();
-
-                    // Clean up markdown for better LLM consumption
-                    // content = content.replaceAll("``````\n"); // Normalize code blocks
-                    content = content.replaceAll("\\n{3,}", "\n\n"); // Remove excessive newlines
-
-                    return new Document(content, doc.getMetadata());
-                })
-                .distinct()
-                .collect(Collectors.toList());
-    }
 }
 
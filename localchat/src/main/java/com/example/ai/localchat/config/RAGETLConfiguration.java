@@ -1,127 +1,236 @@
 package com.example.ai.localchat.config;
 
+import com.example.ai.localchat.collection.CollectionProperties;
+import com.example.ai.localchat.collection.KnowledgeCollections;
+import com.example.ai.localchat.embedding.CachingEmbeddingModel;
+import com.example.ai.localchat.embedding.EmbeddingCacheProperties;
+import com.example.ai.localchat.gateway.GatewayEmbeddingModel;
+import com.example.ai.localchat.gateway.ModelGateway;
+import com.example.ai.localchat.gateway.ModelGatewayProperties;
+import com.example.ai.localchat.ingestion.ChunkMetadataEnricher;
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import com.example.ai.localchat.ingestion.IngestionProperties;
+import com.example.ai.localchat.ingestion.KnowledgeBaseIndexer;
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.ingestion.KnowledgeBaseWatcher;
 import com.example.ai.localchat.readers.AllDocumentTypeReader;
-import org.springframework.ai.document.Document;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import com.example.ai.localchat.vectorstore.VectorEncoding;
+import com.example.ai.localchat.vectorstore.VectorQuantization;
+import com.example.ai.localchat.vectorstore.VectorStoreJsonConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.web.client.RestTemplate;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.util.List;
 
 @Configuration
+@EnableConfigurationProperties({IngestionProperties.class, EmbeddingCacheProperties.class,
+        CollectionProperties.class})
 public class RAGETLConfiguration {
 
     // define the vector store
-    @Value("vectorstore.json")
+    @Value("${localchat.vectorstore.directory:localchat/src/main/resources/data}")
+    private String vectorStoreDirectory;
+
+    @Value("${localchat.vectorstore.file:vectorstore.bin}")
     private String vectorStoreName;
 
+    // SimpleVectorStore JSON from earlier versions, converted once into the binary file
+    @Value("${localchat.vectorstore.legacy-json-file:vectorstore.json}")
+    private String legacyVectorStoreName;
+
+    // per-file and per-chunk content hashes of what is indexed, see KnowledgeBaseIndexer
+    @Value("${localchat.vectorstore.manifest-file:vectorstore.manifest.json}")
+    private String manifestName;
+
+    @Value("${localchat.knowledge.location:classpath:/docs/knowledge/*.md}")
+    private String knowledgeLocation;
+
+    @Value("${localchat.vectorstore.file-encoding:FLOAT32}")
+    private VectorEncoding vectorStoreFileEncoding;
+
+    // HNSW index tuning, see HnswVectorStore.HnswVectorStoreBuilder
+    @Value("${localchat.vectorstore.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${localchat.vectorstore.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${localchat.vectorstore.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${localchat.vectorstore.quantization:NONE}")
+    private VectorQuantization vectorQuantization;
+
+    @Value("${localchat.vectorstore.pq-subspace-size:4}")
+    private int pqSubspaceSize;
+
+    @Value("${localchat.vectorstore.rescore-multiplier:4}")
+    private int rescoreMultiplier;
+
+    // metadata answered from bitmaps when a search is filtered on it
+    @Value("${localchat.vectorstore.indexed-metadata:has_code,has_api_ref,complexity_score,source,title}")
+    private List<String> indexedMetadata;
+
+    @Value("${localchat.vectorstore.compaction-threshold:0.25}")
+    private double compactionThreshold;
+
     private static final int CHUNK_SIZE = 400; // Tokens for technical content
     private static final int CHUNK_OVERLAP = 80; // 20% overlap
+    private static final int SECTION_CHARS = 8000; // Text handed to the splitter at a time, a page or so
 
-    // define the embeding model
-    // define the vector store (initialize by passing the embedding client)
+    // every embedding call is queued in the model gateway, merged with concurrent ones into one Ollama call
     @Bean
-    SimpleVectorStore simpleVectorStore(EmbeddingModel embeddingModel){
-        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel)
-                .build();
-        File vectorStoreFile = getVectorStorFile();
-        if(vectorStoreFile.exists()){
-            simpleVectorStore.load(vectorStoreFile);
-        }else{
-            // use the file format redaer textRedaer/PdfPageReader etc to read the file
-            // define a text splitter that will consume the redaer ouput ( Documents)
-            // add the split dcouments to the vector store
-            ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
-            try {
-                Resource[] resources = resolver.getResources("classpath:/docs/knowledge/*.md");
-                for (Resource resource : resources) {
-                    AllDocumentTypeReader documentReader = new AllDocumentTypeReader(resource);
-                    var documents = documentReader.loadText();
-                    TokenTextSplitter textSplitter = TokenTextSplitter.builder()
-                            .withChunkSize(CHUNK_SIZE)
-                            .withKeepSeparator(true)
-                            .build();
-                    var tokenizedDocuments = textSplitter.apply(documents).stream()
-                            .map(this::enrichMetadata)
-                            .collect(Collectors.toList());
-                    simpleVectorStore.add(tokenizedDocuments);
-                }
-                simpleVectorStore.save(vectorStoreFile);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return simpleVectorStore;
+    GatewayEmbeddingModel gatewayEmbeddingModel(OllamaEmbeddingModel ollamaEmbeddingModel, ModelGateway modelGateway,
+                                                ModelGatewayProperties gatewayProperties){
+        return new GatewayEmbeddingModel(ollamaEmbeddingModel, modelGateway,
+                gatewayProperties.embeddingBatchWindow(), gatewayProperties.embeddingBatchSize());
     }
 
+    // cached so unchanged chunks and repeated questions aren't embedded again
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    @ConditionalOnProperty(name = "localchat.embedding-cache.enabled", havingValue = "true", matchIfMissing = true)
+    CachingEmbeddingModel cachingEmbeddingModel(GatewayEmbeddingModel gatewayEmbeddingModel,
+                                                EmbeddingCacheProperties cacheProperties,
+                                                @Value("${spring.ai.ollama.embedding.options.model}") String model){
+        Path diskFile = cacheProperties.diskEnabled()
+                ? getVectorStorFile().resolveSibling(cacheProperties.diskFile()) : null;
+        return new CachingEmbeddingModel(gatewayEmbeddingModel, model, cacheProperties.maximumSize(), diskFile,
+                cacheProperties.diskMaximumSize());
     }
 
-    private File getVectorStorFile() {
-        var path = Paths.get("localchat","src","main", "resources","data");
-        var absolutuePath = path.toFile().getAbsolutePath()+"\\"+vectorStoreName;
-        return new File(absolutuePath);
+    // define the embeding model: the gateway, behind the cache unless that is disabled; the cache bean
+    // is closed on shutdown by itself
+    @Bean(destroyMethod = "")
+    @Primary
+    EmbeddingModel embeddingModel(GatewayEmbeddingModel gatewayEmbeddingModel,
+                                  ObjectProvider<CachingEmbeddingModel> cachingEmbeddingModel){
+        CachingEmbeddingModel cache = cachingEmbeddingModel.getIfAvailable();
+        return cache != null ? cache : gatewayEmbeddingModel;
     }
 
-    private Document enrichMetadata(Document doc) {
-        Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+    // define the vector store (initialize by passing the embedding client); it starts empty and is
+    // filled in the background by the knowledge base loader
+    @Bean
+    HnswVectorStore vectorStore(EmbeddingModel embeddingModel, ObservationRegistry observationRegistry,
+                                MeterRegistry meterRegistry){
+        return newVectorStore(embeddingModel, observationRegistry, meterRegistry);
+    }
 
-        // Extract technical context
-        String content = doc.getFormattedContent();
-        metadata.put("has_code", content.contains("```"));
-        metadata.put("has_api_ref", content.matches(".*\\b(API|endpoint|method)\\b.*"));
+    // use the file format redaer textRedaer/PdfPageReader etc to read the file
+    // define a text splitter that will consume the redaer ouput ( Documents)
+    // enrich the chunks with technical metadata and embed them in token-budgeted batches,
+    // only re-embedding files that changed since the manifest was written
+    @Bean
+    KnowledgeBaseIndexer knowledgeBaseIndexer(HnswVectorStore vectorStore, EmbeddingModel embeddingModel,
+                                              IngestionProperties ingestionProperties,
+                                              ResourcePatternResolver resourcePatternResolver){
+        IngestionPipeline pipeline = newPipeline(embeddingModel, ingestionProperties, vectorStore);
+        Path vectorStoreFile = getVectorStorFile();
+        return new KnowledgeBaseIndexer(knowledgeLocation, resourcePatternResolver, pipeline, vectorStore,
+                vectorStoreFile, vectorStoreFile.resolveSibling(manifestName));
+    }
 
-        // Calculate text complexity for better ranking
-        double complexity = calculateComplexity(content);
-        metadata.put("complexity_score", complexity);
+    // maps the last saved index and synchronizes it with the knowledge files after startup, so a cold
+    // node is up, though not ready, before the corpus is embedded
+    @Bean
+    KnowledgeBaseLoader knowledgeBaseLoader(HnswVectorStore vectorStore, KnowledgeBaseIndexer indexer,
+                                            ApplicationEventPublisher eventPublisher){
+        Path vectorStoreFile = getVectorStorFile();
+        return new KnowledgeBaseLoader(vectorStore, indexer, vectorStoreFile,
+                () -> convertLegacyVectorStore(vectorStoreFile), eventPublisher);
+    }
 
-        // Extract key technical terms
-        List<String> technicalTerms = extractTechnicalTerms(content);
-        metadata.put("technical_terms", String.join(",", technicalTerms));
+    @Bean
+    @ConditionalOnProperty(name = "localchat.knowledge.watch", havingValue = "true")
+    KnowledgeBaseWatcher knowledgeBaseWatcher(KnowledgeBaseIndexer indexer, ResourceLoader resourceLoader,
+                                              @Value("${localchat.knowledge.watch-debounce:2s}") Duration debounce){
+        return new KnowledgeBaseWatcher(indexer, resourceLoader, debounce);
+    }
 
-        return new Document(content, metadata);
+    // further knowledge bases, each its own store loaded on first use, next to the default store's files
+    @Bean
+    KnowledgeCollections knowledgeCollections(CollectionProperties properties, EmbeddingModel embeddingModel,
+                                              ObservationRegistry observationRegistry, MeterRegistry meterRegistry,
+                                              IngestionProperties ingestionProperties,
+                                              ResourcePatternResolver resourcePatternResolver){
+        return new KnowledgeCollections(properties.locations(), getVectorStorFile().resolveSibling("collections"),
+                properties.memoryBudget().toBytes(), properties.searchParallelism(), embeddingModel,
+                () -> newVectorStore(embeddingModel, observationRegistry, meterRegistry),
+                (location, store, storeFile, manifestFile) -> new KnowledgeBaseIndexer(location,
+                        resourcePatternResolver, newPipeline(embeddingModel, ingestionProperties, store), store,
+                        storeFile, manifestFile));
     }
 
-    private double calculateComplexity(String text) {
-        // Simple complexity metric: code blocks, technical terms, sentence length
-        double codeBlocks = (text.split("```").length - 1) * 2.0;
-        double avgSentenceLength = Arrays.stream(text.split("[.!?]"))
-                .mapToInt(String::length)
-                .average()
-                .orElse(0);
+    @Bean
+    public RestTemplate restTemplate() {
+        return new RestTemplate();
+    }
 
-        return (codeBlocks + (avgSentenceLength / 100.0)) / 2.0;
+    private HnswVectorStore newVectorStore(EmbeddingModel embeddingModel, ObservationRegistry observationRegistry,
+                                           MeterRegistry meterRegistry) {
+        return HnswVectorStore.builder(embeddingModel)
+                .observationRegistry(observationRegistry)
+                .meterRegistry(meterRegistry)
+                .m(hnswM)
+                .efConstruction(hnswEfConstruction)
+                .efSearch(hnswEfSearch)
+                .fileEncoding(vectorStoreFileEncoding)
+                .quantization(vectorQuantization)
+                .pqSubspaceSize(pqSubspaceSize)
+                .rescoreMultiplier(rescoreMultiplier)
+                .indexedMetadata(indexedMetadata)
+                .compactionThreshold(compactionThreshold)
+                .build();
     }
 
-    private List<String> extractTechnicalTerms(String text) {
-        // Extract camelCase, PascalCase, UPPER_CASE identifiers
-        Pattern pattern = Pattern.compile("\\b([A-Z][a-z]+[A-Z][a-zA-Z]*|[A-Z_]{2,}|[a-z]+[A-Z][a-zA-Z]*)\\b");
-        Matcher matcher = pattern.matcher(text);
+    private static IngestionPipeline newPipeline(EmbeddingModel embeddingModel,
+                                                 IngestionProperties ingestionProperties, HnswVectorStore vectorStore) {
+        return new IngestionPipeline(
+                ingestionProperties,
+                new AllDocumentTypeReader(SECTION_CHARS),
+                () -> TokenTextSplitter.builder()
+                        .withChunkSize(CHUNK_SIZE)
+                        .withKeepSeparator(true)
+                        .build(),
+                new ChunkMetadataEnricher(),
+                embeddingModel,
+                vectorStore);
+    }
 
-        List<String> terms = new ArrayList<>();
-        while (matcher.find()) {
-            terms.add(matcher.group());
+    private void convertLegacyVectorStore(Path vectorStoreFile) {
+        Path legacyVectorStoreFile = vectorStoreFile.resolveSibling(legacyVectorStoreName);
+        if(!Files.exists(vectorStoreFile) && Files.exists(legacyVectorStoreFile)){
+            try {
+                VectorStoreJsonConverter.convert(legacyVectorStoreFile, vectorStoreFile, vectorStoreFileEncoding,
+                        hnswM, hnswEfConstruction);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
-        return terms;
     }
 
-
-
-
-
+    private Path getVectorStorFile() {
+        return Paths.get(vectorStoreDirectory).toAbsolutePath().resolve(vectorStoreName);
+    }
 }
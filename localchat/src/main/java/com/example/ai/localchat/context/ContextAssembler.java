@@ -0,0 +1,285 @@
+package com.example.ai.localchat.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packs retrieved documents into the prompt's token budget, best first, and leaves out text the
+ * model would otherwise read twice. A document whose word shingles are a near duplicate of a packed
+ * one (estimated with MinHash) is dropped whole. A sentence whose shingles are mostly in the context
+ * already is dropped on its own, like the text that neighbouring chunks share through the splitter
+ * overlap. Documents are split into sentences and lines, with fenced code blocks kept whole. A
+ * document that doesn't fit is cut after the last sentence that does, and shorter documents ranked
+ * after it may still use the rest of the budget.
+ * <p>
+ * Documents keep their order, id, metadata and score, so citations and cache keys still hold; only
+ * their text shrinks. Callers pass documents best first, as retrieval and reranking return them.
+ * Thread-safe.
+ */
+public class ContextAssembler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContextAssembler.class);
+
+    private static final int MIN_HASH_FUNCTIONS = 64;
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}_]+");
+    private static final Pattern SENTENCE_END = Pattern.compile("[.!?](?=\\s)");
+    private static final Pattern BLANK_LINES = Pattern.compile("\\n\\s*\\n(\\s*\\n)+");
+
+    private final int tokenBudget;
+    private final int shingleSize;
+    private final double duplicateSimilarity;
+    private final double spanOverlap;
+    private final long[] minHashSeeds = new SplittableRandom(0x5EEDL).longs(MIN_HASH_FUNCTIONS).toArray();
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder originalTokens = new LongAdder();
+    private final LongAdder contextTokens = new LongAdder();
+    private final LongAdder duplicateDocuments = new LongAdder();
+    private final LongAdder duplicateSpans = new LongAdder();
+    private final LongAdder truncatedDocuments = new LongAdder();
+
+    public ContextAssembler(int tokenBudget, int shingleSize, double duplicateSimilarity, double spanOverlap) {
+        if (tokenBudget < 1 || shingleSize < 1) {
+            throw new IllegalArgumentException("tokenBudget and shingleSize must be at least 1");
+        }
+        this.tokenBudget = tokenBudget;
+        this.shingleSize = shingleSize;
+        this.duplicateSimilarity = duplicateSimilarity;
+        this.spanOverlap = spanOverlap;
+    }
+
+    public AssembledContext assemble(List<Document> documents) {
+        List<Document> packed = new ArrayList<>();
+        List<long[]> signatures = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        int original = 0;
+        int used = 0;
+        int duplicates = 0;
+        int overlapping = 0;
+        int truncated = 0;
+        for (Document document : documents) {
+            String text = document.getText();
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            List<Span> spans = spans(text);
+            for (Span span : spans) {
+                original += span.tokens();
+            }
+            long[] signature = minHash(spans);
+            if (signature != null && signatures.stream().anyMatch(packedSignature ->
+                    similarity(signature, packedSignature) >= duplicateSimilarity)) {
+                duplicates++;
+                continue;
+            }
+            StringBuilder kept = new StringBuilder(text.length());
+            for (Span span : spans) {
+                if (span.shingles().length > 0 && overlap(span, seen) >= spanOverlap) {
+                    overlapping++;
+                    continue;
+                }
+                if (used + span.tokens() > tokenBudget) {
+                    truncated++;
+                    break;
+                }
+                kept.append(span.text());
+                used += span.tokens();
+                for (long shingle : span.shingles()) {
+                    seen.add(shingle);
+                }
+            }
+            String packedText = BLANK_LINES.matcher(kept).replaceAll("\n\n").strip();
+            if (packedText.isEmpty()) {
+                continue;
+            }
+            if (signature != null) {
+                signatures.add(signature);
+            }
+            packed.add(packedText.equals(text) ? document : document.mutate().text(packedText).build());
+        }
+        ContextUsage usage = new ContextUsage(original, used, original - used, duplicates, overlapping, truncated);
+        record(usage);
+        logger.debug("Packed {} of {} documents into {} tokens, {} saved ({} duplicate documents, {} duplicate sentences, {} cut for the budget)",
+                packed.size(), documents.size(), used, usage.tokensSaved(), duplicates, overlapping, truncated);
+        return new AssembledContext(packed, usage);
+    }
+
+    /**
+     * Packed text of each document, separated by blank lines.
+     */
+    public String assembleText(List<Document> documents) {
+        return String.join("\n\n", assemble(documents).documents().stream().map(Document::getText).toList());
+    }
+
+    public ContextStats stats() {
+        long original = originalTokens.sum();
+        long context = contextTokens.sum();
+        return new ContextStats(requests.sum(), original, context, original - context, duplicateDocuments.sum(),
+                duplicateSpans.sum(), truncatedDocuments.sum());
+    }
+
+    private void record(ContextUsage usage) {
+        requests.increment();
+        originalTokens.add(usage.originalTokens());
+        contextTokens.add(usage.contextTokens());
+        duplicateDocuments.add(usage.duplicateDocuments());
+        duplicateSpans.add(usage.duplicateSpans());
+        truncatedDocuments.add(usage.truncatedDocuments());
+    }
+
+    // Sentences and lines with their trailing whitespace, so the kept ones concatenate back into the
+    // original layout; a fenced code block is one span from fence to fence.
+    private List<Span> spans(String text) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        boolean inFence = false;
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int newline = text.indexOf('\n', lineStart);
+            int lineEnd = newline < 0 ? text.length() : newline + 1;
+            boolean fence = text.substring(lineStart, lineEnd).strip().startsWith("```");
+            if (fence && !inFence) {
+                start = cut(text, parts, start, lineStart);
+                inFence = true;
+            } else if (fence) {
+                start = cut(text, parts, start, lineEnd);
+                inFence = false;
+            } else if (!inFence) {
+                Matcher sentenceEnd = SENTENCE_END.matcher(text).region(lineStart, lineEnd);
+                while (sentenceEnd.find()) {
+                    int end = sentenceEnd.end();
+                    while (end < lineEnd && text.charAt(end) == ' ') {
+                        end++;
+                    }
+                    start = cut(text, parts, start, end);
+                }
+                start = cut(text, parts, start, lineEnd);
+            }
+            lineStart = lineEnd;
+        }
+        cut(text, parts, start, text.length());
+        List<Span> spans = new ArrayList<>(parts.size());
+        for (String part : parts) {
+            spans.add(new Span(part, shingles(part), part.isBlank() ? 0 : tokenCountEstimator.estimate(part)));
+        }
+        return spans;
+    }
+
+    private static int cut(String text, List<String> parts, int start, int end) {
+        if (end <= start) {
+            return start;
+        }
+        parts.add(text.substring(start, end));
+        return end;
+    }
+
+    // Hashes of every run of shingleSize consecutive words, or of all the words of a shorter span.
+    private long[] shingles(String span) {
+        List<String> words = new ArrayList<>();
+        for (String word : WORD_SEPARATOR.split(span.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        if (words.isEmpty()) {
+            return new long[0];
+        }
+        long[] shingles = new long[Math.max(1, words.size() - shingleSize + 1)];
+        for (int s = 0; s < shingles.length; s++) {
+            long hash = 1125899906842597L;
+            for (int w = s; w < Math.min(s + shingleSize, words.size()); w++) {
+                hash = 31 * hash + words.get(w).hashCode();
+            }
+            shingles[s] = mix(hash);
+        }
+        return shingles;
+    }
+
+    private static double overlap(Span span, Set<Long> seen) {
+        int found = 0;
+        for (long shingle : span.shingles()) {
+            if (seen.contains(shingle)) {
+                found++;
+            }
+        }
+        return (double) found / span.shingles().length;
+    }
+
+    // null for a document without words, which is never a duplicate
+    private long[] minHash(List<Span> spans) {
+        long[] signature = new long[MIN_HASH_FUNCTIONS];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        boolean any = false;
+        for (Span span : spans) {
+            for (long shingle : span.shingles()) {
+                any = true;
+                for (int i = 0; i < MIN_HASH_FUNCTIONS; i++) {
+                    signature[i] = Math.min(signature[i], mix(shingle ^ minHashSeeds[i]));
+                }
+            }
+        }
+        return any ? signature : null;
+    }
+
+    // share of equal minimums, an unbiased estimate of the Jaccard similarity of the shingle sets
+    private static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+
+    // MurmurHash3 finalizer
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private record Span(String text, long[] shingles, int tokens) {
+    }
+
+    public record AssembledContext(List<Document> documents, ContextUsage usage) {
+    }
+
+    /**
+     * What packing one request's documents saved.
+     *
+     * @param originalTokens     tokens of the documents as retrieved
+     * @param contextTokens      tokens of the documents as packed into the prompt
+     * @param duplicateDocuments documents left out as near duplicates of a packed one
+     * @param duplicateSpans     sentences left out because the context already had them
+     * @param truncatedDocuments documents cut short or left out to stay within the token budget
+     */
+    public record ContextUsage(int originalTokens, int contextTokens, int tokensSaved, int duplicateDocuments,
+                               int duplicateSpans, int truncatedDocuments) {
+    }
+
+    /**
+     * {@link ContextUsage} summed over every request since startup.
+     */
+    public record ContextStats(long requests, long originalTokens, long contextTokens, long tokensSaved,
+                               long duplicateDocuments, long duplicateSpans, long truncatedDocuments) {
+    }
+}
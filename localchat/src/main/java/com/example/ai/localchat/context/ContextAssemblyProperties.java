@@ -0,0 +1,22 @@
+package com.example.ai.localchat.context;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * How {@link ContextAssembler} packs retrieved documents into the prompt.
+ *
+ * @param tokenBudget         most tokens of document text one prompt gets
+ * @param shingleSize         words per shingle when comparing text
+ * @param duplicateSimilarity estimated Jaccard similarity to a document already in the context at which
+ *                            a document is left out as a near duplicate
+ * @param spanOverlap         share of a sentence's shingles already in the context at which it is left
+ *                            out, e.g. the text two neighbouring chunks share through the splitter overlap
+ */
+@ConfigurationProperties("localchat.context")
+public record ContextAssemblyProperties(
+        @DefaultValue("1500") int tokenBudget,
+        @DefaultValue("4") int shingleSize,
+        @DefaultValue("0.8") double duplicateSimilarity,
+        @DefaultValue("0.8") double spanOverlap) {
+}
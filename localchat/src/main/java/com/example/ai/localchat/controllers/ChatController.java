@@ -1,130 +1,262 @@
 package com.example.ai.localchat.controllers;
 
+import com.example.ai.localchat.AutoRagResponse;
 import com.example.ai.localchat.ChatRequest;
+import com.example.ai.localchat.ChatToken;
+import com.example.ai.localchat.advisors.SemanticCacheAdvisor;
+import com.example.ai.localchat.collection.KnowledgeCollections;
+import com.example.ai.localchat.context.ContextAssembler;
+import com.example.ai.localchat.gateway.ModelGateway;
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.memory.TieredChatMemoryRepository;
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.prompt.PromptLayout;
+import com.example.ai.localchat.rerank.FeatureReranker;
+import com.example.ai.localchat.rerank.LlmReranker;
+import com.example.ai.localchat.rerank.RerankEvaluator;
+import com.example.ai.localchat.rerank.RerankProperties;
+import com.example.ai.localchat.service.ConversationRetrievalCache;
+import com.example.ai.localchat.service.HybridRetrievalProperties;
 import com.example.ai.localchat.service.HybridRetrievalService;
+import com.example.ai.localchat.service.RetrievalResult;
+import com.example.ai.localchat.service.RetrievalStageStats;
+import com.example.ai.localchat.service.SimilarityThreshold;
 import com.example.ai.localchat.service.TechnicalRAGService;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.messages.UserMessage;
-import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 public class ChatController {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
+
+    // what a client is told when a stream fails; the cause is in the server log
+    static final String STREAM_ERROR = "The answer could not be generated, please try again.";
+
     private final ChatClient chatClient;
     private final RetrievalAugmentationAdvisor retrievalAugmentationAdvisor;
     private final MessageChatMemoryAdvisor chatMemoryAdvisor;
-    private final VectorStore vectorStore;
+    private final HnswVectorStore vectorStore;
     private final TechnicalRAGService ragService;
     private final HybridRetrievalService retrievalService;
+    private final SemanticCacheAdvisor semanticCacheAdvisor;
+    private final ConversationRetrievalCache conversationRetrieval;
+    private final RerankProperties rerankProperties;
+    // the benchmark's LLM reranker runs at rerank priority, like the configured one, see RAGConfig.reranker
+    private final LlmReranker llmReranker;
+    private final TieredChatMemoryRepository chatMemoryRepository;
+    private final ModelGateway modelGateway;
+    private final ContextAssembler contextAssembler;
+    private final RagObservations observations;
+    private final SimilarityThreshold domainThreshold;
+    private final KnowledgeCollections collections;
+    private final KnowledgeBaseLoader knowledgeBase;
+    private final List<Advisor> ragChatAdvisors = new ArrayList<>();
 
-    @Value("classpath:/prompts/rag-prompt-template.st")
-    private Resource ragPromptTemplate;
+    // the domain chat's instructions, read once so they are byte-identical in every prompt
+    private final String domainInstructions;
 
     @Autowired
     public ChatController(
             ChatClient chatClient,
             ChatMemory chatMemory,
-            VectorStore vectorStore,
+            HnswVectorStore vectorStore,
             TechnicalRAGService ragService,
-            HybridRetrievalService retrievalService) {
+            HybridRetrievalService retrievalService,
+            ObjectProvider<SemanticCacheAdvisor> semanticCacheAdvisor,
+            ObjectProvider<ConversationRetrievalCache> conversationRetrieval,
+            RerankProperties rerankProperties,
+            @Qualifier("rerankChatClient") ChatClient rerankChatClient,
+            TieredChatMemoryRepository chatMemoryRepository,
+            ModelGateway modelGateway,
+            ContextAssembler contextAssembler,
+            RagObservations observations,
+            HybridRetrievalProperties retrievalProperties,
+            KnowledgeCollections collections,
+            KnowledgeBaseLoader knowledgeBase,
+            @Value("classpath:/prompts/rag-instructions.st") Resource domainInstructions) {
         this.chatClient = chatClient;
         this.vectorStore = vectorStore;
         this.chatMemoryAdvisor = MessageChatMemoryAdvisor.builder(chatMemory).build();
         this.ragService = ragService;
         this.retrievalService= retrievalService;
+        this.conversationRetrieval = conversationRetrieval.getIfAvailable();
+        DocumentRetriever vectorRetriever = VectorStoreDocumentRetriever.builder()
+                .vectorStore(vectorStore)
+                .similarityThreshold(0.3)  // Lower threshold for better recall with smaller models
+                .topK(10)
+                .build();
         this.retrievalAugmentationAdvisor = RetrievalAugmentationAdvisor.builder()
-                .documentRetriever(VectorStoreDocumentRetriever.builder()
-                        .vectorStore(vectorStore)
-                        .similarityThreshold(0.3)  // Lower threshold for better recall with smaller models
-                        .topK(10)
-                        .build())
+                .documentRetriever(query -> query.context().get(ChatMemory.CONVERSATION_ID) instanceof String id
+                        ? conversationSearch(id, "chat", query.text(), () -> vectorRetriever.retrieve(query))
+                        : vectorRetriever.retrieve(query))
+                .documentPostProcessors((query, documents) -> observations.observe("context_assembly",
+                        () -> contextAssembler.assemble(documents).documents()))
+                .queryAugmenter(PromptLayout.queryAugmenter())
                 .build();
+        this.semanticCacheAdvisor = semanticCacheAdvisor.getIfAvailable();
+        this.rerankProperties = rerankProperties;
+        this.llmReranker = new LlmReranker(rerankChatClient, observations);
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.modelGateway = modelGateway;
+        this.contextAssembler = contextAssembler;
+        this.observations = observations;
+        // Lower threshold for better recall with smaller models
+        this.domainThreshold = new SimilarityThreshold(retrievalProperties.threshold(), 0.3);
+        this.collections = collections;
+        this.knowledgeBase = knowledgeBase;
+        try {
+            this.domainInstructions = domainInstructions.getContentAsString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + domainInstructions, e);
+        }
+        this.ragChatAdvisors.add(chatMemoryAdvisor);
+        this.ragChatAdvisors.add(retrievalAugmentationAdvisor);
+        if (this.semanticCacheAdvisor != null) {
+            this.ragChatAdvisors.add(this.semanticCacheAdvisor);
+        }
     }
 
     @GetMapping("/api/v1/chat/{conversationId}")
     public String replyToChat(@PathVariable String conversationId,
                               @RequestParam(value = "message", defaultValue = "introduce yourself") String message){
-        var promptRequest = chatClient.prompt(new Prompt(new UserMessage(message)))
-                .advisors(chatMemoryAdvisor, retrievalAugmentationAdvisor)
-                .advisors(advisors -> advisors.param(
-                        ChatMemory.CONVERSATION_ID, conversationId));
-        return promptRequest.call().content();
+        knowledgeBase.requireServing();
+        return ragChatPrompt(conversationId, message).call().content();
+    }
+
+    @GetMapping(value = "/api/v1/chat/{conversationId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatToken>> streamChat(@PathVariable String conversationId,
+                                                    @RequestParam(value = "message", defaultValue = "introduce yourself") String message){
+        knowledgeBase.requireServing();
+        return tokenEvents(() -> ragChatPrompt(conversationId, message).stream().content());
     }
 
     @PostMapping("/api/v1/domain/chat/{conversationId}")
     public String replyToDomainContextChat(@PathVariable String conversationId,@RequestBody ChatRequest request){
-        // Use a lower similarity threshold for better retrieval with smaller models
-        var searchRequest = SearchRequest.builder()
-                .query(request.getMessage())
-                .topK(20)
-                .similarityThreshold(0.3)  // Lower threshold for better recall
-                .build();
-        
-        var similarDocuments = vectorStore.similaritySearch(searchRequest);
-        
-        // Debug logging
-        System.out.println("Query: " + request.getMessage());
-        System.out.println("Found " + similarDocuments.size() + " similar documents");
-        
-        if (similarDocuments.isEmpty()) {
-            System.out.println("No documents found with similarity threshold 0.3");
-            // Try without similarity threshold
-            var fallbackRequest = SearchRequest.builder()
-                    .query(request.getMessage())
-                    .topK(20)
-                    .build();
-            similarDocuments = vectorStore.similaritySearch(fallbackRequest);
-            System.out.println("Fallback search found " + similarDocuments.size() + " documents");
-        }
-        
-        var contentList = similarDocuments.stream()
-                .peek(doc -> System.out.println("Document content preview: " + 
-                    doc.getFormattedContent().substring(0, Math.min(100, doc.getFormattedContent().length())) + "..."))
-                .map(Document::getFormattedContent)
-                .toList();
-                
-        var promptTemplate = new PromptTemplate(ragPromptTemplate);
-        var promptParameters = new HashMap<String,Object>();
-        promptParameters.put("input", request.getMessage());
-        promptParameters.put("documents", String.join("\n\n", contentList));
-        
-        var promptRequest = chatClient.prompt(promptTemplate.create(promptParameters))
-                .advisors(chatMemoryAdvisor)
-                .advisors(advisors -> advisors.param(
-                        ChatMemory.CONVERSATION_ID, conversationId));
-        return promptRequest.call().content();
+        knowledgeBase.requireServing();
+        return domainContextPrompt(conversationId, request).call().content();
     }
 
+    @PostMapping(value = "/api/v1/domain/chat/{conversationId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatToken>> streamDomainContextChat(@PathVariable String conversationId,
+                                                                 @RequestBody ChatRequest request){
+        knowledgeBase.requireServing();
+        return tokenEvents(() -> domainContextPrompt(conversationId, request).stream().content());
+    }
+
+    // Retrieves once, packs the documents into the context budget and hands them to the RAG advisor,
+    // which then skips its own query rewrite and retrieval. ?collection= retrieves from that knowledge
+    // base instead of the default one.
     @PostMapping("/api/v1/auto-rag/chat/{conversationId}")
-    public ResponseEntity<String> replyWithAutoRAG(@PathVariable String conversationId, @RequestBody ChatRequest request){
+    public ResponseEntity<AutoRagResponse> replyWithAutoRAG(@PathVariable String conversationId,
+                                                            @RequestBody ChatRequest request,
+                                                            @RequestParam(value = "collection", required = false) String collection){
+        requireServing(collection);
+        RetrievalResult retrieval = retrieve(conversationId, request.getMessage(), collection);
+        long assemblyStart = System.nanoTime();
+        ContextAssembler.AssembledContext context = observations.observe("context_assembly",
+                () -> contextAssembler.assemble(retrieval.documents()));
+        double assemblyMillis = (System.nanoTime() - assemblyStart) / 1e6;
 
+        long start = System.nanoTime();
+        String answer = ragService.queryWithRAG(request.getMessage(), "", packed(retrieval, context));
+        double generationMillis = (System.nanoTime() - start) / 1e6;
 
-        // Step 1: Retrieve relevant documents
-        List<Document> documents = retrievalService.hybridSearch(request.getMessage());
+        Map<String, RetrievalStageStats.StageSnapshot> stages = new LinkedHashMap<>(retrieval.stages());
+        stages.put("context_assembly", new RetrievalStageStats.StageSnapshot(1, 0, assemblyMillis, assemblyMillis));
+        stages.put("generation", new RetrievalStageStats.StageSnapshot(1, 0, generationMillis, generationMillis));
+        return ResponseEntity.ok(new AutoRagResponse(answer,
+                retrieval.documents().stream().map(AutoRagResponse.RetrievedDocument::of).toList(), context.usage(),
+                stages));
+    }
 
-        // Step 2: Generate answer with RAG
-        String answer = ragService.queryWithRAG(
-                request.getMessage(),
-                ""
-        );
+    @PostMapping(value = "/api/v1/auto-rag/chat/{conversationId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatToken>> streamWithAutoRAG(@PathVariable String conversationId,
+                                                           @RequestBody ChatRequest request,
+                                                           @RequestParam(value = "collection", required = false) String collection){
+        requireServing(collection);
+        return tokenEvents(() -> {
+            RetrievalResult retrieval = retrieve(conversationId, request.getMessage(), collection);
+            return ragService.streamWithRAG(request.getMessage(), "",
+                    packed(retrieval, observations.observe("context_assembly",
+                            () -> contextAssembler.assemble(retrieval.documents()))));
+        });
+    }
+
+    @GetMapping("/api/v1/semantic-cache/stats")
+    public ResponseEntity<SemanticCacheAdvisor.SemanticCacheStats> semanticCacheStats(){
+        return semanticCacheAdvisor == null ? ResponseEntity.notFound().build()
+                : ResponseEntity.ok(semanticCacheAdvisor.stats());
+    }
+
+    @GetMapping("/api/v1/retrieval/conversation/stats")
+    public ResponseEntity<ConversationRetrievalCache.ConversationRetrievalStats> conversationRetrievalStats(){
+        return conversationRetrieval == null ? ResponseEntity.notFound().build()
+                : ResponseEntity.ok(conversationRetrieval.stats());
+    }
+
+    @GetMapping("/api/v1/chat-memory/stats")
+    public TieredChatMemoryRepository.ChatMemoryStats chatMemoryStats(){
+        return chatMemoryRepository.stats();
+    }
+
+    @GetMapping("/api/v1/model-gateway/stats")
+    public ModelGateway.ModelGatewayStats modelGatewayStats(){
+        return modelGateway.stats();
+    }
 
-        return ResponseEntity.ok(answer);
+    @GetMapping("/api/v1/context/stats")
+    public ContextAssembler.ContextStats contextStats(){
+        return contextAssembler.stats();
+    }
+
+    @GetMapping("/api/v1/retrieval/stats")
+    public Map<String, RetrievalStageStats.StageSnapshot> retrievalStats(){
+        return retrievalService.stageStats();
+    }
+
+    @GetMapping("/api/v1/retrieval/threshold/stats")
+    public Map<String, SimilarityThreshold.ThresholdStats> thresholdStats(){
+        return Map.of("hybrid", retrievalService.thresholdStats(), "domain", domainThreshold.stats());
+    }
+
+    // ranks the same hybrid candidates with each reranker and scores them against the expected chunk ids
+    @PostMapping("/api/v1/retrieval/rerank-benchmark")
+    public RerankEvaluator.RerankReport rerankBenchmark(@RequestBody List<RerankEvaluator.Case> cases,
+                                                        @RequestParam(value = "k", defaultValue = "5") int k){
+        return RerankEvaluator.evaluate(cases, retrievalService::candidates, Map.of(
+                "feature", new FeatureReranker(rerankProperties.weights()),
+                "llm", llmReranker), k);
     }
 
     @GetMapping("/api/v1/test/documents")
@@ -148,4 +280,92 @@ public class ChatController {
         return result.toString();
     }
 
-}
\ No newline at end of file
+    private ChatClient.ChatClientRequestSpec ragChatPrompt(String conversationId, String message) {
+        // the advisors insert the history after the instructions and the context before the message
+        return chatClient.prompt(PromptLayout.prompt(PromptLayout.ANSWER_INSTRUCTIONS, "", message))
+                .advisors(ragChatAdvisors)
+                .advisors(advisors -> advisors
+                        .param(ChatMemory.CONVERSATION_ID, conversationId)
+                        .param(SemanticCacheAdvisor.QUESTION, message));
+    }
+
+    private ChatClient.ChatClientRequestSpec domainContextPrompt(String conversationId, ChatRequest request) {
+        // one scored search; the threshold is applied to its results, see SimilarityThreshold
+        var searchRequest = SearchRequest.builder()
+                .query(request.getMessage())
+                .topK(20)
+                .similarityThreshold(SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL)
+                .build();
+        
+        var scoredDocuments = conversationSearch(conversationId, "domain", request.getMessage(),
+                () -> vectorStore.similaritySearch(searchRequest));
+        var similarDocuments = domainThreshold.apply(scoredDocuments);
+        logger.debug("Found {} similar documents for query '{}'", similarDocuments.size(), request.getMessage());
+        
+        if (similarDocuments.isEmpty()) {
+            // Fall back to the best matches below the threshold
+            observations.fallback("domain");
+            similarDocuments = scoredDocuments;
+            logger.debug("No documents above the similarity threshold, using the {} best matches",
+                    similarDocuments.size());
+        }
+
+        // most similar first, without overlapping text, within the context token budget; laid out
+        // instructions, documents, question, see PromptLayout
+        var documents = PromptLayout.context(contextAssembler.assemble(similarDocuments).documents());
+        var prompt = PromptLayout.prompt(domainInstructions, "DOCUMENTS:\n" + documents,
+                "QUESTION:\n" + request.getMessage());
+
+        return chatClient.prompt(prompt)
+                .advisors(chatMemoryAdvisor)
+                .advisors(advisors -> advisors.param(
+                        ChatMemory.CONVERSATION_ID, conversationId));
+    }
+
+    // Fails fast with a 503 while the default knowledge base is being built; collections load on demand.
+    // Streaming endpoints check before the stream starts, so the client gets the status rather than
+    // an error event.
+    private void requireServing(String collection) {
+        if (collection == null) {
+            knowledgeBase.requireServing();
+        }
+    }
+
+    // Follow-up turns of a conversation reuse the documents of its earlier turns, in the same scope,
+    // rather than retrieving in full again, see ConversationRetrievalCache
+    private RetrievalResult retrieve(String conversationId, String query, String collection) {
+        if (conversationRetrieval == null) {
+            return collection == null ? retrievalService.retrieve(query)
+                    : collections.withCollection(collection, store -> retrievalService.retrieve(query, store));
+        }
+        return collection == null
+                ? conversationRetrieval.retrieve(conversationId, "hybrid", query, vectorStore, retrievalService::retrieve)
+                : collections.withCollection(collection, store -> conversationRetrieval.retrieve(conversationId,
+                        "hybrid:" + collection, query, store, text -> retrievalService.retrieve(text, store)));
+    }
+
+    private List<Document> conversationSearch(String conversationId, String scope, String query,
+                                              Supplier<List<Document>> search) {
+        return conversationRetrieval == null ? search.get()
+                : conversationRetrieval.retrieve(conversationId, scope, query, vectorStore,
+                        text -> new RetrievalResult(text, search.get(), Map.of())).documents();
+    }
+
+    private static RetrievalResult packed(RetrievalResult retrieval, ContextAssembler.AssembledContext context) {
+        return new RetrievalResult(retrieval.query(), context.documents(), retrieval.stages());
+    }
+
+    // One "token" event per chunk of the answer, then "done", or "error" if generation fails.
+    // Retrieval blocks, so the request is built on a worker thread once the client subscribes;
+    // a client disconnect cancels the subscription and with it the Ollama generation.
+    private static Flux<ServerSentEvent<ChatToken>> tokenEvents(Supplier<Flux<String>> tokens) {
+        return Flux.defer(tokens)
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(token -> ServerSentEvent.builder(new ChatToken(token)).event("token").build())
+                .concatWithValues(ServerSentEvent.builder(new ChatToken("")).event("done").build())
+                .onErrorResume(e -> {
+                    logger.error("Streaming chat response failed", e);
+                    return Flux.just(ServerSentEvent.builder(new ChatToken(STREAM_ERROR)).event("error").build());
+                });
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.ai.localchat.controllers;
+
+import com.example.ai.localchat.AutoRagResponse;
+import com.example.ai.localchat.collection.KnowledgeCollections;
+import com.example.ai.localchat.ingestion.KnowledgeBaseIndexer;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class CollectionController {
+
+    private final KnowledgeCollections collections;
+
+    public CollectionController(KnowledgeCollections collections) {
+        this.collections = collections;
+    }
+
+    @GetMapping("/api/v1/collections")
+    public List<KnowledgeCollections.CollectionStatus> collections() {
+        return collections.status();
+    }
+
+    // one collection when named, otherwise all of them in parallel
+    @GetMapping("/api/v1/collections/search")
+    public List<CollectionHit> search(
+            @RequestParam("query") String query,
+            @RequestParam(value = "collection", required = false) String collection,
+            @RequestParam(value = "k", defaultValue = "10") int k) {
+        SearchRequest request = SearchRequest.builder().query(query).topK(k).build();
+        return (collection == null ? collections.searchAll(request) : collections.search(collection, request))
+                .stream()
+                .map(document -> new CollectionHit(
+                        (String) document.getMetadata().get(KnowledgeCollections.COLLECTION_METADATA),
+                        AutoRagResponse.RetrievedDocument.of(document)))
+                .toList();
+    }
+
+    @PostMapping("/api/v1/collections/{name}/sync")
+    public KnowledgeBaseIndexer.SyncResult synchronize(@PathVariable String name) {
+        return collections.synchronize(name);
+    }
+
+    @PostMapping("/api/v1/collections/{name}/unload")
+    public boolean unload(@PathVariable String name) {
+        return collections.unload(name);
+    }
+
+    public record CollectionHit(String collection, AutoRagResponse.RetrievedDocument document) {
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ai.localchat.controllers;
+
+import com.example.ai.localchat.embedding.CachingEmbeddingModel;
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.vectorstore.HnswRecallEvaluator;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class VectorStoreController {
+
+    private final HnswVectorStore vectorStore;
+    private final ObjectProvider<CachingEmbeddingModel> embeddingCache;
+    private final KnowledgeBaseLoader knowledgeBaseLoader;
+
+    public VectorStoreController(HnswVectorStore vectorStore, ObjectProvider<CachingEmbeddingModel> embeddingCache,
+                                 KnowledgeBaseLoader knowledgeBaseLoader) {
+        this.vectorStore = vectorStore;
+        this.embeddingCache = embeddingCache;
+        this.knowledgeBaseLoader = knowledgeBaseLoader;
+    }
+
+    @GetMapping("/api/v1/vectorstore/status")
+    public KnowledgeBaseLoader.KnowledgeBaseStatus status() {
+        return knowledgeBaseLoader.status();
+    }
+
+    @GetMapping("/api/v1/vectorstore/recall-report")
+    public HnswRecallEvaluator.RecallReport recallReport(
+            @RequestParam(value = "k", defaultValue = "10") int k,
+            @RequestParam(value = "samples", defaultValue = "200") int samples,
+            @RequestParam(value = "ef", defaultValue = "16,32,64,128,256") int[] efSearchValues) {
+        return vectorStore.recallReport(k, samples, efSearchValues);
+    }
+
+    @GetMapping("/api/v1/vectorstore/quantization-report")
+    public HnswRecallEvaluator.QuantizationReport quantizationReport(
+            @RequestParam(value = "k", defaultValue = "10") int k,
+            @RequestParam(value = "samples", defaultValue = "200") int samples,
+            @RequestParam(value = "ef", defaultValue = "64") int efSearch,
+            @RequestParam(value = "rescore", defaultValue = "4") int rescoreMultiplier) {
+        return vectorStore.quantizationReport(k, samples, efSearch, rescoreMultiplier);
+    }
+
+    @GetMapping("/api/v1/vectorstore/embedding-cache")
+    public ResponseEntity<CachingEmbeddingModel.EmbeddingCacheStats> embeddingCacheStats() {
+        CachingEmbeddingModel cache = embeddingCache.getIfAvailable();
+        return cache == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(cache.stats());
+    }
+}
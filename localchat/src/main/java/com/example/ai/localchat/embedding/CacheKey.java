@@ -0,0 +1,33 @@
+package com.example.ai.localchat.embedding;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+/**
+ * First 128 bits of the SHA-256 of model name and normalized text.
+ */
+record CacheKey(long hi, long lo) {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    static CacheKey of(String model, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(normalize(text).getBytes(StandardCharsets.UTF_8)));
+            return new CacheKey(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Unicode NFC, trimmed, whitespace runs collapsed: "What is  HNSW?\n" and "What is HNSW?" share a key.
+    static String normalize(String text) {
+        return WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFC).strip()).replaceAll(" ");
+    }
+}
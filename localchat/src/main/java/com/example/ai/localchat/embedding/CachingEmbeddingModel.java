@@ -0,0 +1,176 @@
+package com.example.ai.localchat.embedding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EmbeddingModel} decorator that remembers embeddings by model name and normalized text, so
+ * re-ingested chunks and repeated questions don't go back to the model. A W-TinyLFU in-memory tier
+ * sits in front of an optional, bounded append-only file that survives restarts. Only the texts of a request
+ * that miss both tiers are sent to the delegate, in a single call.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final String defaultModel;
+    private final Cache<CacheKey, float[]> memory;
+    private final EmbeddingDiskCache disk;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param defaultModel model name used in cache keys when a request doesn't name one
+     * @param diskFile file for the on-disk tier, or null to cache in memory only
+     * @param diskMaximumSize how many embeddings the on-disk tier keeps
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModel, long maximumSize, Path diskFile,
+                                 long diskMaximumSize) {
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+        this.memory = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+        try {
+            this.disk = diskFile == null ? null : new EmbeddingDiskCache(diskFile, diskMaximumSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (disk != null) {
+            logger.info("Embedding cache file {} holds {} embeddings", diskFile, disk.size());
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String model = request.getOptions() != null && request.getOptions().getModel() != null
+                ? request.getOptions().getModel() : defaultModel;
+        List<String> texts = request.getInstructions();
+        float[][] vectors = new float[texts.size()][];
+        // misses by key, so a text repeated within one request is embedded once
+        Map<CacheKey, List<Integer>> missing = new LinkedHashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            CacheKey key = CacheKey.of(model, text);
+            float[] vector = lookup(key);
+            if (vector != null) {
+                vectors[i] = vector.clone();
+            } else {
+                missing.computeIfAbsent(key, k -> {
+                    missingTexts.add(text);
+                    return new ArrayList<>();
+                }).add(i);
+            }
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        metadata.setModel(model);
+        if (!missing.isEmpty()) {
+            misses.add(missing.size());
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+            int j = 0;
+            for (Map.Entry<CacheKey, List<Integer>> entry : missing.entrySet()) {
+                float[] vector = response.getResults().get(j++).getOutput();
+                store(entry.getKey(), vector);
+                for (int i : entry.getValue()) {
+                    vectors[i] = vector.clone();
+                }
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingCacheStats stats() {
+        long hitCount = hits.sum();
+        long diskHitCount = diskHits.sum();
+        long missCount = misses.sum();
+        long lookups = hitCount + diskHitCount + missCount;
+        return new EmbeddingCacheStats(hitCount, diskHitCount, missCount, memory.stats().evictionCount(),
+                memory.estimatedSize(), disk == null ? 0 : disk.size(),
+                lookups == 0 ? 0 : (double) (hitCount + diskHitCount) / lookups);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    private float[] lookup(CacheKey key) {
+        float[] vector = memory.getIfPresent(key);
+        if (vector != null) {
+            hits.increment();
+            return vector;
+        }
+        if (disk == null) {
+            return null;
+        }
+        try {
+            vector = disk.get(key);
+        } catch (IOException e) {
+            logger.warn("Failed to read the embedding cache file, embedding again", e);
+            return null;
+        }
+        if (vector != null) {
+            diskHits.increment();
+            memory.put(key, vector);
+        }
+        return vector;
+    }
+
+    private void store(CacheKey key, float[] vector) {
+        float[] copy = vector.clone();
+        memory.put(key, copy);
+        if (disk != null) {
+            try {
+                disk.put(key, copy);
+            } catch (IOException e) {
+                logger.warn("Failed to append to the embedding cache file", e);
+            }
+        }
+    }
+
+    /**
+     * @param hitRate share of lookups answered by either tier
+     */
+    public record EmbeddingCacheStats(long hits, long diskHits, long misses, long evictions, long memoryEntries,
+                                      long diskEntries, double hitRate) {
+    }
+}
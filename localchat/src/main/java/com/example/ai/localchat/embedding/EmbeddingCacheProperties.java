@@ -0,0 +1,17 @@
+package com.example.ai.localchat.embedding;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for {@link CachingEmbeddingModel}: how many embeddings to keep in memory and whether
+ * to keep embeddings, up to the disk maximum, in a file next to the vector store so restarts start warm.
+ */
+@ConfigurationProperties("localchat.embedding-cache")
+public record EmbeddingCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("20000") long maximumSize,
+        @DefaultValue("true") boolean diskEnabled,
+        @DefaultValue("embedding-cache.bin") String diskFile,
+        @DefaultValue("100000") long diskMaximumSize) {
+}
@@ -0,0 +1,191 @@
+package com.example.ai.localchat.embedding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of embeddings. Only the offsets are kept in memory; vectors are read back with
+ * positional reads. Records are {@code [long hi][long lo][int dimensions][float...]}, little-endian.
+ * A record cut short by a crash is dropped when the file is opened. Past the maximum number of
+ * entries the least recently used one is forgotten, and the file is rewritten with only the
+ * remembered records once most of it is forgotten ones.
+ */
+class EmbeddingDiskCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingDiskCache.class);
+
+    private static final int MAGIC = 0x4C434543; // "LCEC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 20;
+    private static final long COMPACT_MIN_BYTES = 8L << 20;
+
+    private final Path file;
+    private final long maximumSize;
+    // in access order, so the eldest entry is the least recently used
+    private final Map<CacheKey, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+
+    EmbeddingDiskCache(Path file, long maximumSize) throws IOException {
+        this.file = file;
+        this.maximumSize = maximumSize;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = open(file);
+        if (channel.size() < HEADER_BYTES || !hasValidHeader()) {
+            channel.truncate(0);
+            writeHeader(channel);
+            end = HEADER_BYTES;
+        } else {
+            scan();
+            evictOverflow();
+            compactIfMostlyGarbage();
+        }
+    }
+
+    synchronized float[] get(CacheKey key) throws IOException {
+        Record record = records.get(key);
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer body = readFully(record.offset() + RECORD_HEADER_BYTES, record.length() - RECORD_HEADER_BYTES);
+        float[] vector = new float[body.remaining() / Float.BYTES];
+        body.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    synchronized void put(CacheKey key, float[] vector) throws IOException {
+        if (records.containsKey(key)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + vector.length * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(key.hi()).putLong(key.lo()).putInt(vector.length);
+        record.asFloatBuffer().put(vector);
+        record.position(0);
+        long offset = end;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        records.put(key, new Record(offset, record.capacity()));
+        end = offset + record.capacity();
+        liveBytes += record.capacity();
+        evictOverflow();
+        compactIfMostlyGarbage();
+    }
+
+    synchronized int size() {
+        return records.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        ByteBuffer header = readFully(0, HEADER_BYTES);
+        return header.getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        long offset = HEADER_BYTES;
+        while (offset + RECORD_HEADER_BYTES <= size) {
+            ByteBuffer header = readFully(offset, RECORD_HEADER_BYTES);
+            CacheKey key = new CacheKey(header.getLong(), header.getLong());
+            long next = offset + RECORD_HEADER_BYTES + (long) header.getInt() * Float.BYTES;
+            if (next > size) {
+                break;
+            }
+            // a key written again after it was forgotten supersedes its earlier record
+            Record previous = records.put(key, new Record(offset, (int) (next - offset)));
+            liveBytes += next - offset - (previous == null ? 0 : previous.length());
+            offset = next;
+        }
+        if (offset < size) {
+            logger.warn("Dropping {} bytes of an incomplete embedding cache record", size - offset);
+            channel.truncate(offset);
+        }
+        end = offset;
+    }
+
+    private void evictOverflow() {
+        Iterator<Record> eldest = records.values().iterator();
+        while (records.size() > maximumSize) {
+            liveBytes -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+
+    private void compactIfMostlyGarbage() throws IOException {
+        if (end < COMPACT_MIN_BYTES || end - HEADER_BYTES < 2 * liveBytes) {
+            return;
+        }
+        long before = end;
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Map<CacheKey, Record> compactedRecords = new LinkedHashMap<>(16, 0.75f, true);
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(out);
+            long offset = HEADER_BYTES;
+            // least recently used first, so the order survives the rewrite and a restart
+            for (Map.Entry<CacheKey, Record> entry : records.entrySet()) {
+                Record record = entry.getValue();
+                ByteBuffer bytes = readFully(record.offset(), record.length());
+                while (bytes.hasRemaining()) {
+                    out.write(bytes, offset + bytes.position());
+                }
+                compactedRecords.put(entry.getKey(), new Record(offset, record.length()));
+                offset += record.length();
+            }
+            out.force(false);
+            end = offset;
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+        records.clear();
+        records.putAll(compactedRecords);
+        logger.info("Compacted embedding cache file {} from {} to {} bytes", file, before, end);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of embedding cache at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private record Record(long offset, int length) {
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.ai.localchat.gateway;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.client.reactive.AbstractClientHttpRequest;
+import org.springframework.http.client.reactive.AbstractClientHttpResponse;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.http.client.reactive.ClientHttpResponse;
+import org.springframework.util.LinkedMultiValueMap;
+import reactor.adapter.JdkFlowAdapter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ClientHttpConnector} on the JDK {@link HttpClient} that closes the connection when the
+ * response body is cancelled. Spring's {@code JdkClientHttpConnector} caches the body, so a
+ * cancelled Ollama stream is read to its end and the model keeps generating for a client that hung
+ * up, holding its gateway slot's share of the GPU. Here the cancel reaches the JDK subscription,
+ * which drops the connection, and Ollama stops the generation. HTTP/1.1 only, so that is the
+ * connection rather than a stream of it. Request bodies, small JSON documents for Ollama, are sent
+ * in one piece.
+ */
+public class CancellableJdkClientHttpConnector implements ClientHttpConnector {
+
+    // set by the JDK client itself, see jdk.internal.net.http.common.Utils
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect",
+            "host", "upgrade");
+
+    private final HttpClient httpClient;
+    private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+    public CancellableJdkClientHttpConnector() {
+        this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+    }
+
+    public CancellableJdkClientHttpConnector(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public Mono<ClientHttpResponse> connect(HttpMethod method, URI uri,
+                                            Function<? super ClientHttpRequest, Mono<Void>> requestCallback) {
+        Request request = new Request(method, uri);
+        return requestCallback.apply(request)
+                .then(Mono.defer(() -> Mono.fromFuture(() -> httpClient.sendAsync(request.build(),
+                        HttpResponse.BodyHandlers.ofPublisher()))))
+                .map(this::response);
+    }
+
+    private ClientHttpResponse response(HttpResponse<Flow.Publisher<List<ByteBuffer>>> response) {
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach(headers::addAll);
+        Flux<DataBuffer> body = JdkFlowAdapter.flowPublisherToFlux(response.body())
+                .flatMapIterable(Function.identity())
+                .map(bufferFactory::wrap)
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        return new Response(HttpStatusCode.valueOf(response.statusCode()),
+                HttpHeaders.readOnlyHttpHeaders(headers), body);
+    }
+
+    private final class Request extends AbstractClientHttpRequest {
+
+        private final HttpMethod method;
+        private final URI uri;
+        private byte[] body;
+
+        Request(HttpMethod method, URI uri) {
+            this.method = method;
+            this.uri = uri;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        public DataBufferFactory bufferFactory() {
+            return bufferFactory;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getNativeRequest() {
+            return (T) build();
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            return DataBufferUtils.join(body)
+                    .doOnNext(joined -> {
+                        byte[] bytes = new byte[joined.readableByteCount()];
+                        joined.read(bytes);
+                        DataBufferUtils.release(joined);
+                        this.body = bytes;
+                    })
+                    .then(doCommit());
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            return writeWith(Flux.from(body).flatMap(Function.identity()));
+        }
+
+        @Override
+        public Mono<Void> setComplete() {
+            return doCommit();
+        }
+
+        @Override
+        protected void applyHeaders() {
+        }
+
+        @Override
+        protected void applyCookies() {
+        }
+
+        HttpRequest build() {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri).method(method.name(),
+                    body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+            getHeaders().forEach((name, values) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                    values.forEach(value -> builder.header(name, value));
+                }
+            });
+            if (!getCookies().isEmpty()) {
+                builder.header(HttpHeaders.COOKIE, getCookies().values().stream()
+                        .flatMap(List::stream)
+                        .map(cookie -> cookie.getName() + "=" + cookie.getValue())
+                        .collect(Collectors.joining("; ")));
+            }
+            return builder.build();
+        }
+    }
+
+    // the body is read once; later subscribers, such as WebClient releasing a cancelled body, get nothing
+    private static final class Response extends AbstractClientHttpResponse {
+
+        private final Flux<DataBuffer> body;
+
+        Response(HttpStatusCode status, HttpHeaders headers, Flux<DataBuffer> body) {
+            super(status, headers, new LinkedMultiValueMap<String, ResponseCookie>(), body);
+            AtomicBoolean subscribed = new AtomicBoolean();
+            this.body = Flux.defer(() -> subscribed.compareAndSet(false, true) ? body : Flux.empty());
+        }
+
+        @Override
+        public Flux<DataBuffer> getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.ai.localchat.gateway;
+
+import com.example.ai.localchat.observability.RagObservations;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link ChatModel} decorator that sends every generation through a {@link ModelGateway} at a fixed
+ * priority. Identical prompts that arrive while one is being generated share that generation
+ * (single flight): a blocking call waits for the running call's response, and a stream subscribes
+ * to the running stream, replaying what was already generated. A shared stream is cancelled only
+ * once all of its subscribers have cancelled.
+ * <p>
+ * Each generation records its prompt tokens and how long it held its gateway slot, and a stream
+ * also its time to first token, tagged with the priority; see {@link RagObservations}.
+ */
+public class GatewayChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ModelGateway gateway;
+    private final ModelPriority priority;
+    private final RagObservations observations;
+    private final String model;
+
+    private final Map<String, CompletableFuture<ChatResponse>> calls = new ConcurrentHashMap<>();
+    private final Map<String, Flux<ChatResponse>> streams = new ConcurrentHashMap<>();
+
+    public GatewayChatModel(ChatModel delegate, ModelGateway gateway, ModelPriority priority) {
+        this(delegate, gateway, priority, RagObservations.NOOP);
+    }
+
+    public GatewayChatModel(ChatModel delegate, ModelGateway gateway, ModelPriority priority,
+                            RagObservations observations) {
+        this.delegate = delegate;
+        this.gateway = gateway;
+        this.priority = priority;
+        this.observations = observations;
+        this.model = priority.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String key = key(prompt);
+        CompletableFuture<ChatResponse> call = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> running = calls.putIfAbsent(key, call);
+        if (running != null) {
+            gateway.coalesced();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            ChatResponse response = gateway.call(priority, () -> {
+                long start = System.nanoTime();
+                ChatResponse generated = delegate.call(prompt);
+                observations.generation(model, System.nanoTime() - start);
+                recordPromptTokens(generated);
+                return generated;
+            });
+            call.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        String key = key(prompt);
+        AtomicReference<Flux<ChatResponse>> self = new AtomicReference<>();
+        // waiting for a slot blocks, so it happens on a worker; the slot is freed however the stream ends
+        Flux<ChatResponse> stream = Flux.using(() -> gateway.acquire(priority), permit -> observed(prompt),
+                        ModelGateway.Permit::close)
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> streams.remove(key, self.get()))
+                .replay()
+                .refCount();
+        self.set(stream);
+        Flux<ChatResponse> running = streams.putIfAbsent(key, stream);
+        if (running != null) {
+            gateway.coalesced();
+            return running;
+        }
+        return stream;
+    }
+
+    // time to first token and generation time count from the moment the stream holds its slot
+    private Flux<ChatResponse> observed(Prompt prompt) {
+        long start = System.nanoTime();
+        AtomicBoolean first = new AtomicBoolean(true);
+        AtomicReference<ChatResponse> last = new AtomicReference<>();
+        return delegate.stream(prompt)
+                .doOnNext(response -> {
+                    if (first.compareAndSet(true, false)) {
+                        observations.timeToFirstToken(model, System.nanoTime() - start);
+                    }
+                    last.set(response);
+                })
+                .doOnComplete(() -> {
+                    observations.generation(model, System.nanoTime() - start);
+                    recordPromptTokens(last.get());
+                });
+    }
+
+    // Ollama reports the prompt's token count with the final response of a generation
+    private void recordPromptTokens(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage != null && usage.getPromptTokens() != null && usage.getPromptTokens() > 0) {
+            observations.promptTokens(model, usage.getPromptTokens());
+        }
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private static String key(Prompt prompt) {
+        StringBuilder key = new StringBuilder();
+        for (Message message : prompt.getInstructions()) {
+            key.append(message.getMessageType()).append('\u0000').append(message.getText()).append('\u0001');
+        }
+        return key.append(Objects.hashCode(prompt.getOptions())).toString();
+    }
+}
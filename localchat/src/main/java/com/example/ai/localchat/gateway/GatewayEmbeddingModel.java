@@ -0,0 +1,170 @@
+package com.example.ai.localchat.gateway;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link EmbeddingModel} decorator that merges embedding requests arriving within a short window
+ * into one call through the {@link ModelGateway}. The first request of a batch waits up to the window
+ * (or until the batch is full), sends the distinct texts of every request that joined, and hands
+ * each its own vectors; a text asked for by several requests is embedded once. Requests with
+ * different models or dimensions go in different batches, and a request as large as a batch is sent
+ * on its own.
+ */
+public class GatewayEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final ModelGateway gateway;
+    private final long batchWindowNanos;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchClosed = lock.newCondition();
+    private Batch open;
+
+    public GatewayEmbeddingModel(EmbeddingModel delegate, ModelGateway gateway, Duration batchWindow,
+                                 int maxBatchSize) {
+        this.delegate = delegate;
+        this.gateway = gateway;
+        this.batchWindowNanos = batchWindow.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        if (texts.size() >= maxBatchSize || batchWindowNanos <= 0) {
+            return gateway.call(ModelPriority.EMBEDDING, () -> delegate.call(request));
+        }
+        String key = key(request.getOptions());
+        Batch batch;
+        int[] slots;
+        boolean leader = false;
+        lock.lock();
+        try {
+            if (open != null && (!open.key.equals(key) || open.texts.size() + texts.size() > maxBatchSize)) {
+                closeOpenBatch();
+            }
+            if (open == null) {
+                open = new Batch(key, request.getOptions());
+                leader = true;
+            }
+            batch = open;
+            slots = batch.add(texts);
+            if (batch.texts.size() >= maxBatchSize) {
+                closeOpenBatch();
+            }
+            if (leader) {
+                awaitClose(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (leader) {
+            send(batch);
+        }
+        return response(batch, slots);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    // the leader collects joiners until the window ends or a joiner fills the batch
+    private void awaitClose(Batch batch) {
+        long remaining = batchWindowNanos;
+        try {
+            while (!batch.closed && remaining > 0) {
+                remaining = batchClosed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (open == batch) {
+            closeOpenBatch();
+        }
+    }
+
+    private void closeOpenBatch() {
+        open.closed = true;
+        open = null;
+        batchClosed.signalAll();
+    }
+
+    private void send(Batch batch) {
+        try {
+            EmbeddingResponse response = gateway.call(ModelPriority.EMBEDDING,
+                    () -> delegate.call(new EmbeddingRequest(batch.texts, batch.options)));
+            gateway.embeddingBatch(batch.requests);
+            batch.result.complete(response);
+        } catch (RuntimeException e) {
+            batch.result.completeExceptionally(e);
+        }
+    }
+
+    private static EmbeddingResponse response(Batch batch, int[] slots) {
+        EmbeddingResponse batchResponse;
+        try {
+            batchResponse = batch.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        List<Embedding> embeddings = new ArrayList<>(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            embeddings.add(new Embedding(batchResponse.getResults().get(slots[i]).getOutput().clone(), i));
+        }
+        return new EmbeddingResponse(embeddings, batchResponse.getMetadata());
+    }
+
+    private static String key(EmbeddingOptions options) {
+        return options == null ? "" : options.getModel() + "/" + options.getDimensions();
+    }
+
+    private static final class Batch {
+
+        private final String key;
+        private final EmbeddingOptions options;
+        private final List<String> texts = new ArrayList<>();
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final CompletableFuture<EmbeddingResponse> result = new CompletableFuture<>();
+        private int requests;
+        private boolean closed;
+
+        Batch(String key, EmbeddingOptions options) {
+            this.key = key;
+            this.options = options;
+        }
+
+        int[] add(List<String> requestTexts) {
+            requests++;
+            int[] requestSlots = new int[requestTexts.size()];
+            for (int i = 0; i < requestTexts.size(); i++) {
+                requestSlots[i] = slots.computeIfAbsent(requestTexts.get(i), text -> {
+                    texts.add(text);
+                    return texts.size() - 1;
+                });
+            }
+            return requestSlots;
+        }
+    }
+}
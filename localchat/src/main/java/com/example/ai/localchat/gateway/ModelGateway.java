@@ -0,0 +1,208 @@
+package com.example.ai.localchat.gateway;
+
+import java.time.Duration;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for the one local Ollama: at most {@code maxConcurrency} model calls run at once
+ * and the rest wait in a priority queue, so a chat answer overtakes queued expansion and rerank
+ * calls instead of queueing behind them inside Ollama. A call whose estimated wait (calls ahead of it
+ * times the moving-average call time) already exceeds its priority's queue timeout is rejected
+ * straight away with {@link ModelOverloadedException}; one that waits past it is rejected then.
+ * <p>
+ * Waiting uses a {@link ReentrantLock} rather than {@code synchronized}, so blocked virtual threads
+ * release their carrier.
+ */
+public class ModelGateway {
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final int maxConcurrency;
+    private final ModelGatewayProperties.QueueTimeouts queueTimeouts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private int running;
+    private long sequence;
+    private double averageCallNanos;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder embeddingBatches = new LongAdder();
+    private final LongAdder batchedEmbeddingRequests = new LongAdder();
+
+    public ModelGateway(int maxConcurrency, ModelGatewayProperties.QueueTimeouts queueTimeouts) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.queueTimeouts = queueTimeouts;
+    }
+
+    /**
+     * Runs the call once a slot is free, ahead of queued calls of lower priority.
+     *
+     * @throws ModelOverloadedException when the call can't start within its queue timeout
+     */
+    public <T> T call(ModelPriority priority, Supplier<T> call) {
+        try (Permit permit = acquire(priority)) {
+            return call.get();
+        }
+    }
+
+    /**
+     * Waits for a slot; closing the permit frees it. For calls whose end isn't the end of a method,
+     * like a streamed generation.
+     *
+     * @throws ModelOverloadedException when the call can't start within its queue timeout
+     */
+    public Permit acquire(ModelPriority priority) {
+        Duration timeout = queueTimeouts.of(priority);
+        boolean bounded = !timeout.isZero() && !timeout.isNegative();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        lock.lock();
+        try {
+            if (running < maxConcurrency && waiters.isEmpty()) {
+                running++;
+                return new Permit();
+            }
+            if (bounded && estimatedWaitNanos(priority) > timeout.toNanos()) {
+                shed.increment();
+                throw overloaded(priority);
+            }
+            Waiter waiter = new Waiter(priority, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            try {
+                while (!waiter.granted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (!bounded) {
+                        waiter.condition.await();
+                    } else if (remaining > 0) {
+                        waiter.condition.awaitNanos(remaining);
+                    } else {
+                        waiters.remove(waiter);
+                        shed.increment();
+                        throw overloaded(priority);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    release(0);
+                } else {
+                    waiters.remove(waiter);
+                }
+                throw new ModelOverloadedException("Interrupted while waiting for the model");
+            }
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ModelGatewayStats stats() {
+        lock.lock();
+        try {
+            return new ModelGatewayStats(maxConcurrency, running, waiters.size(), completed.sum(), shed.sum(),
+                    coalesced.sum(), embeddingBatches.sum(), batchedEmbeddingRequests.sum(),
+                    (long) (averageCallNanos / 1_000_000));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void embeddingBatch(int requests) {
+        embeddingBatches.increment();
+        batchedEmbeddingRequests.add(requests);
+    }
+
+    // calls queued ahead of a new one of this priority, spread over the slots
+    private long estimatedWaitNanos(ModelPriority priority) {
+        long ahead = waiters.stream().filter(waiter -> waiter.priority.compareTo(priority) <= 0).count();
+        return (long) ((ahead + 1) * averageCallNanos / maxConcurrency);
+    }
+
+    private void release(long callNanos) {
+        lock.lock();
+        try {
+            if (callNanos > 0) {
+                averageCallNanos = averageCallNanos == 0 ? callNanos
+                        : averageCallNanos + LATENCY_SMOOTHING * (callNanos - averageCallNanos);
+                completed.increment();
+            }
+            Waiter next = waiters.poll();
+            if (next != null) {
+                next.granted = true;
+                next.condition.signal();
+            } else {
+                running--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ModelOverloadedException overloaded(ModelPriority priority) {
+        return new ModelOverloadedException("The model is busy: " + waiters.size() + " calls queued, no "
+                + priority.name().toLowerCase() + " slot within " + queueTimeouts.of(priority).toMillis() + " ms");
+    }
+
+    /**
+     * A running call's slot, handed to the next queued call when closed. Closing twice is harmless.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final long start = System.nanoTime();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(Math.max(1, System.nanoTime() - start));
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final ModelPriority priority;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        Waiter(ModelPriority priority, long sequence, Condition condition) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * @param shed calls rejected because they couldn't start within their queue timeout
+     * @param coalesced calls answered by an identical call that was already running
+     * @param averageCallMillis moving average of the time a call holds its slot
+     */
+    public record ModelGatewayStats(int maxConcurrency, int running, int queued, long completed, long shed,
+                                    long coalesced, long embeddingBatches, long batchedEmbeddingRequests,
+                                    long averageCallMillis) {
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.ai.localchat.gateway;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link ModelGateway}: how many model calls run against Ollama at once, how long a
+ * call of each priority may wait for a slot before it is shed (zero waits indefinitely), and how
+ * concurrent embedding requests are merged into one call.
+ */
+@ConfigurationProperties("localchat.model-gateway")
+public record ModelGatewayProperties(
+        @DefaultValue("2") int maxConcurrency,
+        @DefaultValue QueueTimeouts queueTimeout,
+        @DefaultValue("5ms") Duration embeddingBatchWindow,
+        @DefaultValue("64") int embeddingBatchSize) {
+
+    public record QueueTimeouts(
+            @DefaultValue("30s") Duration chat,
+            @DefaultValue("0s") Duration embedding,
+            @DefaultValue("3s") Duration expansion,
+            @DefaultValue("3s") Duration rerank) {
+
+        public Duration of(ModelPriority priority) {
+            return switch (priority) {
+                case CHAT -> chat;
+                case EMBEDDING -> embedding;
+                case EXPANSION -> expansion;
+                case RERANK -> rerank;
+            };
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.ai.localchat.gateway;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown by {@link ModelGateway} when a call can't start before its queue deadline, so the client
+ * gets a fast 429 instead of waiting behind the local model's backlog.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class ModelOverloadedException extends RuntimeException {
+
+    public ModelOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.ai.localchat.gateway;
+
+/**
+ * Order in which {@link ModelGateway} grants queued model calls, highest first.
+ */
+public enum ModelPriority {
+    /**
+     * The answer a user is waiting for.
+     */
+    CHAT,
+    /**
+     * Question and chunk embeddings; short calls that retrieval waits on.
+     */
+    EMBEDDING,
+    /**
+     * Query rewrite and expansion, which retrieval skips when they miss their budget.
+     */
+    EXPANSION,
+    /**
+     * LLM rerank, which retrieval skips when it misses its budget.
+     */
+    RERANK
+}
@@ -0,0 +1,138 @@
+package com.example.ai.localchat.ingestion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes every {@link ChunkMetadataEnricher} feature in one pass over the chunk, with no regex and
+ * no per-character allocation; the only allocations are the result and one string per distinct
+ * technical term.
+ * <p>
+ * The features are defined by the regex-based implementation this replaces, and are reproduced
+ * exactly, including {@link String#split} dropping trailing empty strings:
+ * <ul>
+ * <li>code fences: {@code text.split("```").length - 1}</li>
+ * <li>average sentence length: mean length of {@code text.split("[.!?]")}</li>
+ * <li>technical terms: the words matched by
+ * {@code \b([A-Z][a-z]+[A-Z][a-zA-Z]*|[A-Z_]{2,}|[a-z]+[A-Z][a-zA-Z]*)\b}</li>
+ * <li>API reference: a word {@code API}, {@code endpoint} or {@code method} anywhere in the chunk</li>
+ * </ul>
+ * Words are runs of letters, digits and underscores, the characters {@code \b} treats as word
+ * characters. Both word patterns can only match a whole word, so the scanner classifies each
+ * word as it ends instead of backtracking.
+ */
+public final class ChunkFeatureScanner {
+
+    private ChunkFeatureScanner() {
+    }
+
+    public static ChunkFeatures scan(String text) {
+        int length = text.length();
+
+        // "```" fences, matched left to right without overlap like split does
+        int fences = 0;
+        int backticks = 0;
+        int lastFenceEnd = -1;
+        int adjacentFences = 0;
+        boolean fenceChainFromStart = false;
+
+        // sentence delimiters and the run of them at the end of the text
+        int delimiters = 0;
+        int trailingDelimiters = 0;
+
+        boolean apiReference = false;
+        Map<String, Integer> technicalTerms = new LinkedHashMap<>();
+
+        int wordStart = -1;
+        boolean asciiLetters = false;
+        boolean upperOrUnderscore = false;
+        boolean upperAfterSecond = false;
+        boolean upper = false;
+
+        for (int i = 0; i <= length; ) {
+            int c = i < length ? text.codePointAt(i) : -1;
+            int width = c < 0 ? 1 : Character.charCount(c);
+
+            if (c == '`') {
+                backticks++;
+            } else if (backticks > 0) {
+                int runStart = i - backticks;
+                for (int f = 0; f < backticks / 3; f++) {
+                    int start = runStart + 3 * f;
+                    if (start == lastFenceEnd) {
+                        adjacentFences++;
+                    } else {
+                        adjacentFences = 1;
+                        fenceChainFromStart = start == 0;
+                    }
+                    lastFenceEnd = start + 3;
+                    fences++;
+                }
+                backticks = 0;
+            }
+
+            if (c == '.' || c == '!' || c == '?') {
+                delimiters++;
+                trailingDelimiters++;
+            } else if (c >= 0) {
+                trailingDelimiters = 0;
+            }
+
+            boolean word = c >= 0 && (Character.isLetterOrDigit(c) || c == '_');
+            if (word) {
+                boolean lowerCase = c >= 'a' && c <= 'z';
+                boolean upperCase = c >= 'A' && c <= 'Z';
+                if (wordStart < 0) {
+                    wordStart = i;
+                    asciiLetters = true;
+                    upperOrUnderscore = true;
+                    upperAfterSecond = false;
+                    upper = false;
+                } else if (upperCase && i - wordStart >= 2) {
+                    upperAfterSecond = true;
+                }
+                asciiLetters &= lowerCase || upperCase;
+                upperOrUnderscore &= upperCase || c == '_';
+                upper |= upperCase;
+            } else if (wordStart >= 0) {
+                int wordLength = i - wordStart;
+                char first = text.charAt(wordStart);
+                boolean camelCase = asciiLetters && wordLength >= 3 && first >= 'A' && first <= 'Z'
+                        && text.charAt(wordStart + 1) >= 'a' && text.charAt(wordStart + 1) <= 'z' && upperAfterSecond;
+                boolean constant = upperOrUnderscore && wordLength >= 2;
+                boolean lowerCamelCase = asciiLetters && first >= 'a' && first <= 'z' && upper;
+                if (camelCase || constant || lowerCamelCase) {
+                    technicalTerms.merge(text.substring(wordStart, i), 1, Integer::sum);
+                }
+                apiReference |= text.startsWith("API", wordStart) && wordLength == 3
+                        || text.startsWith("endpoint", wordStart) && wordLength == 8
+                        || text.startsWith("method", wordStart) && wordLength == 6;
+                wordStart = -1;
+            }
+            i += width;
+        }
+
+        int fencePieces;
+        if (fences == 0) {
+            fencePieces = 1;
+        } else if (lastFenceEnd == length) {
+            fencePieces = fenceChainFromStart ? 0 : fences + 1 - adjacentFences;
+        } else {
+            fencePieces = fences + 1;
+        }
+
+        int sentences = trailingDelimiters == length && length > 0 ? 0 : delimiters + 1 - trailingDelimiters;
+        double averageSentenceLength = sentences == 0 ? 0 : (double) (length - delimiters) / sentences;
+
+        double codeBlocks = (fencePieces - 1) * 2.0;
+        double complexity = (codeBlocks + (averageSentenceLength / 100.0)) / 2.0;
+        return new ChunkFeatures(fences > 0, apiReference, complexity, technicalTerms);
+    }
+
+    /**
+     * @param technicalTerms distinct technical terms in order of first occurrence, with their counts
+     */
+    public record ChunkFeatures(boolean hasCode, boolean hasApiReference, double complexityScore,
+                                Map<String, Integer> technicalTerms) {
+    }
+}
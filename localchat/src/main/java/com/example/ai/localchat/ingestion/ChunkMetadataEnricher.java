@@ -0,0 +1,33 @@
+package com.example.ai.localchat.ingestion;
+
+import org.springframework.ai.document.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adds the technical-context features used by retrieval ({@code has_code}, {@code has_api_ref},
+ * {@code complexity_score}, {@code technical_terms}) to a split chunk. Stateless and safe to share
+ * between ingestion threads.
+ */
+public class ChunkMetadataEnricher {
+
+    public Document enrichMetadata(Document doc) {
+        Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+
+        // Extract technical context in a single pass over the chunk; the text is kept as it is, without
+        // the metadata the formatted content would prepend
+        String content = doc.getText();
+        ChunkFeatureScanner.ChunkFeatures features = ChunkFeatureScanner.scan(content);
+        metadata.put("has_code", features.hasCode());
+        metadata.put("has_api_ref", features.hasApiReference());
+
+        // Text complexity for better ranking: code blocks and sentence length
+        metadata.put("complexity_score", features.complexityScore());
+
+        // Key technical terms (camelCase, PascalCase, UPPER_CASE identifiers) with their counts
+        metadata.put("technical_terms", features.technicalTerms());
+
+        return new Document(content, metadata);
+    }
+}
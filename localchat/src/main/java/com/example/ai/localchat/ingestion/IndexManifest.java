@@ -0,0 +1,42 @@
+package com.example.ai.localchat.ingestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the vector store currently holds for each knowledge-base source: the hash of the file it
+ * was built from and the id and content hash of every chunk, in document order.
+ */
+public record IndexManifest(int version, Map<String, FileEntry> files) {
+
+    public record FileEntry(String hash, List<IngestionPipeline.ChunkRef> chunks) {
+    }
+
+    /**
+     * @return the manifest at {@code path}, or null if there is none
+     */
+    static IndexManifest load(Path path, ObjectMapper objectMapper) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        return objectMapper.readValue(path.toFile(), IndexManifest.class);
+    }
+
+    void save(Path path, ObjectMapper objectMapper) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), this);
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.ai.localchat.ingestion;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters updated by the ingestion stages; {@link #snapshot()} turns them into rates.
+ */
+public class IngestionMetrics {
+
+    private final long startNanos = System.nanoTime();
+    final LongAdder documentsRead = new LongAdder();
+    final LongAdder chunksSplit = new LongAdder();
+    final LongAdder chunksReused = new LongAdder();
+    final LongAdder chunksEmbedded = new LongAdder();
+    final LongAdder embedTokens = new LongAdder();
+    final LongAdder embedBatches = new LongAdder();
+    final LongAdder embedNanos = new LongAdder();
+    final LongAdder chunksWritten = new LongAdder();
+
+    public IngestionProgress snapshot() {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+        long documents = documentsRead.sum();
+        long chunks = chunksSplit.sum();
+        long tokens = embedTokens.sum();
+        return new IngestionProgress(documents, chunks, chunksReused.sum(), chunksEmbedded.sum(), chunksWritten.sum(),
+                tokens, embedBatches.sum(), seconds,
+                documents / seconds, chunks / seconds, tokens / seconds,
+                embedNanos.sum() / 1e9);
+    }
+
+    /**
+     * Point-in-time view of an ingestion run. {@code embedSeconds} is the wall time spent inside
+     * embedding calls summed over embed threads; when it approaches {@code elapsedSeconds} times
+     * the embed parallelism, the run is bound by the embedding model.
+     */
+    public record IngestionProgress(long documentsRead, long chunksSplit, long chunksReused, long chunksEmbedded,
+                                    long chunksWritten,
+                                    long embedTokens, long embedBatches, double elapsedSeconds,
+                                    double documentsPerSecond, double chunksPerSecond, double embedTokensPerSecond,
+                                    double embedSeconds) {
+
+        @Override
+        public String toString() {
+            return String.format("%d docs, %d chunks split, %d reused, %d embedded (%d batches), %d written in %.1fs "
+                            + "[%.1f docs/s, %.1f chunks/s, %.0f embed tokens/s, %.1fs in embed calls]",
+                    documentsRead, chunksSplit, chunksReused, chunksEmbedded, embedBatches, chunksWritten, elapsedSeconds,
+                    documentsPerSecond, chunksPerSecond, embedTokensPerSecond, embedSeconds);
+        }
+    }
+}
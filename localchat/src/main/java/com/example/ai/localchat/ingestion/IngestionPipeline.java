@@ -0,0 +1,402 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.core.io.Resource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Staged ETL for the knowledge base: read, split, enrich, embed and write run on their own threads,
+ * connected by bounded queues so a slow stage blocks its producers instead of buffering the
+ * corpus in memory. Chunks are embedded in batches sized by token budget, so embedding calls are
+ * few and large and several can be in flight at once.
+ * <p>
+ * Files are read by a {@link SectionReader}, one file per read thread, and enter the read queue a
+ * section at a time as they are parsed, so the text held in memory is bounded by the queue sizes
+ * however large the files are. Sections of one file are split independently.
+ * <p>
+ * Every chunk gets a content-addressed id derived from its source, text and position among
+ * identical chunks of that source, plus {@code source} and {@code chunk_hash} metadata. Chunks
+ * whose id is already indexed are not embedded again.
+ * <p>
+ * The write stage links the embedded chunks into the graph of a {@link HnswVectorStore.Update} as they
+ * arrive, and the update is applied to the store only once the run has succeeded; added chunks live on
+ * the heap either way.
+ */
+public class IngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    public static final String SOURCE_METADATA = "source";
+    public static final String HASH_METADATA = "chunk_hash";
+    // bump when splitting or enrichment changes so every chunk is re-embedded with new features
+    static final int CHUNK_ID_VERSION = 3;
+
+    private final IngestionProperties properties;
+    private final SectionReader reader;
+    private final Supplier<TextSplitter> splitterFactory;
+    private final ChunkMetadataEnricher enricher;
+    private final EmbeddingModel embeddingModel;
+    private final HnswVectorStore vectorStore;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private volatile IngestionMetrics metrics = new IngestionMetrics();
+
+    public IngestionPipeline(IngestionProperties properties,
+                             Function<Resource, List<Document>> reader,
+                             Supplier<TextSplitter> splitterFactory,
+                             ChunkMetadataEnricher enricher,
+                             EmbeddingModel embeddingModel,
+                             HnswVectorStore vectorStore) {
+        this(properties, SectionReader.of(reader), splitterFactory, enricher, embeddingModel, vectorStore);
+    }
+
+    public IngestionPipeline(IngestionProperties properties,
+                             SectionReader reader,
+                             Supplier<TextSplitter> splitterFactory,
+                             ChunkMetadataEnricher enricher,
+                             EmbeddingModel embeddingModel,
+                             HnswVectorStore vectorStore) {
+        this.properties = properties;
+        this.reader = reader;
+        this.splitterFactory = splitterFactory;
+        this.enricher = enricher;
+        this.embeddingModel = embeddingModel;
+        this.vectorStore = vectorStore;
+    }
+
+    /**
+     * Ingests every resource into the vector store and blocks until the last chunk is written. The
+     * chunks are added in one step at the end, and not at all when the run fails.
+     * @throws RuntimeException wrapping the first failure of any stage; the other stages are cancelled
+     */
+    public Result run(Map<String, Resource> sources, Predicate<String> alreadyIndexed) {
+        HnswVectorStore.Update update = vectorStore.update();
+        Result result = run(sources, alreadyIndexed, update);
+        vectorStore.apply(update);
+        return result;
+    }
+
+    /**
+     * Ingests every resource into {@code update} rather than the vector store, for the caller to
+     * apply together with its other changes.
+     * @throws RuntimeException wrapping the first failure of any stage; the other stages are cancelled
+     */
+    public Result run(Map<String, Resource> sources, Predicate<String> alreadyIndexed, HnswVectorStore.Update update) {
+        List<Map.Entry<String, Resource>> resources = new ArrayList<>(sources.entrySet());
+        // a source's sections may be split by different workers; their chunks are put in order at the end
+        Map<String, ConcurrentSkipListMap<Integer, List<ChunkRef>>> chunksBySection = new ConcurrentHashMap<>();
+        Map<String, Map<String, AtomicInteger>> occurrencesBySource = new ConcurrentHashMap<>();
+        IngestionMetrics runMetrics = new IngestionMetrics();
+        this.metrics = runMetrics;
+        int capacity = properties.queueCapacity();
+        BlockingQueue<Section> read = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<List<Document>> split = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<List<Document>> enriched = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<EmbedBatch> batches = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<EmbedBatch> embedded = new ArrayBlockingQueue<>(capacity);
+        // identity sentinels marking the end of each queue
+        Section endOfRead = new Section(null, 0, null);
+        List<Document> endOfSplit = new ArrayList<>(0);
+        List<Document> endOfEnriched = new ArrayList<>(0);
+        EmbedBatch endOfBatches = new EmbedBatch(List.of(), List.of(), 0, null);
+        EmbedBatch endOfEmbedded = new EmbedBatch(List.of(), List.of(), 0, null);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService executor = Executors.newCachedThreadPool(namedThreads("ingest"));
+        ScheduledExecutorService progressLogger = Executors.newSingleThreadScheduledExecutor(namedThreads("ingest-progress"));
+        long intervalMillis = properties.progressInterval().toMillis();
+        progressLogger.scheduleAtFixedRate(() -> logger.info("Ingestion progress: {}", runMetrics.snapshot()),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        AtomicInteger nextResource = new AtomicInteger();
+        int readThreads = properties.readThreads() > 0 ? properties.readThreads()
+                : Runtime.getRuntime().availableProcessors();
+        startStage(executor, failure, readThreads, read, endOfRead, out -> {
+            int i;
+            while ((i = nextResource.getAndIncrement()) < resources.size()) {
+                String source = resources.get(i).getKey();
+                chunksBySection.put(source, new ConcurrentSkipListMap<>());
+                occurrencesBySource.put(source, new ConcurrentHashMap<>());
+                AtomicInteger sections = new AtomicInteger();
+                reader.read(resources.get(i).getValue(), document -> {
+                    Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+                    metadata.put(SOURCE_METADATA, source);
+                    out.put(new Section(source, sections.getAndIncrement(), Document.builder()
+                            .id(document.getId()).text(document.getText()).metadata(metadata).build()));
+                });
+                runMetrics.documentsRead.increment();
+            }
+        });
+        startStage(executor, failure, properties.splitThreads(), split, endOfSplit, out -> {
+            TextSplitter splitter = splitterFactory.get();
+            Section section;
+            while ((section = take(read, endOfRead)) != null) {
+                String text = section.document().getText();
+                if (text == null || text.isBlank()) {
+                    continue;
+                }
+                List<Document> chunks = identify(section.source(), splitter.apply(List.of(section.document())),
+                        occurrencesBySource.get(section.source()));
+                chunksBySection.get(section.source()).put(section.index(), chunks.stream()
+                        .map(chunk -> new ChunkRef(chunk.getId(), (String) chunk.getMetadata().get(HASH_METADATA)))
+                        .toList());
+                runMetrics.chunksSplit.add(chunks.size());
+                List<Document> pending = chunks.stream().filter(chunk -> !alreadyIndexed.test(chunk.getId())).toList();
+                runMetrics.chunksReused.add(chunks.size() - pending.size());
+                if (!pending.isEmpty()) {
+                    out.put(pending);
+                }
+            }
+        });
+        startStage(executor, failure, properties.enrichThreads(), enriched, endOfEnriched, out -> {
+            List<Document> chunks;
+            while ((chunks = take(split, endOfSplit)) != null) {
+                List<Document> result = new ArrayList<>(chunks.size());
+                for (Document chunk : chunks) {
+                    Document enrichedChunk = enricher.enrichMetadata(chunk);
+                    result.add(Document.builder()
+                            .id(chunk.getId())
+                            .text(enrichedChunk.getText())
+                            .metadata(enrichedChunk.getMetadata())
+                            .build());
+                }
+                out.put(result);
+            }
+        });
+        startStage(executor, failure, 1, batches, endOfBatches, out -> {
+            BatchBuilder batch = new BatchBuilder();
+            List<Document> chunks;
+            while ((chunks = take(enriched, endOfEnriched)) != null) {
+                for (Document chunk : chunks) {
+                    // the chunk text alone, as the store embedded it before; metadata is for filtering
+                    String text = chunk.getText();
+                    int tokens = tokenCountEstimator.estimate(text);
+                    if (!batch.isEmpty() && (batch.tokens + tokens > properties.embedBatchTokens()
+                            || batch.documents.size() >= properties.embedBatchMaxChunks())) {
+                        out.put(batch.build());
+                        batch = new BatchBuilder();
+                    }
+                    batch.add(chunk, text, tokens);
+                }
+            }
+            if (!batch.isEmpty()) {
+                out.put(batch.build());
+            }
+        });
+        startStage(executor, failure, properties.embedThreads(), embedded, endOfEmbedded, out -> {
+            EmbedBatch batch;
+            while ((batch = take(batches, endOfBatches)) != null) {
+                long start = System.nanoTime();
+                List<float[]> embeddings = embeddingModel.embed(batch.texts());
+                runMetrics.embedNanos.add(System.nanoTime() - start);
+                runMetrics.embedBatches.increment();
+                runMetrics.embedTokens.add(batch.tokens());
+                runMetrics.chunksEmbedded.add(batch.documents().size());
+                out.put(new EmbedBatch(batch.documents(), batch.texts(), batch.tokens(), embeddings));
+            }
+        });
+        // single writer, so the update keeps the chunks in the order they were embedded
+        startStage(executor, failure, 1, null, null, out -> {
+            EmbedBatch batch;
+            while ((batch = take(embedded, endOfEmbedded)) != null) {
+                update.addEmbedded(batch.documents(), batch.embeddings());
+                runMetrics.chunksWritten.add(batch.documents().size());
+            }
+        });
+
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (failure.get() != null) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ingestion interrupted", e);
+        } finally {
+            progressLogger.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("Ingestion failed", failure.get());
+        }
+        Map<String, List<ChunkRef>> chunksBySource = new HashMap<>();
+        chunksBySection.forEach((source, sections) -> chunksBySource.put(source,
+                sections.values().stream().flatMap(List::stream).toList()));
+        IngestionMetrics.IngestionProgress progress = runMetrics.snapshot();
+        logger.info("Ingestion finished: {}", progress);
+        return new Result(progress, chunksBySource);
+    }
+
+    // Content-addressed ids: unchanged chunks of a re-read file keep their id and are not re-embedded.
+    // Occurrences of a text are counted across the source's sections, which may be split concurrently;
+    // whichever section gets which number, a text's ids are the same set, so they are still found.
+    private static List<Document> identify(String source, List<Document> chunks,
+                                           Map<String, AtomicInteger> occurrences) {
+        List<Document> identified = new ArrayList<>(chunks.size());
+        for (Document chunk : chunks) {
+            String hash = sha256(chunk.getText());
+            int occurrence = occurrences.computeIfAbsent(hash, key -> new AtomicInteger()).incrementAndGet();
+            Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+            metadata.put(SOURCE_METADATA, source);
+            metadata.put(HASH_METADATA, hash);
+            String id = UUID.nameUUIDFromBytes((CHUNK_ID_VERSION + "\n" + source + "\n" + hash + "\n" + occurrence)
+                    .getBytes(StandardCharsets.UTF_8)).toString();
+            identified.add(Document.builder().id(id).text(chunk.getText()).metadata(metadata).build());
+        }
+        return identified;
+    }
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Progress of the current or most recent run.
+     */
+    public IngestionMetrics.IngestionProgress progress() {
+        return metrics.snapshot();
+    }
+
+    // Runs `parallelism` workers; when the last one finishes the end marker is put on `output`.
+    private <O> void startStage(ExecutorService executor, AtomicReference<Throwable> failure, int parallelism,
+                                BlockingQueue<O> output, O endOfOutput, StageWorker<O> worker) {
+        int workers = Math.max(1, parallelism);
+        AtomicInteger running = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(stageWorker(executor, failure, running, output, endOfOutput, worker));
+            } catch (RejectedExecutionException e) {
+                if (failure.get() == null) {
+                    throw e;
+                }
+                // an earlier stage already failed and shut the executor down
+                return;
+            }
+        }
+    }
+
+    private <O> Runnable stageWorker(ExecutorService executor, AtomicReference<Throwable> failure,
+                                     AtomicInteger running, BlockingQueue<O> output, O endOfOutput,
+                                     StageWorker<O> worker) {
+        return () -> {
+            try {
+                worker.run(output == null ? item -> {
+                } : output::put);
+                if (running.decrementAndGet() == 0 && output != null) {
+                    output.put(endOfOutput);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    logger.error("Ingestion stage failed, cancelling pipeline", e);
+                }
+                executor.shutdownNow();
+            }
+        };
+    }
+
+    // Takes the next item, or null at the end marker, which is put back for the other consumers.
+    private static <T> T take(BlockingQueue<T> queue, T endMarker) throws InterruptedException {
+        T item = queue.take();
+        if (item == endMarker) {
+            queue.put(endMarker);
+            return null;
+        }
+        return item;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface StageWorker<O> {
+        void run(Sink<O> out) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Sink<O> {
+        void put(O item) throws InterruptedException;
+    }
+
+    /**
+     * Outcome of a run: metrics and the chunks produced for each source, in document order.
+     */
+    public record Result(IngestionMetrics.IngestionProgress progress, Map<String, List<ChunkRef>> chunksBySource) {
+    }
+
+    public record ChunkRef(String id, String hash) {
+    }
+
+    // one section of a source as read, numbered in reading order
+    private record Section(String source, int index, Document document) {
+    }
+
+    private record EmbedBatch(List<Document> documents, List<String> texts, int tokens, List<float[]> embeddings) {
+    }
+
+    private static final class BatchBuilder {
+
+        private final List<Document> documents = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private int tokens;
+
+        void add(Document document, String text, int textTokens) {
+            documents.add(document);
+            texts.add(text);
+            tokens += textTokens;
+        }
+
+        boolean isEmpty() {
+            return documents.isEmpty();
+        }
+
+        EmbedBatch build() {
+            return new EmbedBatch(documents, texts, tokens, null);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.ai.localchat.ingestion;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Tuning for {@link IngestionPipeline}: threads per stage, the capacity of the queues between
+ * stages (which bounds memory and applies backpressure), and the size of embedding batches.
+ * {@code readThreads} of 0 parses one file per available processor.
+ */
+@ConfigurationProperties("localchat.ingestion")
+public record IngestionProperties(
+        @DefaultValue("2") int readThreads,
+        @DefaultValue("2") int splitThreads,
+        @DefaultValue("2") int enrichThreads,
+        @DefaultValue("2") int embedThreads,
+        @DefaultValue("32") int queueCapacity,
+        @DefaultValue("8000") int embedBatchTokens,
+        @DefaultValue("64") int embedBatchMaxChunks,
+        @DefaultValue("10s") Duration progressInterval) {
+}
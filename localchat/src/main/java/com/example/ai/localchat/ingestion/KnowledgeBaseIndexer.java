@@ -0,0 +1,265 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the vector store in sync with the knowledge-base files. A manifest of per-file and
+ * per-chunk content hashes records what is indexed, so a sync only re-splits new or changed files,
+ * only re-embeds chunks whose content changed, and deletes the chunks of removed files. The new
+ * chunks and the deletions are staged while the sync runs and applied to the store in one step
+ * once it has succeeded, so searches never see a file's old and new chunks side by side and a
+ * failed sync leaves the store as it was. The store file and the manifest are each replaced
+ * atomically after a sync that changed anything.
+ */
+public class KnowledgeBaseIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseIndexer.class);
+
+    private final String location;
+    private final ResourcePatternResolver resolver;
+    private final IngestionPipeline pipeline;
+    private final HnswVectorStore vectorStore;
+    private final Path vectorStoreFile;
+    private final Path manifestFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Consumer<SyncResult>> listeners = new CopyOnWriteArrayList<>();
+
+    private IndexManifest manifest;
+
+    public KnowledgeBaseIndexer(String location, ResourcePatternResolver resolver, IngestionPipeline pipeline,
+                                HnswVectorStore vectorStore, Path vectorStoreFile, Path manifestFile) {
+        this.location = location;
+        this.resolver = resolver;
+        this.pipeline = pipeline;
+        this.vectorStore = vectorStore;
+        this.vectorStoreFile = vectorStoreFile;
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Brings the vector store up to date with the files currently under the location.
+     */
+    public synchronized SyncResult synchronize() {
+        return synchronize(false);
+    }
+
+    /**
+     * Drops the whole index and manifest and ingests every file again. The store keeps serving the
+     * old index until the new one is complete.
+     */
+    public synchronized SyncResult rebuild() {
+        return synchronize(true);
+    }
+
+    private SyncResult synchronize(boolean rebuild) {
+        long start = System.nanoTime();
+        IndexManifest previous = rebuild ? new IndexManifest(IngestionPipeline.CHUNK_ID_VERSION, Map.of())
+                : currentManifest();
+        boolean versionChanged = previous.version() != IngestionPipeline.CHUNK_ID_VERSION;
+
+        Map<String, Resource> sources = listSources();
+        Map<String, String> hashes = new LinkedHashMap<>();
+        Map<String, Resource> toIngest = new LinkedHashMap<>();
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Resource> source : sources.entrySet()) {
+            String hash = fileHash(source.getValue());
+            hashes.put(source.getKey(), hash);
+            IndexManifest.FileEntry entry = previous.files().get(source.getKey());
+            if (entry == null) {
+                added.add(source.getKey());
+                toIngest.put(source.getKey(), source.getValue());
+            } else if (versionChanged || !entry.hash().equals(hash) || !isFullyIndexed(entry)) {
+                changed.add(source.getKey());
+                toIngest.put(source.getKey(), source.getValue());
+            }
+        }
+        List<String> removed = previous.files().keySet().stream()
+                .filter(source -> !sources.containsKey(source))
+                .toList();
+        if (toIngest.isEmpty() && removed.isEmpty() && !rebuild) {
+            return new SyncResult(added, changed, removed, sources.size(), List.of(), null, elapsedMillis(start));
+        }
+
+        HnswVectorStore.Update update = vectorStore.update();
+        IngestionPipeline.Result result;
+        if (rebuild) {
+            update.replaceAll();
+            result = pipeline.run(toIngest, id -> false, update);
+        } else {
+            result = pipeline.run(toIngest, vectorStore::contains, update);
+        }
+
+        Map<String, IndexManifest.FileEntry> files = new LinkedHashMap<>(previous.files());
+        List<String> staleChunks = new ArrayList<>();
+        for (String source : removed) {
+            files.remove(source).chunks().forEach(chunk -> staleChunks.add(chunk.id()));
+        }
+        for (String source : toIngest.keySet()) {
+            List<IngestionPipeline.ChunkRef> chunks = result.chunksBySource().getOrDefault(source, List.of());
+            IndexManifest.FileEntry old = files.put(source, new IndexManifest.FileEntry(hashes.get(source), chunks));
+            if (old != null) {
+                Set<String> current = new HashSet<>();
+                chunks.forEach(chunk -> current.add(chunk.id()));
+                old.chunks().stream().map(IngestionPipeline.ChunkRef::id).filter(id -> !current.contains(id))
+                        .forEach(staleChunks::add);
+            }
+        }
+        update.delete(staleChunks);
+        vectorStore.apply(update);
+
+        IndexManifest updated = new IndexManifest(IngestionPipeline.CHUNK_ID_VERSION, files);
+        vectorStore.save(vectorStoreFile);
+        try {
+            updated.save(manifestFile, objectMapper);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.manifest = updated;
+        SyncResult sync = new SyncResult(added, changed, removed, sources.size() - added.size() - changed.size(),
+                staleChunks, result.progress(), elapsedMillis(start));
+        logger.info("Knowledge base synchronized: {} added, {} changed, {} removed, {} stale chunks deleted in {} ms",
+                added.size(), changed.size(), removed.size(), staleChunks.size(), sync.elapsedMillis());
+        for (Consumer<SyncResult> listener : listeners) {
+            listener.accept(sync);
+        }
+        return sync;
+    }
+
+    /**
+     * Registers a callback run after every sync that changed the index, e.g. to drop cached answers.
+     */
+    public void addSyncListener(Consumer<SyncResult> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Ingestion progress of the running or most recent sync.
+     */
+    public IngestionMetrics.IngestionProgress progress() {
+        return pipeline.progress();
+    }
+
+    /**
+     * The location pattern this indexer reads, e.g. {@code classpath:/docs/knowledge/*.md}.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    private IndexManifest currentManifest() {
+        if (manifest != null) {
+            return manifest;
+        }
+        try {
+            manifest = IndexManifest.load(manifestFile, objectMapper);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (manifest == null) {
+            if (vectorStore.size() > 0) {
+                // An index built before manifests existed: its chunks can't be attributed to files, so
+                // adopt it as-is rather than re-embedding the corpus. rebuild() replaces it.
+                logger.warn("No index manifest at {}; adopting the existing {} chunks without tracking. "
+                        + "Changes to existing files will be added alongside their old chunks until the index "
+                        + "is rebuilt.", manifestFile, vectorStore.size());
+                Map<String, IndexManifest.FileEntry> files = new LinkedHashMap<>();
+                listSources().forEach((source, resource) ->
+                        files.put(source, new IndexManifest.FileEntry(fileHash(resource), List.of())));
+                manifest = new IndexManifest(IngestionPipeline.CHUNK_ID_VERSION, files);
+            } else {
+                manifest = new IndexManifest(IngestionPipeline.CHUNK_ID_VERSION, Map.of());
+            }
+        }
+        return manifest;
+    }
+
+    // Guards against a manifest that describes chunks the store no longer has, e.g. a deleted store file.
+    private boolean isFullyIndexed(IndexManifest.FileEntry entry) {
+        return entry.chunks().stream().allMatch(chunk -> vectorStore.contains(chunk.id()));
+    }
+
+    // Sources are keyed by their path below the location root so keys survive moving the root.
+    private Map<String, Resource> listSources() {
+        Map<String, Resource> sources = new LinkedHashMap<>();
+        String root = rootPath(location);
+        try {
+            for (Resource resource : resolver.getResources(location)) {
+                if (!resource.isReadable()) {
+                    continue;
+                }
+                String url = resource.getURL().toString();
+                int idx = root.isEmpty() ? -1 : url.lastIndexOf(root);
+                sources.put(idx >= 0 ? url.substring(idx + root.length()) : url, resource);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sources;
+    }
+
+    static String rootPath(String location) {
+        String path = location.substring(location.indexOf(':') + 1);
+        int wildcard = path.length();
+        for (char c : new char[]{'*', '?', '{'}) {
+            int idx = path.indexOf(c);
+            if (idx >= 0) {
+                wildcard = Math.min(wildcard, idx);
+            }
+        }
+        path = path.substring(0, path.lastIndexOf('/', wildcard - 1) + 1);
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    private static String fileHash(Resource resource) {
+        try (InputStream in = new DigestInputStream(resource.getInputStream(), MessageDigest.getInstance("SHA-256"))) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // digest is updated as the stream is read
+            }
+            return HexFormat.of().formatHex(((DigestInputStream) in).getMessageDigest().digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @param deletedChunks ids of the chunks removed from the store
+     * @param ingestion metrics of the ingestion run, null when nothing had to be ingested
+     */
+    public record SyncResult(List<String> added, List<String> changed, List<String> removed, int unchanged,
+                             List<String> deletedChunks, IngestionMetrics.IngestionProgress ingestion,
+                             long elapsedMillis) {
+    }
+}
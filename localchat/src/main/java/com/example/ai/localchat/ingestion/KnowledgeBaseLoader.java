@@ -0,0 +1,169 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads the knowledge base in the background once the context has started, so startup takes as long
+ * as the JVM and Spring need rather than as long as the corpus takes to embed. The store file, when
+ * there is one, is mapped first and swapped into the store in one step (see
+ * {@link HnswVectorStore#load(Path)}); from then on queries are answered from that snapshot while the
+ * indexer brings it up to date with the files, and the sync's changes replace it in one step as well.
+ * Without a store file the index is built from scratch and nothing is served from it until the build
+ * has finished.
+ * <p>
+ * {@link #requireServing()} lets endpoints fail fast until there is an index to answer from.
+ * {@link #status()} reports the state and ingestion progress, for the health endpoint. A load that
+ * fails with nothing to serve marks the application's liveness broken, so it is restarted.
+ */
+public class KnowledgeBaseLoader implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseLoader.class);
+
+    private final HnswVectorStore vectorStore;
+    private final KnowledgeBaseIndexer indexer;
+    private final Path vectorStoreFile;
+    private final Runnable migration;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile State state = State.STARTING;
+    private volatile boolean serving;
+    private volatile String error;
+    private volatile long startNanos;
+    private volatile long readyMillis = -1;
+    private volatile boolean running;
+
+    /**
+     * @param migration run before the store file is loaded, e.g. to convert a store file of an
+     *                  earlier format
+     */
+    public KnowledgeBaseLoader(HnswVectorStore vectorStore, KnowledgeBaseIndexer indexer, Path vectorStoreFile,
+                               Runnable migration, ApplicationEventPublisher eventPublisher) {
+        this.vectorStore = vectorStore;
+        this.indexer = indexer;
+        this.vectorStoreFile = vectorStoreFile;
+        this.migration = migration;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void start() {
+        startNanos = System.nanoTime();
+        Thread loadThread = new Thread(this::load, "knowledge-load");
+        loadThread.setDaemon(true);
+        running = true;
+        loadThread.start();
+    }
+
+    @Override
+    public void stop() {
+        // a sync in progress is abandoned with the JVM; the store file and manifest are only
+        // replaced once it completes
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @throws KnowledgeBaseUnavailableException while there is no index to answer from yet
+     */
+    public void requireServing() {
+        if (!serving) {
+            throw new KnowledgeBaseUnavailableException(state == State.FAILED
+                    ? "The knowledge base failed to load: " + error
+                    : "The knowledge base is still being built, " + indexer.progress().chunksWritten()
+                    + " chunks indexed so far");
+        }
+    }
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    public KnowledgeBaseStatus status() {
+        State current = state;
+        boolean ingesting = current == State.SYNCHRONIZING || current == State.READY;
+        long elapsedMillis = readyMillis >= 0 ? readyMillis
+                : startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1_000_000;
+        return new KnowledgeBaseStatus(current, serving, vectorStore.size(), elapsedMillis,
+                ingesting ? indexer.progress() : null, error);
+    }
+
+    private void load() {
+        try {
+            state = State.LOADING;
+            migration.run();
+            if (Files.exists(vectorStoreFile)) {
+                try {
+                    vectorStore.load(vectorStoreFile);
+                    serving = true;
+                    logger.info("Serving the knowledge base snapshot of {} chunks while it is synchronized",
+                            vectorStore.size());
+                } catch (RuntimeException e) {
+                    // the store is left empty, so the sync below re-embeds what the file held
+                    logger.warn("Could not load {}, rebuilding the knowledge base", vectorStoreFile, e);
+                }
+            }
+            state = State.SYNCHRONIZING;
+            indexer.synchronize();
+            readyMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            serving = true;
+            state = State.READY;
+            logger.info("Knowledge base ready with {} chunks {} ms after startup", vectorStore.size(), readyMillis);
+        } catch (RuntimeException e) {
+            error = e.toString();
+            if (serving) {
+                logger.error("Knowledge base sync failed, serving the last snapshot", e);
+            } else {
+                logger.error("Knowledge base failed to load and there is no snapshot to serve", e);
+                AvailabilityChangeEvent.publish(eventPublisher, this, LivenessState.BROKEN);
+            }
+            // after the event, so whoever sees FAILED also sees the liveness change
+            state = State.FAILED;
+        }
+    }
+
+    public enum State {
+        /**
+         * The context is starting and loading hasn't begun.
+         */
+        STARTING,
+        /**
+         * The store file is being mapped.
+         */
+        LOADING,
+        /**
+         * The indexer is bringing the index up to date with the knowledge files.
+         */
+        SYNCHRONIZING,
+        /**
+         * The index is up to date.
+         */
+        READY,
+        /**
+         * Loading or the sync failed; queries are answered from the snapshot if one was loaded.
+         */
+        FAILED
+    }
+
+    /**
+     * @param serving       whether queries can be answered, from a snapshot or the finished index
+     * @param elapsedMillis time from startup to ready, or so far
+     * @param ingestion     progress of the sync, null before it starts
+     * @param error         why loading failed, null unless {@code FAILED}
+     */
+    public record KnowledgeBaseStatus(State state, boolean serving, int documents, long elapsedMillis,
+                                      IngestionMetrics.IngestionProgress ingestion, String error) {
+    }
+}
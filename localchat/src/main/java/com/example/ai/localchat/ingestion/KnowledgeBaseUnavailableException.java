@@ -0,0 +1,16 @@
+package com.example.ai.localchat.ingestion;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown while the knowledge base is still being built and there is no earlier index to answer from,
+ * so the client gets a fast 503 instead of an answer without context.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class KnowledgeBaseUnavailableException extends RuntimeException {
+
+    public KnowledgeBaseUnavailableException(String message) {
+        super(message);
+    }
+}
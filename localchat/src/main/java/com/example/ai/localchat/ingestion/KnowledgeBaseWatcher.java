@@ -0,0 +1,142 @@
+package com.example.ai.localchat.ingestion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the knowledge-base directory and runs an incremental sync once changes have settled
+ * for the debounce period. Queries keep being served from the store while a sync runs.
+ * Only locations that resolve to a directory on the file system can be watched.
+ */
+public class KnowledgeBaseWatcher implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseWatcher.class);
+
+    private final KnowledgeBaseIndexer indexer;
+    private final ResourceLoader resourceLoader;
+    private final Duration debounce;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingSync;
+    private WatchService watchService;
+    private Thread watchThread;
+    private volatile boolean running;
+
+    public KnowledgeBaseWatcher(KnowledgeBaseIndexer indexer, ResourceLoader resourceLoader, Duration debounce) {
+        this.indexer = indexer;
+        this.resourceLoader = resourceLoader;
+        this.debounce = debounce;
+    }
+
+    @Override
+    public void start() {
+        Path root = watchRoot();
+        if (root == null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> directories = Files.walk(root)) {
+                for (Path directory : directories.filter(Files::isDirectory).toList()) {
+                    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not watch {}, knowledge base changes will not be picked up", root, e);
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "knowledge-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchThread = new Thread(this::watch, "knowledge-watch");
+        watchThread.setDaemon(true);
+        running = true;
+        watchThread.start();
+        logger.info("Watching {} for knowledge base changes", root);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close watch service", e);
+            }
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void watch() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (!key.pollEvents().isEmpty()) {
+                scheduleSync();
+            }
+            key.reset();
+        }
+    }
+
+    private synchronized void scheduleSync() {
+        if (pendingSync != null) {
+            pendingSync.cancel(false);
+        }
+        pendingSync = scheduler.schedule(() -> {
+            try {
+                indexer.synchronize();
+            } catch (RuntimeException e) {
+                logger.error("Knowledge base sync failed", e);
+            }
+        }, debounce.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Path watchRoot() {
+        String location = indexer.getLocation();
+        String scheme = location.substring(0, location.indexOf(':') + 1);
+        Resource root = resourceLoader.getResource(scheme + "/" + KnowledgeBaseIndexer.rootPath(location));
+        try {
+            Path path = root.getFile().toPath();
+            if (Files.isDirectory(path)) {
+                return path;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // not on the file system, e.g. inside a jar
+        }
+        logger.warn("Knowledge base location {} is not a file system directory and can't be watched", location);
+        return null;
+    }
+}
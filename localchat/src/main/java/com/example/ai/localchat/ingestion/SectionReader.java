@@ -0,0 +1,35 @@
+package com.example.ai.localchat.ingestion;
+
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads a knowledge file as a sequence of sections, e.g. pages, handed to the sink as they are parsed
+ * rather than collected first, so a large file is never in memory as text at once. The sink blocks
+ * while the {@link IngestionPipeline}'s read queue is full.
+ */
+@FunctionalInterface
+public interface SectionReader {
+
+    void read(Resource resource, Sink sink) throws IOException, InterruptedException;
+
+    /**
+     * A reader that reads the whole file into documents and then hands them over one by one.
+     */
+    static SectionReader of(Function<Resource, List<Document>> reader) {
+        return (resource, sink) -> {
+            for (Document document : reader.apply(resource)) {
+                sink.accept(document);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Sink {
+        void accept(Document section) throws InterruptedException;
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.ai.localchat.lexical;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Okapi BM25 inverted index over chunk text, keyed by the same ordinals as the
+ * {@link com.example.ai.localchat.vectorstore.HnswIndex} it sits next to, so lexical hits can be
+ * filtered and resolved exactly like vector hits.
+ * <p>
+ * Each term's postings list is a byte array of varint-encoded (ordinal delta, term frequency)
+ * pairs. Ordinals only ever grow, so additions append; removals tombstone the ordinal and update
+ * the statistics immediately, and the dead postings are dropped the next time the index is written.
+ * Not thread-safe; the owning store guards it with its lock.
+ */
+public final class Bm25Index {
+
+    private static final int MAGIC = 0x4D42434C; // "LCBM"
+    private static final int VERSION = 1;
+
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // ordinal -> token count, -1 for ordinals that were removed or never added
+    private int[] docLengths = new int[64];
+    private int docCount;
+    private int liveDocs;
+    private long totalLength;
+
+    /**
+     * Indexes {@code text} under {@code ordinal}, which must be greater than every ordinal added so far.
+     */
+    public void add(int ordinal, String text) {
+        if (ordinal < docCount) {
+            throw new IllegalArgumentException("Ordinal " + ordinal + " is not after the last indexed ordinal");
+        }
+        if (ordinal >= docLengths.length) {
+            int previous = docLengths.length;
+            docLengths = Arrays.copyOf(docLengths, Math.max(ordinal + 1, previous * 2));
+            Arrays.fill(docLengths, previous, docLengths.length, -1);
+        }
+        Arrays.fill(docLengths, docCount, ordinal, -1);
+        docCount = ordinal + 1;
+
+        Map<String, Integer> frequencies = termFrequencies(text);
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        frequencies.forEach((term, tf) -> postings.computeIfAbsent(term, t -> new Postings()).append(ordinal, tf));
+        docLengths[ordinal] = length;
+        liveDocs++;
+        totalLength += length;
+    }
+
+    /**
+     * Removes {@code ordinal}; {@code text} must be what it was added with, so its terms' document
+     * frequencies can be decremented without scanning every postings list.
+     */
+    public void remove(int ordinal, String text) {
+        if (ordinal >= docCount || docLengths[ordinal] < 0) {
+            return;
+        }
+        for (String term : termFrequencies(text).keySet()) {
+            Postings list = postings.get(term);
+            if (list != null && --list.docFreq == 0) {
+                postings.remove(term);
+            }
+        }
+        liveDocs--;
+        totalLength -= docLengths[ordinal];
+        docLengths[ordinal] = -1;
+    }
+
+    public boolean contains(int ordinal) {
+        return ordinal < docCount && docLengths[ordinal] >= 0;
+    }
+
+    /**
+     * Number of ordinals covered, live or removed; matches the size of the vector index it mirrors.
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    public int liveCount() {
+        return liveDocs;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    /**
+     * The {@code k} best-scoring live ordinals accepted by {@code accept}, highest score first.
+     */
+    public List<Hit> search(String query, int k, IntPredicate accept) {
+        Set<String> terms = new LinkedHashSet<>(CodeAwareTokenizer.tokenize(query));
+        if (terms.isEmpty() || liveDocs == 0 || k <= 0) {
+            return List.of();
+        }
+        float averageLength = (float) totalLength / liveDocs;
+        Map<Integer, Float> scores = new HashMap<>();
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            float idf = idf(list.docFreq);
+            list.forEach((ordinal, tf) -> {
+                if (docLengths[ordinal] >= 0 && (accept == null || accept.test(ordinal))) {
+                    scores.merge(ordinal, idf * termWeight(tf, docLengths[ordinal], averageLength), Float::sum);
+                }
+            });
+        }
+        PriorityQueue<Hit> top = new PriorityQueue<>(k + 1, (a, b) -> Float.compare(a.score(), b.score()));
+        scores.forEach((ordinal, score) -> {
+            top.add(new Hit(ordinal, score));
+            if (top.size() > k) {
+                top.poll();
+            }
+        });
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    /**
+     * Writes the index to a temporary sibling of {@code path} and atomically moves it into place,
+     * dropping the postings of removed ordinals on the way.
+     */
+    public void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docCount);
+            for (int ordinal = 0; ordinal < docCount; ordinal++) {
+                out.writeInt(docLengths[ordinal]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings live = entry.getValue().compact(docLengths);
+                out.writeUTF(entry.getKey());
+                out.writeInt(live.docFreq);
+                out.writeInt(live.lastOrdinal);
+                out.writeInt(live.size);
+                out.write(live.data, 0, live.size);
+            }
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static Bm25Index read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a BM25 index file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported BM25 index version " + version + " in " + path);
+            }
+            Bm25Index index = new Bm25Index();
+            index.docCount = in.readInt();
+            index.docLengths = new int[Math.max(64, index.docCount)];
+            Arrays.fill(index.docLengths, -1);
+            for (int ordinal = 0; ordinal < index.docCount; ordinal++) {
+                int length = in.readInt();
+                index.docLengths[ordinal] = length;
+                if (length >= 0) {
+                    index.liveDocs++;
+                    index.totalLength += length;
+                }
+            }
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                String term = in.readUTF();
+                Postings list = new Postings();
+                list.docFreq = in.readInt();
+                list.lastOrdinal = in.readInt();
+                list.size = in.readInt();
+                list.data = new byte[Math.max(8, list.size)];
+                in.readFully(list.data, 0, list.size);
+                index.postings.put(term, list);
+            }
+            return index;
+        }
+    }
+
+    private float idf(int docFreq) {
+        return (float) Math.log(1 + (liveDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    private static float termWeight(int tf, int length, float averageLength) {
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : CodeAwareTokenizer.tokenize(text)) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    public record Hit(int ordinal, float score) {
+    }
+
+    @FunctionalInterface
+    private interface PostingConsumer {
+        void accept(int ordinal, int tf);
+    }
+
+    private static final class Postings {
+
+        byte[] data = new byte[8];
+        int size;
+        int lastOrdinal = -1;
+        // live documents containing the term; the list itself may still hold removed ordinals
+        int docFreq;
+
+        void append(int ordinal, int tf) {
+            writeVarint(ordinal - lastOrdinal);
+            writeVarint(tf);
+            lastOrdinal = ordinal;
+            docFreq++;
+        }
+
+        void forEach(PostingConsumer consumer) {
+            int position = 0;
+            int ordinal = -1;
+            while (position < size) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                int tf = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[position++];
+                    tf |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                ordinal += delta;
+                consumer.accept(ordinal, tf);
+            }
+        }
+
+        Postings compact(int[] docLengths) {
+            Postings live = new Postings();
+            forEach((ordinal, tf) -> {
+                if (docLengths[ordinal] >= 0) {
+                    live.append(ordinal, tf);
+                }
+            });
+            return live;
+        }
+
+        private void writeVarint(int value) {
+            if (data.length - size < 5) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.ai.localchat.lexical;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lower-cased terms for lexical search that keep identifiers findable: {@code HybridRetrievalService}
+ * yields {@code hybridretrievalservice, hybrid, retrieval, service}; {@code spring.ai.ollama.base-url}
+ * yields the whole key plus {@code spring, ai, ollama, base, url}; {@code ERR_CONN_404} yields
+ * {@code err_conn_404, err, conn, 404}. Common English stop words are dropped.
+ */
+public final class CodeAwareTokenizer {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    // words joined by the connectors used in identifiers, config keys and error codes
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+(?:[._\\-:/][\\p{L}\\p{N}]+)*");
+    private static final Pattern CONNECTOR = Pattern.compile("[._\\-:/]");
+    private static final Pattern CAMEL_CASE = Pattern.compile(
+            "(?<=\\p{Ll})(?=\\p{Lu})|(?<=\\p{Lu})(?=\\p{Lu}\\p{Ll})|(?<=\\p{L})(?=\\p{N})|(?<=\\p{N})(?=\\p{L})");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from", "how", "i",
+            "if", "in", "is", "it", "its", "of", "on", "or", "that", "the", "this", "to", "was", "what",
+            "when", "where", "which", "why", "with", "you");
+
+    private CodeAwareTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        Matcher words = WORD.matcher(text);
+        while (words.find()) {
+            String word = words.group();
+            List<String> parts = new ArrayList<>();
+            for (String piece : CONNECTOR.split(word)) {
+                for (String part : CAMEL_CASE.split(piece)) {
+                    if (!part.isEmpty()) {
+                        parts.add(part.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            if (parts.size() > 1) {
+                add(terms, word.toLowerCase(Locale.ROOT));
+            }
+            for (String part : parts) {
+                add(terms, part);
+            }
+        }
+        return terms;
+    }
+
+    private static void add(List<String> terms, String term) {
+        if (term.length() <= MAX_TERM_LENGTH && !STOP_WORDS.contains(term)) {
+            terms.add(term);
+        }
+    }
+}
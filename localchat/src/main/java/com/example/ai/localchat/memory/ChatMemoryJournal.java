@@ -0,0 +1,320 @@
+package com.example.ai.localchat.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only file of chat messages, the cold tier of {@link TieredChatMemoryRepository}. A turn
+ * appends only the new messages; a conversation whose history was trimmed is written again as a
+ * snapshot that supersedes its earlier records. Only record offsets are kept in memory.
+ * <p>
+ * Records are {@code [int body length][byte op][long timestamp][body]}; the body is the
+ * conversation id and the messages as {@code [byte type][int length][utf-8 text]}. User, assistant
+ * and system messages are kept, others are dropped. A record cut short by a crash is dropped when
+ * the file is opened, conversations idle for longer than the retention are forgotten, and the file is
+ * rewritten with one snapshot per conversation once most of it is superseded records.
+ */
+class ChatMemoryJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMemoryJournal.class);
+
+    private static final int MAGIC = 0x4C43434D; // "LCCM"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 13;
+    private static final long COMPACT_MIN_BYTES = 8L << 20;
+
+    private static final byte APPEND = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte DELETE = 3;
+
+    private final Path file;
+    private final Duration retention;
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+
+    /**
+     * @param retention how long a conversation is kept after its last message, zero to keep forever
+     */
+    ChatMemoryJournal(Path file, Duration retention) throws IOException {
+        this.file = file;
+        this.retention = retention;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = open(file);
+        if (channel.size() < HEADER_BYTES || !hasValidHeader()) {
+            channel.truncate(0);
+            writeHeader(channel);
+            end = HEADER_BYTES;
+        } else {
+            scan();
+            dropExpired();
+            compactIfMostlyGarbage();
+        }
+    }
+
+    synchronized List<Message> read(String conversationId) throws IOException {
+        Conversation conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            return null;
+        }
+        List<Message> messages = new ArrayList<>();
+        for (long offset : conversation.offsets) {
+            ByteBuffer header = readFully(offset, RECORD_HEADER_BYTES);
+            ByteBuffer body = readFully(offset + RECORD_HEADER_BYTES, header.getInt());
+            readString(body);
+            int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                byte type = body.get();
+                String text = readString(body);
+                messages.add(switch (type) {
+                    case 'U' -> new UserMessage(text);
+                    case 'A' -> new AssistantMessage(text);
+                    case 'S' -> new SystemMessage(text);
+                    default -> throw new IOException("Unknown message type " + type + " in " + file);
+                });
+            }
+        }
+        return messages;
+    }
+
+    synchronized void append(String conversationId, List<Message> messages) throws IOException {
+        write(conversations.containsKey(conversationId) ? APPEND : SNAPSHOT, conversationId, messages,
+                System.currentTimeMillis());
+        compactIfMostlyGarbage();
+    }
+
+    synchronized void snapshot(String conversationId, List<Message> messages) throws IOException {
+        write(SNAPSHOT, conversationId, messages, System.currentTimeMillis());
+        compactIfMostlyGarbage();
+    }
+
+    synchronized void delete(String conversationId) throws IOException {
+        if (conversations.containsKey(conversationId)) {
+            write(DELETE, conversationId, List.of(), System.currentTimeMillis());
+            compactIfMostlyGarbage();
+        }
+    }
+
+    synchronized Set<String> conversationIds() {
+        return Set.copyOf(conversations.keySet());
+    }
+
+    synchronized long sizeBytes() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private void write(byte op, String conversationId, List<Message> messages, long timestamp) throws IOException {
+        ByteBuffer record = encode(op, conversationId, messages, timestamp);
+        long offset = end;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        end = offset + record.capacity();
+        index(op, conversationId, offset, record.capacity(), timestamp);
+    }
+
+    private void index(byte op, String conversationId, long offset, int length, long timestamp) {
+        if (op == APPEND) {
+            Conversation conversation = conversations.get(conversationId);
+            conversation.offsets.add(offset);
+            conversation.bytes += length;
+            conversation.lastWrite = timestamp;
+            liveBytes += length;
+            return;
+        }
+        Conversation previous = conversations.remove(conversationId);
+        if (previous != null) {
+            liveBytes -= previous.bytes;
+        }
+        if (op == SNAPSHOT) {
+            Conversation conversation = new Conversation(timestamp);
+            conversation.offsets.add(offset);
+            conversation.bytes = length;
+            conversations.put(conversationId, conversation);
+            liveBytes += length;
+        }
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        long offset = HEADER_BYTES;
+        while (offset + RECORD_HEADER_BYTES <= size) {
+            ByteBuffer header = readFully(offset, RECORD_HEADER_BYTES);
+            int bodyLength = header.getInt();
+            byte op = header.get();
+            long timestamp = header.getLong();
+            long next = offset + RECORD_HEADER_BYTES + bodyLength;
+            if (bodyLength < 0 || op < APPEND || op > DELETE || next > size) {
+                break;
+            }
+            String conversationId = readString(readFully(offset + RECORD_HEADER_BYTES, bodyLength));
+            if (op == APPEND && !conversations.containsKey(conversationId)) {
+                op = SNAPSHOT;
+            }
+            index(op, conversationId, offset, (int) (next - offset), timestamp);
+            offset = next;
+        }
+        if (offset < size) {
+            logger.warn("Dropping {} bytes of an incomplete chat memory record", size - offset);
+            channel.truncate(offset);
+        }
+        end = offset;
+    }
+
+    private void dropExpired() {
+        if (retention.isZero() || retention.isNegative()) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        conversations.values().removeIf(conversation -> {
+            if (conversation.lastWrite >= cutoff) {
+                return false;
+            }
+            liveBytes -= conversation.bytes;
+            return true;
+        });
+    }
+
+    private void compactIfMostlyGarbage() throws IOException {
+        if (end < COMPACT_MIN_BYTES || end - HEADER_BYTES < 2 * liveBytes) {
+            return;
+        }
+        long before = end;
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Map<String, Long> offsets = new HashMap<>();
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(out);
+            long offset = HEADER_BYTES;
+            for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+                ByteBuffer record = encode(SNAPSHOT, entry.getKey(), read(entry.getKey()), entry.getValue().lastWrite);
+                while (record.hasRemaining()) {
+                    out.write(record, offset + record.position());
+                }
+                offsets.put(entry.getKey(), offset);
+                offset += record.capacity();
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+        end = HEADER_BYTES;
+        liveBytes = 0;
+        Map<String, Conversation> compactedConversations = new HashMap<>(conversations);
+        conversations.clear();
+        for (Map.Entry<String, Conversation> entry : compactedConversations.entrySet()) {
+            long offset = offsets.get(entry.getKey());
+            int length = readFully(offset, RECORD_HEADER_BYTES).getInt() + RECORD_HEADER_BYTES;
+            index(SNAPSHOT, entry.getKey(), offset, length, entry.getValue().lastWrite);
+            end = Math.max(end, offset + length);
+        }
+        logger.info("Compacted chat memory file {} from {} to {} bytes", file, before, end);
+    }
+
+    private static ByteBuffer encode(byte op, String conversationId, List<Message> messages, long timestamp)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        writeString(body, conversationId);
+        List<Message> kept = messages.stream().filter(message -> typeCode(message) != 0).toList();
+        body.writeInt(kept.size());
+        for (Message message : kept) {
+            body.writeByte(typeCode(message));
+            writeString(body, message.getText() == null ? "" : message.getText());
+        }
+        body.flush();
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.size())
+                .putInt(bytes.size())
+                .put(op)
+                .putLong(timestamp)
+                .put(bytes.toByteArray())
+                .flip();
+    }
+
+    private static byte typeCode(Message message) {
+        return switch (message.getMessageType()) {
+            case USER -> 'U';
+            case ASSISTANT -> 'A';
+            case SYSTEM -> 'S';
+            default -> 0;
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] utf8 = new byte[buffer.getInt()];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+        channel.write(header, 0);
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        ByteBuffer header = readFully(0, HEADER_BYTES);
+        return header.getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of chat memory file at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static final class Conversation {
+
+        private final List<Long> offsets = new ArrayList<>();
+        private long bytes;
+        private long lastWrite;
+
+        Conversation(long lastWrite) {
+            this.lastWrite = lastWrite;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.ai.localchat.memory;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link TieredChatMemoryRepository} and {@link TokenWindowChatMemory}: how many
+ * conversations stay in memory and for how long, where and for how long they are kept on disk, and
+ * how much history goes into each prompt.
+ */
+@ConfigurationProperties("localchat.chat-memory")
+public record ChatMemoryProperties(
+        @DefaultValue("10000") long maximumConversations,
+        @DefaultValue("30m") Duration idleTimeout,
+        @DefaultValue("true") boolean diskEnabled,
+        @DefaultValue("chat-memory.log") String diskFile,
+        @DefaultValue("30d") Duration retention,
+        @DefaultValue("2000") int tokenBudget,
+        @DefaultValue("200") int maxStoredMessages) {
+}
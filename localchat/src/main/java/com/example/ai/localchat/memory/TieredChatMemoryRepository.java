@@ -0,0 +1,163 @@
+package com.example.ai.localchat.memory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ChatMemoryRepository} with a size-bounded in-memory tier of recently active conversations
+ * in front of an optional append-only file. Conversations idle for longer than the idle timeout, or
+ * least recently used once the tier is full, are evicted from memory and read back from the file on
+ * their next turn. Without the file an evicted conversation is forgotten.
+ * <p>
+ * A save that extends the stored history only appends the new messages to the file.
+ */
+public class TieredChatMemoryRepository implements ChatMemoryRepository, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredChatMemoryRepository.class);
+
+    private final Cache<String, List<Message>> hot;
+    private final ChatMemoryJournal cold;
+
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder coldLoads = new LongAdder();
+
+    /**
+     * @param journalFile file for the cold tier, or null to keep conversations in memory only
+     * @param retention how long the file keeps an idle conversation, zero to keep it forever
+     */
+    public TieredChatMemoryRepository(long maximumConversations, Duration idleTimeout, Path journalFile,
+                                      Duration retention) {
+        this.hot = Caffeine.newBuilder()
+                .maximumSize(maximumConversations)
+                .expireAfterAccess(idleTimeout)
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        try {
+            this.cold = journalFile == null ? null : new ChatMemoryJournal(journalFile, retention);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (cold != null) {
+            logger.info("Chat memory file {} holds {} conversations", journalFile, cold.conversationIds().size());
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return cold != null ? List.copyOf(cold.conversationIds()) : List.copyOf(hot.asMap().keySet());
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<Message> messages = hot.getIfPresent(conversationId);
+        if (messages != null) {
+            hotHits.increment();
+            return messages;
+        }
+        messages = hot.get(conversationId, this::load);
+        return messages == null ? List.of() : messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> stored = List.copyOf(messages);
+        hot.asMap().compute(conversationId, (id, previous) -> {
+            if (cold != null) {
+                persist(id, previous != null ? previous : Objects.requireNonNullElse(load(id), List.of()), stored);
+            }
+            return stored;
+        });
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        hot.invalidate(conversationId);
+        if (cold != null) {
+            try {
+                cold.delete(conversationId);
+            } catch (IOException e) {
+                logger.warn("Failed to delete conversation {} from the chat memory file", conversationId, e);
+            }
+        }
+    }
+
+    public ChatMemoryStats stats() {
+        return new ChatMemoryStats(hot.estimatedSize(), findConversationIds().size(), hotHits.sum(),
+                coldLoads.sum(), hot.stats().evictionCount(), cold == null ? 0 : cold.sizeBytes());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cold != null) {
+            cold.close();
+        }
+    }
+
+    private List<Message> load(String conversationId) {
+        if (cold == null) {
+            return null;
+        }
+        try {
+            List<Message> messages = cold.read(conversationId);
+            if (messages != null) {
+                coldLoads.increment();
+                return List.copyOf(messages);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read conversation {} from the chat memory file", conversationId, e);
+        }
+        return null;
+    }
+
+    private void persist(String conversationId, List<Message> previous, List<Message> messages) {
+        try {
+            if (isPrefix(previous, messages)) {
+                if (messages.size() > previous.size()) {
+                    cold.append(conversationId, messages.subList(previous.size(), messages.size()));
+                }
+            } else {
+                cold.snapshot(conversationId, messages);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write conversation {} to the chat memory file", conversationId, e);
+        }
+    }
+
+    private static boolean isPrefix(List<Message> previous, List<Message> messages) {
+        if (previous.size() > messages.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            Message before = previous.get(i);
+            Message after = messages.get(i);
+            if (before.getMessageType() != after.getMessageType()
+                    || !Objects.equals(before.getText(), after.getText())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hotConversations conversations held in memory
+     * @param storedConversations conversations in the file, or in memory when there is no file
+     * @param coldLoads conversations read back from the file after they were evicted from memory
+     */
+    public record ChatMemoryStats(long hotConversations, long storedConversations, long hotHits, long coldLoads,
+                                  long evictions, long fileBytes) {
+    }
+}
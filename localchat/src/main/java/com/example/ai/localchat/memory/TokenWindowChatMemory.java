@@ -0,0 +1,109 @@
+package com.example.ai.localchat.memory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ChatMemory} that hands the prompt the newest turns that fit a token budget, so prompt size
+ * and prefill time stay flat however long a conversation gets. System messages are always kept and
+ * count against the budget; the window never opens on an answer whose question was trimmed.
+ * <p>
+ * The repository keeps more history than the window, up to {@code maxStoredMessages}. Past that the
+ * oldest quarter is dropped in one go, so the file tier rewrites a conversation once every
+ * {@code maxStoredMessages / 4} messages rather than on every turn.
+ */
+public class TokenWindowChatMemory implements ChatMemory {
+
+    private final ChatMemoryRepository repository;
+    private final int tokenBudget;
+    private final int maxStoredMessages;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    public TokenWindowChatMemory(ChatMemoryRepository repository, int tokenBudget, int maxStoredMessages) {
+        this.repository = repository;
+        this.tokenBudget = tokenBudget;
+        this.maxStoredMessages = maxStoredMessages;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        List<Message> history = new ArrayList<>(repository.findByConversationId(conversationId));
+        history.addAll(messages);
+        if (history.size() > maxStoredMessages) {
+            history = newest(history, maxStoredMessages * 3 / 4);
+        }
+        repository.saveAll(conversationId, history);
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        List<Message> history = repository.findByConversationId(conversationId);
+        List<Message> window = new ArrayList<>();
+        int budget = tokenBudget;
+        for (Message message : history) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                window.add(message);
+                budget -= tokens(message);
+            }
+        }
+        // walk back from the newest message, estimating only what might fit
+        int start = history.size();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            Message message = history.get(i);
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                continue;
+            }
+            int tokens = tokens(message);
+            if (tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            start = i;
+        }
+        while (start < history.size() && history.get(start).getMessageType() != MessageType.USER) {
+            start++;
+        }
+        for (Message message : history.subList(start, history.size())) {
+            if (message.getMessageType() != MessageType.SYSTEM) {
+                window.add(message);
+            }
+        }
+        return window;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        repository.deleteByConversationId(conversationId);
+    }
+
+    private int tokens(Message message) {
+        String text = message.getText();
+        return text == null || text.isEmpty() ? 0 : tokenCountEstimator.estimate(text);
+    }
+
+    // the newest `count` non-system messages starting at a question, after every system message
+    private static List<Message> newest(List<Message> history, int count) {
+        List<Message> kept = new ArrayList<>();
+        List<Message> conversation = new ArrayList<>();
+        for (Message message : history) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                kept.add(message);
+            } else {
+                conversation.add(message);
+            }
+        }
+        int start = Math.max(0, conversation.size() - count);
+        while (start < conversation.size() && conversation.get(start).getMessageType() != MessageType.USER) {
+            start++;
+        }
+        kept.addAll(conversation.subList(start, conversation.size()));
+        return kept;
+    }
+}
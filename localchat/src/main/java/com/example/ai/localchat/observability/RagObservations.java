@@ -0,0 +1,96 @@
+package com.example.ai.localchat.observability;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics and trace spans for the stages of a RAG request, on top of the observations Spring AI
+ * records for chat, embedding and vector store calls. Each stage is an {@link Observation} named
+ * {@value #STAGE}. Actuator turns it into a timer tagged with the stage, which Prometheus gets as a
+ * latency histogram, and the tracing bridge turns it into a span under the request's span. The
+ * counters and distributions cover what a duration doesn't: fallbacks, skipped stages, rerank
+ * responses, prompt size and time to first token. Models are tagged with their gateway priority.
+ * <p>
+ * {@link #NOOP} records nothing, for components built outside Spring.
+ */
+public class RagObservations {
+
+    public static final String STAGE = "localchat.rag.stage";
+
+    public static final RagObservations NOOP = new RagObservations(ObservationRegistry.NOOP,
+            new CompositeMeterRegistry());
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;
+
+    public RagObservations(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T observe(String stage, Supplier<T> task) {
+        return stage(stage).observe(task);
+    }
+
+    /**
+     * A started observation for a stage that ends asynchronously; the caller stops it.
+     */
+    public Observation start(String stage) {
+        return stage(stage).start();
+    }
+
+    /**
+     * The stage timed out or was not started because the request's deadline had passed.
+     */
+    public void skipped(String stage) {
+        meterRegistry.counter("localchat.rag.stage.skipped", "stage", stage).increment();
+    }
+
+    /**
+     * A search found nothing above its similarity threshold and was repeated without it.
+     */
+    public void fallback(String search) {
+        meterRegistry.counter("localchat.retrieval.fallback", "search", search).increment();
+    }
+
+    /**
+     * Whether the LLM reranker could read an order out of the model's answer.
+     */
+    public void rerankResponse(boolean parsed) {
+        meterRegistry.counter("localchat.rerank.responses", "outcome", parsed ? "parsed" : "unparseable")
+                .increment();
+    }
+
+    public void timeToFirstToken(String model, long nanos) {
+        meterRegistry.timer("localchat.model.time.to.first.token", "model", model)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time a model call held its slot, from the request to the last token.
+     */
+    public void generation(String model, long nanos) {
+        meterRegistry.timer("localchat.model.generation", "model", model)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void promptTokens(String model, int tokens) {
+        DistributionSummary.builder("localchat.model.prompt.tokens")
+                .baseUnit("tokens")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(tokens);
+    }
+
+    private Observation stage(String stage) {
+        return Observation.createNotStarted(STAGE, observationRegistry)
+                .contextualName("rag " + stage.replace('_', ' '))
+                .lowCardinalityKeyValue("stage", stage);
+    }
+}
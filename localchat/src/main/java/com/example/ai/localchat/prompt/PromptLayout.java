@@ -0,0 +1,150 @@
+package com.example.ai.localchat.prompt;
+
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
+import org.springframework.ai.rag.generation.augmentation.QueryAugmenter;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Lays prompts out so the model server can reuse its prompt cache. Ollama keeps the KV cache of the
+ * last prompt each of its slots evaluated and only prefills what follows the longest prefix the next
+ * prompt shares with it, so a prompt runs from its most to its least stable part:
+ * <ol>
+ * <li>the instructions, as the system message: constants, byte-identical from request to request</li>
+ * <li>the retrieved context, in an order that only depends on which documents were retrieved</li>
+ * <li>the question</li>
+ * </ol>
+ * Every request then shares at least the instructions with the previous one of its kind, and a
+ * follow-up that retrieves the same documents shares everything but the question. The chat model's
+ * {@code num_ctx} and {@code keep_alive} are pinned in application.properties, as a change of either
+ * reloads the model and drops the cache.
+ */
+public final class PromptLayout {
+
+    /**
+     * Answering from retrieved documents, for the RAG chat endpoints.
+     */
+    public static final String ANSWER_INSTRUCTIONS = """
+        You are a technical documentation assistant.
+
+        The user message holds the context information, followed by the question.
+
+        RESPONSE GUIDELINES:
+        1. Answer directly and concisely
+        2. Use technical terminology naturally
+        3. Include code examples when relevant
+        4. Structure your answer with markdown formatting
+        5. NEVER mention "based on the provided documents" or similar phrases
+        6. If information is insufficient, state what you can answer and what's unclear
+        7. Format code blocks with proper language identifiers
+
+        CRITICAL: Respond as if this information is your native knowledge.
+        Focus on the answer, not the source of information.
+        """;
+
+    /**
+     * Query expansion for hybrid retrieval; the user message is the query.
+     */
+    public static final String EXPANSION_INSTRUCTIONS = """
+        Expand the technical query in the user message by identifying:
+        1. Key technical terms and their synonyms
+        2. Related concepts
+        3. Common variations (camelCase, snake_case, etc.)
+
+        Respond with only the expanded query terms, comma-separated.
+        Keep it concise (max 50 words).
+        """;
+
+    /**
+     * LLM reranking; the user message is the numbered documents, followed by the query.
+     */
+    public static final String RERANK_INSTRUCTIONS = """
+        Rate how relevant each document is to answering the query.
+        The user message lists the documents, each after its index in brackets, followed by the query.
+
+        Return only a comma-separated list of document indices (0-based)
+        in order of relevance (most relevant first).
+        Example: 2,0,4,1,3
+        """;
+
+    /**
+     * Query rewrite before retrieval. The rewrite transformer sends a single user message, so the
+     * query is the end of it.
+     */
+    public static final String REWRITE_TEMPLATE = """
+        Rewrite the query below to better retrieve technical documentation from a {target}.
+        Focus on:
+        - Extracting key technical terms
+        - Identifying the core question
+        - Adding relevant technical context
+        Respond with only the rewritten query.
+
+        Original query: {query}
+        """;
+
+    private static final String QUESTION = "Question: ";
+
+    // by source, then by id: chunk ids are stable, see IngestionPipeline
+    private static final Comparator<Document> CONTEXT_ORDER = Comparator
+            .comparing((Document document) -> Objects.toString(
+                    document.getMetadata().get(IngestionPipeline.SOURCE_METADATA), ""))
+            .thenComparing(document -> Objects.toString(document.getId(), ""));
+
+    private PromptLayout() {
+    }
+
+    public static Prompt prompt(String instructions, String context, String question) {
+        return new Prompt(List.of(new SystemMessage(instructions), new UserMessage(user(context, question))));
+    }
+
+    /**
+     * The context, then the question; just the question when there is no context.
+     */
+    public static String user(String context, String question) {
+        return context.isEmpty() ? question : context + "\n\n" + question;
+    }
+
+    /**
+     * The question of a RAG answer, labelled as {@link #ANSWER_INSTRUCTIONS} refer to it.
+     */
+    public static String question(String question) {
+        return QUESTION + question;
+    }
+
+    /**
+     * The documents' text ordered by source and chunk id rather than by rank, so the same documents
+     * make the same context whatever order retrieval or reranking returned them in. Which documents
+     * fit is decided best first beforehand, see {@link com.example.ai.localchat.context.ContextAssembler}.
+     */
+    public static String context(List<Document> documents) {
+        return documents.stream()
+                .sorted(CONTEXT_ORDER)
+                .map(PromptLayout::format)
+                .collect(Collectors.joining("\n\n"));
+    }
+
+    /**
+     * Augments the user message of the retrieval augmentation advisors with the context before the
+     * question, instead of the default template's rules between them, which are in the instructions.
+     */
+    public static QueryAugmenter queryAugmenter() {
+        return ContextualQueryAugmenter.builder()
+                .promptTemplate(new PromptTemplate(user("{context}", question("{query}"))))
+                .documentFormatter(PromptLayout::context)
+                .build();
+    }
+
+    private static String format(Document document) {
+        Object source = document.getMetadata().get(IngestionPipeline.SOURCE_METADATA);
+        return source == null ? document.getText() : "[" + source + "]\n" + document.getText();
+    }
+}
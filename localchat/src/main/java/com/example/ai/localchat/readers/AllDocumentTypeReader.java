@@ -1,28 +1,270 @@
 package com.example.ai.localchat.readers;
 
+import com.example.ai.localchat.ingestion.SectionReader;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.reader.markdown.MarkdownDocumentReader;
 import org.springframework.ai.reader.markdown.config.MarkdownDocumentReaderConfig;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.List;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
-public class AllDocumentTypeReader {
+/**
+ * Reads knowledge files of any format into sections, handed over while the file is parsed. Markdown
+ * is read line by line and cut into blocks at each heading, and otherwise at a blank line once about
+ * {@code sectionChars} have been collected or at any line once twice that have; a block cut short
+ * carries its heading, and the opening fence of a code block it cuts, into the next one. Each block
+ * goes through Spring AI's markdown reader, which keeps code blocks apart and puts the heading in
+ * the {@code title} metadata. Everything else, such as PDF, DOC/DOCX, PPT/PPTX and HTML, is parsed by Tika's auto-detecting parser
+ * as a stream of SAX events: the text is cut into a section at each page or slide, and otherwise at
+ * the end of a paragraph once about {@code sectionChars} have been collected, so no more than twice
+ * that is held at a time whatever the size of the file.
+ * <p>
+ * Stateless and thread-safe; one instance serves every read thread.
+ */
+public class AllDocumentTypeReader implements SectionReader {
 
-    private final Resource resource;
+    /**
+     * Metadata entry with the 1-based page or slide a section comes from, for paged formats.
+     */
+    public static final String PAGE_METADATA = "page_number";
 
-    public AllDocumentTypeReader(Resource resource) {
-        this.resource = resource;
+    private static final Set<String> MARKDOWN_EXTENSIONS = Set.of("md", "markdown");
+    // Tika marks each PDF page and each PPTX slide with a div of this class
+    private static final Set<String> PAGE_CLASSES = Set.of("page", "slide-content");
+    private static final Set<String> BLOCK_ELEMENTS = Set.of("p", "div", "li", "tr", "pre", "blockquote",
+            "h1", "h2", "h3", "h4", "h5", "h6", "table", "br");
+
+    private static final Pattern HEADING = Pattern.compile("^ {0,3}#{1,6}(\\s|$)");
+
+    private final int sectionChars;
+    private final Parser parser = new AutoDetectParser();
+
+    public AllDocumentTypeReader(int sectionChars) {
+        this.sectionChars = sectionChars;
+    }
+
+    @Override
+    public void read(Resource resource, Sink sink) throws IOException, InterruptedException {
+        String filename = resource.getFilename();
+        if (filename != null && MARKDOWN_EXTENSIONS.contains(extension(filename))) {
+            MarkdownBlocks blocks = new MarkdownBlocks(sink);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(resource.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = readLine(in, 2 * sectionChars)) != null) {
+                    blocks.line(line);
+                }
+            }
+            blocks.emit();
+            return;
+        }
+        Metadata metadata = new Metadata();
+        if (filename != null) {
+            // lets detection fall back on the extension when the content is ambiguous
+            metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, filename);
+        }
+        SectionHandler handler = new SectionHandler(sink);
+        try (InputStream in = resource.getInputStream()) {
+            parser.parse(in, handler, metadata, new ParseContext());
+        } catch (SAXException | TikaException e) {
+            if (handler.interrupted != null) {
+                throw handler.interrupted;
+            }
+            throw new IOException("Could not parse " + resource.getDescription(), e);
+        }
+    }
+
+    // A line, or the next piece of a line longer than max, so a file without line breaks is still bounded.
+    private static String readLine(BufferedReader in, int max) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() >= max) {
+                return line.toString();
+            }
+        }
+        return line.isEmpty() ? null : line.toString();
     }
 
-    public List<Document> loadText() {
-        /**
-         * The TikaDocumentReader uses Apache Tika to extract text from a variety of document formats,
-         * such as PDF, DOC/DOCX, PPT/PPTX, and HTML. For a comprehensive list of supported formats,
-         * refer to the Tika documentation.
-         */
-        MarkdownDocumentReader markdownDocumentReader = new MarkdownDocumentReader(resource, MarkdownDocumentReaderConfig.defaultConfig());
-        return markdownDocumentReader.read();
+    private static String extension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // Collects markdown lines into blocks and passes each through the markdown reader.
+    private final class MarkdownBlocks {
+
+        private final Sink sink;
+        private final StringBuilder block = new StringBuilder();
+        // the last heading line, and the opening line of the code fence the block is inside, if any
+        private String heading;
+        private String fence;
+        // length of the heading and fence carried over from the previous block
+        private int carried;
+
+        private MarkdownBlocks(Sink sink) {
+            this.sink = sink;
+        }
+
+        void line(String line) throws InterruptedException {
+            if (fence == null && HEADING.matcher(line).find()) {
+                emit();
+                heading = line;
+                block.setLength(0);
+                block.append(line).append('\n');
+                carried = block.length();
+                return;
+            }
+            String stripped = line.strip();
+            if (fence == null && (stripped.startsWith("```") || stripped.startsWith("~~~"))) {
+                fence = line;
+            } else if (fence != null && isClosingFence(stripped)) {
+                fence = null;
+            }
+            block.append(line).append('\n');
+            if (fence == null && line.isBlank() && block.length() >= sectionChars
+                    || block.length() >= 2 * sectionChars) {
+                emit();
+                block.setLength(0);
+                if (heading != null) {
+                    block.append(heading).append('\n');
+                }
+                if (fence != null) {
+                    block.append(fence).append('\n');
+                }
+                carried = block.length();
+            }
+        }
+
+        void emit() throws InterruptedException {
+            if (block.length() <= carried) {
+                return;
+            }
+            // a block cut inside a code fence closes it
+            String text = fence == null ? block.toString() : block + fenceMarker() + "\n";
+            MarkdownDocumentReader markdownDocumentReader = new MarkdownDocumentReader(
+                    new ByteArrayResource(text.getBytes(StandardCharsets.UTF_8)),
+                    MarkdownDocumentReaderConfig.defaultConfig());
+            for (Document document : markdownDocumentReader.read()) {
+                sink.accept(document);
+            }
+        }
+
+        private boolean isClosingFence(String stripped) {
+            String marker = fenceMarker();
+            return stripped.length() >= marker.length() && stripped.chars().allMatch(c -> c == marker.charAt(0));
+        }
+
+        // the run of backticks or tildes that opened the fence
+        private String fenceMarker() {
+            String opening = fence.strip();
+            int end = 0;
+            while (end < opening.length() && opening.charAt(end) == opening.charAt(0)) {
+                end++;
+            }
+            return opening.substring(0, end);
+        }
+    }
+
+    // Collects the body text of Tika's XHTML events and passes it on a section at a time.
+    private final class SectionHandler extends DefaultHandler {
+
+        private final Sink sink;
+        private final StringBuilder text = new StringBuilder();
+        private boolean inBody;
+        // current page or slide, 0 until the first one starts or for formats without pages
+        private int page;
+        private InterruptedException interrupted;
+
+        private SectionHandler(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            String element = name(localName, qName);
+            if ("body".equals(element)) {
+                inBody = true;
+            } else if ("div".equals(element) && PAGE_CLASSES.contains(attributes.getValue("class"))) {
+                emit(text.length());
+                page++;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String element = name(localName, qName);
+            if ("body".equals(element)) {
+                inBody = false;
+                emit(text.length());
+            } else if (inBody && BLOCK_ELEMENTS.contains(element)) {
+                text.append('\n');
+                if (text.length() >= sectionChars) {
+                    emit(text.length());
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (!inBody) {
+                return;
+            }
+            text.append(ch, start, length);
+            // a paragraph that runs on past twice the section size is cut at a space
+            while (text.length() >= 2 * sectionChars) {
+                int end = text.lastIndexOf(" ", 2 * sectionChars);
+                emit(end > 0 ? end + 1 : 2 * sectionChars);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            emit(text.length());
+        }
+
+        private void emit(int end) throws SAXException {
+            String section = text.substring(0, end).strip();
+            text.delete(0, end);
+            if (section.isEmpty()) {
+                return;
+            }
+            Map<String, Object> metadata = page > 0 ? Map.of(PAGE_METADATA, page) : Map.of();
+            try {
+                sink.accept(new Document(section, metadata));
+            } catch (InterruptedException e) {
+                interrupted = e;
+                throw new SAXException("Interrupted while handing over a section", e);
+            }
+        }
+
+        private static String name(String localName, String qName) {
+            return localName == null || localName.isEmpty() ? qName : localName;
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.example.ai.localchat.rerank;
+
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.prompt.PromptLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Asks the chat model to order the candidates (cross-encoder style). Costs a full generation per
+ * query, so it is opt-in; the response is streamed so that cancelling the returned {@link Mono}
+ * stops the generation.
+ */
+public class LlmReranker implements Reranker {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmReranker.class);
+
+    private final ChatClient chatClient;
+    private final RagObservations observations;
+
+    public LlmReranker(ChatClient chatClient) {
+        this(chatClient, RagObservations.NOOP);
+    }
+
+    public LlmReranker(ChatClient chatClient, RagObservations observations) {
+        this.chatClient = chatClient;
+        this.observations = observations;
+    }
+
+    @Override
+    public Mono<List<Document>> rerank(String query, List<Document> documents) {
+        return ranking(query, documents).map(ranking -> {
+            Set<Integer> indices = indices(ranking, documents.size());
+            observations.rerankResponse(!indices.isEmpty());
+            return reorder(documents, indices);
+        });
+    }
+
+    private Mono<String> ranking(String query, List<Document> documents) {
+        // Use LLM as reranker (cross-encoder style). The documents keep the order their indices refer
+        // to, and the query follows them, see PromptLayout
+        StringBuilder docsBuilder = new StringBuilder();
+        for (int i = 0; i < documents.size(); i++) {
+            docsBuilder.append(String.format("[%d] %s\n\n", i,
+                    documents.get(i).getFormattedContent().substring(0,
+                            Math.min(300, documents.get(i).getFormattedContent().length()))));
+        }
+
+        Prompt prompt = PromptLayout.prompt(PromptLayout.RERANK_INSTRUCTIONS, docsBuilder.toString().strip(),
+                "Query: " + query);
+
+        return chatClient.prompt(prompt)
+                .stream()
+                .content()
+                .collect(Collectors.joining());
+    }
+
+    // Documents the model left out keep their retrieval order after the ranked ones.
+    static List<Document> reorder(List<Document> documents, String ranking) {
+        return reorder(documents, indices(ranking, documents.size()));
+    }
+
+    // The valid document indices in the model's answer, in its order; empty when it has none.
+    private static Set<Integer> indices(String ranking, int size) {
+        Set<Integer> indices = new LinkedHashSet<>();
+        for (String token : ranking.trim().split(",")) {
+            try {
+                int index = Integer.parseInt(token.trim());
+                if (index >= 0 && index < size) {
+                    indices.add(index);
+                }
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring unparseable rerank index '{}'", token);
+            }
+        }
+        return indices;
+    }
+
+    private static List<Document> reorder(List<Document> documents, Set<Integer> indices) {
+        if (indices.isEmpty()) {
+            logger.warn("Rerank response contained no document indices, keeping retrieval order");
+            return documents;
+        }
+        List<Document> reordered = new ArrayList<>(documents.size());
+        indices.forEach(i -> reordered.add(documents.get(i)));
+        for (int i = 0; i < documents.size(); i++) {
+            if (!indices.contains(i)) {
+                reordered.add(documents.get(i));
+            }
+        }
+        return reordered;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.ai.localchat.rerank;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Compares rerankers on labelled queries: every reranker orders the same retrieval candidates,
+ * and the report gives MRR and nDCG@k against the relevant chunk ids alongside rerank latency. The
+ * {@code "none"} row is the retrieval order, the baseline a reranker has to beat.
+ */
+public final class RerankEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(RerankEvaluator.class);
+
+    private RerankEvaluator() {
+    }
+
+    public static RerankReport evaluate(List<Case> cases, Function<String, List<Document>> candidates,
+                                        Map<String, Reranker> rerankers, int k) {
+        Map<String, Reranker> all = new LinkedHashMap<>();
+        all.put("none", (query, documents) -> Mono.just(documents));
+        all.putAll(rerankers);
+
+        List<List<Document>> candidateLists = cases.stream().map(c -> candidates.apply(c.query())).toList();
+        List<RerankReport.Row> rows = new ArrayList<>();
+        for (Map.Entry<String, Reranker> reranker : all.entrySet()) {
+            double reciprocalRanks = 0;
+            double ndcg = 0;
+            long totalNanos = 0;
+            long maxNanos = 0;
+            int failures = 0;
+            for (int q = 0; q < cases.size(); q++) {
+                Case c = cases.get(q);
+                List<Document> ranked;
+                long start = System.nanoTime();
+                try {
+                    ranked = reranker.getValue().rerank(c.query(), candidateLists.get(q)).block();
+                } catch (RuntimeException e) {
+                    logger.warn("Reranker {} failed on '{}'", reranker.getKey(), c.query(), e);
+                    ranked = candidateLists.get(q);
+                    failures++;
+                }
+                long nanos = System.nanoTime() - start;
+                totalNanos += nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+                reciprocalRanks += reciprocalRank(ranked, c.relevantIds());
+                ndcg += ndcg(ranked, c.relevantIds(), k);
+            }
+            int n = Math.max(1, cases.size());
+            rows.add(new RerankReport.Row(reranker.getKey(), reciprocalRanks / n, ndcg / n,
+                    totalNanos / 1e6 / n, maxNanos / 1e6, failures));
+        }
+        return new RerankReport(cases.size(), k, rows);
+    }
+
+    static double reciprocalRank(List<Document> ranked, Set<String> relevantIds) {
+        for (int i = 0; i < ranked.size(); i++) {
+            if (relevantIds.contains(ranked.get(i).getId())) {
+                return 1.0 / (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    static double ndcg(List<Document> ranked, Set<String> relevantIds, int k) {
+        double dcg = 0;
+        for (int i = 0; i < Math.min(k, ranked.size()); i++) {
+            if (relevantIds.contains(ranked.get(i).getId())) {
+                dcg += 1 / log2(i + 2);
+            }
+        }
+        double ideal = 0;
+        for (int i = 0; i < Math.min(k, relevantIds.size()); i++) {
+            ideal += 1 / log2(i + 2);
+        }
+        return ideal == 0 ? 0 : dcg / ideal;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * A query and the ids of the chunks that answer it.
+     */
+    public record Case(String query, Set<String> relevantIds) {
+    }
+
+    public record RerankReport(int cases, int k, List<Row> rows) {
+
+        /**
+         * @param failures queries on which the reranker threw and the retrieval order was scored instead
+         */
+        public record Row(String reranker, double mrr, double ndcgAtK, double meanMillis, double maxMillis,
+                          int failures) {
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.ai.localchat.rerank;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Which {@link Reranker} orders the hybrid retrieval candidates, and the feature weights of the
+ * default {@link FeatureReranker}.
+ */
+@ConfigurationProperties("localchat.retrieval.rerank")
+public record RerankProperties(
+        @DefaultValue("feature") Mode mode,
+        @DefaultValue Weights weights) {
+
+    public enum Mode {
+        /**
+         * Linear model over retrieval scores and chunk metadata, computed on the CPU.
+         */
+        FEATURE,
+        /**
+         * Asks the chat model to order the candidates; a full generation per query.
+         */
+        LLM
+    }
+
+    /**
+     * Weights of the {@link FeatureReranker} features, each of which lies in [0, 1].
+     *
+     * @param vector         cosine similarity of the chunk to the query
+     * @param lexical        BM25 of the query against the chunk text, relative to the best candidate
+     * @param technicalTerms share of the query terms found in the chunk's {@code technical_terms}
+     * @param code           1 when the chunk has code and the query asks for code or an example
+     * @param complexity     {@code complexity_score} relative to the most complex candidate
+     */
+    public record Weights(
+            @DefaultValue("1.0") double vector,
+            @DefaultValue("0.8") double lexical,
+            @DefaultValue("0.5") double technicalTerms,
+            @DefaultValue("0.3") double code,
+            @DefaultValue("0.1") double complexity) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.ai.localchat.rerank;
+
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Reorders retrieval candidates by relevance to the query, most relevant first. Asynchronous so
+ * that a model-backed implementation can be cancelled when it misses its latency budget.
+ */
+public interface Reranker {
+
+    Mono<List<Document>> rerank(String query, List<Document> documents);
+}
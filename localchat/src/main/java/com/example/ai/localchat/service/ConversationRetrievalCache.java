@@ -0,0 +1,161 @@
+package com.example.ai.localchat.service;
+
+import com.example.ai.localchat.vectorstore.HnswIndex;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Reuses the documents retrieved for a conversation on its follow-up turns. A turn is a follow-up
+ * when its query embedding is close to the previous query's, or to one of the documents retrieved
+ * for it. Instead of the full retrieval, with its searches and LLM expansion and rerank, a follow-up
+ * gets the previous documents rescored against it, joined by the few dense matches for it that are
+ * as close as the context has to be, closest first. Telling a follow-up apart costs the query
+ * embedding, which the full retrieval needs as well and then finds in the embedding cache, and a dot
+ * product per previous document.
+ * <p>
+ * A turn in another scope, e.g. against another knowledge base, retrieves in full, as does one whose
+ * previous documents are no longer all in the store, e.g. after re-ingestion. Conversations are
+ * bounded and expire when idle, as in the chat memory. Thread-safe.
+ */
+public class ConversationRetrievalCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final double querySimilarity;
+    private final double contextSimilarity;
+    private final int extensionTopK;
+    private final int maximumDocuments;
+    private final Cache<String, Turn> conversations;
+    private final RetrievalStageStats stats = new RetrievalStageStats();
+
+    private final LongAdder retrievals = new LongAdder();
+    private final LongAdder followUps = new LongAdder();
+    private final LongAdder extendedDocuments = new LongAdder();
+    private final LongAdder staleRetrievals = new LongAdder();
+
+    public ConversationRetrievalCache(EmbeddingModel embeddingModel, long maximumConversations, Duration idleTimeout,
+                                      double querySimilarity, double contextSimilarity, int extensionTopK,
+                                      int maximumDocuments) {
+        this.embeddingModel = embeddingModel;
+        this.querySimilarity = querySimilarity;
+        this.contextSimilarity = contextSimilarity;
+        this.extensionTopK = extensionTopK;
+        this.maximumDocuments = maximumDocuments;
+        this.conversations = Caffeine.newBuilder()
+                .maximumSize(maximumConversations)
+                .expireAfterAccess(idleTimeout)
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * The documents for a turn of a conversation: from the previous turn when this one follows up on
+     * it in the same scope, otherwise from {@code retrieval}, and kept for the next turn either way.
+     *
+     * @param scope     where the documents come from, e.g. a collection name
+     * @param store     the store the documents are in, searched for a follow-up's own matches
+     * @param retrieval the full retrieval for a query
+     */
+    public RetrievalResult retrieve(String conversationId, String scope, String query, HnswVectorStore store,
+                                    Function<String, RetrievalResult> retrieval) {
+        long start = System.nanoTime();
+        float[] embedding = HnswIndex.normalize(embeddingModel.embed(query));
+        Turn previous = conversations.getIfPresent(conversationId);
+        if (previous != null && previous.scope().equals(scope) && !previous.documents().isEmpty()) {
+            RetrievalResult followUp = followUp(conversationId, previous, query, embedding, store, start);
+            if (followUp != null) {
+                return followUp;
+            }
+        }
+        RetrievalResult result = retrieval.apply(query);
+        retrievals.increment();
+        conversations.put(conversationId, new Turn(scope, embedding, result.documents()));
+        return result;
+    }
+
+    public void invalidate(String conversationId) {
+        conversations.invalidate(conversationId);
+    }
+
+    public ConversationRetrievalStats stats() {
+        long retrievalCount = retrievals.sum();
+        long followUpCount = followUps.sum();
+        RetrievalStageStats.StageSnapshot followUp = stats.snapshot().get("follow_up");
+        return new ConversationRetrievalStats(conversations.estimatedSize(), retrievalCount, followUpCount,
+                retrievalCount + followUpCount == 0 ? 0 : (double) followUpCount / (retrievalCount + followUpCount),
+                extendedDocuments.sum(), staleRetrievals.sum(), followUp == null ? 0 : followUp.meanMillis());
+    }
+
+    // null when the turn isn't a follow-up or the previous documents can't be reused
+    private RetrievalResult followUp(String conversationId, Turn previous, String query, float[] embedding,
+                                     HnswVectorStore store, long start) {
+        Map<String, Double> similarities = store.similarities(embedding,
+                previous.documents().stream().map(Document::getId).toList());
+        if (similarities.size() < previous.documents().size()) {
+            staleRetrievals.increment();
+            return null;
+        }
+        double closest = similarities.values().stream().mapToDouble(Double::doubleValue).max().orElse(0);
+        if (HnswIndex.dot(embedding, previous.query()) < querySimilarity && closest < contextSimilarity) {
+            return null;
+        }
+
+        Map<String, Document> documents = new LinkedHashMap<>();
+        for (Document document : previous.documents()) {
+            documents.put(document.getId(), document.mutate().score(similarities.get(document.getId())).build());
+        }
+        int extended = 0;
+        if (extensionTopK > 0) {
+            List<Document> matches = store.similaritySearch(SearchRequest.builder()
+                    .query(query)
+                    .topK(extensionTopK)
+                    .similarityThreshold(contextSimilarity)
+                    .build(), embedding);
+            for (Document match : matches) {
+                if (documents.putIfAbsent(match.getId(), match) == null) {
+                    extended++;
+                }
+            }
+        }
+        List<Document> kept = documents.values().stream()
+                .sorted(Comparator.comparingDouble(Document::getScore).reversed())
+                .limit(maximumDocuments)
+                .toList();
+        conversations.put(conversationId, new Turn(previous.scope(), embedding, kept));
+
+        followUps.increment();
+        extendedDocuments.add(extended);
+        RetrievalStageStats stages = new RetrievalStageStats(stats);
+        stages.record("follow_up", System.nanoTime() - start);
+        return new RetrievalResult(query, kept, stages.snapshot());
+    }
+
+    /**
+     * @param query normalized embedding of the turn's query
+     */
+    private record Turn(String scope, float[] query, List<Document> documents) {
+    }
+
+    /**
+     * @param retrievals         turns retrieved in full, the first of each conversation among them
+     * @param followUps          turns answered from the previous documents
+     * @param extendedDocuments  documents follow-ups added to the previous ones
+     * @param staleRetrievals    follow-up checks that retrieved in full because documents had left the store
+     * @param meanFollowUpMillis mean time to tell a follow-up and extend its documents
+     */
+    public record ConversationRetrievalStats(long conversations, long retrievals, long followUps,
+                                             double followUpRate, long extendedDocuments, long staleRetrievals,
+                                             double meanFollowUpMillis) {
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.ai.localchat.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * When {@link ConversationRetrievalCache} treats a turn as a follow-up of the conversation's last
+ * retrieval. How many conversations it keeps and for how long follows the chat memory.
+ *
+ * @param querySimilarity   cosine similarity to the previous query at which a turn is a follow-up
+ * @param contextSimilarity cosine similarity to the closest previously retrieved document at which a
+ *                          turn is a follow-up, e.g. "and how do I configure that?"
+ * @param extensionTopK     dense matches for the follow-up itself that may join the documents
+ * @param maximumDocuments  most documents a follow-up keeps, the closest to it first
+ */
+@ConfigurationProperties("localchat.retrieval.conversation")
+public record ConversationRetrievalProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("0.8") double querySimilarity,
+        @DefaultValue("0.6") double contextSimilarity,
+        @DefaultValue("3") int extensionTopK,
+        @DefaultValue("8") int maximumDocuments) {
+}
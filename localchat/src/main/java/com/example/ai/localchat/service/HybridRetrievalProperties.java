@@ -0,0 +1,52 @@
+package com.example.ai.localchat.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Latency budget for {@link HybridRetrievalService}. In concurrent mode the dense and BM25 searches
+ * for the raw query run in parallel (and alongside expansion when it is always on); a stage that
+ * misses its timeout, or would start after the overall deadline, is skipped and retrieval continues
+ * with what it has.
+ *
+ * @param expansion when to ask the LLM to expand the query, see {@link ExpansionMode}
+ * @param threshold how dense search results are cut off by similarity, see {@link SimilarityThreshold}
+ */
+@ConfigurationProperties("localchat.retrieval")
+public record HybridRetrievalProperties(
+        @DefaultValue("true") boolean concurrent,
+        @DefaultValue("auto") ExpansionMode expansion,
+        @DefaultValue("5s") Duration expansionTimeout,
+        @DefaultValue("2s") Duration searchTimeout,
+        @DefaultValue("8s") Duration rerankTimeout,
+        @DefaultValue("12s") Duration deadline,
+        @DefaultValue("60") int rrfK,
+        @DefaultValue Threshold threshold) {
+
+    public enum ExpansionMode {
+        /**
+         * Expand only when BM25 finds nothing and dense search finds too little above the threshold.
+         */
+        AUTO,
+        ALWAYS,
+        NEVER
+    }
+
+    /**
+     * @param mode      fixed thresholds per call site, or adaptive ones derived from the scores
+     * @param maxGap    adaptive mode keeps documents scoring within this of the query's best
+     * @param minZScore adaptive mode also keeps documents this many standard deviations above the
+     *                  mean score of recent searches
+     * @param warmup    scores to see before the z-score replaces the fixed threshold
+     * @param window    roughly how many recent scores the mean and deviation follow
+     */
+    public record Threshold(
+            @DefaultValue("adaptive") SimilarityThreshold.Mode mode,
+            @DefaultValue("0.1") double maxGap,
+            @DefaultValue("1.0") double minZScore,
+            @DefaultValue("200") int warmup,
+            @DefaultValue("2000") int window) {
+    }
+}
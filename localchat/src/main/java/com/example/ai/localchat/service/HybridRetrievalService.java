@@ -1,154 +1,355 @@
 package com.example.ai.localchat.service;
 
-import lombok.AllArgsConstructor;
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.prompt.PromptLayout;
+import com.example.ai.localchat.rerank.Reranker;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
-@AllArgsConstructor
 public class HybridRetrievalService {
 
-    private final VectorStore vectorStore;
+    private static final Logger logger = LoggerFactory.getLogger(HybridRetrievalService.class);
+
+    private final HnswVectorStore vectorStore;
     private final ChatClient chatClient;
+    private final HybridRetrievalProperties properties;
+    private final Reranker reranker;
+    private final RagObservations observations;
+    private final SimilarityThreshold threshold;
+    private final RetrievalStageStats stats = new RetrievalStageStats();
+    private final ExecutorService searchExecutor;
 
-    // Adjusted thresholds for technical content
+    // Adjusted thresholds for technical content; the fixed threshold mode, see SimilarityThreshold
     private static final double SIMILARITY_THRESHOLD = 0.65; // Lower for technical docs
     private static final int INITIAL_TOP_K = 20; // Cast wider net
     private static final int FINAL_TOP_K = 5; // Rerank to best 5
 
-    public List<Document> hybridSearch(String query) {
+    public HybridRetrievalService(HnswVectorStore vectorStore, @Qualifier("expansionChatClient") ChatClient chatClient,
+                                  HybridRetrievalProperties properties, Reranker reranker) {
+        this(vectorStore, chatClient, properties, reranker, RagObservations.NOOP);
+    }
 
-        // Step 1: Query expansion for technical terms
-        String expandedQuery = expandTechnicalQuery(query);
+    @Autowired
+    public HybridRetrievalService(HnswVectorStore vectorStore, @Qualifier("expansionChatClient") ChatClient chatClient,
+                                  HybridRetrievalProperties properties, Reranker reranker,
+                                  RagObservations observations) {
+        this.vectorStore = vectorStore;
+        this.chatClient = chatClient;
+        this.properties = properties;
+        this.reranker = reranker;
+        this.observations = observations;
+        this.threshold = new SimilarityThreshold(properties.threshold(), SIMILARITY_THRESHOLD);
+        this.searchExecutor = newSearchExecutor();
+    }
 
-        // Step 2: Semantic search with lower threshold
-        SearchRequest searchRequest = SearchRequest.builder()
-                .query(expandedQuery)
-                .topK(INITIAL_TOP_K)
-                .similarityThreshold(SIMILARITY_THRESHOLD)
-                .build();
-
-        List<Document> candidateDocs = vectorStore.similaritySearch(searchRequest);
-
-        if (candidateDocs.isEmpty()) {
-            // Fallback: try without threshold
-            searchRequest = SearchRequest.builder()
-                    .query(expandedQuery)
-                    .topK(INITIAL_TOP_K)
-                    .build();
-            candidateDocs = vectorStore.similaritySearch(searchRequest);
-        }
+    public List<Document> hybridSearch(String query) {
+        return retrieve(query).documents();
+    }
+
+    /**
+     * Runs {@link #hybridSearch} and also returns how long each of its stages took for this query.
+     */
+    public RetrievalResult retrieve(String query) {
+        return retrieve(query, vectorStore);
+    }
 
-        // Step 3: Metadata filtering
-        List<Document> filteredDocs = applyMetadataFiltering(candidateDocs, query);
+    /**
+     * {@link #retrieve(String)} against another store, such as one of the
+     * {@link com.example.ai.localchat.collection.KnowledgeCollections}.
+     */
+    public RetrievalResult retrieve(String query, HnswVectorStore store) {
+        long start = System.nanoTime();
+        long deadline = start + properties.deadline().toNanos();
+        RetrievalStageStats stages = new RetrievalStageStats(stats);
+        List<Document> candidateDocs = candidates(store, query, deadline, stages);
 
-        // Step 4: Rerank using cross-encoder approach
-        List<Document> rerankedDocs = rerank(query, filteredDocs);
+        // Rerank with the configured reranker, keeping retrieval order if it fails or is too slow
+        List<Document> rerankedDocs = candidateDocs;
+        if (candidateDocs.size() > 1) {
+            List<Document> reranked = properties.concurrent()
+                    ? await("rerank", timedFuture("rerank",
+                            observation -> reranker.rerank(query, candidateDocs).toFuture(), stages),
+                            properties.rerankTimeout(), deadline, stages)
+                    : timed("rerank", () -> reranker.rerank(query, candidateDocs).block(), stages);
+            rerankedDocs = reranked == null ? candidateDocs : reranked;
+        }
 
-        return rerankedDocs.stream()
+        List<Document> documents = rerankedDocs.stream()
                 .limit(FINAL_TOP_K)
                 .collect(Collectors.toList());
+        stages.record("total", System.nanoTime() - start);
+        return new RetrievalResult(query, documents, stages.snapshot());
+    }
+
+    /**
+     * The fused and filtered candidates {@link #hybridSearch} reranks, in retrieval order.
+     */
+    public List<Document> candidates(String query) {
+        return candidates(vectorStore, query, System.nanoTime() + properties.deadline().toNanos(),
+                new RetrievalStageStats(stats));
     }
 
-    private String expandTechnicalQuery(String query) {
-        // Use LLM to expand query with technical synonyms and context
-        String expansionPrompt = """
-            Expand this technical query by identifying:
-            1. Key technical terms and their synonyms
-            2. Related concepts
-            3. Common variations (camelCase, snake_case, etc.)
-            
-            Original query: {query}
-            
-            Respond with only the expanded query terms, comma-separated.
-            Keep it concise (max 50 words).
-            """;
+    private List<Document> candidates(HnswVectorStore store, String query, long deadline,
+                                      RetrievalStageStats stages) {
+        return properties.concurrent() ? concurrentSearch(store, query, deadline, stages)
+                : sequentialSearch(store, query, stages);
+    }
 
-        PromptTemplate promptTemplate = new PromptTemplate(expansionPrompt);
-        Prompt prompt = promptTemplate.create(Map.of("query", query));
+    /**
+     * Latency per stage of {@link #hybridSearch}, for tuning the timeouts.
+     */
+    public Map<String, RetrievalStageStats.StageSnapshot> stageStats() {
+        return stats.snapshot();
+    }
 
-        String expansion = chatClient.prompt(prompt)
-                .call()
-                .content();
+    public SimilarityThreshold.ThresholdStats thresholdStats() {
+        return threshold.stats();
+    }
 
-        return query + " " + expansion;
+    @PreDestroy
+    void shutdown() {
+        searchExecutor.shutdownNow();
     }
 
-    private List<Document> applyMetadataFiltering(List<Document> docs, String query) {
-        // Filter based on query characteristics
-        boolean queryHasCode = query.toLowerCase().contains("code") ||
-                query.toLowerCase().contains("example");
+    private List<Document> sequentialSearch(HnswVectorStore store, String query, RetrievalStageStats stages) {
 
-        return docs.stream()
-                .filter(doc -> {
-                    Map<String, Object> metadata = doc.getMetadata();
+        // Step 1: Semantic and keyword search for the raw query, restricted by its metadata filter
+        Filter.Expression filter = metadataFilter(query);
+        List<Document> rawScored = timed("raw_search", () -> search(store, query, filter), stages);
+        List<Document> raw = threshold.apply(rawScored);
+        List<Document> lexical = timed("lexical_search", () -> lexicalSearch(store, query, filter), stages);
 
-                    // If query mentions code, prioritize docs with code
-                    if (queryHasCode && metadata.containsKey("has_code")) {
-                        return (Boolean) metadata.get("has_code");
-                    }
+        // Step 2: Query expansion for technical terms, when the raw query found too little
+        List<Document> expandedScored = List.of();
+        if (shouldExpand(raw, lexical)) {
+            String expandedQuery = timed("expansion", () -> query + " " + expansion(query).block(), stages);
+            expandedScored = timed("expanded_search", () -> search(store, expandedQuery, filter), stages);
+        }
+        List<Document> candidateDocs = reciprocalRankFusion(List.of(threshold.apply(expandedScored), raw, lexical),
+                properties.rrfK());
 
-                    return true;
-                })
-                .collect(Collectors.toList());
+        return candidateDocs.isEmpty() ? fallback(rawScored, expandedScored) : candidateDocs;
     }
 
-    private List<Document> rerank(String query, List<Document> documents) {
-        // Use LLM as reranker (cross-encoder style)
-        String rerankPrompt = """
-            Rate how relevant each document is to answering this query.
-            Query: {query}
-            
-            Documents:
-            {documents}
-            
-            Return only a comma-separated list of document indices (0-based) 
-            in order of relevance (most relevant first).
-            Example: 2,0,4,1,3
-            """;
-
-        StringBuilder docsBuilder = new StringBuilder();
-        for (int i = 0; i < documents.size(); i++) {
-            docsBuilder.append(String.format("[%d] %s\n\n", i,
-                    documents.get(i).getFormattedContent().substring(0,
-                            Math.min(300, documents.get(i).getFormattedContent().length()))));
+    // Dense and BM25 search for the raw query run in parallel, and the LLM expands the query alongside
+    // them in ALWAYS mode or afterwards when AUTO finds they came up short; all result lists are merged
+    // with reciprocal-rank fusion. Expansion is skipped when it doesn't fit the budget, and
+    // cancelling its future cancels the streaming Ollama request.
+    private List<Document> concurrentSearch(HnswVectorStore store, String query, long deadline,
+                                            RetrievalStageStats stages) {
+
+        Filter.Expression filter = metadataFilter(query);
+        CompletableFuture<List<Document>> rawSearch = async("raw_search", () -> search(store, query, filter),
+                stages);
+        CompletableFuture<List<Document>> lexicalSearch = async("lexical_search",
+                () -> lexicalSearch(store, query, filter), stages);
+        CompletableFuture<String> expansion = properties.expansion() == HybridRetrievalProperties.ExpansionMode.ALWAYS
+                ? timedFuture("expansion", observation -> expansion(query).toFuture(), stages)
+                : null;
+
+        List<Document> rawScored = orEmpty(await("raw_search", rawSearch, properties.searchTimeout(), deadline,
+                stages));
+        List<Document> raw = threshold.apply(rawScored);
+        List<Document> lexical = orEmpty(await("lexical_search", lexicalSearch, properties.searchTimeout(), deadline,
+                stages));
+        if (expansion == null && shouldExpand(raw, lexical)) {
+            expansion = timedFuture("expansion", observation -> expansion(query).toFuture(), stages);
         }
 
-        PromptTemplate promptTemplate = new PromptTemplate(rerankPrompt);
-        Prompt prompt = promptTemplate.create(Map.of(
-                "query", query,
-                "documents", docsBuilder.toString()
-        ));
+        String expanded = expansion == null ? null
+                : await("expansion", expansion, properties.expansionTimeout(), deadline, stages);
+        List<Document> expandedScored = expanded == null || expanded.isBlank() ? List.of()
+                : orEmpty(await("expanded_search",
+                        async("expanded_search", () -> search(store, query + " " + expanded, filter), stages),
+                        properties.searchTimeout(), deadline, stages));
+        List<Document> candidateDocs = reciprocalRankFusion(List.of(threshold.apply(expandedScored), raw, lexical),
+                properties.rrfK());
 
-        String ranking = chatClient.prompt(prompt)
-                .call()
-                .content();
+        return candidateDocs.isEmpty() ? fallback(rawScored, expandedScored) : candidateDocs;
+    }
+
+    // Nothing passed the threshold: the best dense matches regardless of score, preferring the expanded
+    // query's. They come from the searches already run rather than from searching again.
+    private List<Document> fallback(List<Document> rawScored, List<Document> expandedScored) {
+        observations.fallback("hybrid");
+        return expandedScored.isEmpty() ? rawScored : expandedScored;
+    }
+
+    // The scored top-K without a threshold, which is applied afterwards, see SimilarityThreshold
+    private static List<Document> search(HnswVectorStore store, String query, Filter.Expression filter) {
+        return store.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(INITIAL_TOP_K)
+                .similarityThreshold(SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL)
+                .filterExpression(filter)
+                .build());
+    }
 
-        // Parse ranking and reorder documents
+    private static List<Document> lexicalSearch(HnswVectorStore store, String query, Filter.Expression filter) {
+        return store.lexicalSearch(query, INITIAL_TOP_K, filter);
+    }
+
+    // Expansion costs an LLM round trip, so AUTO only pays for it when exact terms matched nothing
+    // and the embedding found fewer good matches than the answer needs.
+    private boolean shouldExpand(List<Document> raw, List<Document> lexical) {
+        return switch (properties.expansion()) {
+            case ALWAYS -> true;
+            case NEVER -> false;
+            case AUTO -> lexical.isEmpty() && raw.size() < FINAL_TOP_K;
+        };
+    }
+
+    // Documents ranked by the sum of 1 / (k + rank) over the lists they appear in. A document found by
+    // several searches keeps the metadata of each, e.g. both its vector distance and its BM25 score.
+    static List<Document> reciprocalRankFusion(List<List<Document>> rankings, int k) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> metadata = new HashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                if (documents.putIfAbsent(document.getId(), document) != null) {
+                    metadata.computeIfAbsent(document.getId(),
+                            id -> new HashMap<>(documents.get(id).getMetadata()));
+                    document.getMetadata().forEach(metadata.get(document.getId())::putIfAbsent);
+                }
+                scores.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        List<Document> fused = new ArrayList<>(documents.size());
+        for (Document document : documents.values()) {
+            Map<String, Object> merged = metadata.get(document.getId());
+            fused.add(merged == null ? document : document.mutate().metadata(merged).build());
+        }
+        fused.sort((a, b) -> Double.compare(scores.get(b.getId()), scores.get(a.getId())));
+        return fused;
+    }
+
+    // The stage's observation is opened again on the worker, so spans of the search nest under it.
+    private <T> CompletableFuture<T> async(String stage, Supplier<T> task, RetrievalStageStats stages) {
+        return timedFuture(stage,
+                observation -> CompletableFuture.supplyAsync(() -> observation.scoped(task), searchExecutor), stages);
+    }
+
+    // Returns the future itself, not the whenComplete stage, so that cancelling it reaches the source.
+    // Started by the timer because some sources, like an in-process reranker, complete while subscribing.
+    // The observation is also stopped when the stage is cancelled, so skipped stages still end their span.
+    private <T> CompletableFuture<T> timedFuture(String stage, Function<Observation, CompletableFuture<T>> source,
+                                                 RetrievalStageStats stages) {
+        long start = System.nanoTime();
+        Observation observation = observations.start(stage);
+        CompletableFuture<T> future = observation.scoped(() -> source.apply(observation));
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                stages.record(stage, System.nanoTime() - start);
+            } else if (!(error instanceof CancellationException)) {
+                observation.error(error);
+            }
+            observation.stop();
+        });
+        return future;
+    }
+
+    private <T> T timed(String stage, Supplier<T> task, RetrievalStageStats stages) {
+        long start = System.nanoTime();
+        T result = observations.observe(stage, task);
+        stages.record(stage, System.nanoTime() - start);
+        return result;
+    }
+
+    // Waits for the stage up to its timeout or the deadline, whichever is first; null when skipped.
+    private <T> T await(String stage, CompletableFuture<T> future, Duration timeout, long deadline,
+                        RetrievalStageStats stages) {
+        long waitNanos = Math.min(timeout.toNanos(), deadline - System.nanoTime());
         try {
-            List<Integer> indices = Arrays.stream(ranking.trim().split(","))
-                    .map(String::trim)
-                    .map(Integer::parseInt)
-                    .collect(Collectors.toList());
-
-            return indices.stream()
-                    .filter(i -> i >= 0 && i < documents.size())
-                    .map(documents::get)
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
-            // Fallback to original order
-            return documents;
+            if (waitNanos <= 0 && !future.isDone()) {
+                throw new TimeoutException();
+            }
+            return future.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.debug("Retrieval stage {} skipped, it did not finish within its budget", stage);
+        } catch (ExecutionException e) {
+            logger.warn("Retrieval stage {} failed, continuing without it", stage, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        future.cancel(true);
+        stages.skipped(stage);
+        observations.skipped(stage);
+        return null;
+    }
+
+    // A virtual thread per search task on Java 21+, where blocking on the vector store or Ollama
+    // doesn't hold a platform thread; looked up reflectively as the default toolchain is Java 17.
+    private static ExecutorService newSearchExecutor() {
+        if (Runtime.version().feature() >= 21) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads unavailable, using platform threads for retrieval", e);
+            }
+        }
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "retrieval-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static List<Document> orEmpty(List<Document> documents) {
+        return documents == null ? List.of() : documents;
+    }
+
+    private Mono<String> expansion(String query) {
+        // Use LLM to expand query with technical synonyms and context; the query follows the
+        // instructions, see PromptLayout
+        Prompt prompt = PromptLayout.prompt(PromptLayout.EXPANSION_INSTRUCTIONS, "", query);
+
+        return chatClient.prompt(prompt)
+                .stream()
+                .content()
+                .collect(Collectors.joining());
     }
-}
 
+    // Questions about code only consider chunks with code. The filter runs inside the vector and BM25
+    // searches, on the store's metadata index, so all INITIAL_TOP_K candidates are usable rather than
+    // whichever of them survive filtering afterwards.
+    static Filter.Expression metadataFilter(String query) {
+        String lowerCaseQuery = query.toLowerCase();
+        boolean queryHasCode = lowerCaseQuery.contains("code") || lowerCaseQuery.contains("example");
+        return queryHasCode ? new FilterExpressionBuilder().eq("has_code", true).build() : null;
+    }
+}
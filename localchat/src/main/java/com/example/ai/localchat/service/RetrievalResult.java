@@ -0,0 +1,17 @@
+package com.example.ai.localchat.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The documents {@link HybridRetrievalService} retrieved for one query and how long each stage took.
+ * Passed to the advisor chain under {@link #CONTEXT_KEY} so the RAG advisor uses these documents
+ * instead of rewriting the query and retrieving again.
+ */
+public record RetrievalResult(String query, List<Document> documents,
+                              Map<String, RetrievalStageStats.StageSnapshot> stages) {
+
+    public static final String CONTEXT_KEY = "retrieval_result";
+}
@@ -0,0 +1,69 @@
+package com.example.ai.localchat.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency per retrieval stage since startup, and how often a stage was skipped or timed out.
+ * A child records one request's stages and passes every record on to its parent.
+ */
+public class RetrievalStageStats {
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final RetrievalStageStats parent;
+
+    public RetrievalStageStats() {
+        this(null);
+    }
+
+    RetrievalStageStats(RetrievalStageStats parent) {
+        this.parent = parent;
+    }
+
+    void record(String stage, long nanos) {
+        Stage s = stage(stage);
+        s.count.increment();
+        s.totalNanos.add(nanos);
+        s.maxNanos.accumulate(nanos);
+        if (parent != null) {
+            parent.record(stage, nanos);
+        }
+    }
+
+    void skipped(String stage) {
+        stage(stage).skipped.increment();
+        if (parent != null) {
+            parent.skipped(stage);
+        }
+    }
+
+    public Map<String, StageSnapshot> snapshot() {
+        Map<String, StageSnapshot> snapshot = new TreeMap<>();
+        stages.forEach((name, stage) -> {
+            long count = stage.count.sum();
+            snapshot.put(name, new StageSnapshot(count, stage.skipped.sum(),
+                    count == 0 ? 0 : stage.totalNanos.sum() / count / 1e6, stage.maxNanos.get() / 1e6));
+        });
+        return snapshot;
+    }
+
+    private Stage stage(String name) {
+        return stages.computeIfAbsent(name, n -> new Stage());
+    }
+
+    private static final class Stage {
+        final LongAdder count = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @param skipped times the stage timed out or was not started because the deadline had passed
+     */
+    public record StageSnapshot(long count, long skipped, double meanMillis, double maxMillis) {
+    }
+}
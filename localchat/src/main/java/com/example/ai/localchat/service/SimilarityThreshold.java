@@ -0,0 +1,97 @@
+package com.example.ai.localchat.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * Applies a similarity threshold to the scored top-K of a vector search after the search, so a query
+ * that finds nothing above it can fall back to the same results instead of searching again.
+ * <p>
+ * {@link Mode#FIXED} keeps the documents scoring at least the caller's threshold. {@link Mode#ADAPTIVE}
+ * derives the threshold from the scores themselves, since how high cosine similarities run depends on
+ * the embedding model, the corpus and the kind of query: a document is kept when it is within
+ * {@code maxGap} of the query's best score, or when it stands out against the scores searches usually
+ * return by at least {@code minZScore} standard deviations. Those usual scores are an exponentially
+ * weighted mean and variance over the last {@code window} or so results, updated with every search;
+ * until {@code warmup} scores have been seen, the caller's fixed threshold stands in for the z-score.
+ * <p>
+ * One instance per call site, as their top-K differ. Thread-safe.
+ */
+public class SimilarityThreshold {
+
+    private final HybridRetrievalProperties.Threshold settings;
+    private final double fixedThreshold;
+
+    private long samples;
+    private double mean;
+    private double variance;
+
+    public SimilarityThreshold(HybridRetrievalProperties.Threshold settings, double fixedThreshold) {
+        this.settings = settings;
+        this.fixedThreshold = fixedThreshold;
+    }
+
+    /**
+     * The documents that pass the threshold, in their original order; empty when none do. Documents
+     * are expected best first with their similarity as score.
+     */
+    public List<Document> apply(List<Document> scored) {
+        if (scored.isEmpty()) {
+            return scored;
+        }
+        double cutoff = cutoff(scored);
+        record(scored);
+        return scored.stream().filter(document -> score(document) >= cutoff).toList();
+    }
+
+    public synchronized ThresholdStats stats() {
+        return new ThresholdStats(settings.mode(), fixedThreshold, samples, mean, Math.sqrt(variance));
+    }
+
+    private synchronized double cutoff(List<Document> scored) {
+        if (settings.mode() == Mode.FIXED) {
+            return fixedThreshold;
+        }
+        double gapCutoff = score(scored.get(0)) - settings.maxGap();
+        double zCutoff = samples < settings.warmup() ? fixedThreshold
+                : mean + settings.minZScore() * Math.sqrt(variance);
+        return Math.min(gapCutoff, zCutoff);
+    }
+
+    // exact running mean and variance until window scores, exponentially weighted after that
+    private synchronized void record(List<Document> scored) {
+        for (Document document : scored) {
+            samples++;
+            double alpha = 1.0 / Math.min(samples, settings.window());
+            double delta = score(document) - mean;
+            mean += alpha * delta;
+            variance = (1 - alpha) * (variance + alpha * delta * delta);
+        }
+    }
+
+    private static double score(Document document) {
+        return document.getScore() == null ? 0.0 : document.getScore();
+    }
+
+    public enum Mode {
+        /**
+         * The caller's threshold, the same for every query.
+         */
+        FIXED,
+        /**
+         * Relative to the query's best score and to the scores of earlier searches.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * @param fixedThreshold    the caller's threshold, used in {@code FIXED} mode and during warm-up
+     * @param samples           scores seen so far
+     * @param mean              weighted mean of recent scores
+     * @param standardDeviation weighted standard deviation of recent scores
+     */
+    public record ThresholdStats(Mode mode, double fixedThreshold, long samples, double mean,
+                                 double standardDeviation) {
+    }
+}
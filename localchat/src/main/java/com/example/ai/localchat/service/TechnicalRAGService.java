@@ -1,13 +1,13 @@
 package com.example.ai.localchat.service;
 
+import com.example.ai.localchat.advisors.SemanticCacheAdvisor;
+import com.example.ai.localchat.prompt.PromptLayout;
 import lombok.AllArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
-import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
-
-import java.util.Map;
+import reactor.core.publisher.Flux;
 
 @Service
 @AllArgsConstructor
@@ -17,46 +17,48 @@ public class TechnicalRAGService {
 
     private final Advisor optimizedRagAdvisor;
 
-    private static final String TECHNICAL_SYSTEM_PROMPT = """
-        You are a technical documentation assistant specializing in {domain}.
-        
-        RESPONSE GUIDELINES:
-        1. Answer directly and concisely
-        2. Use technical terminology naturally
-        3. Include code examples when relevant
-        4. Structure your answer with markdown formatting
-        5. NEVER mention "based on the provided documents" or similar phrases
-        6. If information is insufficient, state what you can answer and what's unclear
-        7. Format code blocks with proper language identifiers
-        
-        CRITICAL: Respond as if this information is your native knowledge.
-        Focus on the answer, not the source of information.
-        """;
-
-    private static final String USER_PROMPT_TEMPLATE = """
-        {question}
-        
-        Context information:
-        {context}
-        
-        Provide a clear, technical answer formatted in markdown.
-        """;
+    private final ObjectProvider<SemanticCacheAdvisor> semanticCacheAdvisor;
 
     public String queryWithRAG(String question, String domain) {
+        return queryWithRAG(question, domain, null);
+    }
 
-        SystemPromptTemplate systemPromptTemplate =
-                new SystemPromptTemplate(TECHNICAL_SYSTEM_PROMPT);
-        Message systemMessage = systemPromptTemplate.createMessage(
-                Map.of("domain", domain)
-        );
-
-        return chatClient.prompt()
-                .system(systemMessage.getText())
-                .advisors(advisorSpec -> advisorSpec
-                        .advisors(optimizedRagAdvisor)
-                        .param("question", question))
-                .user(question)
+    /**
+     * Answers from documents the caller already retrieved for the question, skipping the advisor's
+     * query rewrite and retrieval; null retrieves as {@link #queryWithRAG(String, String)} does.
+     */
+    public String queryWithRAG(String question, String domain, RetrievalResult retrieval) {
+        return ragPrompt(question, domain, retrieval)
                 .call()
                 .content();
     }
+
+    /**
+     * Same as {@link #queryWithRAG(String, String, RetrievalResult)} but emits the answer token by
+     * token; cancelling the subscription cancels the generation.
+     */
+    public Flux<String> streamWithRAG(String question, String domain, RetrievalResult retrieval) {
+        return ragPrompt(question, domain, retrieval)
+                .stream()
+                .content();
+    }
+
+    private ChatClient.ChatClientRequestSpec ragPrompt(String question, String domain, RetrievalResult retrieval) {
+        // the domain follows the instructions, so a prompt shares them whatever its domain
+        String instructions = domain == null || domain.isBlank() ? PromptLayout.ANSWER_INSTRUCTIONS
+                : PromptLayout.ANSWER_INSTRUCTIONS + "\nThe questions are about " + domain + ".\n";
+
+        // the advisor puts the context before the question, see PromptLayout
+        return chatClient.prompt()
+                .system(instructions)
+                .advisors(advisorSpec -> {
+                    advisorSpec.advisors(optimizedRagAdvisor)
+                            .param(SemanticCacheAdvisor.QUESTION, question);
+                    if (retrieval != null) {
+                        advisorSpec.param(RetrievalResult.CONTEXT_KEY, retrieval);
+                    }
+                    semanticCacheAdvisor.ifAvailable(advisorSpec::advisors);
+                })
+                .user(question);
+    }
 }
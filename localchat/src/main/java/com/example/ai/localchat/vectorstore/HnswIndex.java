@@ -0,0 +1,609 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov &amp; Yashunin) over L2-normalised vectors,
+ * scored by dot product, which for normalised vectors is the cosine similarity.
+ * <p>
+ * Nodes are addressed by dense int ordinals in insertion order. Deleted nodes are tombstoned:
+ * they keep routing traffic through the graph but are never returned from a search.
+ * An index restored from a {@link VectorStoreFile} reads its original vectors from the mapped
+ * file; vectors added afterwards live on the heap.
+ * <p>
+ * With a {@link VectorQuantizer} attached, searches traverse the graph on compact byte codes and
+ * re-score only the best {@code k * rescoreMultiplier} candidates against the full-precision vectors.
+ * The index is not thread-safe; callers serialise writes against reads. A {@link #copy()} can be
+ * changed while the original keeps serving searches, as long as the original itself is left unchanged.
+ */
+public class HnswIndex {
+
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    // vectors for ordinals below baseCount are served from the mapped file
+    private final MappedVectors baseVectors;
+    private final int baseCount;
+    private float[][] vectors = new float[64][];
+    // node -> level -> [count, neighbour...]
+    private int[][][] neighbours = new int[64][][];
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int deletedCount;
+    private int dimensions;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    // node -> codes at [node * codeSize, (node + 1) * codeSize) when quantized
+    private VectorQuantizer quantizer;
+    private byte[] codes;
+    private int rescoreMultiplier;
+    private boolean sharedCodes;
+
+    // a copy shares the link lists of the nodes it started with until it changes them
+    private int sharedCount;
+    private final BitSet copiedLinks = new BitSet();
+
+    public HnswIndex(int m, int efConstruction) {
+        this(m, efConstruction, 42L);
+    }
+
+    public HnswIndex(int m, int efConstruction, long seed) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2");
+        }
+        if (efConstruction < 1) {
+            throw new IllegalArgumentException("efConstruction must be positive");
+        }
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+        this.baseVectors = null;
+        this.baseCount = 0;
+    }
+
+    private HnswIndex(int m, int efConstruction, MappedVectors baseVectors, int[][][] graph, BitSet deleted,
+                      int entryPoint, int maxLevel) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(42L + graph.length);
+        this.baseVectors = baseVectors;
+        this.baseCount = baseVectors.size();
+        this.dimensions = baseVectors.dimensions();
+        this.neighbours = Arrays.copyOf(graph, Math.max(graph.length, 64));
+        this.size = graph.length;
+        this.deleted.or(deleted);
+        this.deletedCount = deleted.cardinality();
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+    }
+
+    private HnswIndex(HnswIndex source) {
+        this.m = source.m;
+        this.efConstruction = source.efConstruction;
+        this.levelMultiplier = source.levelMultiplier;
+        this.random = new Random(42L + source.size);
+        this.baseVectors = source.baseVectors;
+        this.baseCount = source.baseCount;
+        this.vectors = source.vectors.clone();
+        this.neighbours = source.neighbours.clone();
+        this.deleted.or(source.deleted);
+        this.deletedCount = source.deletedCount;
+        this.size = source.size;
+        this.dimensions = source.dimensions;
+        this.entryPoint = source.entryPoint;
+        this.maxLevel = source.maxLevel;
+        this.quantizer = source.quantizer;
+        this.codes = source.codes;
+        this.rescoreMultiplier = source.rescoreMultiplier;
+        this.sharedCodes = source.codes != null;
+        this.sharedCount = source.size;
+    }
+
+    /**
+     * An index to add to and delete from without changing this one. Vectors, links and codes are
+     * shared until the copy changes them, so copying costs a few references per node.
+     */
+    HnswIndex copy() {
+        return new HnswIndex(this);
+    }
+
+    /**
+     * Rebuilds an index from a persisted graph whose vectors stay in the mapped file.
+     */
+    static HnswIndex restore(int m, int efConstruction, MappedVectors baseVectors, int[][][] graph, BitSet deleted,
+                             int entryPoint, int maxLevel) {
+        return new HnswIndex(m, efConstruction, baseVectors, graph, deleted, entryPoint, maxLevel);
+    }
+
+    /**
+     * Inserts a normalised vector and links it into the graph.
+     * @return the ordinal assigned to the vector
+     */
+    public int add(float[] vector) {
+        if (dimensions == 0) {
+            dimensions = vector.length;
+        } else if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expected vector of dimension " + dimensions + " but got " + vector.length);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        int level = randomLevel();
+        vectors[node - baseCount] = vector;
+        if (quantizer != null) {
+            if (sharedCodes) {
+                codes = codes.clone();
+                sharedCodes = false;
+            }
+            quantizer.encode(vector, codes, node * quantizer.codeSize());
+        }
+        neighbours[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            neighbours[node][l] = new int[maxConnections(l) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        NodeScorer exact = other -> score(vector, other);
+        int[] entryPoints = {entryPoint};
+        for (int l = maxLevel; l > level; l--) {
+            entryPoints = new int[]{greedyClosest(exact, entryPoints[0], l)};
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeQueue candidates = searchLayer(exact, entryPoints, efConstruction, l, null);
+            int[] found = drainDescending(candidates);
+            int[] selected = selectNeighbours(vector, found, m);
+            int[] links = neighbours[node][l];
+            for (int neighbour : selected) {
+                links[++links[0]] = neighbour;
+                connect(neighbour, node, l);
+            }
+            entryPoints = found;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * Approximate top-k search.
+     * @param accept optional predicate restricting which live nodes may be returned; rejected
+     *               nodes are still traversed so the graph stays connected
+     */
+    public SearchResult search(float[] query, int k, int ef, IntPredicate accept) {
+        return search(query, k, ef, accept, quantizer, codes, rescoreMultiplier);
+    }
+
+    /**
+     * Search scored on the given codes instead of the attached ones, or on the full-precision
+     * vectors when {@code quantizer} is null. With a positive {@code rescoreMultiplier} the best
+     * {@code k * rescoreMultiplier} candidates are re-scored exactly; otherwise the approximate
+     * scores are returned.
+     */
+    SearchResult search(float[] query, int k, int ef, IntPredicate accept, VectorQuantizer quantizer, byte[] codes,
+                        int rescoreMultiplier) {
+        if (entryPoint < 0 || k <= 0) {
+            return SearchResult.EMPTY;
+        }
+        int[] scanned = new int[1];
+        NodeScorer scorer;
+        int candidates = k;
+        if (quantizer == null) {
+            scorer = node -> {
+                scanned[0]++;
+                return score(query, node);
+            };
+        } else {
+            VectorQuantizer.QueryScorer approximate = quantizer.scorer(query);
+            int codeSize = quantizer.codeSize();
+            scorer = node -> {
+                scanned[0]++;
+                return approximate.score(codes, node * codeSize);
+            };
+            candidates = rescoreMultiplier > 0 ? k * rescoreMultiplier : k;
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedyClosest(scorer, ep, l);
+        }
+        IntPredicate live = node -> !deleted.get(node) && (accept == null || accept.test(node));
+        NodeQueue results = searchLayer(scorer, new int[]{ep}, Math.max(ef, candidates), 0, live);
+        if (quantizer == null || rescoreMultiplier <= 0) {
+            return SearchResult.topK(results, k, scanned[0]);
+        }
+        while (results.size() > candidates) {
+            results.pop();
+        }
+        NodeQueue rescored = new NodeQueue(k + 1, false);
+        while (!results.isEmpty()) {
+            int node = NodeQueue.node(results.pop());
+            rescored.push(node, score(query, node));
+            scanned[0]++;
+            if (rescored.size() > k) {
+                rescored.pop();
+            }
+        }
+        return SearchResult.topK(rescored, k, scanned[0]);
+    }
+
+    /**
+     * Encodes every node with {@code quantizer} and searches on the codes from then on; nodes added
+     * later are encoded as they are inserted.
+     */
+    void quantize(VectorQuantizer quantizer, int rescoreMultiplier) {
+        attachQuantizer(quantizer, encode(quantizer), rescoreMultiplier);
+    }
+
+    /**
+     * Attaches codes previously produced by {@link #encode(VectorQuantizer)} for every node.
+     */
+    void attachQuantizer(VectorQuantizer quantizer, byte[] codes, int rescoreMultiplier) {
+        if (quantizer.dimensions() != dimensions && size > 0) {
+            throw new IllegalArgumentException(
+                    "Quantizer expects dimension " + quantizer.dimensions() + " but the index has " + dimensions);
+        }
+        if (codes.length < size * quantizer.codeSize()) {
+            throw new IllegalArgumentException("Expected codes for " + size + " nodes");
+        }
+        int capacity = Math.max(neighbours.length, size) * quantizer.codeSize();
+        this.codes = codes.length >= capacity ? codes : Arrays.copyOf(codes, capacity);
+        this.sharedCodes = false;
+        this.quantizer = quantizer;
+        this.rescoreMultiplier = rescoreMultiplier;
+    }
+
+    /**
+     * Codes of every node, deleted ones included so ordinals stay aligned.
+     */
+    byte[] encode(VectorQuantizer quantizer) {
+        int codeSize = quantizer.codeSize();
+        byte[] encoded = new byte[Math.multiplyExact(size, codeSize)];
+        IntStream.range(0, size).parallel()
+                .forEach(node -> quantizer.encode(vector(node), encoded, node * codeSize));
+        return encoded;
+    }
+
+    VectorQuantizer quantizer() {
+        return quantizer;
+    }
+
+    /**
+     * The attached codes; may be longer than {@code size() * codeSize}.
+     */
+    byte[] codes() {
+        return codes;
+    }
+
+    /**
+     * Brute-force top-k search over every live node; the ground truth for recall measurements.
+     */
+    public SearchResult exactSearch(float[] query, int k, IntPredicate accept) {
+        NodeQueue results = new NodeQueue(k + 1, false);
+        int scanned = 0;
+        for (int node = 0; node < size; node++) {
+            if (deleted.get(node) || (accept != null && !accept.test(node))) {
+                continue;
+            }
+            offer(results, k, node, score(query, node));
+            scanned++;
+        }
+        return SearchResult.topK(results, k, scanned);
+    }
+
+    /**
+     * Brute-force top-k search over the live nodes in {@code nodes}; cheaper than a filtered graph
+     * search when the filter leaves few nodes for the graph walk to find.
+     */
+    public SearchResult exactSearchAmong(float[] query, int k, BitSet nodes) {
+        NodeQueue results = new NodeQueue(k + 1, false);
+        int scanned = 0;
+        for (int node = nodes.nextSetBit(0); node >= 0 && node < size; node = nodes.nextSetBit(node + 1)) {
+            if (!deleted.get(node)) {
+                offer(results, k, node, score(query, node));
+                scanned++;
+            }
+        }
+        return SearchResult.topK(results, k, scanned);
+    }
+
+    private static void offer(NodeQueue results, int k, int node, float score) {
+        if (results.size() < k) {
+            results.push(node, score);
+        } else if (score > results.topScore()) {
+            results.pop();
+            results.push(node, score);
+        }
+    }
+
+    public void markDeleted(int node) {
+        if (node >= 0 && node < size && !deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    /**
+     * The stored vector; a fresh copy for vectors served from the mapped file.
+     */
+    public float[] vector(int node) {
+        return node < baseCount ? baseVectors.vector(node) : vectors[node - baseCount];
+    }
+
+    float score(float[] query, int node) {
+        return node < baseCount ? baseVectors.dot(query, node) : dot(query, vectors[node - baseCount]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int liveCount() {
+        return size - deletedCount;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    private NodeQueue searchLayer(NodeScorer scorer, int[] entryPoints, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        NodeQueue candidates = new NodeQueue(ef * 2, true);
+        NodeQueue results = new NodeQueue(ef + 1, false);
+        for (int ep : entryPoints) {
+            if (visited.get(ep)) {
+                continue;
+            }
+            visited.set(ep);
+            float score = scorer.score(ep);
+            candidates.push(ep, score);
+            if (accept == null || accept.test(ep)) {
+                results.push(ep, score);
+                if (results.size() > ef) {
+                    results.pop();
+                }
+            }
+        }
+        while (!candidates.isEmpty()) {
+            float candidateScore = candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int current = NodeQueue.node(candidates.pop());
+            int[][] nodeLinks = neighbours[current];
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            int[] links = nodeLinks[level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbour = links[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = scorer.score(neighbour);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    if (accept == null || accept.test(neighbour)) {
+                        results.push(neighbour, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private int greedyClosest(NodeScorer scorer, int start, int level) {
+        int current = start;
+        float best = scorer.score(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] links = neighbours[current][level];
+            for (int i = 1; i <= links[0]; i++) {
+                float score = scorer.score(links[i]);
+                if (score > best) {
+                    best = score;
+                    current = links[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Heuristic from the HNSW paper: keep a candidate only if it is closer to the base vector
+    // than to every neighbour already selected, which favours diverse directions.
+    private int[] selectNeighbours(float[] base, int[] candidatesDescending, int max) {
+        int[] selected = new int[Math.min(max, candidatesDescending.length)];
+        int count = 0;
+        for (int candidate : candidatesDescending) {
+            if (count == selected.length) {
+                break;
+            }
+            float toBase = score(base, candidate);
+            float[] candidateVector = vector(candidate);
+            boolean diverse = true;
+            for (int i = 0; i < count; i++) {
+                if (score(candidateVector, selected[i]) > toBase) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level) {
+        if (from < sharedCount && !copiedLinks.get(from)) {
+            int[][] levels = neighbours[from].clone();
+            for (int l = 0; l < levels.length; l++) {
+                levels[l] = levels[l].clone();
+            }
+            neighbours[from] = levels;
+            copiedLinks.set(from);
+        }
+        int[] links = neighbours[from][level];
+        int capacity = links.length - 1;
+        if (links[0] < capacity) {
+            links[++links[0]] = to;
+            return;
+        }
+        float[] base = vector(from);
+        NodeQueue ranked = new NodeQueue(capacity + 1, true);
+        for (int i = 1; i <= links[0]; i++) {
+            ranked.push(links[i], score(base, links[i]));
+        }
+        ranked.push(to, score(base, to));
+        int[] kept = selectNeighbours(base, drainDescendingMax(ranked), capacity);
+        links[0] = kept.length;
+        System.arraycopy(kept, 0, links, 1, kept.length);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required - baseCount > vectors.length) {
+            vectors = Arrays.copyOf(vectors, Math.max(required - baseCount, vectors.length + (vectors.length >> 1)));
+        }
+        if (required > neighbours.length) {
+            neighbours = Arrays.copyOf(neighbours, Math.max(required, neighbours.length + (neighbours.length >> 1)));
+        }
+        if (quantizer != null && required * quantizer.codeSize() > codes.length) {
+            codes = Arrays.copyOf(codes, Math.multiplyExact(neighbours.length, quantizer.codeSize()));
+            sharedCodes = false;
+        }
+    }
+
+    int[][] links(int node) {
+        return neighbours[node];
+    }
+
+    int entryPoint() {
+        return entryPoint;
+    }
+
+    int maxLevel() {
+        return maxLevel;
+    }
+
+    private static int[] drainDescending(NodeQueue minHeap) {
+        int[] nodes = new int[minHeap.size()];
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            nodes[i] = NodeQueue.node(minHeap.pop());
+        }
+        return nodes;
+    }
+
+    private static int[] drainDescendingMax(NodeQueue maxHeap) {
+        int[] nodes = new int[maxHeap.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = NodeQueue.node(maxHeap.pop());
+        }
+        return nodes;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        float inverse = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * inverse;
+        }
+        return normalized;
+    }
+
+    private interface NodeScorer {
+        float score(int node);
+    }
+
+    /**
+     * Search hits ordered by descending similarity.
+     *
+     * @param scanned how many vectors or codes were scored to find the results
+     */
+    public record SearchResult(int[] nodes, float[] scores, int scanned) {
+
+        static final SearchResult EMPTY = new SearchResult(new int[0], new float[0], 0);
+
+        public int size() {
+            return nodes.length;
+        }
+
+        static SearchResult topK(NodeQueue minHeap, int k, int scanned) {
+            while (minHeap.size() > k) {
+                minHeap.pop();
+            }
+            int n = minHeap.size();
+            int[] nodes = new int[n];
+            float[] scores = new float[n];
+            for (int i = n - 1; i >= 0; i--) {
+                long top = minHeap.pop();
+                nodes[i] = NodeQueue.node(top);
+                scores[i] = NodeQueue.score(top);
+            }
+            return new SearchResult(nodes, scores, scanned);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures recall@k of the HNSW search against an exact scan, for a range of efSearch values,
+ * using vectors already in the index as queries. Used to pick efSearch for a given corpus, and
+ * to see what each {@link VectorQuantization} costs in recall.
+ */
+public final class HnswRecallEvaluator {
+
+    private HnswRecallEvaluator() {
+    }
+
+    public static RecallReport evaluate(HnswIndex index, int k, int sampleSize, int[] efSearchValues) {
+        int[] queries = sampleLiveNodes(index, sampleSize);
+        int[][] truth = new int[queries.length][];
+        long exactNanos = 0;
+        for (int q = 0; q < queries.length; q++) {
+            long start = System.nanoTime();
+            truth[q] = index.exactSearch(index.vector(queries[q]), k, null).nodes();
+            exactNanos += System.nanoTime() - start;
+        }
+
+        List<RecallReport.Row> rows = new ArrayList<>();
+        for (int ef : efSearchValues) {
+            long[] latencies = new long[queries.length];
+            long hits = 0;
+            long expected = 0;
+            for (int q = 0; q < queries.length; q++) {
+                long start = System.nanoTime();
+                int[] found = index.search(index.vector(queries[q]), k, ef, null).nodes();
+                latencies[q] = System.nanoTime() - start;
+                hits += overlap(truth[q], found);
+                expected += truth[q].length;
+            }
+            Arrays.sort(latencies);
+            double recall = expected == 0 ? 1.0 : (double) hits / expected;
+            rows.add(new RecallReport.Row(ef, recall, meanMicros(latencies), percentileMicros(latencies, 0.99)));
+        }
+        double exactMeanMicros = queries.length == 0 ? 0 : exactNanos / 1_000.0 / queries.length;
+        return new RecallReport(index.liveCount(), index.getM(), index.getEfConstruction(), k,
+                queries.length, exactMeanMicros, rows);
+    }
+
+    public static QuantizationReport evaluateQuantization(HnswIndex index, int k, int sampleSize, int ef,
+                                                          int rescoreMultiplier, int pqSubspaceSize) {
+        int[] queries = sampleLiveNodes(index, sampleSize);
+        int[][] truth = new int[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            truth[q] = index.exactSearch(index.vector(queries[q]), k, null).nodes();
+        }
+        int floatBytes = index.dimensions() * Float.BYTES;
+        List<QuantizationReport.Row> rows = new ArrayList<>();
+        for (VectorQuantization quantization : VectorQuantization.values()) {
+            VectorQuantizer quantizer = null;
+            byte[] codes = null;
+            long trainingMillis = 0;
+            if (quantization != VectorQuantization.NONE && index.liveCount() > 0) {
+                long start = System.nanoTime();
+                quantizer = VectorQuantizer.train(quantization,
+                        VectorQuantizer.trainingSample(index, VectorQuantizer.TRAINING_SAMPLE), pqSubspaceSize);
+                codes = index.encode(quantizer);
+                trainingMillis = (System.nanoTime() - start) / 1_000_000;
+            }
+            Measurement approximate = measure(index, queries, truth, k, ef, quantizer, codes, 0);
+            Measurement rescored = measure(index, queries, truth, k, ef, quantizer, codes, rescoreMultiplier);
+            int bytes = quantizer == null ? floatBytes : quantizer.codeSize();
+            rows.add(new QuantizationReport.Row(quantization, bytes, bytes == 0 ? 1.0 : (double) floatBytes / bytes,
+                    approximate.recall(), rescored.recall(), approximate.meanMicros(), rescored.meanMicros(),
+                    trainingMillis));
+        }
+        return new QuantizationReport(index.liveCount(), index.dimensions(), k, ef, rescoreMultiplier,
+                queries.length, rows);
+    }
+
+    private static Measurement measure(HnswIndex index, int[] queries, int[][] truth, int k, int ef,
+                                       VectorQuantizer quantizer, byte[] codes, int rescoreMultiplier) {
+        long[] latencies = new long[queries.length];
+        long hits = 0;
+        long expected = 0;
+        for (int q = 0; q < queries.length; q++) {
+            float[] query = index.vector(queries[q]);
+            long start = System.nanoTime();
+            int[] found = index.search(query, k, ef, null, quantizer, codes, rescoreMultiplier).nodes();
+            latencies[q] = System.nanoTime() - start;
+            hits += overlap(truth[q], found);
+            expected += truth[q].length;
+        }
+        return new Measurement(expected == 0 ? 1.0 : (double) hits / expected, meanMicros(latencies));
+    }
+
+    private record Measurement(double recall, double meanMicros) {
+    }
+
+    private static int[] sampleLiveNodes(HnswIndex index, int sampleSize) {
+        int[] live = new int[index.liveCount()];
+        int n = 0;
+        for (int node = 0; node < index.size(); node++) {
+            if (!index.isDeleted(node)) {
+                live[n++] = node;
+            }
+        }
+        Random random = new Random(7);
+        int samples = Math.min(sampleSize, n);
+        for (int i = 0; i < samples; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = live[i];
+            live[i] = live[j];
+            live[j] = tmp;
+        }
+        return Arrays.copyOf(live, samples);
+    }
+
+    private static int overlap(int[] expected, int[] actual) {
+        int hits = 0;
+        for (int a : actual) {
+            for (int e : expected) {
+                if (a == e) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static double meanMicros(long[] nanos) {
+        return nanos.length == 0 ? 0 : Arrays.stream(nanos).average().orElse(0) / 1_000.0;
+    }
+
+    private static double percentileMicros(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(idx, sortedNanos.length - 1))] / 1_000.0;
+    }
+
+    public record RecallReport(int liveVectors, int m, int efConstruction, int k, int queries,
+                               double exactScanMeanMicros, List<Row> rows) {
+
+        public record Row(int efSearch, double recall, double meanMicros, double p99Micros) {
+        }
+    }
+
+    /**
+     * @param bytesPerVector in-memory bytes searched per vector: float32 for {@code NONE}, else the code size
+     */
+    public record QuantizationReport(int liveVectors, int dimensions, int k, int efSearch, int rescoreMultiplier,
+                                     int queries, List<Row> rows) {
+
+        public record Row(VectorQuantization quantization, int bytesPerVector, double compressionRatio,
+                          double recall, double rescoredRecall, double meanMicros, double rescoredMeanMicros,
+                          long trainingMillis) {
+        }
+    }
+}
@@ -0,0 +1,949 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.example.ai.localchat.lexical.Bm25Index;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.observation.conventions.VectorStoreProvider;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.util.JacksonUtils;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * In-process {@link org.springframework.ai.vectorstore.VectorStore} backed by an {@link HnswIndex},
+ * so similarity search cost grows logarithmically with the corpus instead of linearly as with
+ * {@code SimpleVectorStore}. Adding a document whose id already exists replaces it.
+ * <p>
+ * Writers are serialised and never change the graph a search is walking: the changes collected in an
+ * {@link Update} are linked into a copy of the graph as they arrive, and {@link #apply(Update)} swaps
+ * that copy in under a short write lock, so queries are served while documents are added or deleted
+ * and see each update either entirely or not at all. {@link #save(Path)} and {@link #load(Path)} use the memory-mapped
+ * {@link VectorStoreFile} format; after a load, embeddings and chunk text of the persisted
+ * ordinals are read from the file on demand and only later additions live on the heap.
+ * <p>
+ * A {@link Bm25Index} over the chunk text shares the vector ordinals and is kept in step with every
+ * add and delete, so {@link #lexicalSearch} finds exact identifiers that embeddings blur. It is
+ * persisted next to the store file with a {@code .bm25} suffix and rebuilt from the chunks when
+ * that file is missing or out of step.
+ * <p>
+ * With a {@link VectorQuantization} other than {@code NONE}, searches traverse the graph on int8 or
+ * product-quantized codes and re-score the best candidates against the full-precision vectors in the
+ * mapped file. The quantizer and codes are persisted with a {@code .codes} suffix; the quantizer is
+ * trained on save once the store has grown enough to make the previous training unrepresentative.
+ * <p>
+ * A {@link MetadataIndex} over the configured metadata keys turns filter expressions into the set of
+ * matching ordinals before a search starts. A filter that leaves few chunks is answered by scoring
+ * just those; a broader one restricts the graph search to them. Filters on other keys are evaluated
+ * per chunk. The index is persisted with a {@code .meta} suffix and rebuilt like the BM25 index.
+ * <p>
+ * Deleting or replacing a chunk only marks its ordinal deleted. Once the deleted share passes the
+ * compaction threshold, {@link #save(Path)} renumbers the live chunks from zero into a new graph, BM25
+ * index, metadata index and codes, writes those and then loads the written file, while searches keep
+ * using the old ordinals until the swap.
+ * <p>
+ * Besides the observations every vector store records, each search reports to the builder's
+ * {@link MeterRegistry} how many vectors it scored, by search plan, and how many of its results
+ * passed or missed the similarity threshold.
+ */
+public class HnswVectorStore extends AbstractObservationVectorStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    public static final String BM25_SCORE = "bm25_score";
+
+    private final ObjectMapper objectMapper;
+    private final ExpressionParser expressionParser;
+    private final FilterExpressionConverter filterExpressionConverter;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // held by every writer for the whole change; the write lock only for swapping the result in
+    private final Object writes = new Object();
+
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final VectorEncoding fileEncoding;
+    private final VectorQuantization quantization;
+    private final int pqSubspaceSize;
+    private final int rescoreMultiplier;
+    private final List<String> indexedMetadata;
+    private final double compactionThreshold;
+    private final MeterRegistry meterRegistry;
+
+    private HnswIndex index;
+    private Bm25Index lexicalIndex = new Bm25Index();
+    private MetadataIndex metadataIndex;
+    // chunks for ordinals below the file size are read from the file, the rest are on the heap
+    private VectorStoreFile file;
+    private int fileCount;
+    // ordinal - fileCount -> chunk, null once the ordinal has been deleted
+    private List<StoredChunk> heapChunks = new ArrayList<>();
+    private Map<String, Integer> ordinalsById = new HashMap<>();
+
+    protected HnswVectorStore(HnswVectorStoreBuilder builder) {
+        super(builder);
+        this.objectMapper = JsonMapper.builder().addModules(JacksonUtils.instantiateAvailableModules()).build();
+        this.expressionParser = new SpelExpressionParser();
+        this.filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.fileEncoding = builder.fileEncoding;
+        this.quantization = builder.quantization;
+        this.pqSubspaceSize = builder.pqSubspaceSize;
+        this.rescoreMultiplier = builder.rescoreMultiplier;
+        this.indexedMetadata = builder.indexedMetadata;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.meterRegistry = builder.meterRegistry;
+        this.index = new HnswIndex(m, efConstruction);
+        this.metadataIndex = new MetadataIndex(indexedMetadata);
+    }
+
+    public static HnswVectorStoreBuilder builder(EmbeddingModel embeddingModel) {
+        return new HnswVectorStoreBuilder(embeddingModel);
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        Assert.notNull(documents, "The document list should not be null.");
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = this.embeddingModel.embed(documents, EmbeddingOptions.builder().build(),
+                this.batchingStrategy);
+        addEmbedded(documents, embeddings);
+    }
+
+    /**
+     * Adds documents whose embeddings were already computed by the caller, index-aligned with
+     * {@code documents}.
+     */
+    public void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+        Update update = update();
+        update.addEmbedded(documents, embeddings);
+        apply(update);
+    }
+
+    /**
+     * An empty set of changes to collect and then {@link #apply(Update)} to this store.
+     */
+    public Update update() {
+        return new Update();
+    }
+
+    /**
+     * Applies the deletions and then the additions of {@code update}. Searches keep using the current
+     * graph while the update's graph is completed and only wait for the swap, so a search sees the
+     * store either before or after all of the changes.
+     */
+    public void apply(Update update) {
+        VectorStoreFile previous;
+        synchronized (writes) {
+            synchronized (update) {
+                Assert.state(!update.applied, "The update has already been applied");
+                HnswIndex staged = update.graph(index);
+                BitSet superseded = update.superseded();
+                previous = update.replaceAll ? replace(update, staged, superseded) : merge(update, staged, superseded);
+                update.applied = true;
+            }
+        }
+        closeQuietly(previous);
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        Update update = update();
+        update.delete(idList);
+        apply(update);
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        synchronized (writes) {
+            IntPredicate matches = filterPredicate(filterExpression);
+            List<String> ids = new ArrayList<>();
+            for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+                if (!index.isDeleted(ordinal) && matches.test(ordinal)) {
+                    ids.add(chunk(ordinal).id());
+                }
+            }
+            doDelete(ids);
+        }
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        return similaritySearch(request, this.embeddingModel.embed(request.getQuery()));
+    }
+
+    /**
+     * {@link #similaritySearch(SearchRequest)} for a query the caller already embedded, e.g. once for
+     * several stores sharing an embedding model.
+     */
+    public List<Document> similaritySearch(SearchRequest request, float[] queryEmbedding) {
+        float[] query = HnswIndex.normalize(queryEmbedding);
+        lock.readLock().lock();
+        try {
+            HnswIndex.SearchResult result = search(query, request.getTopK(),
+                    request.hasFilterExpression() ? request.getFilterExpression() : null);
+            List<Document> documents = new ArrayList<>(result.size());
+            for (int i = 0; i < result.size(); i++) {
+                double score = result.scores()[i];
+                if (score >= request.getSimilarityThreshold()) {
+                    documents.add(toDocument(chunk(result.nodes()[i]), score));
+                }
+            }
+            searchResults("hit").record(documents.size());
+            searchResults("miss").record(result.size() - documents.size());
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 keyword search over chunk text. Scores are unbounded BM25 values, also exposed as the
+     * {@value #BM25_SCORE} metadata entry, so only the order is comparable with vector results.
+     */
+    public List<Document> lexicalSearch(String query, int topK, Filter.Expression filterExpression) {
+        lock.readLock().lock();
+        try {
+            IntPredicate filter = filterExpression != null ? filterPredicate(filterExpression) : null;
+            List<Bm25Index.Hit> hits = lexicalIndex.search(query, topK,
+                    ordinal -> !index.isDeleted(ordinal) && (filter == null || filter.test(ordinal)));
+            List<Document> documents = new ArrayList<>(hits.size());
+            for (Bm25Index.Hit hit : hits) {
+                StoredChunk chunk = chunk(hit.ordinal());
+                Map<String, Object> metadata = new HashMap<>(chunk.metadata());
+                metadata.put(BM25_SCORE, hit.score());
+                documents.add(Document.builder()
+                        .id(chunk.id())
+                        .text(chunk.text())
+                        .metadata(metadata)
+                        .score((double) hit.score())
+                        .build());
+            }
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recall@k of the approximate search against an exact scan for each efSearch value.
+     */
+    public HnswRecallEvaluator.RecallReport recallReport(int k, int sampleSize, int[] efSearchValues) {
+        lock.readLock().lock();
+        try {
+            return HnswRecallEvaluator.evaluate(index, k, sampleSize, efSearchValues);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Memory, recall and latency of searching on int8 and product-quantized codes against
+     * full-precision search, with and without exact re-scoring. Trains and encodes the whole index
+     * for each quantization, so it is as expensive as a cold quantized load.
+     */
+    public HnswRecallEvaluator.QuantizationReport quantizationReport(int k, int sampleSize, int efSearch,
+                                                                    int rescoreMultiplier) {
+        lock.readLock().lock();
+        try {
+            return HnswRecallEvaluator.evaluateQuantization(index, k, sampleSize, efSearch, rescoreMultiplier,
+                    pqSubspaceSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Similarity of the query to each of the given chunks, without a search; chunks no longer in the
+     * store are left out. Tells e.g. whether a question is still about documents retrieved earlier.
+     */
+    public Map<String, Double> similarities(float[] queryEmbedding, Collection<String> ids) {
+        float[] query = HnswIndex.normalize(queryEmbedding);
+        lock.readLock().lock();
+        try {
+            Map<String, Double> similarities = new HashMap<>();
+            for (String id : ids) {
+                Integer ordinal = ordinalsById.get(id);
+                if (ordinal != null && !index.isDeleted(ordinal)) {
+                    similarities.put(id, (double) index.score(query, ordinal));
+                }
+            }
+            return similarities;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return ordinalsById.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every document, releasing the mapped file if one was loaded.
+     */
+    public void clear() {
+        VectorStoreFile previous;
+        synchronized (writes) {
+            previous = swap(null, new HnswIndex(m, efConstruction), new Bm25Index(),
+                    new MetadataIndex(indexedMetadata), new ArrayList<>(), new HashMap<>());
+        }
+        closeQuietly(previous);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.liveCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persists the index, graph and chunks to {@code path}, and the BM25 index, metadata index and
+     * quantized codes next to it, replacing any previous files atomically. When more than the
+     * compaction threshold of its ordinals are deleted, the compacted store is written instead and
+     * then loaded from {@code path}.
+     */
+    public void save(Path path) {
+        synchronized (writes) {
+            if (index.size() - index.liveCount() > compactionThreshold * index.size()) {
+                compact(path);
+                return;
+            }
+            if (quantization != VectorQuantization.NONE && quantizerStale(index)) {
+                HnswIndex retrained = index.copy();
+                retrainIfStale(retrained);
+                lock.writeLock().lock();
+                try {
+                    this.index = retrained;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            write(path, index, this::chunk, lexicalIndex, metadataIndex);
+        }
+    }
+
+    /**
+     * Replaces the contents of this store with the file at {@code path}. Only the graph and ids are
+     * read eagerly; embeddings are served from the mapping and chunks are read as they are needed.
+     */
+    public void load(Path path) {
+        long start = System.nanoTime();
+        VectorStoreFile previous;
+        int count;
+        synchronized (writes) {
+            VectorStoreFile loaded;
+            try {
+                loaded = VectorStoreFile.open(path, objectMapper);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Bm25Index lexical = readLexicalIndex(lexicalIndexPath(path), loaded);
+            MetadataIndex metadata = readMetadataIndex(metadataIndexPath(path), loaded);
+            if (quantization != VectorQuantization.NONE) {
+                attachQuantizedCodes(quantizedCodesPath(path), loaded.index());
+            }
+            Map<String, Integer> ordinals = new HashMap<>();
+            for (int ordinal = 0; ordinal < loaded.size(); ordinal++) {
+                String id = loaded.id(ordinal);
+                if (id != null) {
+                    ordinals.put(id, ordinal);
+                }
+            }
+            count = ordinals.size();
+            previous = swap(loaded, loaded.index(), lexical, metadata, new ArrayList<>(), ordinals);
+        }
+        closeQuietly(previous);
+        logger.info("Mapped {} vectors from {} in {} ms", count, path, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder(VectorStoreProvider.SIMPLE.value(), operationName)
+                .dimensions(index.dimensions())
+                .collectionName("hnsw-index")
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * Ordinals whose vectors and chunks are read from the mapped file rather than the heap.
+     */
+    int mappedCount() {
+        lock.readLock().lock();
+        try {
+            return fileCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Where {@link #save(Path)} puts the BM25 index for a store saved to {@code path}.
+     */
+    public static Path lexicalIndexPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".bm25");
+    }
+
+    /**
+     * Where {@link #save(Path)} puts the metadata index for a store saved to {@code path}.
+     */
+    public static Path metadataIndexPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".meta");
+    }
+
+    /**
+     * Where {@link #save(Path)} puts the quantizer and codes for a store saved to {@code path}.
+     */
+    public static Path quantizedCodesPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".codes");
+    }
+
+    // Renumbers the live chunks in ordinal order into a new graph, BM25 index, metadata index and codes
+    // while searches keep using the current ones, writes them to path and maps the written file in their place.
+    private void compact(Path path) {
+        long start = System.nanoTime();
+        int before = index.size();
+        HnswIndex compacted = new HnswIndex(m, efConstruction);
+        Bm25Index lexical = new Bm25Index();
+        MetadataIndex metadata = new MetadataIndex(indexedMetadata);
+        int[] live = new int[index.liveCount()];
+        for (int ordinal = 0; ordinal < before; ordinal++) {
+            StoredChunk chunk = chunk(ordinal);
+            if (chunk == null) {
+                continue;
+            }
+            int renumbered = compacted.add(index.vector(ordinal));
+            lexical.add(renumbered, chunk.text());
+            metadata.add(renumbered, chunk.metadata());
+            live[renumbered] = ordinal;
+        }
+        if (quantization != VectorQuantization.NONE) {
+            if (index.quantizer() != null) {
+                compacted.quantize(index.quantizer(), rescoreMultiplier);
+            }
+            retrainIfStale(compacted);
+        }
+        write(path, compacted, renumbered -> chunk(live[renumbered]), lexical, metadata);
+        logger.info("Compacted vector store from {} to {} ordinals in {} ms", before, compacted.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        load(path);
+    }
+
+    private void write(Path path, HnswIndex graph, IntFunction<StoredChunk> chunks, Bm25Index lexical,
+                       MetadataIndex metadata) {
+        try {
+            VectorStoreFile.write(path, graph, chunks, fileEncoding, objectMapper);
+            lexical.write(lexicalIndexPath(path));
+            metadata.write(metadataIndexPath(path));
+            if (graph.quantizer() != null) {
+                QuantizedCodesFile.write(quantizedCodesPath(path), graph.quantizer(), graph.codes(), graph.size());
+            } else {
+                Files.deleteIfExists(quantizedCodesPath(path));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Makes the given state the one searches see; the mapped file it replaces is returned for closing.
+    private VectorStoreFile swap(VectorStoreFile file, HnswIndex index, Bm25Index lexical, MetadataIndex metadata,
+                                 List<StoredChunk> heapChunks, Map<String, Integer> ordinalsById) {
+        lock.writeLock().lock();
+        try {
+            VectorStoreFile previous = this.file;
+            this.file = file;
+            this.fileCount = file != null ? file.size() : 0;
+            this.index = index;
+            this.lexicalIndex = lexical;
+            this.metadataIndex = metadata;
+            this.heapChunks = heapChunks;
+            this.ordinalsById = ordinalsById;
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indexes every addition over an empty store; the deletions have nothing left to delete.
+    private VectorStoreFile replace(Update update, HnswIndex staged, BitSet superseded) {
+        Bm25Index lexical = new Bm25Index();
+        MetadataIndex metadata = new MetadataIndex(indexedMetadata);
+        List<StoredChunk> chunks = new ArrayList<>(update.documents.size());
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < update.documents.size(); i++) {
+            if (superseded.get(i)) {
+                staged.markDeleted(i);
+                chunks.add(null);
+            } else {
+                chunks.add(indexChunk(update.documents.get(i), i, lexical, metadata, ordinals));
+            }
+        }
+        return swap(null, staged, lexical, metadata, chunks, ordinals);
+    }
+
+    // The staged graph already holds the additions; deleted and replaced ordinals are marked in it before
+    // the swap, and only the BM25 and metadata indexes and the id map are updated under the write lock.
+    private VectorStoreFile merge(Update update, HnswIndex staged, BitSet superseded) {
+        int first = index.size();
+        List<String> removed = new ArrayList<>(update.deletions);
+        for (int i = 0; i < update.documents.size(); i++) {
+            if (superseded.get(i)) {
+                staged.markDeleted(first + i);
+            } else {
+                removed.add(update.documents.get(i).getId());
+            }
+        }
+        for (String id : removed) {
+            Integer ordinal = ordinalsById.get(id);
+            if (ordinal != null) {
+                staged.markDeleted(ordinal);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            removed.forEach(this::removeChunk);
+            this.index = staged;
+            for (int i = 0; i < update.documents.size(); i++) {
+                heapChunks.add(superseded.get(i) ? null : indexChunk(update.documents.get(i), first + i,
+                        lexicalIndex, metadataIndex, ordinalsById));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    private void attachQuantizedCodes(Path path, HnswIndex loaded) {
+        if (Files.exists(path)) {
+            try {
+                QuantizedCodesFile.Codes codes = QuantizedCodesFile.read(path);
+                if (codes.quantizer().kind() == quantization && codes.count() == loaded.size()
+                        && codes.quantizer().dimensions() == loaded.dimensions()) {
+                    loaded.attachQuantizer(codes.quantizer(), codes.codes(), rescoreMultiplier);
+                    return;
+                }
+                logger.warn("Quantized codes {} do not match the vector store, re-encoding", path);
+            } catch (IOException e) {
+                logger.warn("Failed to read quantized codes {}, re-encoding", path, e);
+            }
+        }
+        retrainIfStale(loaded);
+    }
+
+    // Training is skipped until the store has vectors, and repeated once it has doubled past the last sample.
+    private static boolean quantizerStale(HnswIndex target) {
+        int live = target.liveCount();
+        VectorQuantizer current = target.quantizer();
+        return live > 0 && (current == null
+                || current.trainedOn() < Math.min(VectorQuantizer.TRAINING_SAMPLE, live / 2));
+    }
+
+    private void retrainIfStale(HnswIndex target) {
+        if (!quantizerStale(target)) {
+            return;
+        }
+        long start = System.nanoTime();
+        VectorQuantizer quantizer = VectorQuantizer.train(quantization,
+                VectorQuantizer.trainingSample(target, VectorQuantizer.TRAINING_SAMPLE), pqSubspaceSize);
+        target.quantize(quantizer, rescoreMultiplier);
+        logger.info("Trained {} quantizer and encoded {} vectors into {} bytes each in {} ms", quantization,
+                target.size(), quantizer.codeSize(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Falls back to re-tokenizing the persisted chunks, e.g. for stores saved before the BM25 index existed.
+    private static Bm25Index readLexicalIndex(Path path, VectorStoreFile file) {
+        if (Files.exists(path)) {
+            try {
+                Bm25Index lexical = Bm25Index.read(path);
+                if (lexical.docCount() == file.size()) {
+                    return lexical;
+                }
+                logger.warn("BM25 index {} does not match the vector store, rebuilding it", path);
+            } catch (IOException e) {
+                logger.warn("Failed to read BM25 index {}, rebuilding it", path, e);
+            }
+        }
+        Bm25Index lexical = new Bm25Index();
+        for (int ordinal = 0; ordinal < file.size(); ordinal++) {
+            if (!file.index().isDeleted(ordinal)) {
+                lexical.add(ordinal, file.chunk(ordinal).text());
+            }
+        }
+        return lexical;
+    }
+
+    // Rebuilt from the persisted chunks when missing, out of step or indexing other keys.
+    private MetadataIndex readMetadataIndex(Path path, VectorStoreFile file) {
+        if (Files.exists(path)) {
+            try {
+                MetadataIndex metadata = MetadataIndex.read(path);
+                if (metadata.docCount() == file.size() && metadata.keys().equals(indexedMetadata)) {
+                    return metadata;
+                }
+                logger.warn("Metadata index {} does not match the vector store, rebuilding it", path);
+            } catch (IOException e) {
+                logger.warn("Failed to read metadata index {}, rebuilding it", path, e);
+            }
+        }
+        MetadataIndex metadata = new MetadataIndex(indexedMetadata);
+        for (int ordinal = 0; ordinal < file.size(); ordinal++) {
+            metadata.add(ordinal, file.index().isDeleted(ordinal) ? Map.of() : file.chunk(ordinal).metadata());
+        }
+        return metadata;
+    }
+
+    // A filtered graph walk has to reach about ef matches, visiting roughly ef * size / matches nodes and
+    // scoring up to 2m links of each, so scoring the matches directly is cheaper while
+    // matches^2 <= 2m * ef * size; the filter is then answered exactly.
+    private HnswIndex.SearchResult search(float[] query, int topK, Filter.Expression filterExpression) {
+        int ef = Math.max(efSearch, topK);
+        if (filterExpression == null) {
+            return scanned("graph", index.search(query, topK, ef, null));
+        }
+        BitSet matching = metadataIndex.matching(filterExpression);
+        if (matching == null) {
+            return scanned("predicate", index.search(query, topK, ef, spelPredicate(filterExpression)));
+        }
+        double matches = matching.cardinality();
+        DistributionSummary.builder("localchat.vectorstore.filter.matches")
+                .description("Chunks matching a search's metadata filter")
+                .register(meterRegistry)
+                .record(matches);
+        if (matches * matches <= 2.0 * m * ef * index.size()) {
+            return scanned("exact", index.exactSearchAmong(query, topK, matching));
+        }
+        return scanned("filtered_graph", index.search(query, topK, ef, matching::get));
+    }
+
+    private HnswIndex.SearchResult scanned(String plan, HnswIndex.SearchResult result) {
+        DistributionSummary.builder("localchat.vectorstore.search.scanned")
+                .description("Vectors scored by one search")
+                .tag("plan", plan)
+                .register(meterRegistry)
+                .record(result.scanned());
+        return result;
+    }
+
+    private DistributionSummary searchResults(String threshold) {
+        return DistributionSummary.builder("localchat.vectorstore.search.results")
+                .description("Search results at or above the similarity threshold (hit) and below it (miss)")
+                .tag("threshold", threshold)
+                .register(meterRegistry);
+    }
+
+    private static StoredChunk indexChunk(Document document, int ordinal, Bm25Index lexical, MetadataIndex metadata,
+                                          Map<String, Integer> ordinals) {
+        lexical.add(ordinal, document.getText());
+        metadata.add(ordinal, document.getMetadata());
+        ordinals.put(document.getId(), ordinal);
+        return new StoredChunk(document.getId(), document.getText(), new HashMap<>(document.getMetadata()));
+    }
+
+    // Reads the chunk through the current graph, so it runs before the graph marking it deleted is swapped in.
+    private void removeChunk(String id) {
+        Integer ordinal = ordinalsById.remove(id);
+        if (ordinal != null) {
+            StoredChunk chunk = chunk(ordinal);
+            lexicalIndex.remove(ordinal, chunk.text());
+            metadataIndex.remove(ordinal, chunk.metadata());
+            if (ordinal >= fileCount) {
+                heapChunks.set(ordinal - fileCount, null);
+            }
+        }
+    }
+
+    private StoredChunk chunk(int ordinal) {
+        if (index.isDeleted(ordinal)) {
+            return null;
+        }
+        return ordinal < fileCount ? file.chunk(ordinal) : heapChunks.get(ordinal - fileCount);
+    }
+
+    private static void closeQuietly(VectorStoreFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close vector store file", e);
+        }
+    }
+
+    private IntPredicate filterPredicate(Filter.Expression filterExpression) {
+        BitSet matching = metadataIndex.matching(filterExpression);
+        return matching != null ? matching::get : spelPredicate(filterExpression);
+    }
+
+    private IntPredicate spelPredicate(Filter.Expression filterExpression) {
+        Expression expression = expressionParser.parseExpression(
+                filterExpressionConverter.convertExpression(filterExpression));
+        return ordinal -> {
+            StoredChunk chunk = chunk(ordinal);
+            if (chunk == null) {
+                return false;
+            }
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", chunk.metadata());
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private static Document toDocument(StoredChunk chunk, double score) {
+        Map<String, Object> metadata = new HashMap<>(chunk.metadata());
+        metadata.put(DocumentMetadata.DISTANCE.value(), 1.0 - score);
+        return Document.builder()
+                .id(chunk.id())
+                .text(chunk.text())
+                .metadata(metadata)
+                .score(score)
+                .build();
+    }
+
+    /**
+     * Embedded documents to add and ids to delete, collected without holding the store's lock, e.g.
+     * over a whole knowledge-base sync, and then applied with {@link HnswVectorStore#apply(Update)}.
+     * Additions are linked into a graph of the update's own as they arrive, a copy of the store's
+     * graph or an empty one after {@link #replaceAll()}; if the store changes before the update is
+     * applied, the additions are linked into a copy of the changed graph again.
+     */
+    public final class Update {
+
+        private final List<Document> documents = new ArrayList<>();
+        private final List<float[]> vectors = new ArrayList<>();
+        private final List<String> deletions = new ArrayList<>();
+        private boolean replaceAll;
+        private boolean applied;
+        private HnswIndex staged;
+        // the store graph staged was copied from
+        private HnswIndex stagedOn;
+
+        private Update() {
+        }
+
+        /**
+         * Adds documents, replacing those with the same id; embeddings are index-aligned with
+         * {@code documents}.
+         */
+        public synchronized void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+            Assert.isTrue(documents.size() == embeddings.size(), "Each document needs exactly one embedding");
+            Assert.state(!applied, "The update has already been applied");
+            if (staged == null) {
+                lock.readLock().lock();
+                try {
+                    stage(index);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            for (int i = 0; i < documents.size(); i++) {
+                float[] vector = HnswIndex.normalize(embeddings.get(i));
+                staged.add(vector);
+                this.vectors.add(vector);
+                this.documents.add(documents.get(i));
+            }
+        }
+
+        public synchronized void delete(Collection<String> ids) {
+            deletions.addAll(ids);
+        }
+
+        /**
+         * Drops every document already in the store, so the store holds only this update's additions.
+         * Best called before adding, as additions staged until then are linked in again.
+         */
+        public synchronized void replaceAll() {
+            if (!replaceAll) {
+                replaceAll = true;
+                staged = null;
+            }
+        }
+
+        private HnswIndex graph(HnswIndex current) {
+            if (staged == null || !replaceAll && stagedOn != current) {
+                stage(current);
+            }
+            return staged;
+        }
+
+        private void stage(HnswIndex current) {
+            staged = replaceAll ? new HnswIndex(m, efConstruction) : current.copy();
+            stagedOn = current;
+            vectors.forEach(staged::add);
+        }
+
+        // positions of additions replaced by a later addition with the same id
+        private BitSet superseded() {
+            BitSet superseded = new BitSet();
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < documents.size(); i++) {
+                Integer earlier = positions.put(documents.get(i).getId(), i);
+                if (earlier != null) {
+                    superseded.set(earlier);
+                }
+            }
+            return superseded;
+        }
+    }
+
+    public static final class HnswVectorStoreBuilder extends AbstractVectorStoreBuilder<HnswVectorStoreBuilder> {
+
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private VectorEncoding fileEncoding = VectorEncoding.FLOAT32;
+        private VectorQuantization quantization = VectorQuantization.NONE;
+        private int pqSubspaceSize = 4;
+        private int rescoreMultiplier = 4;
+        private List<String> indexedMetadata = MetadataIndex.DEFAULT_KEYS;
+        private double compactionThreshold = 0.25;
+        private MeterRegistry meterRegistry = new CompositeMeterRegistry();
+
+        private HnswVectorStoreBuilder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * Maximum links per node on the upper layers (twice that on layer 0).
+         */
+        public HnswVectorStoreBuilder m(int m) {
+            Assert.isTrue(m >= 2, "m must be at least 2");
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Candidate list size while inserting; higher builds a better graph, more slowly.
+         */
+        public HnswVectorStoreBuilder efConstruction(int efConstruction) {
+            Assert.isTrue(efConstruction > 0, "efConstruction must be positive");
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * Candidate list size while searching; the recall-vs-latency knob.
+         */
+        public HnswVectorStoreBuilder efSearch(int efSearch) {
+            Assert.isTrue(efSearch > 0, "efSearch must be positive");
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * Encoding of embeddings written by {@link HnswVectorStore#save(Path)}.
+         */
+        public HnswVectorStoreBuilder fileEncoding(VectorEncoding fileEncoding) {
+            Assert.notNull(fileEncoding, "fileEncoding must not be null");
+            this.fileEncoding = fileEncoding;
+            return this;
+        }
+
+        /**
+         * Compressed codes to traverse the graph on; {@code NONE} searches the full-precision vectors.
+         */
+        public HnswVectorStoreBuilder quantization(VectorQuantization quantization) {
+            Assert.notNull(quantization, "quantization must not be null");
+            this.quantization = quantization;
+            return this;
+        }
+
+        /**
+         * Dimensions per product-quantization subspace; each costs one byte per vector.
+         */
+        public HnswVectorStoreBuilder pqSubspaceSize(int pqSubspaceSize) {
+            Assert.isTrue(pqSubspaceSize > 0, "pqSubspaceSize must be positive");
+            this.pqSubspaceSize = pqSubspaceSize;
+            return this;
+        }
+
+        /**
+         * Quantized searches re-score {@code topK * rescoreMultiplier} candidates exactly; 0 returns
+         * the approximate scores.
+         */
+        public HnswVectorStoreBuilder rescoreMultiplier(int rescoreMultiplier) {
+            Assert.isTrue(rescoreMultiplier >= 0, "rescoreMultiplier must not be negative");
+            this.rescoreMultiplier = rescoreMultiplier;
+            return this;
+        }
+
+        /**
+         * Metadata keys whose boolean, string and numeric values are indexed for filtering; filters on
+         * other keys are evaluated chunk by chunk.
+         */
+        public HnswVectorStoreBuilder indexedMetadata(List<String> indexedMetadata) {
+            Assert.notNull(indexedMetadata, "indexedMetadata must not be null");
+            this.indexedMetadata = List.copyOf(indexedMetadata);
+            return this;
+        }
+
+        /**
+         * Share of deleted ordinals past which {@link HnswVectorStore#save(Path)} compacts the store
+         * before writing it; 1 never compacts.
+         */
+        public HnswVectorStoreBuilder compactionThreshold(double compactionThreshold) {
+            Assert.isTrue(compactionThreshold >= 0 && compactionThreshold <= 1,
+                    "compactionThreshold must be between 0 and 1");
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Registry for the search metrics; by default they are not recorded anywhere.
+         */
+        public HnswVectorStoreBuilder meterRegistry(MeterRegistry meterRegistry) {
+            Assert.notNull(meterRegistry, "meterRegistry must not be null");
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        @Override
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view over the contiguous embedding block of a {@link VectorStoreFile}. Vectors are
+ * scored straight from the page cache; nothing is copied onto the heap unless {@link #vector(int)}
+ * is asked for a full copy. The block is mapped in segments because a single mapping is capped
+ * at 2 GB.
+ */
+final class MappedVectors {
+
+    private final VectorEncoding encoding;
+    private final int dimensions;
+    private final int count;
+    private final int vectorsPerSegment;
+    private final FloatBuffer[] floatSegments;
+    private final ShortBuffer[] halfSegments;
+
+    MappedVectors(FileChannel channel, long offset, int count, int dimensions, VectorEncoding encoding) throws IOException {
+        this.encoding = encoding;
+        this.dimensions = dimensions;
+        this.count = count;
+        long bytesPerVector = (long) dimensions * encoding.bytesPerComponent();
+        this.vectorsPerSegment = (int) Math.max(1, Integer.MAX_VALUE / Math.max(1, bytesPerVector));
+        int segments = count == 0 ? 0 : (count + vectorsPerSegment - 1) / vectorsPerSegment;
+        this.floatSegments = new FloatBuffer[encoding == VectorEncoding.FLOAT32 ? segments : 0];
+        this.halfSegments = new ShortBuffer[encoding == VectorEncoding.FLOAT16 ? segments : 0];
+        for (int s = 0; s < segments; s++) {
+            int vectors = Math.min(vectorsPerSegment, count - s * vectorsPerSegment);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset + s * vectorsPerSegment * bytesPerVector, vectors * bytesPerVector);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (encoding == VectorEncoding.FLOAT32) {
+                floatSegments[s] = buffer.asFloatBuffer();
+            } else {
+                halfSegments[s] = buffer.asShortBuffer();
+            }
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    float dot(float[] query, int ordinal) {
+        int segment = ordinal / vectorsPerSegment;
+        int base = (ordinal - segment * vectorsPerSegment) * dimensions;
+        float s0 = 0f, s1 = 0f;
+        if (encoding == VectorEncoding.FLOAT32) {
+            FloatBuffer buffer = floatSegments[segment];
+            int i = 0;
+            for (; i + 1 < dimensions; i += 2) {
+                s0 += query[i] * buffer.get(base + i);
+                s1 += query[i + 1] * buffer.get(base + i + 1);
+            }
+            for (; i < dimensions; i++) {
+                s0 += query[i] * buffer.get(base + i);
+            }
+        } else {
+            ShortBuffer buffer = halfSegments[segment];
+            for (int i = 0; i < dimensions; i++) {
+                s0 += query[i] * VectorEncoding.halfToFloat(buffer.get(base + i));
+            }
+        }
+        return s0 + s1;
+    }
+
+    float[] vector(int ordinal) {
+        int segment = ordinal / vectorsPerSegment;
+        int base = (ordinal - segment * vectorsPerSegment) * dimensions;
+        float[] vector = new float[dimensions];
+        if (encoding == VectorEncoding.FLOAT32) {
+            floatSegments[segment].get(base, vector);
+        } else {
+            ShortBuffer buffer = halfSegments[segment];
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = VectorEncoding.halfToFloat(buffer.get(base + i));
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.ai.localchat.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from chunk metadata values to vector ordinals, so a filter expression on the indexed
+ * keys becomes a {@link BitSet} before the search starts instead of a SpEL evaluation on every chunk
+ * the search reaches. Booleans and strings map each value to the ordinals holding it; numbers are
+ * kept sorted so a range comparison is the union of a sub-map.
+ * <p>
+ * {@link #matching} answers {@code EQ}, {@code NE}, {@code IN}, {@code NIN}, numeric {@code GT},
+ * {@code GTE}, {@code LT}, {@code LTE} and any {@code AND}, {@code OR} or {@code NOT} of them. It
+ * returns null for keys that aren't indexed or values of other types, and the caller falls back to
+ * evaluating the expression per chunk. Range comparisons only match chunks that have a number under
+ * the key. Complements may include deleted ordinals, so callers still skip those.
+ * <p>
+ * Not thread-safe; the owning store guards it with its lock.
+ */
+final class MetadataIndex {
+
+    /**
+     * The features set by the chunk metadata enricher, the ingestion source and the Markdown heading.
+     */
+    static final List<String> DEFAULT_KEYS = List.of("has_code", "has_api_ref", "complexity_score", "source",
+            "title");
+
+    private static final int MAGIC = 0x494D434C; // "LCMI"
+    private static final int VERSION = 1;
+
+    // longer strings (whole paragraphs stored as metadata) aren't worth a posting of their own
+    private static final int MAX_STRING_LENGTH = 1024;
+
+    private static final byte BOOLEAN = 0;
+    private static final byte STRING = 1;
+    private static final byte NUMBER = 2;
+
+    private final Map<String, Postings> postings = new LinkedHashMap<>();
+    private int docCount;
+
+    MetadataIndex(List<String> keys) {
+        keys.forEach(key -> postings.put(key, new Postings()));
+    }
+
+    List<String> keys() {
+        return List.copyOf(postings.keySet());
+    }
+
+    /**
+     * One past the highest ordinal added.
+     */
+    int docCount() {
+        return docCount;
+    }
+
+    void add(int ordinal, Map<String, Object> metadata) {
+        docCount = Math.max(docCount, ordinal + 1);
+        postings.forEach((key, keyPostings) -> {
+            Object value = normalize(metadata.get(key));
+            if (value != null) {
+                keyPostings.bits(value, true).set(ordinal);
+            }
+        });
+    }
+
+    void remove(int ordinal, Map<String, Object> metadata) {
+        postings.forEach((key, keyPostings) -> {
+            Object value = normalize(metadata.get(key));
+            BitSet bits = value == null ? null : keyPostings.bits(value, false);
+            if (bits != null) {
+                bits.clear(ordinal);
+                if (bits.isEmpty()) {
+                    keyPostings.drop(value);
+                }
+            }
+        });
+    }
+
+    /**
+     * The ordinals the expression matches, or null when it uses a key or operator the index can't answer.
+     */
+    BitSet matching(Filter.Expression expression) {
+        return compile(expression);
+    }
+
+    private BitSet compile(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return compile(group.content());
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            return null;
+        }
+        switch (expression.type()) {
+            case AND, OR -> {
+                BitSet left = compile(expression.left());
+                BitSet right = left == null ? null : compile(expression.right());
+                if (right == null) {
+                    return null;
+                }
+                if (expression.type() == Filter.ExpressionType.AND) {
+                    left.and(right);
+                } else {
+                    left.or(right);
+                }
+                return left;
+            }
+            case NOT -> {
+                BitSet negated = compile(expression.left());
+                return negated == null ? null : complement(negated);
+            }
+            default -> {
+                return comparison(expression);
+            }
+        }
+    }
+
+    private BitSet comparison(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key) || !(expression.right() instanceof Filter.Value value)) {
+            return null;
+        }
+        Postings keyPostings = postings.get(unquote(key.key()));
+        if (keyPostings == null) {
+            return null;
+        }
+        Object operand = value.value();
+        return switch (expression.type()) {
+            case EQ -> keyPostings.equalTo(operand);
+            case NE -> complement(keyPostings.equalTo(operand));
+            case IN -> keyPostings.in(operand);
+            case NIN -> complement(keyPostings.in(operand));
+            case GT -> keyPostings.range(operand, false, true);
+            case GTE -> keyPostings.range(operand, true, true);
+            case LT -> keyPostings.range(operand, false, false);
+            case LTE -> keyPostings.range(operand, true, false);
+            default -> null;
+        };
+    }
+
+    private BitSet complement(BitSet bits) {
+        if (bits == null) {
+            return null;
+        }
+        bits.flip(0, docCount);
+        return bits;
+    }
+
+    void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docCount);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings keyPostings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(keyPostings.values.size() + keyPostings.numbers.size());
+                for (Map.Entry<Object, BitSet> posting : keyPostings.values.entrySet()) {
+                    if (posting.getKey() instanceof Boolean flag) {
+                        out.writeByte(BOOLEAN);
+                        out.writeBoolean(flag);
+                    } else {
+                        out.writeByte(STRING);
+                        out.writeUTF((String) posting.getKey());
+                    }
+                    writeBits(out, posting.getValue());
+                }
+                for (Map.Entry<Double, BitSet> posting : keyPostings.numbers.entrySet()) {
+                    out.writeByte(NUMBER);
+                    out.writeDouble(posting.getKey());
+                    writeBits(out, posting.getValue());
+                }
+            }
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static MetadataIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a metadata index file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported metadata index version " + version + " in " + path);
+            }
+            int docCount = in.readInt();
+            int keyCount = in.readInt();
+            List<String> keys = new ArrayList<>(keyCount);
+            List<Postings> keyPostings = new ArrayList<>(keyCount);
+            for (int k = 0; k < keyCount; k++) {
+                keys.add(in.readUTF());
+                Postings read = new Postings();
+                int values = in.readInt();
+                for (int v = 0; v < values; v++) {
+                    byte type = in.readByte();
+                    switch (type) {
+                        case BOOLEAN -> read.values.put(in.readBoolean(), readBits(in));
+                        case STRING -> read.values.put(in.readUTF(), readBits(in));
+                        case NUMBER -> read.numbers.put(in.readDouble(), readBits(in));
+                        default -> throw new IOException("Unknown metadata value type " + type + " in " + path);
+                    }
+                }
+                keyPostings.add(read);
+            }
+            MetadataIndex index = new MetadataIndex(keys);
+            for (int k = 0; k < keyCount; k++) {
+                index.postings.put(keys.get(k), keyPostings.get(k));
+            }
+            index.docCount = docCount;
+            return index;
+        }
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBits(DataInputStream in) throws IOException {
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    // Numbers are compared as doubles so 1 and 1.0 land on the same posting, as they compare equal in SpEL.
+    private static Object normalize(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof Boolean || value instanceof String text && text.length() <= MAX_STRING_LENGTH) {
+            return value;
+        }
+        return null;
+    }
+
+    // The filter text parser keeps the quotes of keys written as 'source' or "source".
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("'") && key.endsWith("'")
+                || key.startsWith("\"") && key.endsWith("\""))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private static final class Postings {
+
+        private final Map<Object, BitSet> values = new HashMap<>();
+        private final NavigableMap<Double, BitSet> numbers = new TreeMap<>();
+
+        BitSet bits(Object value, boolean create) {
+            if (value instanceof Double number) {
+                return create ? numbers.computeIfAbsent(number, v -> new BitSet()) : numbers.get(number);
+            }
+            return create ? values.computeIfAbsent(value, v -> new BitSet()) : values.get(value);
+        }
+
+        void drop(Object value) {
+            if (value instanceof Double number) {
+                numbers.remove(number);
+            } else {
+                values.remove(value);
+            }
+        }
+
+        BitSet equalTo(Object operand) {
+            if (operand == null) {
+                return null;
+            }
+            Object value = normalize(operand);
+            if (value == null) {
+                return null;
+            }
+            BitSet bits = bits(value, false);
+            return bits == null ? new BitSet() : (BitSet) bits.clone();
+        }
+
+        BitSet in(Object operand) {
+            if (!(operand instanceof Collection<?> candidates)) {
+                return null;
+            }
+            BitSet union = new BitSet();
+            for (Object candidate : candidates) {
+                BitSet bits = equalTo(candidate);
+                if (bits == null) {
+                    return null;
+                }
+                union.or(bits);
+            }
+            return union;
+        }
+
+        BitSet range(Object operand, boolean inclusive, boolean above) {
+            if (!(operand instanceof Number number)) {
+                return null;
+            }
+            double bound = number.doubleValue();
+            BitSet union = new BitSet();
+            (above ? numbers.tailMap(bound, inclusive) : numbers.headMap(bound, inclusive)).values()
+                    .forEach(union::or);
+            return union;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of (node, score) pairs packed into a single long so graph traversal does not box
+ * or allocate per visited node. The high 32 bits hold an order-preserving encoding of the score,
+ * the low 32 bits the node ordinal.
+ */
+final class NodeQueue {
+
+    private final boolean maxHeap;
+    private long[] heap;
+    private int size;
+
+    NodeQueue(int initialCapacity, boolean maxHeap) {
+        this.heap = new long[Math.max(initialCapacity, 4)];
+        this.maxHeap = maxHeap;
+    }
+
+    void push(int node, float score) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        long encoded = encode(node, score);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(encoded, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = encoded;
+    }
+
+    long pop() {
+        long top = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && before(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!before(heap[child], last)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+    int topNode() {
+        return node(heap[0]);
+    }
+
+    float topScore() {
+        return score(heap[0]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private boolean before(long a, long b) {
+        return maxHeap ? a > b : a < b;
+    }
+
+    static long encode(int node, float score) {
+        return ((long) sortableBits(score) << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    static int node(long encoded) {
+        return (int) encoded;
+    }
+
+    static float score(long encoded) {
+        int bits = (int) (encoded >> 32);
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7FFFFFFF));
+    }
+
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+}
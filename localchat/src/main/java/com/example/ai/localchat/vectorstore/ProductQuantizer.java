@@ -0,0 +1,213 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization (Jégou et al.): the vector is cut into subspaces of a few dimensions and
+ * each slice is replaced by the index of its nearest of 256 centroids, learned with k-means per
+ * subspace. A code is one byte per subspace.
+ * <p>
+ * Scoring a query first computes its dot product with every centroid of every subspace; a node's
+ * score is then the sum of one table entry per code byte.
+ */
+final class ProductQuantizer implements VectorQuantizer {
+
+    static final int CENTROIDS = 256;
+    private static final int ITERATIONS = 8;
+
+    private final int dimensions;
+    // subspace s covers dimensions [bounds[s], bounds[s + 1])
+    private final int[] bounds;
+    // subspace -> centroid c at [c * width, (c + 1) * width)
+    private final float[][] centroids;
+    private final int trainedOn;
+
+    private ProductQuantizer(int dimensions, int[] bounds, float[][] centroids, int trainedOn) {
+        this.dimensions = dimensions;
+        this.bounds = bounds;
+        this.centroids = centroids;
+        this.trainedOn = trainedOn;
+    }
+
+    static ProductQuantizer train(List<float[]> sample, int subspaceSize) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Cannot train a quantizer without vectors");
+        }
+        if (subspaceSize < 1) {
+            throw new IllegalArgumentException("subspaceSize must be positive");
+        }
+        int dimensions = sample.get(0).length;
+        int subspaces = (dimensions + subspaceSize - 1) / subspaceSize;
+        int[] bounds = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            bounds[s] = Math.min(dimensions, s * subspaceSize);
+        }
+        float[][] centroids = new float[subspaces][];
+        IntStream.range(0, subspaces).parallel()
+                .forEach(s -> centroids[s] = kMeans(sample, bounds[s], bounds[s + 1] - bounds[s], s));
+        return new ProductQuantizer(dimensions, bounds, centroids, sample.size());
+    }
+
+    // Lloyd's algorithm on one subspace, seeded with distinct sample points; an empty cluster keeps its centroid.
+    private static float[] kMeans(List<float[]> sample, int from, int width, long seed) {
+        int n = sample.size();
+        int k = Math.min(CENTROIDS, n);
+        float[] points = new float[n * width];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(sample.get(i), from, points, i * width, width);
+        }
+        int[] order = IntStream.range(0, n).toArray();
+        Random random = new Random(seed);
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        float[] centroids = new float[k * width];
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(points, order[c] * width, centroids, c * width, width);
+        }
+
+        int[] assignment = new int[n];
+        float[] sums = new float[k * width];
+        int[] counts = new int[k];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < n; i++) {
+                assignment[i] = nearest(points, i * width, centroids, k, width);
+            }
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                for (int j = 0; j < width; j++) {
+                    sums[c * width + j] += points[i * width + j];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] > 0) {
+                    for (int j = 0; j < width; j++) {
+                        centroids[c * width + j] = sums[c * width + j] / counts[c];
+                    }
+                }
+            }
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[] values, int offset, float[] centroids, int k, int width) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            float distance = 0;
+            int base = c * width;
+            for (int j = 0; j < width; j++) {
+                float diff = values[offset + j] - centroids[base + j];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    static ProductQuantizer read(DataInputStream in) throws IOException {
+        int trainedOn = in.readInt();
+        int dimensions = in.readInt();
+        int subspaces = in.readInt();
+        int[] bounds = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            bounds[s] = in.readInt();
+        }
+        float[][] centroids = new float[subspaces][];
+        for (int s = 0; s < subspaces; s++) {
+            centroids[s] = new float[in.readInt()];
+            for (int i = 0; i < centroids[s].length; i++) {
+                centroids[s][i] = in.readFloat();
+            }
+        }
+        return new ProductQuantizer(dimensions, bounds, centroids, trainedOn);
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(trainedOn);
+        out.writeInt(dimensions);
+        out.writeInt(centroids.length);
+        for (int bound : bounds) {
+            out.writeInt(bound);
+        }
+        for (float[] subspace : centroids) {
+            out.writeInt(subspace.length);
+            for (float value : subspace) {
+                out.writeFloat(value);
+            }
+        }
+    }
+
+    @Override
+    public VectorQuantization kind() {
+        return VectorQuantization.PQ;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int codeSize() {
+        return centroids.length;
+    }
+
+    @Override
+    public int trainedOn() {
+        return trainedOn;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] codes, int offset) {
+        for (int s = 0; s < centroids.length; s++) {
+            int width = bounds[s + 1] - bounds[s];
+            codes[offset + s] = (byte) nearest(vector, bounds[s], centroids[s], centroids[s].length / width, width);
+        }
+    }
+
+    @Override
+    public QueryScorer scorer(float[] query) {
+        int subspaces = centroids.length;
+        float[] table = new float[subspaces * CENTROIDS];
+        for (int s = 0; s < subspaces; s++) {
+            int width = bounds[s + 1] - bounds[s];
+            float[] subspace = centroids[s];
+            for (int c = 0; c < subspace.length / width; c++) {
+                float dot = 0;
+                for (int j = 0; j < width; j++) {
+                    dot += query[bounds[s] + j] * subspace[c * width + j];
+                }
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+        return (codes, offset) -> {
+            float s0 = 0f, s1 = 0f;
+            int s = 0;
+            for (; s + 1 < subspaces; s += 2) {
+                s0 += table[s * CENTROIDS + (codes[offset + s] & 0xFF)];
+                s1 += table[(s + 1) * CENTROIDS + (codes[offset + s + 1] & 0xFF)];
+            }
+            if (s < subspaces) {
+                s0 += table[s * CENTROIDS + (codes[offset + s] & 0xFF)];
+            }
+            return s0 + s1;
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persists a trained {@link VectorQuantizer} and the codes of every ordinal next to a
+ * {@link VectorStoreFile}, so a quantized store neither retrains nor re-encodes on startup.
+ * <p>
+ * Layout (big endian): magic, version, quantization kind, quantizer parameters, count, code size,
+ * then {@code count x codeSize} code bytes.
+ */
+final class QuantizedCodesFile {
+
+    private static final int MAGIC = 0x5156434C; // "LCVQ"
+    private static final int VERSION = 1;
+
+    private QuantizedCodesFile() {
+    }
+
+    static void write(Path path, VectorQuantizer quantizer, byte[] codes, int count) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(quantizer.kind().name());
+            quantizer.write(out);
+            out.writeInt(count);
+            out.writeInt(quantizer.codeSize());
+            out.write(codes, 0, count * quantizer.codeSize());
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static Codes read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a quantized codes file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported quantized codes version " + version + " in " + path);
+            }
+            VectorQuantization kind = VectorQuantization.valueOf(in.readUTF());
+            VectorQuantizer quantizer = VectorQuantizer.read(kind, in);
+            int count = in.readInt();
+            int codeSize = in.readInt();
+            if (codeSize != quantizer.codeSize()) {
+                throw new IOException("Code size " + codeSize + " does not match the quantizer in " + path);
+            }
+            byte[] codes = new byte[Math.multiplyExact(count, codeSize)];
+            in.readFully(codes);
+            return new Codes(quantizer, codes, count);
+        }
+    }
+
+    record Codes(VectorQuantizer quantizer, byte[] codes, int count) {
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * int8 scalar quantization: each component is mapped linearly from its dimension's trained
+ * [min, max] range onto a signed byte. Components outside the range are clamped.
+ * <p>
+ * For a code {@code c} the decoded component is {@code min + (c + 128) * step}, so a query's dot
+ * product with it is a per-query constant plus {@code sum(query[d] * step[d] * c[d])}; scoring a node
+ * is one multiply-add per byte.
+ */
+final class ScalarQuantizer implements VectorQuantizer {
+
+    private final float[] min;
+    private final float[] step;
+    private final int trainedOn;
+
+    private ScalarQuantizer(float[] min, float[] step, int trainedOn) {
+        this.min = min;
+        this.step = step;
+        this.trainedOn = trainedOn;
+    }
+
+    static ScalarQuantizer train(List<float[]> sample) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Cannot train a quantizer without vectors");
+        }
+        int dimensions = sample.get(0).length;
+        float[] min = new float[dimensions];
+        float[] max = new float[dimensions];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (float[] vector : sample) {
+            for (int d = 0; d < dimensions; d++) {
+                min[d] = Math.min(min[d], vector[d]);
+                max[d] = Math.max(max[d], vector[d]);
+            }
+        }
+        float[] step = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            step[d] = (max[d] - min[d]) / 255f;
+        }
+        return new ScalarQuantizer(min, step, sample.size());
+    }
+
+    static ScalarQuantizer read(DataInputStream in) throws IOException {
+        int trainedOn = in.readInt();
+        int dimensions = in.readInt();
+        float[] min = new float[dimensions];
+        float[] step = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            min[d] = in.readFloat();
+            step[d] = in.readFloat();
+        }
+        return new ScalarQuantizer(min, step, trainedOn);
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(trainedOn);
+        out.writeInt(min.length);
+        for (int d = 0; d < min.length; d++) {
+            out.writeFloat(min[d]);
+            out.writeFloat(step[d]);
+        }
+    }
+
+    @Override
+    public VectorQuantization kind() {
+        return VectorQuantization.INT8;
+    }
+
+    @Override
+    public int dimensions() {
+        return min.length;
+    }
+
+    @Override
+    public int codeSize() {
+        return min.length;
+    }
+
+    @Override
+    public int trainedOn() {
+        return trainedOn;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] codes, int offset) {
+        for (int d = 0; d < min.length; d++) {
+            int level = step[d] == 0 ? 0 : Math.round((vector[d] - min[d]) / step[d]);
+            codes[offset + d] = (byte) (Math.max(0, Math.min(255, level)) - 128);
+        }
+    }
+
+    @Override
+    public QueryScorer scorer(float[] query) {
+        int dimensions = min.length;
+        float[] weights = new float[dimensions];
+        float base = 0;
+        for (int d = 0; d < dimensions; d++) {
+            weights[d] = query[d] * step[d];
+            base += query[d] * (min[d] + 128 * step[d]);
+        }
+        float constant = base;
+        int bound = dimensions & ~3;
+        return (codes, offset) -> {
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            int d = 0;
+            for (; d < bound; d += 4) {
+                s0 += weights[d] * codes[offset + d];
+                s1 += weights[d + 1] * codes[offset + d + 1];
+                s2 += weights[d + 2] * codes[offset + d + 2];
+                s3 += weights[d + 3] * codes[offset + d + 3];
+            }
+            for (; d < dimensions; d++) {
+                s0 += weights[d] * codes[offset + d];
+            }
+            return constant + (s0 + s1) + (s2 + s3);
+        };
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.util.Map;
+
+/**
+ * A chunk as held by the vector store, without its embedding.
+ */
+record StoredChunk(String id, String text, Map<String, Object> metadata) {
+}
@@ -0,0 +1,62 @@
+package com.example.ai.localchat.vectorstore;
+
+/**
+ * How embeddings are laid out in the binary vector store file.
+ */
+public enum VectorEncoding {
+
+    FLOAT32(4),
+    // IEEE 754 half precision; halves the file and page cache footprint, ~1e-3 relative error
+    FLOAT16(2);
+
+    private final int bytesPerComponent;
+
+    VectorEncoding(int bytesPerComponent) {
+        this.bytesPerComponent = bytesPerComponent;
+    }
+
+    public int bytesPerComponent() {
+        return bytesPerComponent;
+    }
+
+    static float halfToFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0) {
+            if (mantissa == 0) {
+                return Float.intBitsToFloat(sign);
+            }
+            // subnormal: renormalise
+            while ((mantissa & 0x400) == 0) {
+                mantissa <<= 1;
+                exponent--;
+            }
+            exponent++;
+            mantissa &= 0x3FF;
+        } else if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 112;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa = (mantissa | 0x800000) >> (1 - exponent);
+            return (short) (sign | ((mantissa + 0x1000) >> 13));
+        }
+        if (exponent >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        int rounded = (exponent << 10) + ((mantissa + 0x1000) >> 13);
+        return (short) (sign | Math.min(rounded, 0x7BFF));
+    }
+}
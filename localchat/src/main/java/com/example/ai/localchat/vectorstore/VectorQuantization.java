@@ -0,0 +1,14 @@
+package com.example.ai.localchat.vectorstore;
+
+/**
+ * Compressed in-memory form of the embeddings that {@link HnswIndex} searches over; the full-precision
+ * vectors stay in the mapped store file and only re-score the best candidates of each search.
+ */
+public enum VectorQuantization {
+
+    NONE,
+    // one signed byte per component with a per-dimension range: 4x smaller than float32
+    INT8,
+    // product quantization: one byte per subspace of a few dimensions, 16x smaller with 4-dimensional subspaces
+    PQ
+}
@@ -0,0 +1,82 @@
+package com.example.ai.localchat.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes normalised vectors into fixed-size byte codes and scores queries against them. Scoring
+ * prepares per-query tables once, so the per-node work is a tight loop over contiguous bytes.
+ */
+interface VectorQuantizer {
+
+    // enough to place 256 centroids per PQ subspace and to bound every int8 range
+    int TRAINING_SAMPLE = 4096;
+
+    VectorQuantization kind();
+
+    int dimensions();
+
+    /**
+     * Bytes per encoded vector.
+     */
+    int codeSize();
+
+    /**
+     * Number of vectors the quantizer was trained on, to tell when it should be retrained.
+     */
+    int trainedOn();
+
+    void encode(float[] vector, byte[] codes, int offset);
+
+    QueryScorer scorer(float[] query);
+
+    void write(DataOutputStream out) throws IOException;
+
+    static VectorQuantizer train(VectorQuantization kind, List<float[]> sample, int pqSubspaceSize) {
+        return switch (kind) {
+            case INT8 -> ScalarQuantizer.train(sample);
+            case PQ -> ProductQuantizer.train(sample, pqSubspaceSize);
+            case NONE -> throw new IllegalArgumentException("Nothing to train for " + kind);
+        };
+    }
+
+    static VectorQuantizer read(VectorQuantization kind, DataInputStream in) throws IOException {
+        return switch (kind) {
+            case INT8 -> ScalarQuantizer.read(in);
+            case PQ -> ProductQuantizer.read(in);
+            case NONE -> throw new IOException("No quantizer is stored for " + kind);
+        };
+    }
+
+    /**
+     * Up to {@code maxSize} live vectors spread evenly over the ordinals, so the sample is
+     * deterministic and covers documents ingested early and late alike.
+     */
+    static List<float[]> trainingSample(HnswIndex index, int maxSize) {
+        int live = index.liveCount();
+        double stride = Math.max(1.0, (double) live / maxSize);
+        List<float[]> sample = new ArrayList<>(Math.min(live, maxSize));
+        int seen = 0;
+        double next = 0;
+        for (int node = 0; node < index.size() && sample.size() < maxSize; node++) {
+            if (index.isDeleted(node)) {
+                continue;
+            }
+            if (seen++ >= next) {
+                sample.add(index.vector(node));
+                next += stride;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Approximate dot product of one query with encoded vectors.
+     */
+    interface QueryScorer {
+        float score(byte[] codes, int offset);
+    }
+}
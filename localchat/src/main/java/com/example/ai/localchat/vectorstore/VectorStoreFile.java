@@ -0,0 +1,385 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Binary, memory-mapped persistence for {@link HnswVectorStore}.
+ * <p>
+ * Layout (little endian), each section starting on a 64-byte boundary:
+ * <pre>
+ * header        magic, version, encoding, dimensions, count, M, efConstruction, entry point,
+ *               max level and the offset of every following section
+ * vectors       count x dimensions float32 or float16, contiguous
+ * deleted       tombstone bitset, one long per 64 ordinals
+ * graph         per node: level count, then per level the neighbour count and ordinals
+ * ids           per node: length-prefixed UTF-8 document id
+ * chunk offsets per node: file offset of its chunk record, -1 when deleted
+ * chunks        per node: length-prefixed record of text and metadata JSON
+ * </pre>
+ * Opening a file maps the vector block and reads only the graph and ids onto the heap; chunk text
+ * and metadata are read on demand, so startup cost does not depend on corpus text size.
+ */
+public final class VectorStoreFile implements Closeable {
+
+    private static final int MAGIC = 0x5356434C; // "LCVS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 128;
+    private static final int ALIGNMENT = 64;
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper;
+    private final HnswIndex index;
+    private final String[] ids;
+    private final LongBuffer chunkOffsets;
+
+    private VectorStoreFile(FileChannel channel, ObjectMapper objectMapper, HnswIndex index, String[] ids,
+                            LongBuffer chunkOffsets) {
+        this.channel = channel;
+        this.objectMapper = objectMapper;
+        this.index = index;
+        this.ids = ids;
+        this.chunkOffsets = chunkOffsets;
+    }
+
+    /**
+     * Writes the index and its chunks to a temporary sibling of {@code path} and atomically moves it
+     * into place, so readers never observe a partially written file.
+     */
+    public static void write(Path path, HnswIndex index, IntFunction<StoredChunk> chunks, VectorEncoding encoding,
+                             ObjectMapper objectMapper) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = index.size();
+        int dimensions = index.dimensions();
+        long[] chunkOffsets = new long[count];
+        long[] sections = new long[6];
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Output output = new Output(out, HEADER_BYTES)) {
+
+            output.align();
+            sections[0] = output.position();
+            for (int node = 0; node < count; node++) {
+                float[] vector = index.vector(node);
+                for (int d = 0; d < dimensions; d++) {
+                    if (encoding == VectorEncoding.FLOAT32) {
+                        output.putFloat(vector[d]);
+                    } else {
+                        output.putShort(VectorEncoding.floatToHalf(vector[d]));
+                    }
+                }
+            }
+
+            output.align();
+            sections[1] = output.position();
+            BitSet deleted = new BitSet(count);
+            for (int node = 0; node < count; node++) {
+                if (index.isDeleted(node)) {
+                    deleted.set(node);
+                }
+            }
+            long[] words = deleted.toLongArray();
+            for (int w = 0; w < (count + 63) / 64; w++) {
+                output.putLong(w < words.length ? words[w] : 0L);
+            }
+
+            output.align();
+            sections[2] = output.position();
+            for (int node = 0; node < count; node++) {
+                int[][] levels = index.links(node);
+                output.putInt(levels.length);
+                for (int[] links : levels) {
+                    output.putInt(links[0]);
+                    for (int i = 1; i <= links[0]; i++) {
+                        output.putInt(links[i]);
+                    }
+                }
+            }
+
+            StoredChunk[] live = new StoredChunk[count];
+            output.align();
+            sections[3] = output.position();
+            for (int node = 0; node < count; node++) {
+                live[node] = index.isDeleted(node) ? null : chunks.apply(node);
+                output.putBytes(live[node] == null ? new byte[0] : live[node].id().getBytes(StandardCharsets.UTF_8));
+            }
+
+            output.align();
+            sections[4] = output.position();
+            long chunkOffsetsPosition = output.position();
+            for (int node = 0; node < count; node++) {
+                output.putLong(-1L);
+            }
+
+            output.align();
+            sections[5] = output.position();
+            for (int node = 0; node < count; node++) {
+                StoredChunk chunk = live[node];
+                if (chunk == null) {
+                    chunkOffsets[node] = -1L;
+                    continue;
+                }
+                chunkOffsets[node] = output.position();
+                byte[] text = chunk.text() == null ? new byte[0] : chunk.text().getBytes(StandardCharsets.UTF_8);
+                byte[] metadata = objectMapper.writeValueAsBytes(chunk.metadata());
+                output.putInt(8 + text.length + metadata.length);
+                output.putBytes(text);
+                output.putBytes(metadata);
+            }
+            output.flush();
+
+            ByteBuffer offsets = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+            offsets.asLongBuffer().put(chunkOffsets);
+            writeFully(out, offsets, chunkOffsetsPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(encoding.ordinal()).putInt(dimensions).putInt(count)
+                    .putInt(index.getM()).putInt(index.getEfConstruction())
+                    .putInt(index.entryPoint()).putInt(index.maxLevel());
+            for (long section : sections) {
+                header.putLong(section);
+            }
+            header.clear();
+            writeFully(out, header, 0);
+            out.force(true);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static VectorStoreFile open(Path path, ObjectMapper objectMapper) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a vector store file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported vector store file version " + version);
+            }
+            VectorEncoding encoding = VectorEncoding.values()[header.getInt()];
+            int dimensions = header.getInt();
+            int count = header.getInt();
+            int m = header.getInt();
+            int efConstruction = header.getInt();
+            int entryPoint = header.getInt();
+            int maxLevel = header.getInt();
+            long vectorsOffset = header.getLong();
+            long deletedOffset = header.getLong();
+            long graphOffset = header.getLong();
+            long idsOffset = header.getLong();
+            long chunkOffsetsOffset = header.getLong();
+
+            MappedVectors vectors = new MappedVectors(channel, vectorsOffset, count, dimensions, encoding);
+
+            long[] words = new long[(count + 63) / 64];
+            map(channel, deletedOffset, words.length * 8L).asLongBuffer().get(words);
+            BitSet deleted = BitSet.valueOf(words);
+
+            ByteBuffer graphBuffer = map(channel, graphOffset, idsOffset - graphOffset);
+            int[][][] graph = new int[count][][];
+            for (int node = 0; node < count; node++) {
+                int[][] levels = new int[graphBuffer.getInt()][];
+                for (int level = 0; level < levels.length; level++) {
+                    int links = graphBuffer.getInt();
+                    int[] slots = new int[(level == 0 ? 2 * m : m) + 1];
+                    slots[0] = links;
+                    graphBuffer.asIntBuffer().get(slots, 1, links);
+                    graphBuffer.position(graphBuffer.position() + links * 4);
+                    levels[level] = slots;
+                }
+                graph[node] = levels;
+            }
+
+            ByteBuffer idBuffer = map(channel, idsOffset, chunkOffsetsOffset - idsOffset);
+            String[] ids = new String[count];
+            for (int node = 0; node < count; node++) {
+                byte[] bytes = new byte[idBuffer.getInt()];
+                idBuffer.get(bytes);
+                ids[node] = deleted.get(node) ? null : new String(bytes, StandardCharsets.UTF_8);
+            }
+            LongBuffer chunkOffsets = map(channel, chunkOffsetsOffset, count * 8L).asLongBuffer();
+
+            HnswIndex index = HnswIndex.restore(m, efConstruction, vectors, graph, deleted, entryPoint, maxLevel);
+            return new VectorStoreFile(channel, objectMapper, index, ids, chunkOffsets);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    HnswIndex index() {
+        return index;
+    }
+
+    String id(int ordinal) {
+        return ids[ordinal];
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    StoredChunk chunk(int ordinal) {
+        long offset = chunkOffsets.get(ordinal);
+        if (offset < 0) {
+            return null;
+        }
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, length, offset);
+            ByteBuffer record = ByteBuffer.allocate(length.flip().getInt()).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, record, offset + 4);
+            record.flip();
+            int textLength = record.getInt();
+            String text = new String(record.array(), record.position(), textLength, StandardCharsets.UTF_8);
+            record.position(record.position() + textLength);
+            int metadataLength = record.getInt();
+            Map<String, Object> metadata = objectMapper.readValue(record.array(), record.position(),
+                    metadataLength, METADATA_TYPE);
+            return new StoredChunk(ids[ordinal], text, metadata);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of vector store file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Buffered little-endian sequential writer that tracks the absolute file position.
+     */
+    private static final class Output implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed;
+
+        Output(FileChannel channel, long start) throws IOException {
+            this.channel = channel;
+            this.flushed = start;
+            channel.position(start);
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        // length-prefixed
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    flushed += channel.write(wrapped);
+                }
+                return;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void align() throws IOException {
+            while (position() % ALIGNMENT != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
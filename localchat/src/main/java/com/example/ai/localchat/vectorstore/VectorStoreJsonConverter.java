@@ -0,0 +1,56 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.springframework.ai.util.JacksonUtils;
+import org.springframework.ai.vectorstore.SimpleVectorStoreContent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-shot conversion of a {@code SimpleVectorStore} JSON file into a {@link VectorStoreFile},
+ * reusing the stored embeddings so nothing is re-embedded.
+ * <p>
+ * Usage: {@code VectorStoreJsonConverter <vectorstore.json> <vectorstore.bin> [float32|float16] [M] [efConstruction]}
+ */
+public final class VectorStoreJsonConverter {
+
+    private VectorStoreJsonConverter() {
+    }
+
+    public static int convert(Path json, Path binary, VectorEncoding encoding, int m, int efConstruction)
+            throws IOException {
+        ObjectMapper objectMapper = JsonMapper.builder().addModules(JacksonUtils.instantiateAvailableModules()).build();
+        Map<String, SimpleVectorStoreContent> stored = objectMapper.readValue(json.toFile(),
+                new TypeReference<Map<String, SimpleVectorStoreContent>>() {
+                });
+        HnswIndex index = new HnswIndex(m, efConstruction);
+        List<StoredChunk> chunks = new ArrayList<>(stored.size());
+        for (SimpleVectorStoreContent content : stored.values()) {
+            index.add(HnswIndex.normalize(content.getEmbedding()));
+            chunks.add(new StoredChunk(content.getId(), content.getText(), content.getMetadata()));
+        }
+        VectorStoreFile.write(binary, index, chunks::get, encoding, objectMapper);
+        return chunks.size();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: VectorStoreJsonConverter <vectorstore.json> <vectorstore.bin> "
+                    + "[float32|float16] [M] [efConstruction]");
+            System.exit(1);
+        }
+        VectorEncoding encoding = args.length > 2 ? VectorEncoding.valueOf(args[2].toUpperCase()) : VectorEncoding.FLOAT32;
+        int m = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int efConstruction = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+        long start = System.nanoTime();
+        int converted = convert(Path.of(args[0]), Path.of(args[1]), encoding, m, efConstruction);
+        System.out.printf("Converted %d chunks to %s in %d ms%n", converted, args[1],
+                (System.nanoTime() - start) / 1_000_000);
+    }
+}
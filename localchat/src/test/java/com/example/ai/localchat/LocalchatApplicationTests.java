@@ -1,13 +1,36 @@
 package com.example.ai.localchat;
 
+import com.example.ai.localchat.embedding.CachingEmbeddingModel;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest
 class LocalchatApplicationTests {
 
+	// the store, embedding cache and chat memory files, kept out of the working tree
+	@TempDir
+	static Path dataDirectory;
+
+	@Autowired
+	EmbeddingModel embeddingModel;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("localchat.vectorstore.directory", () -> dataDirectory.toString());
+	}
+
 	@Test
 	void contextLoads() {
+		assertThat(embeddingModel).isInstanceOf(CachingEmbeddingModel.class);
 	}
 
 }
@@ -0,0 +1,117 @@
+package com.example.ai.localchat.advisors;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticCacheAdvisorTests {
+
+	private final SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(new HashingEmbeddingModel(256), 0.9,
+			Duration.ofMinutes(5), 100);
+
+	private final AtomicInteger generations = new AtomicInteger();
+
+	private final CallAdvisorChain chain = new CallAdvisorChain() {
+
+		@Override
+		public ChatClientResponse nextCall(ChatClientRequest request) {
+			String answer = "answer " + generations.incrementAndGet();
+			return ChatClientResponse.builder()
+					.chatResponse(new ChatResponse(List.of(new Generation(new AssistantMessage(answer)))))
+					.context(request.context())
+					.build();
+		}
+
+		@Override
+		public List<CallAdvisor> getCallAdvisors() {
+			return List.of();
+		}
+
+		@Override
+		public CallAdvisorChain copy(CallAdvisor after) {
+			return this;
+		}
+	};
+
+	private static ChatClientRequest request(String question, String... chunkIds) {
+		List<Document> documents = Arrays.stream(chunkIds)
+				.map(id -> Document.builder().id(id).text("chunk " + id).build())
+				.toList();
+		return ChatClientRequest.builder()
+				.prompt(new Prompt(question))
+				.context(Map.of(SemanticCacheAdvisor.QUESTION, question,
+						RetrievalAugmentationAdvisor.DOCUMENT_CONTEXT, documents))
+				.build();
+	}
+
+	private static ChatClientRequest request(List<Message> history, String question, String... chunkIds) {
+		ChatClientRequest request = request(question, chunkIds);
+		List<Message> messages = new ArrayList<>(history);
+		messages.add(new UserMessage(question));
+		return request.mutate().prompt(new Prompt(messages)).build();
+	}
+
+	private String ask(String question, String... chunkIds) {
+		return advisor.adviseCall(request(question, chunkIds), chain).chatResponse().getResult().getOutput().getText();
+	}
+
+	@Test
+	void nearDuplicateQuestionOverTheSameChunksIsAnsweredFromTheCache() {
+		String first = ask("how does the hnsw vector store persist its graph", "a", "b");
+
+		assertThat(ask("How does the HNSW vector store persist its graph?", "b", "a")).isEqualTo(first);
+		assertThat(ask("how is the chat memory trimmed", "a", "b")).isNotEqualTo(first);
+		assertThat(generations).hasValue(2);
+		assertThat(advisor.stats().hits()).isEqualTo(1);
+		assertThat(advisor.stats().misses()).isEqualTo(2);
+	}
+
+	@Test
+	void sameQuestionAfterAnotherConversationHistoryMisses() {
+		List<Message> pools = List.of(new UserMessage("which pools are there"),
+				new AssistantMessage("the connection pool and the thread pool"));
+		List<Message> caches = List.of(new UserMessage("which caches are there"),
+				new AssistantMessage("the embedding cache and the answer cache"));
+		String first = advisor.adviseCall(request(pools, "what about the second one", "a"), chain)
+			.chatResponse().getResult().getOutput().getText();
+
+		String other = advisor.adviseCall(request(caches, "what about the second one", "a"), chain)
+			.chatResponse().getResult().getOutput().getText();
+		String again = advisor.adviseCall(request(pools, "what about the second one", "a"), chain)
+			.chatResponse().getResult().getOutput().getText();
+
+		assertThat(other).isNotEqualTo(first);
+		assertThat(again).isEqualTo(first);
+		assertThat(generations).hasValue(2);
+	}
+
+	@Test
+	void differentRetrievedChunksOrInvalidatedChunksMiss() {
+		String first = ask("how does the hnsw vector store persist its graph", "a", "b");
+
+		assertThat(ask("how does the hnsw vector store persist its graph", "a", "c")).isNotEqualTo(first);
+		advisor.invalidateChunks(List.of("b"));
+		assertThat(ask("how does the hnsw vector store persist its graph", "a", "b")).isNotEqualTo(first);
+		assertThat(generations).hasValue(3);
+	}
+}
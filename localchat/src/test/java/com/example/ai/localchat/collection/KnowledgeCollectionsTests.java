@@ -0,0 +1,123 @@
+package com.example.ai.localchat.collection;
+
+import com.example.ai.localchat.ingestion.ChunkMetadataEnricher;
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import com.example.ai.localchat.ingestion.IngestionProperties;
+import com.example.ai.localchat.ingestion.KnowledgeBaseIndexer;
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KnowledgeCollectionsTests {
+
+	private static final IngestionProperties PROPERTIES = new IngestionProperties(1, 1, 1, 1, 4, 500, 8,
+			Duration.ofMinutes(1));
+
+	@TempDir
+	Path tempDir;
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(64);
+
+	private KnowledgeCollections collections;
+
+	@AfterEach
+	void close() {
+		if (collections != null) {
+			collections.close();
+		}
+	}
+
+	private static List<Document> read(Resource resource) {
+		try {
+			return List.of(new Document(resource.getContentAsString(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private KnowledgeCollections collections(long memoryBudget) throws IOException {
+		Map<String, String> locations = new LinkedHashMap<>();
+		locations.put("search", knowledge("search", "The HNSW graph links each vector to its nearest neighbours. ",
+				"Quantized vectors are rescored against the full precision graph. "));
+		locations.put("memory", knowledge("memory", "Chat memory keeps the newest turns of a conversation. ",
+				"Idle conversations are evicted from memory to the journal. "));
+		collections = new KnowledgeCollections(locations, tempDir.resolve("collections"), memoryBudget, 2,
+				embeddingModel, () -> HnswVectorStore.builder(embeddingModel).build(),
+				(location, store, storeFile, manifestFile) -> new KnowledgeBaseIndexer(location,
+						new PathMatchingResourcePatternResolver(),
+						new IngestionPipeline(PROPERTIES, KnowledgeCollectionsTests::read,
+								() -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(),
+								embeddingModel, store),
+						store, storeFile, manifestFile));
+		return collections;
+	}
+
+	private String knowledge(String name, String... files) throws IOException {
+		Path docs = Files.createDirectories(tempDir.resolve("docs").resolve(name));
+		for (int i = 0; i < files.length; i++) {
+			Files.writeString(docs.resolve(name + "-" + i + ".md"), files[i].repeat(20));
+		}
+		return docs.toUri() + "*.md";
+	}
+
+	private static SearchRequest request(String query) {
+		return SearchRequest.builder().query(query).topK(4).build();
+	}
+
+	@Test
+	void searchesAreRoutedToOneCollectionOrMergedAcrossAll() throws IOException {
+		KnowledgeCollections collections = collections(Long.MAX_VALUE);
+
+		List<Document> routed = collections.search("memory", request("graph vectors neighbours"));
+		assertThat(routed).isNotEmpty().allSatisfy(document -> assertThat(document.getMetadata())
+				.containsEntry(KnowledgeCollections.COLLECTION_METADATA, "memory"));
+
+		List<Document> merged = collections.searchAll(request("graph vectors neighbours"));
+		assertThat(merged).hasSizeLessThanOrEqualTo(4);
+		assertThat(merged.get(0).getMetadata()).containsEntry(KnowledgeCollections.COLLECTION_METADATA, "search");
+		assertThat(merged).extracting(Document::getScore).isSortedAccordingTo((a, b) -> Double.compare(b, a));
+		assertThat(collections.status()).allSatisfy(status -> assertThat(status.loaded()).isTrue());
+
+		assertThatThrownBy(() -> collections.search("billing", request("invoices")))
+				.isInstanceOf(UnknownCollectionException.class);
+	}
+
+	@Test
+	void leastRecentlyUsedCollectionIsUnloadedOverBudgetAndReloadedFromItsFile() throws IOException {
+		KnowledgeCollections collections = collections(1);
+
+		collections.search("search", request("graph"));
+		collections.search("memory", request("conversation"));
+
+		assertThat(collections.status()).extracting(KnowledgeCollections.CollectionStatus::loaded)
+				.containsExactly(false, true);
+		assertThat(Files.exists(tempDir.resolve("collections/search/vectorstore.bin"))).isTrue();
+
+		int embedded = embeddingModel.embeddedTexts();
+		assertThat(collections.search("search", request("graph"))).isNotEmpty();
+		// reloaded from the store file: only the query was embedded
+		assertThat(embeddingModel.embeddedTexts() - embedded).isEqualTo(1);
+		assertThat(collections.status()).extracting(KnowledgeCollections.CollectionStatus::loaded)
+				.containsExactly(true, false);
+	}
+}
@@ -0,0 +1,43 @@
+package com.example.ai.localchat.config;
+
+import com.example.ai.localchat.embedding.CachingEmbeddingModel;
+import com.example.ai.localchat.gateway.GatewayEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// with the embedding cache off, embedding calls still go through the model gateway
+@SpringBootTest(properties = "localchat.embedding-cache.enabled=false")
+class EmbeddingModelConfigurationTests {
+
+	// the store and chat memory files, kept out of the working tree
+	@TempDir
+	static Path dataDirectory;
+
+	@Autowired
+	EmbeddingModel embeddingModel;
+
+	@Autowired
+	ObjectProvider<CachingEmbeddingModel> cachingEmbeddingModel;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("localchat.vectorstore.directory", () -> dataDirectory.toString());
+	}
+
+	@Test
+	void embedsThroughTheGatewayWithoutTheCache() {
+		assertThat(embeddingModel).isInstanceOf(GatewayEmbeddingModel.class);
+		assertThat(cachingEmbeddingModel.getIfAvailable()).isNull();
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.example.ai.localchat.context;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextAssemblerTests {
+
+	private static final String HNSW = "HNSW builds a layered graph of the vectors. Each node links to its nearest "
+			+ "neighbours on every layer. Searches start at the top layer and descend greedily. The ef parameter "
+			+ "bounds the candidate list while searching. Larger values trade latency for recall.";
+
+	private final ContextAssembler assembler = new ContextAssembler(1500, 4, 0.8, 0.8);
+
+	private static Document doc(String id, String text) {
+		return Document.builder().id(id).text(text).metadata(Map.of("source", id + ".md")).score(0.9).build();
+	}
+
+	@Test
+	void sentencesSharedThroughChunkOverlapAreSentOnce() {
+		Document next = doc("next", "The ef parameter bounds the candidate list while searching. Larger values trade "
+				+ "latency for recall. Quantization compresses the vectors into int8 codes.\n\n```java\nint ef = 64;\n\n"
+				+ "store.search(query, ef);\n```\nCodes are rescored against the full vectors.");
+
+		ContextAssembler.AssembledContext context = assembler.assemble(List.of(doc("hnsw", HNSW), next));
+
+		assertThat(context.documents()).extracting(Document::getId).containsExactly("hnsw", "next");
+		assertThat(context.documents().get(0).getText()).isEqualTo(HNSW);
+		assertThat(context.documents().get(1).getText()).isEqualTo("Quantization compresses the vectors into int8 "
+				+ "codes.\n\n```java\nint ef = 64;\n\nstore.search(query, ef);\n```\nCodes are rescored against the full "
+				+ "vectors.");
+		assertThat(context.documents().get(1).getMetadata()).containsEntry("source", "next.md");
+		assertThat(context.documents().get(1).getScore()).isEqualTo(0.9);
+		assertThat(context.usage().duplicateSpans()).isEqualTo(2);
+		assertThat(context.usage().tokensSaved()).isPositive();
+	}
+
+	@Test
+	void nearDuplicateDocumentsAreLeftOut() {
+		Document reformatted = doc("copy", HNSW.replace(". ", ".\n"));
+
+		ContextAssembler.AssembledContext context = assembler.assemble(List.of(doc("hnsw", HNSW), reformatted));
+
+		assertThat(context.documents()).extracting(Document::getId).containsExactly("hnsw");
+		assertThat(context.usage().duplicateDocuments()).isEqualTo(1);
+		assertThat(context.usage().contextTokens()).isLessThan(context.usage().originalTokens());
+	}
+
+	@Test
+	void documentsArePackedBestFirstWithinTheBudget() {
+		List<Document> documents = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			documents.add(doc("d" + i, "Section " + i + " covers setting alpha" + i + " for the retrieval pipeline. "
+					+ "It also lists the defaults of beta" + i + " and gamma" + i + " with examples."));
+		}
+		ContextAssembler small = new ContextAssembler(100, 4, 0.8, 0.8);
+
+		ContextAssembler.AssembledContext context = small.assemble(documents);
+
+		assertThat(context.usage().contextTokens()).isLessThanOrEqualTo(100);
+		assertThat(context.usage().truncatedDocuments()).isPositive();
+		assertThat(context.documents()).extracting(Document::getId).startsWith("d0", "d1").doesNotContain("d9");
+		assertThat(small.stats().requests()).isEqualTo(1);
+		assertThat(small.stats().tokensSaved()).isEqualTo(context.usage().tokensSaved());
+	}
+}
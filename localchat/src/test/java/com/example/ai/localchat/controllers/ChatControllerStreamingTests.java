@@ -0,0 +1,159 @@
+package com.example.ai.localchat.controllers;
+
+import com.example.ai.localchat.ChatToken;
+import com.example.ai.localchat.gateway.CancellableJdkClientHttpConnector;
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.support.FakeOllamaServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The server-sent events of the streaming chat endpoints against a {@link FakeOllamaServer}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ChatControllerStreamingTests {
+
+	private static final FakeOllamaServer OLLAMA = startOllama();
+
+	private static final Path WORK_DIRECTORY = corpus();
+
+	private static final ParameterizedTypeReference<ServerSentEvent<ChatToken>> EVENT = new ParameterizedTypeReference<>() {
+	};
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	KnowledgeBaseLoader knowledgeBaseLoader;
+
+	private WebTestClient client;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("spring.ai.ollama.base-url", OLLAMA::baseUrl);
+		registry.add("spring.ai.retry.max-attempts", () -> "1");
+		registry.add("localchat.vectorstore.directory", () -> WORK_DIRECTORY.resolve("data").toString());
+		registry.add("localchat.knowledge.location", () -> WORK_DIRECTORY.resolve("docs").toUri() + "*.md");
+		registry.add("localchat.semantic-cache.enabled", () -> "false");
+		registry.add("localchat.embedding-cache.disk-enabled", () -> "false");
+		registry.add("localchat.chat-memory.disk-enabled", () -> "false");
+	}
+
+	@AfterAll
+	static void stopOllama() {
+		OLLAMA.close();
+	}
+
+	@BeforeEach
+	void setUp() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+		while (knowledgeBaseLoader.status().state() != KnowledgeBaseLoader.State.READY) {
+			assertThat(knowledgeBaseLoader.status().state()).isNotEqualTo(KnowledgeBaseLoader.State.FAILED);
+			assertThat(System.nanoTime()).as("knowledge base ready within a minute").isLessThan(deadline);
+			Thread.sleep(50);
+		}
+		// a client that closes the connection when it stops reading, see CancellableJdkClientHttpConnector
+		client = WebTestClient.bindToServer(new CancellableJdkClientHttpConnector())
+			.baseUrl("http://localhost:" + port)
+			.responseTimeout(Duration.ofSeconds(30))
+			.build();
+	}
+
+	@Test
+	void streamsTokensThenDone() {
+		List<ServerSentEvent<ChatToken>> events = stream("/api/v1/chat/stream-done/stream?message=how is the cache sized")
+			.collectList()
+			.block(Duration.ofSeconds(30));
+
+		assertThat(events).hasSizeGreaterThan(1);
+		assertThat(events.subList(0, events.size() - 1)).allSatisfy(event -> assertThat(event.event()).isEqualTo("token"));
+		assertThat(events.get(events.size() - 1).event()).isEqualTo("done");
+		assertThat(events.stream().map(event -> event.data().text()).reduce("", String::concat))
+			.startsWith("The retrieved context");
+	}
+
+	@Test
+	void failedGenerationEndsWithAGenericErrorEvent() {
+		OLLAMA.failNext(1);
+
+		List<ServerSentEvent<ChatToken>> events = stream("/api/v1/chat/stream-error/stream?message=how is the graph linked")
+			.collectList()
+			.block(Duration.ofSeconds(30));
+
+		assertThat(events).singleElement().satisfies(event -> {
+			assertThat(event.event()).isEqualTo("error");
+			assertThat(event.data().text()).isEqualTo(ChatController.STREAM_ERROR);
+		});
+	}
+
+	@Test
+	void clientDisconnectCancelsGeneration() throws InterruptedException {
+		int aborted = OLLAMA.abortedStreams();
+
+		// take(1) cancels the response after the first token, and the connector then hangs up
+		ServerSentEvent<ChatToken> first = stream("/api/v1/chat/stream-cancel/stream?message=how are files re-embedded")
+			.take(1)
+			.blockFirst(Duration.ofSeconds(30));
+
+		assertThat(first.event()).isEqualTo("token");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (OLLAMA.abortedStreams() == aborted && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(OLLAMA.abortedStreams()).isGreaterThan(aborted);
+	}
+
+	private Flux<ServerSentEvent<ChatToken>> stream(String uri) {
+		return client.get()
+			.uri(uri)
+			.accept(MediaType.TEXT_EVENT_STREAM)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.returnResult(EVENT)
+			.getResponseBody();
+	}
+
+	// long enough answers that a client can hang up halfway through
+	private static FakeOllamaServer startOllama() {
+		try {
+			return new FakeOllamaServer(256).tokenInterval(Duration.ofMillis(10)).responseTokens(200);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Path corpus() {
+		try {
+			Path directory = Files.createTempDirectory("localchat-stream");
+			Path docs = Files.createDirectories(directory.resolve("docs"));
+			Files.writeString(docs.resolve("cache.md"), "# Embedding cache\n\nThe cache is sized by entries.\n");
+			Files.writeString(docs.resolve("graph.md"), "# HNSW graph\n\nEach vector is linked to its neighbours.\n");
+			Files.writeString(docs.resolve("ingestion.md"), "# Ingestion\n\nChanged files are re-embedded.\n");
+			return directory;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
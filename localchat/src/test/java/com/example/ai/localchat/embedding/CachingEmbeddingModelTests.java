@@ -0,0 +1,59 @@
+package com.example.ai.localchat.embedding;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final HashingEmbeddingModel delegate = new HashingEmbeddingModel(32);
+
+	@Test
+	void onlyMissesReachTheDelegate() throws Exception {
+		try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 100, null, 100)) {
+			cache.embed(List.of("what is hnsw", "how are chunks split"));
+
+			List<float[]> vectors = cache.embed(List.of("how are chunks split", "what is  hnsw\n", "new question",
+					"new question"));
+
+			assertThat(delegate.calls()).isEqualTo(2);
+			assertThat(delegate.embeddedTexts()).isEqualTo(3);
+			assertThat(vectors.get(1)).containsExactly(delegate.vector("what is hnsw"));
+			assertThat(vectors.get(3)).containsExactly(vectors.get(2));
+			assertThat(cache.stats().hits()).isEqualTo(2);
+			assertThat(cache.stats().misses()).isEqualTo(3);
+		}
+	}
+
+	@Test
+	void diskTierSurvivesRestart() throws Exception {
+		Path file = tempDir.resolve("embedding-cache.bin");
+		try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 100, file, 100)) {
+			cache.embed(List.of("first chunk", "second chunk"));
+		}
+		// a record cut short by a crash is dropped
+		Files.write(file, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 100, file, 100)) {
+			assertThat(cache.embed("second chunk")).containsExactly(delegate.vector("second chunk"));
+			assertThat(cache.stats().diskHits()).isEqualTo(1);
+			cache.embed("third chunk");
+		}
+		assertThat(delegate.embeddedTexts()).isEqualTo(3);
+
+		try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "other-model", 100, file, 100)) {
+			cache.embed("first chunk");
+		}
+		assertThat(delegate.embeddedTexts()).isEqualTo(4);
+	}
+}
@@ -0,0 +1,60 @@
+package com.example.ai.localchat.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddingDiskCacheTests {
+
+	private static final int DIMENSIONS = 768;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void keepsTheMostRecentlyUsedEntriesAndCompactsForgottenOnes() throws Exception {
+		Path file = tempDir.resolve("embedding-cache.bin");
+		try (EmbeddingDiskCache cache = new EmbeddingDiskCache(file, 100)) {
+			cache.put(key(0), vector(0));
+			for (int i = 1; i < 4000; i++) {
+				cache.put(key(i), vector(i));
+				// used on every put, so it is never the least recently used
+				assertThat(cache.get(key(0))).isNotNull();
+			}
+
+			assertThat(cache.size()).isEqualTo(100);
+			assertThat(cache.get(key(1))).isNull();
+			assertThat(cache.get(key(3999))).containsExactly(vector(3999));
+		}
+		// 4000 records of 3 KB were written, at most twice the live ones are left after compaction
+		assertThat(Files.size(file)).isLessThan(9L << 20);
+
+		// after a restart the latest written are the most recently used
+		try (EmbeddingDiskCache cache = new EmbeddingDiskCache(file, 100)) {
+			assertThat(cache.size()).isEqualTo(100);
+			assertThat(cache.get(key(3950))).containsExactly(vector(3950));
+			assertThat(cache.get(key(3000))).isNull();
+		}
+
+		try (EmbeddingDiskCache cache = new EmbeddingDiskCache(file, 10)) {
+			assertThat(cache.size()).isEqualTo(10);
+			assertThat(cache.get(key(3995))).containsExactly(vector(3995));
+			assertThat(cache.get(key(3950))).isNull();
+		}
+	}
+
+	private static CacheKey key(int i) {
+		return CacheKey.of("test-model", "chunk " + i);
+	}
+
+	private static float[] vector(int i) {
+		float[] vector = new float[DIMENSIONS];
+		Arrays.fill(vector, i);
+		return vector;
+	}
+}
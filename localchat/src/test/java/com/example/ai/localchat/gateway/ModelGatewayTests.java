@@ -0,0 +1,129 @@
+package com.example.ai.localchat.gateway;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ModelGatewayTests {
+
+	// one thread per concurrent caller, whatever the common pool's parallelism
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void shutdown() {
+		callers.shutdownNow();
+	}
+
+	private static ModelGatewayProperties.QueueTimeouts timeouts(Duration all) {
+		return new ModelGatewayProperties.QueueTimeouts(all, all, all, all);
+	}
+
+	@Test
+	void queuedCallsRunByPriority() throws Exception {
+		ModelGateway gateway = new ModelGateway(1, timeouts(Duration.ZERO));
+		ModelGateway.Permit running = gateway.acquire(ModelPriority.CHAT);
+		List<ModelPriority> order = new ArrayList<>();
+		List<CompletableFuture<Void>> calls = new ArrayList<>();
+		for (ModelPriority priority : List.of(ModelPriority.RERANK, ModelPriority.EXPANSION, ModelPriority.CHAT)) {
+			calls.add(CompletableFuture.runAsync(() -> gateway.call(priority, () -> {
+				synchronized (order) {
+					order.add(priority);
+				}
+				return null;
+			}), callers));
+			while (gateway.stats().queued() < calls.size()) {
+				Thread.onSpinWait();
+			}
+		}
+
+		running.close();
+		CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+		assertThat(order).containsExactly(ModelPriority.CHAT, ModelPriority.EXPANSION, ModelPriority.RERANK);
+	}
+
+	@Test
+	void callsThatCannotStartInTimeAreShed() {
+		ModelGateway gateway = new ModelGateway(1, timeouts(Duration.ofMillis(50)));
+		try (ModelGateway.Permit running = gateway.acquire(ModelPriority.CHAT)) {
+			assertThatThrownBy(() -> gateway.call(ModelPriority.RERANK, () -> "too late"))
+					.isInstanceOf(ModelOverloadedException.class);
+		}
+		assertThat(gateway.call(ModelPriority.RERANK, () -> "in time")).isEqualTo("in time");
+		assertThat(gateway.stats().shed()).isEqualTo(1);
+	}
+
+	@Test
+	void identicalConcurrentPromptsShareOneGeneration() throws Exception {
+		ModelGateway gateway = new ModelGateway(4, timeouts(Duration.ZERO));
+		AtomicInteger generations = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ChatModel slowModel = new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				generations.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new ChatResponse(List.of(new Generation(new AssistantMessage("answer"))));
+			}
+		};
+		GatewayChatModel chatModel = new GatewayChatModel(slowModel, gateway, ModelPriority.CHAT);
+
+		CompletableFuture<ChatResponse> first = CompletableFuture.supplyAsync(() -> chatModel.call(new Prompt("hi")),
+				callers);
+		while (generations.get() == 0) {
+			Thread.onSpinWait();
+		}
+		CompletableFuture<ChatResponse> second = CompletableFuture.supplyAsync(() -> chatModel.call(new Prompt("hi")),
+				callers);
+		while (gateway.stats().coalesced() == 0) {
+			Thread.onSpinWait();
+		}
+		release.countDown();
+
+		assertThat(second.get(5, TimeUnit.SECONDS).getResult().getOutput().getText()).isEqualTo("answer");
+		assertThat(first.get(5, TimeUnit.SECONDS).getResult().getOutput().getText()).isEqualTo("answer");
+		assertThat(generations).hasValue(1);
+	}
+
+	@Test
+	void concurrentEmbeddingRequestsAreBatched() throws Exception {
+		ModelGateway gateway = new ModelGateway(2, timeouts(Duration.ZERO));
+		HashingEmbeddingModel delegate = new HashingEmbeddingModel(32);
+		GatewayEmbeddingModel embeddingModel = new GatewayEmbeddingModel(delegate, gateway, Duration.ofMillis(200),
+				4);
+
+		List<CompletableFuture<float[]>> vectors = new ArrayList<>();
+		for (String text : List.of("what is hnsw", "how are chunks split", "what is hnsw", "bm25 scoring")) {
+			vectors.add(CompletableFuture.supplyAsync(() -> embeddingModel.embed(text), callers));
+		}
+
+		assertThat(vectors.get(1).get(5, TimeUnit.SECONDS)).containsExactly(delegate.vector("how are chunks split"));
+		assertThat(vectors.get(2).get(5, TimeUnit.SECONDS)).containsExactly(delegate.vector("what is hnsw"));
+		assertThat(vectors.get(3).get(5, TimeUnit.SECONDS)).containsExactly(delegate.vector("bm25 scoring"));
+		assertThat(delegate.embeddedTexts()).isEqualTo(3);
+		assertThat(delegate.calls()).isLessThan(4);
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.ai.localchat.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkFeatureScannerTests {
+
+	private static final Pattern TECHNICAL_TERM = Pattern
+		.compile("\\b([A-Z][a-z]+[A-Z][a-zA-Z]*|[A-Z_]{2,}|[a-z]+[A-Z][a-zA-Z]*)\\b");
+
+	// the regex enrichment the scanner replaced; has_api_ref searches across lines, the old
+	// matches(".*\\b(API|endpoint|method)\\b.*") never matched a chunk containing a line break
+	private static ChunkFeatureScanner.ChunkFeatures reference(String text) {
+		double codeBlocks = (text.split("```").length - 1) * 2.0;
+		double avgSentenceLength = Arrays.stream(text.split("[.!?]")).mapToInt(String::length).average().orElse(0);
+		Map<String, Integer> terms = new LinkedHashMap<>();
+		Matcher matcher = TECHNICAL_TERM.matcher(text);
+		while (matcher.find()) {
+			terms.merge(matcher.group(), 1, Integer::sum);
+		}
+		return new ChunkFeatureScanner.ChunkFeatures(text.contains("```"),
+				text.matches("(?s).*\\b(API|endpoint|method)\\b.*"), (codeBlocks + (avgSentenceLength / 100.0)) / 2.0,
+				terms);
+	}
+
+	private static final List<String> FRAGMENTS = List.of("HnswVectorStore", "efSearch", "MAX_BATCH", "_", "__", "API",
+			"APIs", "endpoint", "endpoints", "method", "Method", "HTTP2", "x2Y", "aB", "Ab", "AbC", "ABc", "vector",
+			"store", "é", "Éclair", "naïveBayes", "𝒜", "42", "`", "``", "```", "````", "``````", ".", "!",
+			"?", "...", " ", " ", "\n", "\t", ",", "-", "spring.ai.ollama", "(", ")");
+
+	@Test
+	void matchesTheRegexImplementationOnRandomChunks() {
+		Random random = new Random(12);
+		for (int n = 0; n < 20_000; n++) {
+			StringBuilder text = new StringBuilder();
+			int parts = random.nextInt(30);
+			for (int p = 0; p < parts; p++) {
+				text.append(FRAGMENTS.get(random.nextInt(FRAGMENTS.size())));
+			}
+			String chunk = text.toString();
+
+			assertThat(ChunkFeatureScanner.scan(chunk)).as("features of [%s]", chunk).isEqualTo(reference(chunk));
+		}
+	}
+
+	@Test
+	void edgeCasesOfSplitAreReproduced() {
+		for (String chunk : List.of("", "```", "``````", "```a```", "a```", "```a", "...", "a...", "...a", "!?.",
+				"````", "a.b.c", "```\ncode\n```\n")) {
+			assertThat(ChunkFeatureScanner.scan(chunk)).as("features of [%s]", chunk).isEqualTo(reference(chunk));
+		}
+	}
+
+	@Test
+	void countsRepeatedTermsOnce() {
+		assertThat(ChunkFeatureScanner.scan("Use HnswVectorStore; HnswVectorStore tunes efSearch.").technicalTerms())
+			.containsExactly(Map.entry("HnswVectorStore", 2), Map.entry("efSearch", 1));
+	}
+}
@@ -0,0 +1,149 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionPipelineTests {
+
+	private static final IngestionProperties PROPERTIES = new IngestionProperties(2, 2, 2, 3, 2, 500, 8,
+			Duration.ofMinutes(1));
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(64);
+
+	private final HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+
+	private static List<Document> read(Resource resource) {
+		try {
+			return List.of(new Document(resource.getContentAsString(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private IngestionPipeline pipeline() {
+		return new IngestionPipeline(PROPERTIES, IngestionPipelineTests::read,
+				() -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(),
+				embeddingModel, vectorStore);
+	}
+
+	@Test
+	void ingestsEveryChunkInTokenBudgetedBatches() {
+		Map<String, Resource> resources = new LinkedHashMap<>();
+		for (int i = 0; i < 40; i++) {
+			resources.put("doc-" + i + ".md", new ByteArrayResource(("Document " + i
+					+ " explains the HybridRetrievalService. ").repeat(30).getBytes(StandardCharsets.UTF_8)));
+		}
+
+		IngestionMetrics.IngestionProgress progress = pipeline().run(resources, id -> false).progress();
+
+		assertThat(progress.documentsRead()).isEqualTo(40);
+		assertThat(progress.chunksWritten()).isEqualTo(progress.chunksSplit()).isGreaterThan(40);
+		assertThat(vectorStore.size()).isEqualTo((int) progress.chunksSplit());
+		assertThat(embeddingModel.calls()).isLessThan((int) progress.chunksSplit());
+		assertThat(vectorStore.similaritySearch(SearchRequest.builder().query("Document 7 explains").topK(3).build()))
+				.isNotEmpty()
+				.allSatisfy(doc -> {
+					assertThat(doc.getMetadata()).containsKeys("has_code", "technical_terms");
+					// the metadata stays out of the chunk text
+					assertThat(doc.getText()).contains("HybridRetrievalService")
+						.doesNotContain(IngestionPipeline.HASH_METADATA)
+						.doesNotContain(IngestionPipeline.SOURCE_METADATA + ":");
+				});
+	}
+
+	@Test
+	void embedsTheChunkTextWithoutItsMetadata() {
+		List<String> embedded = new CopyOnWriteArrayList<>();
+		HashingEmbeddingModel recording = new HashingEmbeddingModel(64) {
+			@Override
+			public EmbeddingResponse call(EmbeddingRequest request) {
+				embedded.addAll(request.getInstructions());
+				return super.call(request);
+			}
+		};
+		IngestionPipeline pipeline = new IngestionPipeline(PROPERTIES, IngestionPipelineTests::read,
+				() -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(), recording,
+				vectorStore);
+
+		pipeline.run(Map.of("guide.md", new ByteArrayResource(
+				"The HnswVectorStore keeps a graph. ".repeat(40).getBytes(StandardCharsets.UTF_8))), id -> false);
+
+		assertThat(embedded).isNotEmpty()
+			.allSatisfy(text -> assertThat(text).startsWith("The HnswVectorStore")
+				.doesNotContain("technical_terms")
+				.doesNotContain("has_code"));
+	}
+
+	@Test
+	void identicalChunksGetStableIdsAndAreNotEmbeddedAgain() {
+		Map<String, Resource> resources = Map.of("guide.md", new ByteArrayResource(
+				"The vector store keeps an HNSW graph. ".repeat(40).getBytes(StandardCharsets.UTF_8)));
+
+		IngestionPipeline.Result first = pipeline().run(resources, id -> false);
+		int calls = embeddingModel.calls();
+		IngestionPipeline.Result second = pipeline().run(resources, vectorStore::contains);
+
+		assertThat(second.chunksBySource()).isEqualTo(first.chunksBySource());
+		assertThat(second.progress().chunksReused()).isEqualTo(first.progress().chunksSplit());
+		assertThat(second.progress().chunksEmbedded()).isZero();
+		assertThat(embeddingModel.calls()).isEqualTo(calls);
+	}
+
+	@Test
+	void sectionsOfOneSourceAreSplitAsTheyAreReadAndKeepTheirOrder() {
+		List<String> pages = new ArrayList<>();
+		for (int page = 0; page < 30; page++) {
+			pages.add(("Page " + page + " of the manual covers topic " + page + ". ").repeat(15));
+		}
+		IngestionPipeline pipeline = new IngestionPipeline(PROPERTIES, (resource, sink) -> {
+			for (String page : pages) {
+				sink.accept(new Document(page));
+			}
+		}, () -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(), embeddingModel,
+				vectorStore);
+
+		IngestionPipeline.Result result = pipeline.run(Map.of("manual.pdf", new ByteArrayResource(new byte[1])),
+				id -> false);
+
+		TokenTextSplitter splitter = TokenTextSplitter.builder().withChunkSize(50).build();
+		List<String> expectedHashes = pages.stream()
+				.flatMap(page -> splitter.apply(List.of(new Document(page))).stream())
+				.map(chunk -> IngestionPipeline.sha256(chunk.getText()))
+				.toList();
+		assertThat(result.progress().documentsRead()).isEqualTo(1);
+		assertThat(result.chunksBySource().get("manual.pdf")).extracting(IngestionPipeline.ChunkRef::hash)
+				.containsExactlyElementsOf(expectedHashes);
+		assertThat(vectorStore.size()).isEqualTo(expectedHashes.size());
+	}
+
+	@Test
+	void failingStageCancelsThePipeline() {
+		IngestionPipeline pipeline = new IngestionPipeline(PROPERTIES, resource -> {
+			throw new IllegalStateException("unreadable");
+		}, TokenTextSplitter::new, new ChunkMetadataEnricher(), embeddingModel, vectorStore);
+
+		assertThatThrownBy(() -> pipeline.run(Map.of("broken.md", new ByteArrayResource(new byte[1])), id -> false))
+				.hasRootCauseMessage("unreadable");
+	}
+}
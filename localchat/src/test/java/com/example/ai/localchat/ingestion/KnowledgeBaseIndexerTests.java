@@ -0,0 +1,139 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KnowledgeBaseIndexerTests {
+
+	private static final IngestionProperties PROPERTIES = new IngestionProperties(1, 1, 1, 1, 4, 500, 8,
+			Duration.ofMinutes(1));
+
+	@TempDir
+	Path tempDir;
+
+	private final List<Integer> storeSizesWhileEmbedding = new CopyOnWriteArrayList<>();
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(64) {
+		@Override
+		public EmbeddingResponse call(EmbeddingRequest request) {
+			storeSizesWhileEmbedding.add(vectorStore.size());
+			return super.call(request);
+		}
+	};
+
+	private final HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+
+	private static List<Document> read(Resource resource) {
+		try {
+			return List.of(new Document(resource.getContentAsString(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private KnowledgeBaseIndexer indexer(Path docs) {
+		IngestionPipeline pipeline = new IngestionPipeline(PROPERTIES, KnowledgeBaseIndexerTests::read,
+				() -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(),
+				embeddingModel, vectorStore);
+		return new KnowledgeBaseIndexer(docs.toUri() + "*.md", new PathMatchingResourcePatternResolver(), pipeline,
+				vectorStore, tempDir.resolve("vectorstore.bin"), tempDir.resolve("vectorstore.manifest.json"));
+	}
+
+	@Test
+	void onlyChangedFilesAreReembedded() throws IOException {
+		Path docs = Files.createDirectories(tempDir.resolve("docs"));
+		Files.writeString(docs.resolve("a.md"), "Alpha explains the HNSW graph layout. ".repeat(30));
+		Files.writeString(docs.resolve("b.md"), "Bravo covers the ingestion pipeline stages. ".repeat(30));
+		Files.writeString(docs.resolve("c.md"), "Charlie documents the chat controller. ".repeat(30));
+
+		KnowledgeBaseIndexer.SyncResult initial = indexer(docs).synchronize();
+		assertThat(initial.added()).containsExactlyInAnyOrder("a.md", "b.md", "c.md");
+		int initialSize = vectorStore.size();
+
+		// a fresh indexer reads the manifest written by the first one
+		KnowledgeBaseIndexer indexer = indexer(docs);
+		assertThat(indexer.synchronize().ingestion()).isNull();
+
+		Files.writeString(docs.resolve("b.md"), "Bravo covers the ingestion pipeline stages. ".repeat(30)
+				+ "A new closing paragraph about embedding batches.");
+		Files.delete(docs.resolve("c.md"));
+		int embeddedBefore = embeddingModel.embeddedTexts();
+
+		KnowledgeBaseIndexer.SyncResult sync = indexer.synchronize();
+
+		assertThat(sync.changed()).containsExactly("b.md");
+		assertThat(sync.removed()).containsExactly("c.md");
+		assertThat(sync.unchanged()).isEqualTo(1);
+		assertThat(sync.ingestion().chunksReused()).isPositive();
+		assertThat(embeddingModel.embeddedTexts() - embeddedBefore)
+				.isEqualTo((int) sync.ingestion().chunksEmbedded())
+				.isLessThan((int) sync.ingestion().chunksSplit());
+		assertThat(vectorStore.size()).isLessThan(initialSize);
+		assertThat(Files.exists(tempDir.resolve("vectorstore.bin"))).isTrue();
+	}
+
+	@Test
+	void syncChangesReachTheStoreInOneStep() throws IOException {
+		Path docs = Files.createDirectories(tempDir.resolve("docs"));
+		Files.writeString(docs.resolve("a.md"), "Alpha explains the HNSW graph layout. ".repeat(30));
+		Files.writeString(docs.resolve("b.md"), "Bravo covers the ingestion pipeline stages. ".repeat(30));
+		KnowledgeBaseIndexer indexer = indexer(docs);
+		indexer.synchronize();
+		int initialSize = vectorStore.size();
+
+		Files.writeString(docs.resolve("b.md"), "Bravo now covers the embedding batches instead. ".repeat(30));
+		Files.writeString(docs.resolve("d.md"), "Delta describes the semantic answer cache. ".repeat(30));
+		storeSizesWhileEmbedding.clear();
+		KnowledgeBaseIndexer.SyncResult sync = indexer.synchronize();
+
+		// several embedding batches, none of which saw an earlier one in the store
+		assertThat(sync.ingestion().embedBatches()).isGreaterThan(1);
+		assertThat(storeSizesWhileEmbedding).hasSizeGreaterThan(1).containsOnly(initialSize);
+		assertThat(vectorStore.size()).isEqualTo(initialSize - sync.deletedChunks().size()
+				+ (int) sync.ingestion().chunksWritten());
+	}
+
+	@Test
+	void failedRebuildLeavesTheStoreAsItWas() throws IOException {
+		Path docs = Files.createDirectories(tempDir.resolve("docs"));
+		Files.writeString(docs.resolve("a.md"), "Alpha explains the HNSW graph layout. ".repeat(30));
+		KnowledgeBaseIndexer indexer = indexer(docs);
+		indexer.synchronize();
+		int initialSize = vectorStore.size();
+
+		Files.write(docs.resolve("broken.md"), new byte[] { (byte) 0xC3, (byte) 0x28 });
+		KnowledgeBaseIndexer failing = new KnowledgeBaseIndexer(docs.toUri() + "*.md",
+				new PathMatchingResourcePatternResolver(),
+				new IngestionPipeline(PROPERTIES, resource -> {
+					if (resource.getFilename().equals("broken.md")) {
+						throw new IllegalStateException("unreadable");
+					}
+					return read(resource);
+				}, () -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(),
+						embeddingModel, vectorStore),
+				vectorStore, tempDir.resolve("vectorstore.bin"), tempDir.resolve("vectorstore.manifest.json"));
+
+		assertThatThrownBy(failing::rebuild).hasMessageContaining("Ingestion failed");
+		assertThat(vectorStore.size()).isEqualTo(initialSize);
+	}
+}
@@ -0,0 +1,153 @@
+package com.example.ai.localchat.ingestion;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KnowledgeBaseLoaderTests {
+
+	private static final IngestionProperties PROPERTIES = new IngestionProperties(1, 1, 1, 1, 4, 500, 8,
+			Duration.ofMinutes(1));
+
+	@TempDir
+	Path tempDir;
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(64);
+
+	private final List<Object> events = new CopyOnWriteArrayList<>();
+
+	private static List<Document> read(Resource resource) {
+		try {
+			return List.of(new Document(resource.getContentAsString(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// the reader waits for the latch, so the test can look at the loader while it is synchronizing
+	private static Function<Resource, List<Document>> blockedReader(CountDownLatch latch) {
+		return resource -> {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return read(resource);
+		};
+	}
+
+	private KnowledgeBaseLoader loader(HnswVectorStore vectorStore, Path docs,
+									   Function<Resource, List<Document>> reader) {
+		IngestionPipeline pipeline = new IngestionPipeline(PROPERTIES, reader,
+				() -> TokenTextSplitter.builder().withChunkSize(50).build(), new ChunkMetadataEnricher(),
+				embeddingModel, vectorStore);
+		Path storeFile = tempDir.resolve("vectorstore.bin");
+		KnowledgeBaseIndexer indexer = new KnowledgeBaseIndexer(docs.toUri() + "*.md",
+				new PathMatchingResourcePatternResolver(), pipeline, vectorStore, storeFile,
+				tempDir.resolve("vectorstore.manifest.json"));
+		return new KnowledgeBaseLoader(vectorStore, indexer, storeFile, () -> {
+		}, events::add);
+	}
+
+	private Path docs() throws IOException {
+		Path docs = Files.createDirectories(tempDir.resolve("docs"));
+		Files.writeString(docs.resolve("a.md"), "Alpha explains the HNSW graph layout. ".repeat(30));
+		Files.writeString(docs.resolve("b.md"), "Bravo covers the ingestion pipeline stages. ".repeat(30));
+		return docs;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition within 10s").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void coldStartReturnsAtOnceAndServesOnlyTheFinishedIndex() throws Exception {
+		Path docs = docs();
+		CountDownLatch latch = new CountDownLatch(1);
+		HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+		KnowledgeBaseLoader loader = loader(vectorStore, docs, blockedReader(latch));
+
+		loader.start();
+		await(() -> loader.status().state() == KnowledgeBaseLoader.State.SYNCHRONIZING);
+		assertThat(loader.isServing()).isFalse();
+		assertThatThrownBy(loader::requireServing).isInstanceOf(KnowledgeBaseUnavailableException.class);
+
+		latch.countDown();
+		await(() -> loader.status().state() == KnowledgeBaseLoader.State.READY);
+		KnowledgeBaseLoader.KnowledgeBaseStatus status = loader.status();
+		assertThat(status.serving()).isTrue();
+		assertThat(status.documents()).isPositive().isEqualTo(vectorStore.size());
+		assertThat(status.ingestion().documentsRead()).isEqualTo(2);
+		assertThat(Files.exists(tempDir.resolve("vectorstore.bin"))).isTrue();
+		loader.requireServing();
+	}
+
+	@Test
+	void warmStartServesTheSnapshotWhileItIsSynchronized() throws Exception {
+		Path docs = docs();
+		KnowledgeBaseLoader first = loader(HnswVectorStore.builder(embeddingModel).build(), docs,
+				KnowledgeBaseLoaderTests::read);
+		first.start();
+		await(() -> first.status().state() == KnowledgeBaseLoader.State.READY);
+		int snapshotSize = first.status().documents();
+
+		Files.writeString(docs.resolve("c.md"), "Charlie documents the chat controller. ".repeat(30));
+		CountDownLatch latch = new CountDownLatch(1);
+		HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+		KnowledgeBaseLoader loader = loader(vectorStore, docs, blockedReader(latch));
+
+		loader.start();
+		await(() -> loader.status().state() == KnowledgeBaseLoader.State.SYNCHRONIZING);
+		assertThat(loader.isServing()).isTrue();
+		assertThat(vectorStore.size()).isEqualTo(snapshotSize);
+
+		latch.countDown();
+		await(() -> loader.status().state() == KnowledgeBaseLoader.State.READY);
+		assertThat(vectorStore.size()).isGreaterThan(snapshotSize);
+		assertThat(loader.status().ingestion().documentsRead()).isEqualTo(1);
+	}
+
+	@Test
+	void failureWithoutSnapshotBreaksLiveness() throws Exception {
+		Path docs = docs();
+		KnowledgeBaseLoader loader = loader(HnswVectorStore.builder(embeddingModel).build(), docs, resource -> {
+			throw new IllegalStateException("unreadable");
+		});
+
+		loader.start();
+		await(() -> loader.status().state() == KnowledgeBaseLoader.State.FAILED);
+		assertThat(loader.status().error()).contains("Ingestion failed");
+		assertThatThrownBy(loader::requireServing).isInstanceOf(KnowledgeBaseUnavailableException.class)
+				.hasMessageContaining("failed to load");
+		assertThat(events).singleElement()
+				.satisfies(event -> assertThat(((AvailabilityChangeEvent<?>) event).getState())
+						.isEqualTo(LivenessState.BROKEN));
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.ai.localchat.lexical;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTests {
+
+	@TempDir
+	Path tempDir;
+
+	private static Bm25Index index() {
+		Bm25Index index = new Bm25Index();
+		index.add(0, "HybridRetrievalService fuses dense and keyword results");
+		index.add(1, "Set spring.ai.ollama.base-url to reach a remote Ollama server");
+		index.add(2, "The request failed with ERR_CONN_REFUSED while calling the embedding model");
+		index.add(3, "Chat memory keeps the last messages of every conversation");
+		return index;
+	}
+
+	@Test
+	void tokenizerKeepsIdentifiersAndTheirParts() {
+		assertThat(CodeAwareTokenizer.tokenize("HybridRetrievalService"))
+				.containsExactly("hybridretrievalservice", "hybrid", "retrieval", "service");
+		assertThat(CodeAwareTokenizer.tokenize("spring.ai.ollama.base-url"))
+				.containsExactly("spring.ai.ollama.base-url", "spring", "ai", "ollama", "base", "url");
+		assertThat(CodeAwareTokenizer.tokenize("What is ERR_CONN_REFUSED?"))
+				.containsExactly("err_conn_refused", "err", "conn", "refused");
+		assertThat(CodeAwareTokenizer.tokenize("parseHTTPResponse v2"))
+				.containsExactly("parsehttpresponse", "parse", "http", "response", "v2", "v", "2");
+	}
+
+	@Test
+	void exactIdentifiersRankTheirChunkFirst() {
+		Bm25Index index = index();
+
+		assertThat(index.search("err_conn_refused", 3, null)).extracting(Bm25Index.Hit::ordinal).first().isEqualTo(2);
+		assertThat(index.search("ollama base-url", 3, null)).extracting(Bm25Index.Hit::ordinal).first().isEqualTo(1);
+		assertThat(index.search("retrieval service", 3, null)).extracting(Bm25Index.Hit::ordinal).containsExactly(0);
+		assertThat(index.search("retrieval service", 3, ordinal -> ordinal != 0)).isEmpty();
+	}
+
+	@Test
+	void removedChunksDisappearAndSurviveARoundTrip() throws IOException {
+		Bm25Index index = index();
+		index.remove(2, "The request failed with ERR_CONN_REFUSED while calling the embedding model");
+		index.add(4, "ERR_CONN_REFUSED means Ollama is not running");
+		Path file = tempDir.resolve("store.bin.bm25");
+		index.write(file);
+
+		Bm25Index read = Bm25Index.read(file);
+
+		assertThat(read.docCount()).isEqualTo(5);
+		assertThat(read.liveCount()).isEqualTo(4);
+		assertThat(read.contains(2)).isFalse();
+		assertThat(read.termCount()).isEqualTo(index.termCount());
+		assertThat(read.search("err_conn_refused", 3, null)).extracting(Bm25Index.Hit::ordinal).containsExactly(4);
+		assertThat(read.search("chat memory", 3, null))
+				.usingRecursiveFieldByFieldElementComparator()
+				.isEqualTo(index.search("chat memory", 3, null));
+	}
+}
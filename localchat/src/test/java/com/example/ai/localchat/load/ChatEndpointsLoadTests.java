@@ -0,0 +1,196 @@
+package com.example.ai.localchat.load;
+
+import com.example.ai.localchat.ingestion.KnowledgeBaseLoader;
+import com.example.ai.localchat.support.FakeOllamaServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the chat endpoints at fixed concurrency levels against a {@link FakeOllamaServer}, so the
+ * numbers depend on the application rather than on a model, and the suite runs without network.
+ * Excluded from {@code test}; run with {@code ./gradlew loadTest}, which prints a table and writes
+ * {@code build/results/load/results.json}. Settings are {@code -Pload.<name>=<value>}:
+ * <ul>
+ * <li>{@code concurrency} levels, default {@code 1,4,16}; {@code requests} per level, default 50,
+ * after {@code warmup} requests, default 10</li>
+ * <li>{@code endpoints}, default all of {@code chat, chat-stream, domain-chat, auto-rag, auto-rag-stream}</li>
+ * <li>the fake model's {@code first-token-ms} (default 50), {@code token-interval-ms} (default 5),
+ * {@code response-tokens} (default 64) and {@code error-rate} (default 0)</li>
+ * <li>{@code baseline}, the results.json of an earlier run to compare against; copy it aside first,
+ * as each run overwrites it</li>
+ * </ul>
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ChatEndpointsLoadTests {
+
+	private static final FakeOllamaServer OLLAMA = startOllama();
+
+	private static final Path WORK_DIRECTORY = corpus();
+
+	private static final List<String> QUESTIONS = List.of(
+			"How does hybrid retrieval merge BM25 and vector results?",
+			"What does the HNSW efSearch setting trade off?",
+			"How are changed knowledge files re-embedded?",
+			"Why are embeddings cached on disk?",
+			"How does the model gateway shed load?",
+			"What is packed into the context budget?",
+			"How is chat memory evicted to the journal?",
+			"Which metadata filters use the bitmap index?");
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	KnowledgeBaseLoader knowledgeBaseLoader;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("spring.ai.ollama.base-url", OLLAMA::baseUrl);
+		registry.add("localchat.vectorstore.directory", () -> WORK_DIRECTORY.resolve("data").toString());
+		registry.add("localchat.knowledge.location", () -> WORK_DIRECTORY.resolve("docs").toUri() + "*.md");
+		// every request runs the whole pipeline, and nothing outlives the run
+		registry.add("localchat.semantic-cache.enabled", () -> "false");
+		registry.add("localchat.embedding-cache.disk-enabled", () -> "false");
+		registry.add("localchat.chat-memory.disk-enabled", () -> "false");
+	}
+
+	@AfterAll
+	static void stopOllama() {
+		OLLAMA.close();
+	}
+
+	@Test
+	void chatEndpoints() throws Exception {
+		awaitKnowledgeBase();
+		int warmup = Integer.getInteger("load.warmup", 10);
+		int requests = Integer.getInteger("load.requests", 50);
+		int[] levels = Arrays.stream(System.getProperty("load.concurrency", "1,4,16").split(","))
+				.mapToInt(level -> Integer.parseInt(level.trim()))
+				.toArray();
+		Set<String> endpoints = Arrays.stream(System.getProperty("load.endpoints",
+						"chat,chat-stream,domain-chat,auto-rag,auto-rag-stream").split(","))
+				.map(String::trim)
+				.collect(Collectors.toSet());
+
+		LoadGenerator generator = new LoadGenerator();
+		List<LoadGenerator.Result> results = new ArrayList<>();
+		for (LoadGenerator.Scenario scenario : scenarios()) {
+			if (!endpoints.contains(scenario.name())) {
+				continue;
+			}
+			for (int concurrency : levels) {
+				results.add(generator.run(scenario, concurrency, warmup, requests));
+			}
+		}
+
+		String baseline = System.getProperty("load.baseline");
+		Map<String, LoadGenerator.Result> before = baseline == null || baseline.isBlank() ? Map.of()
+				: LoadReport.read(Path.of(baseline));
+		System.out.println(LoadReport.table(results, before));
+		LoadReport.write(Path.of(System.getProperty("load.results", "build/results/load/results.json")), results);
+
+		assertThat(results).isNotEmpty().allSatisfy(result -> assertThat(result.requests()).isEqualTo(requests));
+		assertThat(OLLAMA.chatRequests()).isPositive();
+	}
+
+	private List<LoadGenerator.Scenario> scenarios() {
+		return List.of(
+				new LoadGenerator.Scenario("chat", n -> get("/api/v1/chat/load-" + n + "?message=" + question(n)),
+						false),
+				new LoadGenerator.Scenario("chat-stream",
+						n -> get("/api/v1/chat/load-" + n + "/stream?message=" + question(n)), true),
+				new LoadGenerator.Scenario("domain-chat", n -> post("/api/v1/domain/chat/load-" + n, n), false),
+				new LoadGenerator.Scenario("auto-rag", n -> post("/api/v1/auto-rag/chat/load-" + n, n), false),
+				new LoadGenerator.Scenario("auto-rag-stream", n -> post("/api/v1/auto-rag/chat/load-" + n + "/stream", n),
+						true));
+	}
+
+	private HttpRequest get(String path) {
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET().build();
+	}
+
+	private HttpRequest post(String path, int n) {
+		String body = "{\"message\":\"" + QUESTIONS.get(n % QUESTIONS.size()) + " (" + n + ")\"}";
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+	}
+
+	// the request number keeps questions distinct, so no cache answers them
+	private static String question(int n) {
+		return URLEncoder.encode(QUESTIONS.get(n % QUESTIONS.size()) + " (" + n + ")", StandardCharsets.UTF_8);
+	}
+
+	private void awaitKnowledgeBase() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+		while (knowledgeBaseLoader.status().state() != KnowledgeBaseLoader.State.READY) {
+			assertThat(knowledgeBaseLoader.status().state()).isNotEqualTo(KnowledgeBaseLoader.State.FAILED);
+			assertThat(System.nanoTime()).as("knowledge base ready within 2 minutes").isLessThan(deadline);
+			Thread.sleep(100);
+		}
+	}
+
+	private static FakeOllamaServer startOllama() {
+		try {
+			return new FakeOllamaServer(256)
+					.firstTokenLatency(Duration.ofMillis(Long.getLong("load.first-token-ms", 50)))
+					.tokenInterval(Duration.ofMillis(Long.getLong("load.token-interval-ms", 5)))
+					.responseTokens(Integer.getInteger("load.response-tokens", 64))
+					.errorRate(Double.parseDouble(System.getProperty("load.error-rate", "0")));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// a fixed corpus of technical notes, indexed once when the context starts
+	private static Path corpus() {
+		String[] topics = {"hybrid retrieval", "HNSW graph", "ingestion pipeline", "embedding cache",
+				"model gateway", "context assembly", "chat memory", "metadata index"};
+		try {
+			Path directory = Files.createTempDirectory("localchat-load");
+			Path docs = Files.createDirectories(directory.resolve("docs"));
+			for (int i = 0; i < 40; i++) {
+				String topic = topics[i % topics.length];
+				StringBuilder text = new StringBuilder("# " + topic + " notes " + i + "\n\n");
+				for (int section = 0; section < 6; section++) {
+					text.append("## Section ").append(section).append("\n\n")
+							.append(("The " + topic + " component handles case " + (i * 6 + section)
+									+ " by checking its settings, its counters and the request deadline. ").repeat(8))
+							.append("\n\n```java\nvar result = ").append(topic.replace(' ', '_'))
+							.append(".run(").append(section).append(");\n```\n\n");
+				}
+				Files.writeString(docs.resolve("notes-" + i + ".md"), text);
+			}
+			return directory;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
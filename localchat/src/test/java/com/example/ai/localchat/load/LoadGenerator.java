@@ -0,0 +1,136 @@
+package com.example.ai.localchat.load;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Closed-loop load: {@code concurrency} clients each send their next request as soon as the previous
+ * one has completed, until the scenario's request count is reached. Latency is measured from sending
+ * to the end of the response; for streaming endpoints time to first token is measured to the first
+ * server-sent {@code token} event. A non-2xx status, or an {@code error} event, counts as an error.
+ * <p>
+ * The allocation rate is summed over the threads alive at the end of the run, i.e. the application's
+ * and the fake model's; the client threads end with the run and are left out. What the fake model
+ * allocates is the same from run to run, so it cancels out when runs are compared.
+ */
+class LoadGenerator {
+
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	/**
+	 * @param request builds the n-th request of the run
+	 * @param streaming whether the endpoint answers with server-sent token events
+	 */
+	record Scenario(String name, IntFunction<HttpRequest> request, boolean streaming) {
+	}
+
+	/**
+	 * Latencies in milliseconds; time to first token is NaN for endpoints that don't stream.
+	 */
+	record Result(String scenario, int concurrency, int requests, int errors, double seconds, double throughput,
+				  double p50, double p95, double p99, double ttftP50, double ttftP95, double ttftP99,
+				  double allocatedMbPerSecond, double allocatedKbPerRequest) {
+	}
+
+	Result run(Scenario scenario, int concurrency, int warmupRequests, int requests) throws Exception {
+		drive(scenario, concurrency, warmupRequests, 0);
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		List<Sample> samples = drive(scenario, concurrency, requests, warmupRequests);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		long[] latencies = samples.stream().mapToLong(Sample::latencyNanos).sorted().toArray();
+		long[] ttfts = samples.stream().mapToLong(Sample::ttftNanos).filter(nanos -> nanos >= 0).sorted().toArray();
+		int errors = (int) samples.stream().filter(Sample::error).count();
+		return new Result(scenario.name(), concurrency, samples.size(), errors, seconds, samples.size() / seconds,
+				percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+				percentile(ttfts, 0.50), percentile(ttfts, 0.95), percentile(ttfts, 0.99),
+				allocated / seconds / (1 << 20), allocated / 1024.0 / Math.max(1, samples.size()));
+	}
+
+	private List<Sample> drive(Scenario scenario, int concurrency, int requests, int firstRequest) throws Exception {
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		try {
+			List<Future<List<Sample>>> futures = new ArrayList<>();
+			for (int i = 0; i < concurrency; i++) {
+				futures.add(clients.submit(() -> {
+					List<Sample> samples = new ArrayList<>();
+					int n;
+					while ((n = next.getAndIncrement()) < requests) {
+						samples.add(send(scenario, scenario.request().apply(firstRequest + n)));
+					}
+					return samples;
+				}));
+			}
+			List<Sample> samples = new ArrayList<>(requests);
+			for (Future<List<Sample>> future : futures) {
+				samples.addAll(future.get());
+			}
+			return samples;
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private Sample send(Scenario scenario, HttpRequest request) throws InterruptedException {
+		long start = System.nanoTime();
+		try {
+			if (!scenario.streaming()) {
+				HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+				return new Sample(System.nanoTime() - start, -1, !isSuccess(response.statusCode()));
+			}
+			HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+			long ttft = -1;
+			boolean error = !isSuccess(response.statusCode());
+			try (Stream<String> lines = response.body()) {
+				for (String line : (Iterable<String>) lines::iterator) {
+					if (ttft < 0 && line.startsWith("event:token")) {
+						ttft = System.nanoTime() - start;
+					} else if (line.startsWith("event:error")) {
+						error = true;
+					}
+				}
+			}
+			return new Sample(System.nanoTime() - start, error ? -1 : ttft, error);
+		} catch (IOException e) {
+			return new Sample(System.nanoTime() - start, -1, true);
+		}
+	}
+
+	private static boolean isSuccess(int status) {
+		return status >= 200 && status < 300;
+	}
+
+	// nearest rank, in milliseconds
+	private static double percentile(long[] sortedNanos, double quantile) {
+		if (sortedNanos.length == 0) {
+			return Double.NaN;
+		}
+		int rank = (int) Math.ceil(quantile * sortedNanos.length);
+		return sortedNanos[Math.max(0, rank - 1)] / 1e6;
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+				.filter(bytes -> bytes > 0)
+				.sum();
+	}
+
+	private record Sample(long latencyNanos, long ttftNanos, boolean error) {
+	}
+}
@@ -0,0 +1,72 @@
+package com.example.ai.localchat.load;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prints load results as a table, with each figure's change against a baseline run when there is
+ * one, and reads and writes them as JSON so a run can serve as the baseline of the next.
+ */
+class LoadReport {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper()
+			.enable(SerializationFeature.INDENT_OUTPUT);
+
+	static void write(Path file, List<LoadGenerator.Result> results) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		objectMapper.writeValue(file.toFile(), results);
+	}
+
+	static Map<String, LoadGenerator.Result> read(Path file) throws IOException {
+		Map<String, LoadGenerator.Result> results = new LinkedHashMap<>();
+		for (LoadGenerator.Result result : objectMapper.readValue(file.toFile(),
+				new TypeReference<List<LoadGenerator.Result>>() {
+				})) {
+			results.put(key(result), result);
+		}
+		return results;
+	}
+
+	static String table(List<LoadGenerator.Result> results, Map<String, LoadGenerator.Result> baseline) {
+		StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+				"%-16s %5s %6s %6s %14s %16s %16s %16s %16s %16s %14s%n", "endpoint", "conc", "reqs", "errors",
+				"req/s", "p50 ms", "p95 ms", "p99 ms", "ttft p50 ms", "ttft p95 ms", "alloc KB/req"));
+		for (LoadGenerator.Result result : results) {
+			LoadGenerator.Result before = baseline.get(key(result));
+			table.append(String.format(Locale.ROOT, "%-16s %5d %6d %6d %14s %16s %16s %16s %16s %16s %14s%n",
+					result.scenario(), result.concurrency(), result.requests(), result.errors(),
+					figure(result.throughput(), before == null ? Double.NaN : before.throughput()),
+					figure(result.p50(), before == null ? Double.NaN : before.p50()),
+					figure(result.p95(), before == null ? Double.NaN : before.p95()),
+					figure(result.p99(), before == null ? Double.NaN : before.p99()),
+					figure(result.ttftP50(), before == null ? Double.NaN : before.ttftP50()),
+					figure(result.ttftP95(), before == null ? Double.NaN : before.ttftP95()),
+					figure(result.allocatedKbPerRequest(), before == null ? Double.NaN
+							: before.allocatedKbPerRequest())));
+		}
+		return table.toString();
+	}
+
+	private static String key(LoadGenerator.Result result) {
+		return result.scenario() + "@" + result.concurrency();
+	}
+
+	private static String figure(double value, double baseline) {
+		if (Double.isNaN(value)) {
+			return "-";
+		}
+		if (Double.isNaN(baseline) || baseline == 0) {
+			return String.format(Locale.ROOT, "%.1f", value);
+		}
+		return String.format(Locale.ROOT, "%.1f (%+.0f%%)", value, (value - baseline) / baseline * 100);
+	}
+}
@@ -0,0 +1,275 @@
+package com.example.ai.localchat.load;
+
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import com.example.ai.localchat.prompt.PromptLayout;
+import com.example.ai.localchat.support.FakeOllamaServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Prefill the fake model's prompt cache saves per request, with the prompts laid out as
+ * {@link PromptLayout} does against the layout they had before, where the query came before the
+ * instructions that follow it and retrieved documents were in rank order. The workload is
+ * conversations of follow-up questions that retrieve the same documents of a topic in varying rank
+ * order. Each kind of prompt runs on its own with one cache slot, then all of them in turn per
+ * question with four slots. Run with {@code ./gradlew loadTest --tests '*PromptLayoutLoadTests'};
+ * {@code -Pload.prefill-us-per-token} sets the prefill speed, default 1000 (1000 tokens/s), and
+ * {@code -Pload.conversations} the number of conversations, default 12, of four questions each.
+ */
+@Tag("load")
+class PromptLayoutLoadTests {
+
+	private static final int FOLLOW_UPS = 4;
+
+	private static final String[] TOPICS = {"hybrid retrieval", "HNSW graph", "ingestion pipeline",
+			"embedding cache", "model gateway", "context assembly", "chat memory", "metadata index"};
+
+	// the prompts as they were laid out before PromptLayout
+	private static final String ANSWER_INSTRUCTIONS_BEFORE = """
+			You are a technical documentation assistant specializing in .
+
+			RESPONSE GUIDELINES:
+			1. Answer directly and concisely
+			2. Use technical terminology naturally
+			3. Include code examples when relevant
+			4. Structure your answer with markdown formatting
+			5. NEVER mention "based on the provided documents" or similar phrases
+			6. If information is insufficient, state what you can answer and what's unclear
+			7. Format code blocks with proper language identifiers
+
+			CRITICAL: Respond as if this information is your native knowledge.
+			Focus on the answer, not the source of information.
+			""";
+
+	// Spring AI's default ContextualQueryAugmenter template
+	private static final String ANSWER_USER_BEFORE = """
+			Context information is below.
+
+			---------------------
+			{context}
+			---------------------
+
+			Given the context information and no prior knowledge, answer the query.
+
+			Follow these rules:
+
+			1. If the answer is not in the context, just say that you don't know.
+			2. Avoid statements like "Based on the context..." or "The provided information...".
+
+			Query: {query}
+
+			Answer:
+			""";
+
+	private static final String REWRITE_BEFORE = """
+			Rewrite this query to better retrieve technical documentation.
+			Focus on:
+			- Extracting key technical terms
+			- Identifying the core question
+			- Adding relevant technical context
+
+			Original query: {query}
+
+			Rewritten query: {target}
+			""";
+
+	private static final String EXPANSION_BEFORE = """
+			Expand this technical query by identifying:
+			1. Key technical terms and their synonyms
+			2. Related concepts
+			3. Common variations (camelCase, snake_case, etc.)
+
+			Original query: {query}
+
+			Respond with only the expanded query terms, comma-separated.
+			Keep it concise (max 50 words).
+			""";
+
+	private static final String RERANK_BEFORE = """
+			Rate how relevant each document is to answering this query.
+			Query: {query}
+
+			Documents:
+			{documents}
+
+			Return only a comma-separated list of document indices (0-based)
+			in order of relevance (most relevant first).
+			Example: 2,0,4,1,3
+			""";
+
+	private final Duration prefillPerToken = Duration.ofNanos(
+			Long.getLong("load.prefill-us-per-token", 1000) * 1000);
+
+	private final int conversations = Integer.getInteger("load.conversations", 12);
+
+	@Test
+	void prefillSavedPerRequest() throws Exception {
+		List<PromptKind> kinds = List.of(
+				new PromptKind("rewrite",
+						(question, documents) -> new Prompt(new UserMessage(new PromptTemplate(REWRITE_BEFORE)
+								.render(Map.of("query", question, "target", "vector store")))),
+						(question, documents) -> new Prompt(new UserMessage(new PromptTemplate(
+								PromptLayout.REWRITE_TEMPLATE).render(Map.of("query", question, "target", "vector store"))))),
+				new PromptKind("expansion",
+						(question, documents) -> new Prompt(new UserMessage(new PromptTemplate(EXPANSION_BEFORE)
+								.render(Map.of("query", question)))),
+						(question, documents) -> PromptLayout.prompt(PromptLayout.EXPANSION_INSTRUCTIONS, "", question)),
+				new PromptKind("rerank",
+						(question, documents) -> new Prompt(new UserMessage(new PromptTemplate(RERANK_BEFORE)
+								.render(Map.of("query", question, "documents", numbered(documents))))),
+						(question, documents) -> PromptLayout.prompt(PromptLayout.RERANK_INSTRUCTIONS,
+								numbered(documents).strip(), "Query: " + question)),
+				new PromptKind("answer",
+						(question, documents) -> new Prompt(List.of(new SystemMessage(ANSWER_INSTRUCTIONS_BEFORE),
+								new UserMessage(new PromptTemplate(ANSWER_USER_BEFORE).render(Map.of("query", question,
+										"context", documents.stream().map(Document::getText)
+												.collect(Collectors.joining(System.lineSeparator()))))))),
+						(question, documents) -> PromptLayout.prompt(PromptLayout.ANSWER_INSTRUCTIONS,
+								PromptLayout.context(documents), PromptLayout.question(question))));
+
+		List<Run> runs = new ArrayList<>();
+		for (PromptKind kind : kinds) {
+			runs.add(run(kind.name(), List.of(kind), 1));
+		}
+		runs.add(run("all in turn", kinds, 4));
+		System.out.println(table(runs));
+
+		assertThat(runs).allSatisfy(run -> {
+			assertThat(run.after().prefilledTokens()).isLessThan(run.before().prefilledTokens());
+			assertThat(run.after().modelLoads()).isEqualTo(1);
+		});
+	}
+
+	private Run run(String name, List<PromptKind> kinds, int slots) throws Exception {
+		return new Run(name, slots, measure(kinds, slots, PromptKind::before),
+				measure(kinds, slots, PromptKind::after));
+	}
+
+	private Measurement measure(List<PromptKind> kinds, int slots,
+								Function<PromptKind, BiFunction<String, List<Document>, Prompt>> layout)
+			throws Exception {
+		try (FakeOllamaServer ollama = new FakeOllamaServer(32).responseTokens(8).slots(slots)
+				.prefillPerToken(prefillPerToken)) {
+			OllamaChatModel chatModel = OllamaChatModel.builder()
+					.ollamaApi(OllamaApi.builder().baseUrl(ollama.baseUrl()).build())
+					.build();
+			int requests = 0;
+			for (int conversation = 0; conversation < conversations; conversation++) {
+				String topic = TOPICS[conversation % TOPICS.length];
+				List<Document> retrieved = documents(topic, conversation);
+				for (int followUp = 0; followUp < FOLLOW_UPS; followUp++) {
+					String question = question(topic, followUp);
+					List<Document> ranked = rotated(retrieved, followUp);
+					for (PromptKind kind : kinds) {
+						chatModel.call(layout.apply(kind).apply(question, ranked));
+						requests++;
+					}
+				}
+			}
+			return new Measurement(requests, ollama.promptTokens(), ollama.prefilledTokens(), ollama.prefillTime(),
+					ollama.modelLoads());
+		}
+	}
+
+	// four chunks of the topic's notes, the same for every follow-up of the conversation
+	private static List<Document> documents(String topic, int conversation) {
+		List<Document> documents = new ArrayList<>();
+		for (int chunk = 0; chunk < 4; chunk++) {
+			documents.add(Document.builder()
+					.id("chunk-" + conversation + "-" + chunk)
+					.text(("The " + topic + " component handles case " + (conversation * 4 + chunk)
+							+ " by checking its settings, its counters and the request deadline. ").repeat(6))
+					.metadata(Map.of(IngestionPipeline.SOURCE_METADATA, "notes-" + conversation + ".md"))
+					.build());
+		}
+		return documents;
+	}
+
+	private static String question(String topic, int followUp) {
+		return switch (followUp) {
+			case 0 -> "How does the " + topic + " component work?";
+			case 1 -> "Which settings does the " + topic + " use?";
+			case 2 -> "What do its counters measure?";
+			default -> "What happens when the request deadline passes?";
+		};
+	}
+
+	// rank order differs between follow-ups retrieving the same documents
+	private static List<Document> rotated(List<Document> documents, int distance) {
+		List<Document> rotated = new ArrayList<>(documents);
+		Collections.rotate(rotated, distance);
+		return rotated;
+	}
+
+	private static String numbered(List<Document> documents) {
+		StringBuilder numbered = new StringBuilder();
+		for (int i = 0; i < documents.size(); i++) {
+			String text = documents.get(i).getText();
+			numbered.append(String.format("[%d] %s\n\n", i, text.substring(0, Math.min(300, text.length()))));
+		}
+		return numbered.toString();
+	}
+
+	private String table(List<Run> runs) {
+		StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+				"%-12s %5s %6s %14s %18s %18s %18s %14s%n", "prompts", "slots", "reqs", "prompt tok/req",
+				"prefilled before", "prefilled after", "prefill ms before", "saved ms/req"));
+		for (Run run : runs) {
+			Measurement before = run.before();
+			Measurement after = run.after();
+			table.append(String.format(Locale.ROOT, "%-12s %5d %6d %14.0f %18.0f %18.0f %18.1f %14.1f%n",
+					run.name(), run.slots(), after.requests(), after.promptTokensPerRequest(),
+					before.prefilledTokensPerRequest(), after.prefilledTokensPerRequest(),
+					before.prefillMillisPerRequest(),
+					before.prefillMillisPerRequest() - after.prefillMillisPerRequest()));
+		}
+		return table.append(String.format(Locale.ROOT, "prefill at %d us per token%n",
+				prefillPerToken.toNanos() / 1000)).toString();
+	}
+
+	/**
+	 * @param before the prompt as it was laid out before, from the question and the ranked documents
+	 * @param after the prompt as {@link PromptLayout} lays it out
+	 */
+	private record PromptKind(String name, BiFunction<String, List<Document>, Prompt> before,
+							  BiFunction<String, List<Document>, Prompt> after) {
+	}
+
+	private record Run(String name, int slots, Measurement before, Measurement after) {
+	}
+
+	private record Measurement(int requests, long promptTokens, long prefilledTokens, Duration prefillTime,
+							   int modelLoads) {
+
+		double promptTokensPerRequest() {
+			return (double) promptTokens / requests;
+		}
+
+		double prefilledTokensPerRequest() {
+			return (double) prefilledTokens / requests;
+		}
+
+		double prefillMillisPerRequest() {
+			return prefillTime.toNanos() / 1e6 / requests;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.ai.localchat.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TieredChatMemoryRepositoryTests {
+
+	@TempDir
+	Path tempDir;
+
+	private TieredChatMemoryRepository repository(Path file) {
+		return new TieredChatMemoryRepository(2, Duration.ofMinutes(30), file, Duration.ZERO);
+	}
+
+	private static List<String> texts(List<Message> messages) {
+		return messages.stream().map(Message::getText).toList();
+	}
+
+	@Test
+	void conversationsSurviveEvictionAndRestart() throws Exception {
+		Path file = tempDir.resolve("chat-memory.log");
+		try (TieredChatMemoryRepository repository = repository(file)) {
+			TokenWindowChatMemory memory = new TokenWindowChatMemory(repository, 10_000, 100);
+			memory.add("a", List.of(new UserMessage("what is hnsw"), new AssistantMessage("a graph index")));
+			memory.add("a", List.of(new UserMessage("and ef search?"), new AssistantMessage("the candidate list")));
+			memory.add("b", new UserMessage("hello"));
+			memory.add("c", new UserMessage("hi"));
+			memory.clear("c");
+		}
+		// a record cut short by a crash is dropped
+		Files.write(file, new byte[] { 0, 0, 0, 9, 1 }, StandardOpenOption.APPEND);
+
+		try (TieredChatMemoryRepository repository = repository(file)) {
+			assertThat(repository.findConversationIds()).containsExactlyInAnyOrder("a", "b");
+			assertThat(texts(repository.findByConversationId("a")))
+					.containsExactly("what is hnsw", "a graph index", "and ef search?", "the candidate list");
+			assertThat(repository.findByConversationId("a").get(1).getMessageType()).isEqualTo(MessageType.ASSISTANT);
+			assertThat(repository.findByConversationId("c")).isEmpty();
+			assertThat(repository.stats().coldLoads()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void withoutAFileEvictedConversationsAreForgotten() {
+		TieredChatMemoryRepository repository = new TieredChatMemoryRepository(1, Duration.ofMinutes(30), null,
+				Duration.ZERO);
+		repository.saveAll("a", List.of(new UserMessage("first")));
+		repository.saveAll("b", List.of(new UserMessage("second")));
+		repository.saveAll("c", List.of(new UserMessage("third")));
+
+		assertThat(repository.findConversationIds().size()).isLessThanOrEqualTo(1);
+		assertThat(repository.stats().hotConversations()).isLessThanOrEqualTo(1);
+	}
+
+	@Test
+	void windowKeepsSystemMessagesAndTheNewestTurnsWithinTheBudget() {
+		TieredChatMemoryRepository repository = repository(null);
+		TokenWindowChatMemory memory = new TokenWindowChatMemory(repository, 40, 8);
+		memory.add("a", new SystemMessage("You are a helpful assistant."));
+		for (int turn = 1; turn <= 6; turn++) {
+			memory.add("a", List.of(new UserMessage("question number " + turn + " about the vector store"),
+					new AssistantMessage("answer number " + turn + " about the vector store")));
+		}
+
+		List<Message> window = memory.get("a");
+
+		assertThat(window.get(0).getMessageType()).isEqualTo(MessageType.SYSTEM);
+		assertThat(window.get(1).getMessageType()).isEqualTo(MessageType.USER);
+		assertThat(window.get(window.size() - 1).getText()).isEqualTo("answer number 6 about the vector store");
+		assertThat(window.size()).isLessThan(1 + 12);
+		// stored history is capped at 8 messages plus the system prompt, trimmed back to 6 at a question
+		List<Message> stored = repository.findByConversationId("a");
+		assertThat(stored.size()).isLessThanOrEqualTo(9);
+		assertThat(stored.get(1).getMessageType()).isEqualTo(MessageType.USER);
+	}
+}
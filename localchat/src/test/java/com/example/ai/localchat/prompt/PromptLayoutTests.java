@@ -0,0 +1,74 @@
+package com.example.ai.localchat.prompt;
+
+import com.example.ai.localchat.ingestion.IngestionPipeline;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptLayoutTests {
+
+	private final Document hnsw = document("b", "notes/hnsw.md", "HNSW links each vector to its neighbours.");
+
+	private final Document hnswLayers = document("a", "notes/hnsw.md", "Upper layers hold fewer vectors.");
+
+	private final Document bm25 = document("c", "notes/bm25.md", "BM25 scores terms by frequency.");
+
+	@Test
+	void contextOnlyDependsOnWhichDocumentsWereRetrieved() {
+		String context = PromptLayout.context(List.of(hnsw, bm25, hnswLayers));
+
+		assertThat(PromptLayout.context(List.of(hnswLayers, hnsw, bm25))).isEqualTo(context);
+		assertThat(context).isEqualTo("""
+				[notes/bm25.md]
+				BM25 scores terms by frequency.
+
+				[notes/hnsw.md]
+				Upper layers hold fewer vectors.
+
+				[notes/hnsw.md]
+				HNSW links each vector to its neighbours.""");
+	}
+
+	@Test
+	void promptsOfDifferentQuestionsShareEverythingButTheQuestion() {
+		Prompt first = PromptLayout.prompt(PromptLayout.ANSWER_INSTRUCTIONS,
+				PromptLayout.context(List.of(hnsw, bm25)), PromptLayout.question("What links vectors?"));
+		Prompt followUp = PromptLayout.prompt(PromptLayout.ANSWER_INSTRUCTIONS,
+				PromptLayout.context(List.of(bm25, hnsw)), PromptLayout.question("And how are they scored?"));
+
+		assertThat(first.getInstructions()).extracting(message -> message.getMessageType())
+				.containsExactly(MessageType.SYSTEM, MessageType.USER);
+		assertThat(followUp.getSystemMessage().getText()).isEqualTo(first.getSystemMessage().getText());
+		String context = PromptLayout.context(List.of(hnsw, bm25)) + "\n\n";
+		assertThat(first.getUserMessage().getText()).isEqualTo(context + "Question: What links vectors?");
+		assertThat(followUp.getUserMessage().getText()).isEqualTo(context + "Question: And how are they scored?");
+	}
+
+	@Test
+	void augmentedQueryHasTheContextBeforeTheQuestion() {
+		Query augmented = PromptLayout.queryAugmenter()
+				.augment(new Query("What links vectors?"), List.of(hnsw, bm25));
+
+		assertThat(augmented.text())
+				.isEqualTo(PromptLayout.context(List.of(bm25, hnsw)) + "\n\nQuestion: What links vectors?");
+	}
+
+	@Test
+	void questionWithoutContextIsTheWholeUserMessage() {
+		Prompt prompt = PromptLayout.prompt(PromptLayout.EXPANSION_INSTRUCTIONS, "", "hnsw efSearch");
+
+		assertThat(prompt.getSystemMessage().getText()).isEqualTo(PromptLayout.EXPANSION_INSTRUCTIONS);
+		assertThat(prompt.getUserMessage().getText()).isEqualTo("hnsw efSearch");
+	}
+
+	private static Document document(String id, String source, String text) {
+		return Document.builder().id(id).text(text).metadata(Map.of(IngestionPipeline.SOURCE_METADATA, source)).build();
+	}
+}
@@ -0,0 +1,121 @@
+package com.example.ai.localchat.readers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AllDocumentTypeReaderTests {
+
+	private final AllDocumentTypeReader reader = new AllDocumentTypeReader(500);
+
+	private static Resource resource(String filename, String content) {
+		return new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public String getFilename() {
+				return filename;
+			}
+		};
+	}
+
+	private List<Document> read(Resource resource) throws Exception {
+		List<Document> sections = new ArrayList<>();
+		reader.read(resource, sections::add);
+		return sections;
+	}
+
+	@Test
+	void htmlIsHandedOverInBoundedSectionsWithAllItsText() throws Exception {
+		StringBuilder html = new StringBuilder("<html><head><title>Guide</title></head><body>");
+		for (int i = 0; i < 40; i++) {
+			html.append("<p>Paragraph ").append(i).append(" describes the vector store in some detail.</p>");
+		}
+		html.append("<p>").append("An overlong paragraph without an end in sight. ".repeat(50)).append("</p>");
+		html.append("</body></html>");
+
+		List<Document> sections = read(resource("guide.html", html.toString()));
+
+		assertThat(sections).hasSizeGreaterThan(3)
+				.allSatisfy(section -> assertThat(section.getText()).hasSizeLessThanOrEqualTo(1000));
+		// long paragraphs are cut at a space
+		String text = String.join(" ", sections.stream().map(Document::getText).toList()).replaceAll("\\s+", " ");
+		assertThat(text).contains("Paragraph 0 describes", "Paragraph 39 describes")
+				.doesNotContain("Guide");
+		assertThat(text.split("An overlong paragraph", -1)).hasSize(51);
+	}
+
+	@Test
+	void markdownIsSplitOnHeadings() throws Exception {
+		List<Document> sections = read(resource("notes.md",
+				"# Retrieval\n\nHybrid search merges BM25 and vectors.\n\n# Ingestion\n\nFiles are read in sections.\n"));
+
+		assertThat(sections).hasSize(2);
+		assertThat(sections.get(0).getText()).contains("Hybrid search merges BM25 and vectors.");
+		assertThat(sections.get(1).getText()).contains("Files are read in sections.");
+	}
+
+	@Test
+	void longMarkdownIsHandedOverInBoundedSectionsWhileItIsRead() throws Exception {
+		StringBuilder markdown = new StringBuilder("# Guide\n\n");
+		for (int i = 0; i < 400; i++) {
+			markdown.append("Paragraph ").append(i).append(" describes the vector store in some detail.\n\n");
+		}
+		markdown.append("```java\n");
+		for (int i = 0; i < 100; i++) {
+			markdown.append("store.add(chunk").append(i).append(");\n");
+		}
+		markdown.append("```\n");
+		byte[] bytes = markdown.toString().getBytes(StandardCharsets.UTF_8);
+		AtomicInteger bytesRead = new AtomicInteger();
+		AtomicInteger readAtFirstSection = new AtomicInteger(-1);
+		Resource resource = new ByteArrayResource(bytes) {
+			@Override
+			public String getFilename() {
+				return "guide.md";
+			}
+
+			@Override
+			public InputStream getInputStream() {
+				return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+					@Override
+					public int read(byte[] buffer, int offset, int length) throws IOException {
+						int read = super.read(buffer, offset, length);
+						bytesRead.addAndGet(Math.max(read, 0));
+						return read;
+					}
+				};
+			}
+		};
+
+		List<Document> sections = new ArrayList<>();
+		reader.read(resource, section -> {
+			readAtFirstSection.compareAndSet(-1, bytesRead.get());
+			sections.add(section);
+		});
+
+		assertThat(readAtFirstSection.get()).isPositive().isLessThan(bytes.length / 2);
+		assertThat(sections).hasSizeGreaterThan(10)
+			.allSatisfy(section -> assertThat(section.getText()).hasSizeLessThanOrEqualTo(1000));
+		List<Document> prose = sections.stream().filter(section -> section.getText().startsWith("Paragraph")).toList();
+		assertThat(prose).allSatisfy(section -> assertThat(section.getMetadata()).containsEntry("title", "Guide"));
+		String text = String.join(" ", prose.stream().map(Document::getText).toList());
+		assertThat(text).contains("Paragraph 0 describes", "Paragraph 399 describes");
+		// the code block is cut into several, each still a code block
+		List<Document> code = sections.stream().filter(section -> "code_block".equals(section.getMetadata().get("category"))).toList();
+		assertThat(code).hasSizeGreaterThan(1);
+		assertThat(String.join("", code.stream().map(Document::getText).toList()))
+			.contains("store.add(chunk0);", "store.add(chunk99);")
+			.doesNotContain("```");
+	}
+}
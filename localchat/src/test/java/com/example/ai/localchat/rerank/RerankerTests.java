@@ -0,0 +1,65 @@
+package com.example.ai.localchat.rerank;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RerankerTests {
+
+	private final FeatureReranker reranker = new FeatureReranker(new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1));
+
+	private static Document chunk(String id, String text, double distance, String technicalTerms, boolean hasCode) {
+		return Document.builder()
+				.id(id)
+				.text(text)
+				.metadata(Map.of(DocumentMetadata.DISTANCE.value(), distance, "technical_terms", technicalTerms,
+						"has_code", hasCode, "complexity_score", 0.5))
+				.build();
+	}
+
+	private final List<Document> candidates = List.of(
+			chunk("overview", "The vector store keeps chunks and answers similarity queries quickly", 0.20, "", false),
+			chunk("hnsw", "HnswVectorStore.save writes the graph; tune efSearch for recall", 0.30,
+					"HnswVectorStore,efSearch", false),
+			chunk("example", "```java\nvectorStore.save(path);\n```\nSaving the vector store", 0.35, "vectorStore", true));
+
+	@Test
+	void exactIdentifierOutranksCloserEmbedding() {
+		assertThat(reranker.rank("how does HnswVectorStore persist", candidates))
+				.extracting(Document::getId).first().isEqualTo("hnsw");
+		assertThat(reranker.rank("vector store similarity", candidates))
+				.extracting(Document::getId).first().isEqualTo("overview");
+	}
+
+	@Test
+	void codeQueriesPreferChunksWithCode() {
+		assertThat(reranker.rank("code example to save the vector store", candidates))
+				.extracting(Document::getId).first().isEqualTo("example");
+	}
+
+	@Test
+	void llmRankingKeepsUnrankedDocumentsAndSurvivesGarbage() {
+		assertThat(LlmReranker.reorder(candidates, "2, 7, x")).extracting(Document::getId)
+				.containsExactly("example", "overview", "hnsw");
+		assertThat(LlmReranker.reorder(candidates, "I think the second one")).isSameAs(candidates);
+	}
+
+	@Test
+	void benchmarkScoresEachRerankerAgainstTheLabels() {
+		RerankEvaluator.RerankReport report = RerankEvaluator.evaluate(
+				List.of(new RerankEvaluator.Case("how does HnswVectorStore persist", Set.of("hnsw"))),
+				query -> candidates, Map.of("feature", reranker), 3);
+
+		assertThat(report.rows()).extracting(RerankEvaluator.RerankReport.Row::reranker)
+				.containsExactly("none", "feature");
+		assertThat(report.rows().get(0).mrr()).isEqualTo(0.5);
+		assertThat(report.rows().get(1).mrr()).isEqualTo(1.0);
+		assertThat(report.rows().get(1).ndcgAtK()).isEqualTo(1.0);
+	}
+}
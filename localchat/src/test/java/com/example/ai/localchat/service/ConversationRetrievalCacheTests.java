@@ -0,0 +1,100 @@
+package com.example.ai.localchat.service;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationRetrievalCacheTests {
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(256);
+
+	private final HnswVectorStore store = HnswVectorStore.builder(embeddingModel).build();
+
+	private final ConversationRetrievalCache cache = new ConversationRetrievalCache(embeddingModel, 100,
+			Duration.ofMinutes(30), 0.8, 0.5, 3, 8);
+
+	private final AtomicInteger fullRetrievals = new AtomicInteger();
+
+	ConversationRetrievalCacheTests() {
+		store.add(List.of(
+				Document.builder().id("pool").text("connection pool sizing limits open connections").build(),
+				Document.builder().id("timeout").text("connection pool timeout settings and pool configuration").build(),
+				Document.builder().id("memory").text("chat memory window keeps conversation history").build(),
+				Document.builder().id("graph").text("hnsw graph links vectors to neighbours").build()));
+	}
+
+	@Test
+	void followUpAboutTheRetrievedDocumentsReusesThem() {
+		RetrievalResult first = cache.retrieve("c1", "hybrid", "how is the connection pool sized", store,
+				retrieval(2));
+		RetrievalResult followUp = cache.retrieve("c1", "hybrid", "and how do I configure the connection pool timeout",
+				store, retrieval(2));
+
+		assertThat(first.documents()).extracting(Document::getId).containsExactly("timeout", "pool");
+		assertThat(followUp.documents()).extracting(Document::getId).containsExactly("timeout", "pool");
+		assertThat(followUp.documents().get(0).getScore()).isGreaterThan(followUp.documents().get(1).getScore());
+		assertThat(followUp.stages()).containsKey("follow_up");
+		assertThat(fullRetrievals).hasValue(1);
+		assertThat(cache.stats().followUps()).isEqualTo(1);
+		assertThat(cache.stats().followUpRate()).isEqualTo(0.5);
+	}
+
+	@Test
+	void followUpIsExtendedWithItsOwnClosestMatches() {
+		cache.retrieve("c1", "hybrid", "connection pool sizing", store, retrieval(1));
+		RetrievalResult followUp = cache.retrieve("c1", "hybrid", "connection pool sizing timeout", store,
+				retrieval(1));
+
+		assertThat(followUp.documents()).extracting(Document::getId).containsExactly("timeout", "pool");
+		assertThat(fullRetrievals).hasValue(1);
+		assertThat(cache.stats().extendedDocuments()).isEqualTo(1);
+	}
+
+	@Test
+	void newTopicOtherScopeOrOtherConversationRetrievesInFull() {
+		cache.retrieve("c1", "hybrid", "how is the connection pool sized", store, retrieval(2));
+
+		RetrievalResult newTopic = cache.retrieve("c1", "hybrid", "what does the hnsw graph link", store,
+				retrieval(2));
+		cache.retrieve("c1", "hybrid:docs", "what does the hnsw graph link to", store, retrieval(2));
+		cache.retrieve("c2", "hybrid", "what does the hnsw graph link to", store, retrieval(2));
+
+		assertThat(newTopic.documents()).extracting(Document::getId).startsWith("graph");
+		assertThat(fullRetrievals).hasValue(4);
+		assertThat(cache.stats().followUps()).isZero();
+	}
+
+	@Test
+	void documentsThatLeftTheStoreAreRetrievedAgain() {
+		cache.retrieve("c1", "hybrid", "how is the connection pool sized", store, retrieval(2));
+		store.delete(List.of("pool"));
+
+		RetrievalResult followUp = cache.retrieve("c1", "hybrid", "and how do I configure the connection pool timeout",
+				store, retrieval(2));
+
+		assertThat(followUp.documents()).extracting(Document::getId).doesNotContain("pool");
+		assertThat(fullRetrievals).hasValue(2);
+		assertThat(cache.stats().staleRetrievals()).isEqualTo(1);
+	}
+
+	private Function<String, RetrievalResult> retrieval(int topK) {
+		return query -> {
+			fullRetrievals.incrementAndGet();
+			return new RetrievalResult(query, store.similaritySearch(SearchRequest.builder()
+					.query(query)
+					.topK(topK)
+					.similarityThreshold(SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL)
+					.build()), Map.of());
+		};
+	}
+}
@@ -0,0 +1,185 @@
+package com.example.ai.localchat.service;
+
+import com.example.ai.localchat.observability.RagObservations;
+import com.example.ai.localchat.prompt.PromptLayout;
+import com.example.ai.localchat.rerank.FeatureReranker;
+import com.example.ai.localchat.rerank.LlmReranker;
+import com.example.ai.localchat.rerank.RerankProperties;
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.example.ai.localchat.vectorstore.HnswVectorStore;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HybridRetrievalServiceTests {
+
+	private static final HybridRetrievalProperties.Threshold FIXED = new HybridRetrievalProperties.Threshold(
+			SimilarityThreshold.Mode.FIXED, 0.1, 1.0, 200, 2000);
+
+	private static Document doc(String id) {
+		return Document.builder().id(id).text(id).build();
+	}
+
+	@Test
+	void reciprocalRankFusionFavoursDocumentsRankedHighInBothLists() {
+		List<Document> fused = HybridRetrievalService.reciprocalRankFusion(
+				List.of(List.of(doc("a"), doc("b"), doc("c")), List.of(doc("b"), doc("c"), doc("d"))), 60);
+
+		assertThat(fused).extracting(Document::getId).containsExactly("b", "c", "a", "d");
+	}
+
+	private static ChatModel chatModel(Duration expansionDelay, AtomicInteger expansions) {
+		return new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				return stream(prompt).blockLast();
+			}
+
+			@Override
+			public Flux<ChatResponse> stream(Prompt prompt) {
+				boolean expansion = PromptLayout.EXPANSION_INSTRUCTIONS.equals(prompt.getSystemMessage().getText());
+				if (expansion) {
+					expansions.incrementAndGet();
+				}
+				Flux<ChatResponse> response = Flux.just(new ChatResponse(
+						List.of(new Generation(new AssistantMessage(expansion ? "pooling, hikari" : "1,0")))));
+				return expansion ? response.delayElements(expansionDelay) : response;
+			}
+		};
+	}
+
+	private static HnswVectorStore vectorStore() {
+		return vectorStore(HnswVectorStore.builder(new HashingEmbeddingModel(64)).build());
+	}
+
+	private static HnswVectorStore vectorStore(HnswVectorStore vectorStore) {
+		vectorStore.add(List.of(
+				Document.builder().id("pool").text("connection pool sizing for the vector store").build(),
+				Document.builder().id("memory").text("chat memory window and conversation history").build(),
+				Document.builder().id("graph").text("vector store graph links and connection pool").build()));
+		return vectorStore;
+	}
+
+	@Test
+	void slowExpansionIsSkippedAndRawResultsAreReranked() {
+		ChatClient chatClient = ChatClient.create(chatModel(Duration.ofSeconds(5), new AtomicInteger()));
+		HybridRetrievalService service = new HybridRetrievalService(vectorStore(), chatClient,
+				new HybridRetrievalProperties(true, HybridRetrievalProperties.ExpansionMode.ALWAYS, Duration.ofMillis(200),
+						Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(3), 60, FIXED),
+				new LlmReranker(chatClient));
+
+		long start = System.nanoTime();
+		List<Document> documents = service.hybridSearch("vector store connection pool");
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+		assertThat(documents).isNotEmpty();
+		assertThat(service.stageStats().get("expansion").skipped()).isEqualTo(1);
+		assertThat(service.stageStats().get("rerank").count()).isEqualTo(1);
+		assertThat(service.stageStats()).doesNotContainKey("expanded_search");
+	}
+
+	@Test
+	void keywordMatchesReplaceExpansionInAutoMode() {
+		HnswVectorStore vectorStore = vectorStore();
+		vectorStore.add(List.of(Document.builder().id("timeout")
+				.text("Set spring.ai.ollama.read-timeout when OllamaChatModel fails with ERR_READ_TIMEOUT").build()));
+		AtomicInteger expansions = new AtomicInteger();
+		HybridRetrievalService service = new HybridRetrievalService(vectorStore,
+				ChatClient.create(chatModel(Duration.ZERO, expansions)),
+				new HybridRetrievalProperties(true, HybridRetrievalProperties.ExpansionMode.AUTO, Duration.ofSeconds(2),
+						Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(3), 60, FIXED),
+				new FeatureReranker(new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1)));
+
+		List<Document> documents = service.hybridSearch("err_read_timeout");
+
+		assertThat(documents).extracting(Document::getId).first().isEqualTo("timeout");
+		assertThat(expansions).hasValue(0);
+		assertThat(service.stageStats()).containsKey("lexical_search").doesNotContainKey("expansion");
+	}
+
+	@Test
+	void retrieveReportsTheStagesOfItsOwnQuery() {
+		HybridRetrievalService service = new HybridRetrievalService(vectorStore(),
+				ChatClient.create(chatModel(Duration.ZERO, new AtomicInteger())),
+				new HybridRetrievalProperties(true, HybridRetrievalProperties.ExpansionMode.NEVER, Duration.ofSeconds(2),
+						Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(3), 60, FIXED),
+				new FeatureReranker(new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1)));
+
+		service.hybridSearch("chat memory window");
+		RetrievalResult retrieval = service.retrieve("vector store connection pool");
+
+		assertThat(retrieval.documents()).extracting(Document::getId).contains("pool");
+		assertThat(retrieval.stages()).containsKeys("raw_search", "lexical_search", "rerank", "total");
+		assertThat(retrieval.stages().get("total").count()).isEqualTo(1);
+		assertThat(service.stageStats().get("total").count()).isEqualTo(2);
+	}
+
+	@Test
+	void stagesAreObservedAndSearchesNestUnderTheirStage() throws InterruptedException {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		ObservationRegistry observationRegistry = ObservationRegistry.create();
+		observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+		Map<String, String> parents = new ConcurrentHashMap<>();
+		observationRegistry.observationConfig().observationHandler(new ObservationHandler<>() {
+
+			@Override
+			public void onStart(Observation.Context context) {
+				if (context.getParentObservation() != null) {
+					parents.put(context.getName(), context.getParentObservation().getContextView().getContextualName());
+				}
+			}
+
+			@Override
+			public boolean supportsContext(Observation.Context context) {
+				return true;
+			}
+		});
+		HnswVectorStore vectorStore = vectorStore(HnswVectorStore.builder(new HashingEmbeddingModel(64))
+				.observationRegistry(observationRegistry)
+				.meterRegistry(meterRegistry)
+				.build());
+		HybridRetrievalService service = new HybridRetrievalService(vectorStore,
+				ChatClient.create(chatModel(Duration.ZERO, new AtomicInteger())),
+				new HybridRetrievalProperties(true, HybridRetrievalProperties.ExpansionMode.NEVER, Duration.ofSeconds(2),
+						Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(3), 60, FIXED),
+				new FeatureReranker(new RerankProperties.Weights(1.0, 0.8, 0.5, 0.3, 0.1)),
+				new RagObservations(observationRegistry, meterRegistry));
+
+		service.hybridSearch("vector store connection pool");
+		// an async stage's observation is stopped on its worker, possibly just after the result was taken
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (meterRegistry.find(RagObservations.STAGE).tag("stage", "raw_search").timer() == null
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertThat(meterRegistry.get(RagObservations.STAGE).tag("stage", "raw_search").timer().count()).isEqualTo(1);
+		assertThat(meterRegistry.get(RagObservations.STAGE).tag("stage", "rerank").timer().count()).isEqualTo(1);
+		assertThat(parents).containsEntry("db.vector.client.operation", "rag raw search");
+		assertThat(meterRegistry.get("localchat.vectorstore.search.scanned").tag("plan", "graph").summary()
+				.totalAmount()).isPositive();
+		assertThat(meterRegistry.get("localchat.vectorstore.search.results").tag("threshold", "hit").summary()
+				.count()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,60 @@
+package com.example.ai.localchat.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class SimilarityThresholdTests {
+
+	private static List<Document> scored(double... scores) {
+		List<Document> documents = new ArrayList<>();
+		for (int i = 0; i < scores.length; i++) {
+			documents.add(Document.builder().id("d" + i).text("chunk " + i).score(scores[i]).build());
+		}
+		return documents;
+	}
+
+	private static SimilarityThreshold threshold(SimilarityThreshold.Mode mode) {
+		return new SimilarityThreshold(new HybridRetrievalProperties.Threshold(mode, 0.1, 1.0, 50, 500), 0.65);
+	}
+
+	@Test
+	void fixedThresholdKeepsDocumentsAtOrAboveIt() {
+		SimilarityThreshold threshold = threshold(SimilarityThreshold.Mode.FIXED);
+
+		assertThat(threshold.apply(scored(0.8, 0.65, 0.5))).extracting(Document::getId).containsExactly("d0", "d1");
+		assertThat(threshold.apply(scored(0.5, 0.45))).isEmpty();
+	}
+
+	@Test
+	void adaptiveThresholdKeepsTheBestMatchesOfALowScoringQuery() {
+		SimilarityThreshold threshold = threshold(SimilarityThreshold.Mode.ADAPTIVE);
+
+		// before warm-up: within the gap of the best score, or above the fixed threshold
+		assertThat(threshold.apply(scored(0.5, 0.45, 0.3))).extracting(Document::getId).containsExactly("d0", "d1");
+		assertThat(threshold.apply(scored(0.9, 0.7, 0.6))).extracting(Document::getId).containsExactly("d0", "d1");
+	}
+
+	@Test
+	void zScoreFollowsTheScoresOfEarlierSearches() {
+		SimilarityThreshold threshold = threshold(SimilarityThreshold.Mode.ADAPTIVE);
+		SplittableRandom random = new SplittableRandom(7);
+		for (int search = 0; search < 100; search++) {
+			threshold.apply(scored(random.doubles(20, 0.2, 0.4).toArray()));
+		}
+
+		SimilarityThreshold.ThresholdStats stats = threshold.stats();
+		assertThat(stats.samples()).isEqualTo(2000);
+		assertThat(stats.mean()).isCloseTo(0.3, within(0.02));
+		assertThat(stats.standardDeviation()).isCloseTo(0.2 / Math.sqrt(12), within(0.01));
+		// 0.9 leads by far more than the gap; 0.6 and 0.55 still stand out against the usual scores
+		assertThat(threshold.apply(scored(0.9, 0.6, 0.55, 0.32, 0.3))).extracting(Document::getId)
+				.containsExactly("d0", "d1", "d2");
+	}
+}
@@ -0,0 +1,432 @@
+package com.example.ai.localchat.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for Ollama on a loopback port, speaking the parts of its HTTP API that Spring AI's
+ * {@code OllamaApi} uses: {@code /api/chat} (NDJSON streaming or not), {@code /api/embed},
+ * {@code /api/tags} and {@code /api/show}. Embeddings come from {@link HashingEmbeddingModel}, so
+ * texts sharing words are similar and runs are reproducible. A chat answer is {@code responseTokens}
+ * words streamed {@code tokenInterval} apart after {@code firstTokenLatency}; with {@code errorRate}
+ * or {@link #failNext(int)} requests get a 500 instead. Settings may be changed while it runs.
+ * <p>
+ * Like Ollama it keeps the prompt each of its {@code slots} evaluated last and only prefills what
+ * follows the longest prefix a new prompt shares with one of them, at {@code prefillPerToken} on top
+ * of {@code firstTokenLatency}. A request for another model or {@code num_ctx} reloads the model,
+ * which drops every slot, as does a {@code keep_alive} of zero once the request is answered. Prompts
+ * are counted in tokens of four characters.
+ */
+public class FakeOllamaServer implements AutoCloseable {
+
+	private static final String[] WORDS = ("The retrieved context explains how the local pipeline answers this "
+			+ "question with hybrid search reranking and a packed prompt so the model can cite its sources").split(" ");
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final HashingEmbeddingModel embeddingModel;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "fake-ollama");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Random random = new Random(42);
+
+	private final AtomicInteger failNext = new AtomicInteger();
+
+	private final AtomicInteger chatRequests = new AtomicInteger();
+
+	private final AtomicInteger embedRequests = new AtomicInteger();
+
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private final AtomicInteger modelLoads = new AtomicInteger();
+
+	private final AtomicInteger abortedStreams = new AtomicInteger();
+
+	private final AtomicLong promptTokens = new AtomicLong();
+
+	private final AtomicLong prefilledTokens = new AtomicLong();
+
+	private final AtomicLong prefillNanos = new AtomicLong();
+
+	// the prompt each slot evaluated last, least recently used first; guarded by itself
+	private final LinkedList<String> slotPrompts = new LinkedList<>();
+
+	// model and num_ctx of the loaded model, guarded by slotPrompts
+	private String loadedModel;
+
+	private volatile Duration firstTokenLatency = Duration.ZERO;
+
+	private volatile Duration tokenInterval = Duration.ZERO;
+
+	private volatile int responseTokens = 32;
+
+	private volatile double errorRate;
+
+	private volatile int slots = 1;
+
+	private volatile Duration prefillPerToken = Duration.ZERO;
+
+	public FakeOllamaServer(int embeddingDimensions) throws IOException {
+		this.embeddingModel = new HashingEmbeddingModel(embeddingDimensions);
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+		this.server.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+		this.server.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+		this.server.createContext("/api/show", exchange -> handle(exchange, this::show));
+		this.server.setExecutor(executor);
+		this.server.start();
+	}
+
+	public String baseUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Time from the request to the first token, standing in for loading the prompt.
+	 */
+	public FakeOllamaServer firstTokenLatency(Duration firstTokenLatency) {
+		this.firstTokenLatency = firstTokenLatency;
+		return this;
+	}
+
+	/**
+	 * Time between tokens, the inverse of the generation speed.
+	 */
+	public FakeOllamaServer tokenInterval(Duration tokenInterval) {
+		this.tokenInterval = tokenInterval;
+		return this;
+	}
+
+	/**
+	 * Time to prefill each prompt token that isn't cached, the inverse of the prompt processing speed.
+	 */
+	public FakeOllamaServer prefillPerToken(Duration prefillPerToken) {
+		this.prefillPerToken = prefillPerToken;
+		return this;
+	}
+
+	/**
+	 * Number of prompts whose cache is kept, as with {@code OLLAMA_NUM_PARALLEL}.
+	 */
+	public FakeOllamaServer slots(int slots) {
+		this.slots = Math.max(1, slots);
+		return this;
+	}
+
+	public FakeOllamaServer responseTokens(int responseTokens) {
+		this.responseTokens = responseTokens;
+		return this;
+	}
+
+	/**
+	 * Fraction of chat and embedding requests answered with a 500, drawn from a seeded random.
+	 */
+	public FakeOllamaServer errorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/**
+	 * Answers the next {@code requests} chat or embedding requests with a 500.
+	 */
+	public FakeOllamaServer failNext(int requests) {
+		failNext.set(requests);
+		return this;
+	}
+
+	public int chatRequests() {
+		return chatRequests.get();
+	}
+
+	public int embedRequests() {
+		return embedRequests.get();
+	}
+
+	public int failures() {
+		return failures.get();
+	}
+
+	/**
+	 * Streamed chat responses the client hung up on before they were done.
+	 */
+	public int abortedStreams() {
+		return abortedStreams.get();
+	}
+
+	public int modelLoads() {
+		return modelLoads.get();
+	}
+
+	/**
+	 * Tokens of all chat prompts, cached or not.
+	 */
+	public long promptTokens() {
+		return promptTokens.get();
+	}
+
+	/**
+	 * Tokens of chat prompts that weren't cached and were prefilled.
+	 */
+	public long prefilledTokens() {
+		return prefilledTokens.get();
+	}
+
+	/**
+	 * Time spent prefilling, without {@code firstTokenLatency}.
+	 */
+	public Duration prefillTime() {
+		return Duration.ofNanos(prefillNanos.get());
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange, Handler handler) throws IOException {
+		try {
+			JsonNode request = "POST".equals(exchange.getRequestMethod())
+					? objectMapper.readTree(exchange.getRequestBody()) : objectMapper.createObjectNode();
+			handler.handle(exchange, request);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void chat(HttpExchange exchange, JsonNode request) throws IOException, InterruptedException {
+		chatRequests.incrementAndGet();
+		if (injectFailure(exchange)) {
+			return;
+		}
+		String model = request.path("model").asText();
+		boolean stream = request.path("stream").asBoolean(true);
+		StringBuilder prompt = new StringBuilder();
+		for (JsonNode message : request.path("messages")) {
+			prompt.append("<|").append(message.path("role").asText()).append("|>\n")
+					.append(message.path("content").asText()).append('\n');
+		}
+		int prefilled = prefill(model + "@" + request.path("options").path("num_ctx").asText(), prompt.toString());
+		Duration prefill = prefillPerToken.multipliedBy(prefilled);
+		prefillNanos.addAndGet(prefill.toNanos());
+		Duration promptEvaluation = firstTokenLatency.plus(prefill);
+		int tokens = responseTokens;
+		sleep(promptEvaluation);
+		if (!stream) {
+			StringBuilder content = new StringBuilder();
+			for (int i = 0; i < tokens; i++) {
+				sleep(i == 0 ? Duration.ZERO : tokenInterval);
+				content.append(i == 0 ? "" : " ").append(WORDS[i % WORDS.length]);
+			}
+			ObjectNode response = chatChunk(model, content.toString(), true);
+			addCounts(response, prefilled, promptEvaluation, tokens);
+			send(exchange, "application/json", objectMapper.writeValueAsBytes(response));
+			unloadIfNotKeptAlive(request);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			for (int i = 0; i < tokens; i++) {
+				sleep(i == 0 ? Duration.ZERO : tokenInterval);
+				writeLine(out, chatChunk(model, (i == 0 ? "" : " ") + WORDS[i % WORDS.length], false));
+			}
+			ObjectNode done = chatChunk(model, "", true);
+			addCounts(done, prefilled, promptEvaluation, tokens);
+			writeLine(out, done);
+		} catch (IOException e) {
+			abortedStreams.incrementAndGet();
+			return;
+		}
+		unloadIfNotKeptAlive(request);
+	}
+
+	// Continues the slot whose prompt shares the longest prefix when all of that prompt is shared.
+	// Otherwise, as with Ollama's multi-user cache, the shared prefix is copied to an empty or the least
+	// recently used slot, so the prompt it came from stays cached. Returns the tokens to prefill.
+	private int prefill(String model, String prompt) {
+		int cachedChars = 0;
+		synchronized (slotPrompts) {
+			if (!model.equals(loadedModel)) {
+				modelLoads.incrementAndGet();
+				slotPrompts.clear();
+				loadedModel = model;
+			}
+			String best = null;
+			for (String slotPrompt : slotPrompts) {
+				int shared = sharedPrefix(slotPrompt, prompt);
+				if (shared > cachedChars) {
+					best = slotPrompt;
+					cachedChars = shared;
+				}
+			}
+			if (best != null) {
+				slotPrompts.remove(best);
+				if (cachedChars < best.length()) {
+					slotPrompts.addLast(best);
+				}
+			}
+			while (slotPrompts.size() >= slots) {
+				slotPrompts.removeFirst();
+			}
+			slotPrompts.addLast(prompt);
+		}
+		int tokens = Math.max(1, prompt.length() / 4);
+		int prefilled = Math.max(1, tokens - cachedChars / 4);
+		promptTokens.addAndGet(tokens);
+		prefilledTokens.addAndGet(prefilled);
+		return prefilled;
+	}
+
+	private void unloadIfNotKeptAlive(JsonNode request) {
+		if (request.path("keep_alive").asText().matches("0[a-z]*")) {
+			synchronized (slotPrompts) {
+				slotPrompts.clear();
+				loadedModel = null;
+			}
+		}
+	}
+
+	private static int sharedPrefix(String a, String b) {
+		int length = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < length && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private void embed(HttpExchange exchange, JsonNode request) throws IOException {
+		embedRequests.incrementAndGet();
+		if (injectFailure(exchange)) {
+			return;
+		}
+		ObjectNode response = objectMapper.createObjectNode().put("model", request.path("model").asText());
+		ArrayNode embeddings = response.putArray("embeddings");
+		JsonNode input = request.path("input");
+		for (JsonNode text : input.isArray() ? input : objectMapper.createArrayNode().add(input)) {
+			float[] vector = normalized(embeddingModel.vector(text.asText()));
+			ArrayNode embedding = embeddings.addArray();
+			for (float value : vector) {
+				embedding.add(value);
+			}
+		}
+		response.put("prompt_eval_count", input.size());
+		send(exchange, "application/json", objectMapper.writeValueAsBytes(response));
+	}
+
+	private void tags(HttpExchange exchange, JsonNode request) throws IOException {
+		ObjectNode response = objectMapper.createObjectNode();
+		response.putArray("models");
+		send(exchange, "application/json", objectMapper.writeValueAsBytes(response));
+	}
+
+	private void show(HttpExchange exchange, JsonNode request) throws IOException {
+		send(exchange, "application/json", objectMapper.writeValueAsBytes(objectMapper.createObjectNode()));
+	}
+
+	private boolean injectFailure(HttpExchange exchange) throws IOException {
+		boolean fail = failNext.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0;
+		if (!fail && errorRate > 0) {
+			synchronized (random) {
+				fail = random.nextDouble() < errorRate;
+			}
+		}
+		if (fail) {
+			failures.incrementAndGet();
+			byte[] body = "{\"error\":\"injected failure\"}".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(500, body.length);
+			exchange.getResponseBody().write(body);
+		}
+		return fail;
+	}
+
+	private ObjectNode chatChunk(String model, String content, boolean done) {
+		ObjectNode chunk = objectMapper.createObjectNode()
+				.put("model", model)
+				.put("created_at", Instant.now().toString());
+		chunk.putObject("message").put("role", "assistant").put("content", content);
+		chunk.put("done", done);
+		if (done) {
+			chunk.put("done_reason", "stop");
+		}
+		return chunk;
+	}
+
+	// like Ollama's, the prompt count is of the tokens evaluated, without the cached ones
+	private void addCounts(ObjectNode response, int prefilled, Duration promptEvaluation, int tokens) {
+		long generationNanos = promptEvaluation.toNanos() + tokenInterval.toNanos() * Math.max(0, tokens - 1);
+		response.put("prompt_eval_count", prefilled)
+				.put("prompt_eval_duration", promptEvaluation.toNanos())
+				.put("eval_count", tokens)
+				.put("eval_duration", generationNanos - promptEvaluation.toNanos())
+				.put("load_duration", 0)
+				.put("total_duration", generationNanos);
+	}
+
+	private void writeLine(OutputStream out, ObjectNode line) throws IOException {
+		out.write(objectMapper.writeValueAsBytes(line));
+		out.write('\n');
+		out.flush();
+	}
+
+	private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static float[] normalized(float[] vector) {
+		double norm = 0;
+		for (float value : vector) {
+			norm += value * value;
+		}
+		if (norm > 0) {
+			float scale = (float) (1 / Math.sqrt(norm));
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] *= scale;
+			}
+		}
+		return vector;
+	}
+
+	private static void sleep(Duration duration) throws InterruptedException {
+		if (!duration.isZero()) {
+			TimeUnit.NANOSECONDS.sleep(duration.toNanos());
+		}
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange exchange, JsonNode request) throws IOException, InterruptedException;
+	}
+}
@@ -0,0 +1,124 @@
+package com.example.ai.localchat.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FakeOllamaServerTests {
+
+	private final FakeOllamaServer ollama = new FakeOllamaServer(32).responseTokens(5);
+
+	private final OllamaApi ollamaApi = OllamaApi.builder().baseUrl(ollama.baseUrl()).build();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	FakeOllamaServerTests() throws IOException {
+	}
+
+	@AfterEach
+	void close() {
+		ollama.close();
+	}
+
+	@Test
+	void answersSpringAiChatCallsAndStreamsTokenByToken() {
+		OllamaChatModel chatModel = OllamaChatModel.builder().ollamaApi(ollamaApi).build();
+		ollama.firstTokenLatency(Duration.ofMillis(20)).tokenInterval(Duration.ofMillis(10));
+
+		String answer = chatModel.call("What does the vector store keep?");
+		List<String> tokens = chatModel.stream("What does the vector store keep?")
+				.filter(token -> !token.isEmpty())
+				.collectList()
+				.block();
+
+		assertThat(answer.split(" ")).hasSize(5);
+		assertThat(tokens).hasSize(5);
+		assertThat(String.join("", tokens)).isEqualTo(answer);
+		assertThat(ollama.chatRequests()).isEqualTo(2);
+	}
+
+	@Test
+	void embeddingsAreDeterministicAndSimilarForSharedWords() {
+		OllamaEmbeddingModel embeddingModel = OllamaEmbeddingModel.builder().ollamaApi(ollamaApi).build();
+
+		float[] graph = embeddingModel.embed("the HNSW graph links vectors");
+		float[] again = embeddingModel.embed("the HNSW graph links vectors");
+		float[] similar = embeddingModel.embed("HNSW graph neighbours");
+		float[] unrelated = embeddingModel.embed("chat memory journal");
+
+		assertThat(graph).hasSize(32).containsExactly(again);
+		assertThat(dot(graph, similar)).isGreaterThan(dot(graph, unrelated));
+	}
+
+	@Test
+	void injectedFailuresAreAnsweredWithServerErrors() throws Exception {
+		HttpClient client = HttpClient.newHttpClient();
+		HttpRequest request = HttpRequest.newBuilder(URI.create(ollama.baseUrl() + "/api/chat"))
+				.POST(HttpRequest.BodyPublishers.ofString(
+						"{\"model\":\"m\",\"stream\":false,\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}"))
+				.build();
+
+		ollama.failNext(2);
+		List<Integer> statuses = List.of(
+				client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode(),
+				client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode(),
+				client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+
+		assertThat(statuses).containsExactly(500, 500, 200);
+		assertThat(ollama.failures()).isEqualTo(2);
+	}
+
+	@Test
+	void onlyPrefillsWhatFollowsTheLongestCachedPrefix() throws Exception {
+		ollama.slots(2);
+		String instructions = "Answer from the context. ".repeat(40);
+
+		int first = promptEvalCount(instructions, "the first question", 4096);
+		int sameInstructions = promptEvalCount(instructions, "the second question", 4096);
+		int otherInstructions = promptEvalCount("Rank the documents. ".repeat(40), "the query", 4096);
+		int firstSlotAgain = promptEvalCount(instructions, "the third question", 4096);
+		int otherNumCtx = promptEvalCount(instructions, "the third question", 8192);
+
+		assertThat(first).isGreaterThan(240);
+		assertThat(sameInstructions).isLessThan(10);
+		assertThat(otherInstructions).isGreaterThan(200);
+		assertThat(firstSlotAgain).isLessThan(10);
+		assertThat(otherNumCtx).isEqualTo(first);
+		assertThat(ollama.modelLoads()).isEqualTo(2);
+		assertThat(ollama.promptTokens() - ollama.prefilledTokens()).isPositive();
+	}
+
+	private int promptEvalCount(String system, String user, int numCtx) throws Exception {
+		String body = objectMapper.writeValueAsString(Map.of("model", "m", "stream", false,
+				"options", Map.of("num_ctx", numCtx),
+				"messages", List.of(Map.of("role", "system", "content", system),
+						Map.of("role", "user", "content", user))));
+		HttpRequest request = HttpRequest.newBuilder(URI.create(ollama.baseUrl() + "/api/chat"))
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+		String response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+		return objectMapper.readTree(response).path("prompt_eval_count").asInt();
+	}
+
+	private static double dot(float[] a, float[] b) {
+		double dot = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+		}
+		return dot;
+	}
+}
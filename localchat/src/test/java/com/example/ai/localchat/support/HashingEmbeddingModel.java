@@ -0,0 +1,68 @@
+package com.example.ai.localchat.support;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deterministic bag-of-words embedding: every lower-cased word is hashed into one of
+ * {@code dimensions} buckets, so texts sharing words are similar. Counts calls for assertions.
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+	private final int dimensions;
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private final AtomicInteger embeddedTexts = new AtomicInteger();
+
+	public HashingEmbeddingModel(int dimensions) {
+		this.dimensions = dimensions;
+	}
+
+	@Override
+	public EmbeddingResponse call(EmbeddingRequest request) {
+		calls.incrementAndGet();
+		List<Embedding> embeddings = new ArrayList<>();
+		for (String text : request.getInstructions()) {
+			embeddedTexts.incrementAndGet();
+			embeddings.add(new Embedding(vector(text), embeddings.size()));
+		}
+		return new EmbeddingResponse(embeddings);
+	}
+
+	@Override
+	public float[] embed(Document document) {
+		return embed(document.getFormattedContent(MetadataMode.EMBED));
+	}
+
+	@Override
+	public int dimensions() {
+		return dimensions;
+	}
+
+	public int calls() {
+		return calls.get();
+	}
+
+	public int embeddedTexts() {
+		return embeddedTexts.get();
+	}
+
+	public float[] vector(String text) {
+		float[] vector = new float[dimensions];
+		for (String word : text.toLowerCase().split("\\W+")) {
+			if (!word.isEmpty()) {
+				vector[Math.floorMod(word.hashCode(), dimensions)] += 1f;
+			}
+		}
+		return vector;
+	}
+}
@@ -0,0 +1,88 @@
+package com.example.ai.localchat.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTests {
+
+	private static HnswIndex randomIndex(int count, int dimensions) {
+		Random random = new Random(1);
+		HnswIndex index = new HnswIndex(16, 100);
+		for (int i = 0; i < count; i++) {
+			float[] vector = new float[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				vector[d] = (float) random.nextGaussian();
+			}
+			index.add(HnswIndex.normalize(vector));
+		}
+		return index;
+	}
+
+	@Test
+	void approximateSearchHasHighRecall() {
+		HnswIndex index = randomIndex(3000, 32);
+
+		HnswRecallEvaluator.RecallReport report = HnswRecallEvaluator.evaluate(index, 10, 100, new int[]{64});
+
+		assertThat(report.rows()).singleElement()
+				.satisfies(row -> assertThat(row.recall()).isGreaterThan(0.9));
+	}
+
+	@Test
+	void deletedNodesAreNeverReturned() {
+		HnswIndex index = randomIndex(500, 16);
+		float[] query = index.vector(42);
+		index.markDeleted(42);
+
+		int[] nodes = index.search(query, 10, 64, null).nodes();
+
+		assertThat(nodes).hasSize(10).doesNotContain(42);
+		assertThat(index.liveCount()).isEqualTo(499);
+	}
+
+	@Test
+	void filterRestrictsResults() {
+		HnswIndex index = randomIndex(500, 16);
+
+		HnswIndex.SearchResult result = index.search(index.vector(3), 5, 64, node -> node % 2 == 1);
+
+		assertThat(result.nodes()).hasSize(5);
+		assertThat(Arrays.stream(result.nodes())).allMatch(node -> node % 2 == 1);
+		float[] scores = result.scores();
+		float[] sorted = scores.clone();
+		Arrays.sort(sorted);
+		assertThat(scores[0]).isEqualTo(sorted[sorted.length - 1]);
+	}
+
+	@Test
+	void copyCanChangeWhileTheOriginalKeepsItsGraph() {
+		HnswIndex index = randomIndex(500, 16);
+		int[][][] links = new int[500][][];
+		for (int node = 0; node < 500; node++) {
+			links[node] = Arrays.stream(index.links(node)).map(int[]::clone).toArray(int[][]::new);
+		}
+		float[] query = index.vector(7);
+		int[] before = index.search(query, 10, 64, null).nodes();
+
+		HnswIndex copy = index.copy();
+		HnswIndex added = randomIndex(800, 16);
+		for (int node = 500; node < 800; node++) {
+			copy.add(added.vector(node));
+		}
+		copy.markDeleted(7);
+
+		assertThat(index.size()).isEqualTo(500);
+		assertThat(index.isDeleted(7)).isFalse();
+		for (int node = 0; node < 500; node++) {
+			assertThat(index.links(node)).isDeepEqualTo(links[node]);
+		}
+		assertThat(index.search(query, 10, 64, null).nodes()).containsExactly(before);
+		assertThat(copy.size()).isEqualTo(800);
+		assertThat(copy.search(added.vector(650), 1, 64, null).nodes()).containsExactly(650);
+		assertThat(copy.search(query, 10, 64, null).nodes()).doesNotContain(7);
+	}
+}
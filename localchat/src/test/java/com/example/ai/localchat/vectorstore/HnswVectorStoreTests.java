@@ -0,0 +1,122 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.example.ai.localchat.lexical.Bm25Index;
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswVectorStoreTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(256);
+
+	private static List<Document> documents(int from, int to) {
+		List<Document> documents = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			documents.add(Document.builder()
+					.id("doc-" + i)
+					.text("chunk " + i + " mentions term" + i)
+					.metadata(Map.of("source", "file-" + (i % 5) + ".md"))
+					.build());
+		}
+		return documents;
+	}
+
+	@Test
+	void saveCompactsOnceMostOrdinalsAreDeleted() throws Exception {
+		Path file = tempDir.resolve("vectorstore.bin");
+		HnswVectorStore store = HnswVectorStore.builder(embeddingModel)
+				.quantization(VectorQuantization.INT8)
+				.compactionThreshold(0.5)
+				.build();
+		store.add(documents(0, 100));
+		store.save(file);
+		store.load(file);
+		// deletes half of the mapped chunks and replaces ten more, leaving 60 of 110 ordinals deleted
+		store.delete(IntStream.range(0, 50).mapToObj(i -> "doc-" + i).toList());
+		store.add(documents(90, 100));
+		store.save(file);
+
+		try (VectorStoreFile saved = VectorStoreFile.open(file, new ObjectMapper())) {
+			assertThat(saved.size()).isEqualTo(50);
+			assertThat(saved.id(0)).isEqualTo("doc-50");
+		}
+		assertThat(Bm25Index.read(HnswVectorStore.lexicalIndexPath(file)).docCount()).isEqualTo(50);
+		assertThat(MetadataIndex.read(HnswVectorStore.metadataIndexPath(file)).docCount()).isEqualTo(50);
+		assertThat(QuantizedCodesFile.read(HnswVectorStore.quantizedCodesPath(file)).count()).isEqualTo(50);
+
+		assertThat(store.mappedCount()).isEqualTo(50);
+		for (HnswVectorStore searched : List.of(store, reloaded(file))) {
+			assertThat(searched.size()).isEqualTo(50);
+			assertThat(searched.similaritySearch(SearchRequest.builder().query("chunk 77").topK(1).build(),
+					embeddingModel.embed(documents(77, 78).get(0)))).extracting(Document::getId).containsExactly("doc-77");
+			assertThat(searched.lexicalSearch("term93", 1, null)).extracting(Document::getId).containsExactly("doc-93");
+			assertThat(searched.similaritySearch(SearchRequest.builder().query("chunk 60").topK(20)
+					.filterExpression(new FilterExpressionTextParser().parse("source == 'file-0.md'")).build()))
+				.extracting(Document::getId)
+				.containsExactlyInAnyOrderElementsOf(IntStream.range(50, 100).filter(i -> i % 5 == 0)
+					.mapToObj(i -> "doc-" + i).toList());
+			assertThat(searched.contains("doc-10")).isFalse();
+		}
+	}
+
+	@Test
+	void saveKeepsOrdinalsBelowTheThreshold() throws Exception {
+		Path file = tempDir.resolve("vectorstore.bin");
+		HnswVectorStore store = HnswVectorStore.builder(embeddingModel).build();
+		store.add(documents(0, 100));
+		store.delete(List.of("doc-0", "doc-1"));
+		store.save(file);
+
+		try (VectorStoreFile saved = VectorStoreFile.open(file, new ObjectMapper())) {
+			assertThat(saved.size()).isEqualTo(100);
+			assertThat(saved.id(0)).isNull();
+		}
+	}
+
+	@Test
+	void searchesSeeAnUpdateOnlyOnceItIsApplied() {
+		HnswVectorStore store = HnswVectorStore.builder(embeddingModel).build();
+		store.add(documents(0, 50));
+		HnswVectorStore.Update update = store.update();
+		update.addEmbedded(documents(50, 100), documents(50, 100).stream().map(Document::getText)
+				.map(embeddingModel::embed).toList());
+		update.delete(List.of("doc-0"));
+
+		assertThat(store.size()).isEqualTo(50);
+		assertThat(store.contains("doc-0")).isTrue();
+		assertThat(store.contains("doc-77")).isFalse();
+
+		// changes the store after the update linked its additions into a copy of the graph
+		store.add(documents(100, 110));
+		store.apply(update);
+
+		assertThat(store.size()).isEqualTo(109);
+		assertThat(store.contains("doc-0")).isFalse();
+		for (int i : new int[]{1, 77}) {
+			assertThat(store.similaritySearch(SearchRequest.builder().query(documents(i, i + 1).get(0).getText()).topK(1)
+					.build())).extracting(Document::getId).containsExactly("doc-" + i);
+		}
+		assertThat(store.lexicalSearch("term105", 1, null)).extracting(Document::getId).containsExactly("doc-105");
+	}
+
+	private HnswVectorStore reloaded(Path file) {
+		HnswVectorStore store = HnswVectorStore.builder(embeddingModel).quantization(VectorQuantization.INT8).build();
+		store.load(file);
+		return store;
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.example.ai.localchat.support.HashingEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetadataIndexTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final FilterExpressionTextParser parser = new FilterExpressionTextParser();
+
+	private static Map<String, Object> metadata(int i) {
+		return Map.of("has_code", i % 3 == 0, "complexity_score", i / 10.0, "source", "file-" + (i % 7) + ".md",
+				"technical_terms", Map.of("HnswIndex", 1));
+	}
+
+	private static List<Document> documents(int count) {
+		List<Document> documents = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			documents.add(Document.builder()
+					.id("doc-" + i)
+					.text("chunk " + i + " about " + (i % 2 == 0 ? "vector search" : "chat memory"))
+					.metadata(metadata(i))
+					.build());
+		}
+		return documents;
+	}
+
+	private static BitSet expected(int count, IntPredicate predicate) {
+		BitSet bits = new BitSet();
+		for (int i = 0; i < count; i++) {
+			if (predicate.test(i)) {
+				bits.set(i);
+			}
+		}
+		return bits;
+	}
+
+	@Test
+	void compiledFiltersMatchTheChunksTheyDescribe() {
+		MetadataIndex index = new MetadataIndex(MetadataIndex.DEFAULT_KEYS);
+		for (int i = 0; i < 100; i++) {
+			index.add(i, metadata(i));
+		}
+		index.remove(9, metadata(9));
+
+		assertThat(index.matching(parser.parse("has_code == true")))
+				.isEqualTo(expected(100, i -> i % 3 == 0 && i != 9));
+		assertThat(index.matching(parser.parse("has_code == true && complexity_score >= 5")))
+				.isEqualTo(expected(100, i -> i % 3 == 0 && i >= 50));
+		assertThat(index.matching(parser.parse("source in ['file-1.md', 'file-2.md'] || complexity_score < 1")))
+				.isEqualTo(expected(100, i -> (i % 7 == 1 || i % 7 == 2 || i < 10) && i != 9));
+		assertThat(index.matching(parser.parse("NOT (source == 'file-0.md')")))
+				.isEqualTo(expected(100, i -> i % 7 != 0));
+		assertThat(index.matching(parser.parse("complexity_score == 4"))).isEqualTo(expected(100, i -> i == 40));
+		// technical_terms is a map and not indexed, so the store evaluates it per chunk
+		assertThat(index.matching(parser.parse("has_code == true && technical_terms == 'x'"))).isNull();
+	}
+
+	@Test
+	void filteredSearchOnlyReturnsMatchingChunks() {
+		HnswVectorStore store = HnswVectorStore.builder(new HashingEmbeddingModel(64)).m(4).efSearch(5).build();
+		store.add(documents(400));
+
+		// selective: answered by scoring the six matches directly
+		List<Document> selective = store.similaritySearch(SearchRequest.builder()
+				.query("vector search")
+				.topK(10)
+				.filterExpression("source == 'file-3.md' && complexity_score < 4")
+				.build());
+		assertThat(selective).extracting(Document::getId)
+				.containsExactlyInAnyOrder("doc-3", "doc-10", "doc-17", "doc-24", "doc-31", "doc-38");
+
+		// broad: 134 matches are too many to score directly, so the graph search only keeps matches
+		List<Document> broad = store.similaritySearch(SearchRequest.builder()
+				.query("vector search")
+				.topK(5)
+				.filterExpression("has_code == true")
+				.build());
+		assertThat(broad).hasSize(5).allSatisfy(document -> assertThat(document.getMetadata().get("has_code"))
+				.isEqualTo(true));
+
+		List<Document> lexical = store.lexicalSearch("memory", 50, parser.parse("has_code == true"));
+		assertThat(lexical).isNotEmpty().allSatisfy(document -> assertThat(document.getMetadata().get("has_code"))
+				.isEqualTo(true));
+	}
+
+	@Test
+	void indexIsPersistedAndRebuiltWhenMissing() throws Exception {
+		HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(64);
+		HnswVectorStore store = HnswVectorStore.builder(embeddingModel).build();
+		store.add(documents(50));
+		store.delete(List.of("doc-0"));
+		Path file = tempDir.resolve("vectorstore.bin");
+		store.save(file);
+		Filter.Expression filter = parser.parse("has_code == true && complexity_score <= 1");
+		SearchRequest request = SearchRequest.builder().query("vector search").topK(10).filterExpression(filter)
+				.build();
+
+		HnswVectorStore loaded = HnswVectorStore.builder(embeddingModel).build();
+		loaded.load(file);
+		assertThat(Files.exists(HnswVectorStore.metadataIndexPath(file))).isTrue();
+		assertThat(loaded.similaritySearch(request)).extracting(Document::getId)
+				.containsExactlyInAnyOrder("doc-3", "doc-6", "doc-9");
+
+		Files.delete(HnswVectorStore.metadataIndexPath(file));
+		HnswVectorStore rebuilt = HnswVectorStore.builder(embeddingModel).build();
+		rebuilt.load(file);
+		assertThat(rebuilt.similaritySearch(request)).extracting(Document::getId)
+				.containsExactlyInAnyOrder("doc-3", "doc-6", "doc-9");
+	}
+}
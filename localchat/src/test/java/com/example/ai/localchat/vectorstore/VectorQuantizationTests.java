@@ -0,0 +1,66 @@
+package com.example.ai.localchat.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorQuantizationTests {
+
+	@TempDir
+	Path tempDir;
+
+	private static HnswIndex randomIndex(int count, int dimensions) {
+		Random random = new Random(2);
+		HnswIndex index = new HnswIndex(16, 100);
+		for (int i = 0; i < count; i++) {
+			float[] vector = new float[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				vector[d] = (float) random.nextGaussian();
+			}
+			index.add(HnswIndex.normalize(vector));
+		}
+		return index;
+	}
+
+	@Test
+	void rescoringRecoversTheRecallLostToQuantization() {
+		HnswIndex index = randomIndex(3000, 32);
+
+		HnswRecallEvaluator.QuantizationReport report = HnswRecallEvaluator.evaluateQuantization(index, 10, 100, 64,
+				4, 4);
+
+		assertThat(report.rows()).extracting(HnswRecallEvaluator.QuantizationReport.Row::quantization)
+				.containsExactly(VectorQuantization.NONE, VectorQuantization.INT8, VectorQuantization.PQ);
+		assertThat(report.rows().get(1).compressionRatio()).isEqualTo(4.0);
+		assertThat(report.rows().get(2).compressionRatio()).isEqualTo(16.0);
+		for (HnswRecallEvaluator.QuantizationReport.Row row : report.rows()) {
+			assertThat(row.rescoredRecall()).as("%s", row.quantization()).isGreaterThan(0.9);
+			assertThat(row.rescoredRecall()).isGreaterThanOrEqualTo(row.recall());
+		}
+	}
+
+	@Test
+	void codesRoundTripAndLaterAdditionsAreEncoded() throws Exception {
+		HnswIndex index = randomIndex(500, 16);
+		VectorQuantizer quantizer = VectorQuantizer.train(VectorQuantization.PQ,
+				VectorQuantizer.trainingSample(index, VectorQuantizer.TRAINING_SAMPLE), 4);
+		index.quantize(quantizer, 4);
+		int added = index.add(index.vector(5));
+		Path file = tempDir.resolve("vectorstore.bin.codes");
+
+		QuantizedCodesFile.write(file, index.quantizer(), index.codes(), index.size());
+		QuantizedCodesFile.Codes read = QuantizedCodesFile.read(file);
+
+		assertThat(read.count()).isEqualTo(501);
+		assertThat(read.quantizer().kind()).isEqualTo(VectorQuantization.PQ);
+		assertThat(read.codes()).isEqualTo(Arrays.copyOf(index.codes(), 501 * quantizer.codeSize()));
+		assertThat(Arrays.copyOfRange(read.codes(), added * 4, added * 4 + 4))
+				.isEqualTo(Arrays.copyOfRange(read.codes(), 5 * 4, 5 * 4 + 4));
+		assertThat(index.search(index.vector(5), 2, 64, null).nodes()).contains(added, 5);
+	}
+}
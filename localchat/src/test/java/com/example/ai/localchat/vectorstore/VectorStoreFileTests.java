@@ -0,0 +1,80 @@
+package com.example.ai.localchat.vectorstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class VectorStoreFileTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	void roundTripsGraphVectorsAndChunks() throws Exception {
+		Random random = new Random(3);
+		HnswIndex index = new HnswIndex(8, 64);
+		List<StoredChunk> chunks = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			float[] vector = new float[24];
+			for (int d = 0; d < vector.length; d++) {
+				vector[d] = (float) random.nextGaussian();
+			}
+			index.add(HnswIndex.normalize(vector));
+			chunks.add(new StoredChunk("doc-" + i, "text " + i, Map.of("has_code", i % 2 == 0)));
+		}
+		index.markDeleted(7);
+		Path file = tempDir.resolve("vectorstore.bin");
+
+		VectorStoreFile.write(file, index, chunks::get, VectorEncoding.FLOAT32, objectMapper);
+
+		try (VectorStoreFile loaded = VectorStoreFile.open(file, objectMapper)) {
+			HnswIndex restored = loaded.index();
+			float[] query = index.vector(11);
+			assertThat(restored.search(query, 10, 64, null).nodes())
+					.containsExactly(index.search(query, 10, 64, null).nodes());
+			assertThat(restored.isDeleted(7)).isTrue();
+			assertThat(loaded.id(7)).isNull();
+			assertThat(loaded.chunk(42)).isEqualTo(chunks.get(42));
+
+			int added = restored.add(index.vector(5));
+			assertThat(restored.search(index.vector(5), 2, 64, null).nodes()).contains(added, 5);
+		}
+	}
+
+	@Test
+	void float16EncodingKeepsNeighbourhoods() throws Exception {
+		Random random = new Random(5);
+		HnswIndex index = new HnswIndex(8, 64);
+		for (int i = 0; i < 200; i++) {
+			float[] vector = new float[32];
+			for (int d = 0; d < vector.length; d++) {
+				vector[d] = (float) random.nextGaussian();
+			}
+			index.add(HnswIndex.normalize(vector));
+		}
+		Path file = tempDir.resolve("vectorstore-f16.bin");
+
+		VectorStoreFile.write(file, index, node -> new StoredChunk("id-" + node, "", Map.of()),
+				VectorEncoding.FLOAT16, objectMapper);
+
+		try (VectorStoreFile loaded = VectorStoreFile.open(file, objectMapper)) {
+			float[] original = index.vector(9);
+			float[] decoded = loaded.index().vector(9);
+			for (int d = 0; d < original.length; d++) {
+				assertThat(decoded[d]).isCloseTo(original[d], offset(1e-3f));
+			}
+			assertThat(loaded.index().search(original, 1, 32, null).nodes()).containsExactly(9);
+		}
+	}
+}